@@ -0,0 +1,464 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tika.main;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Batch watchdog run by {@link Main} straight from the launcher's classpath,
+ * so that only the child processes start the framework and the parser
+ * bundles.  The user's arguments are passed on to the child as given,
+ * apart from <code>-J</code> jvm options and <code>-maxRestarts</code>;
+ * the child translates them into batch options itself.
+ * <p>
+ * Exit codes follow tika-batch's BatchProcessDriverCLI: 0 and
+ * {@value #NO_RESTART_EXIT_CODE} end the run, anything else restarts the
+ * child, up to <code>-maxRestarts</code> times (-1, the default, for no
+ * limit).  As there, a child that prints {@value #MUST_RESTART} but then
+ * doesn't exit within <code>mustRestartWaitMillis</code> is killed and
+ * restarted.  With <code>-standby</code>, a second child is kept booted and
+ * waiting as with the command bundle's StandbyBatchDriver, whose handshake
+ * this uses.  <code>-jmx</code> registers a {@link BatchWatchdogMXBean}.
+ * <p>
+ * A shutdown hook kills the children when the watchdog is stopped.  The
+ * launcher has no logging framework, so the watchdog reports through
+ * java.util.logging.
+ */
+public class BatchWatchdog implements BatchWatchdogMXBean {
+
+    static final int RESTART_EXIT_CODE = 253;
+    static final int NO_RESTART_EXIT_CODE = 254;
+
+    //must match tika-batch's BatchProcess.BATCH_CONSTANTS
+    static final String MUST_RESTART = "BATCH_PROCESS_FATAL_MUST_RESTART";
+    static final long DEFAULT_MUST_RESTART_WAIT_MILLIS = 60000;
+
+    //must match org.apache.tika.cli.process.StandbyBatchDriver
+    static final String STANDBY_PROP = "org.apache.tika.batch.standby";
+    static final String READY = "TIKA_BATCH_STANDBY_READY";
+    static final String GO = "GO";
+
+    private static final Pattern JVM_OPTS_PATTERN = Pattern.compile("^(--?)J(.+)");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Logger LOG = Logger.getLogger(BatchWatchdog.class.getName());
+    private static final long POLL_MILLIS = 100;
+
+    private final List<String> command;
+    private final List<String> standbyCommand;
+    private final int maxRestarts;
+    private final boolean useStandby;
+    private final boolean useJmx;
+    private final long startMillis = System.currentTimeMillis();
+    private volatile int restarts = 0;
+    private volatile long lastRestartMillis = -1;
+    private volatile String lastRestartReason;
+    private volatile boolean childRunning = false;
+    private long mustRestartWaitMillis = DEFAULT_MUST_RESTART_WAIT_MILLIS;
+    //the children the shutdown hook kills
+    private Child active;
+    private Child standby;
+    private boolean shuttingDown = false;
+
+    /**
+     * Same test as TikaCLI's: two directories, or an input directory option.
+     * Help, fork and the batch child itself are left to the framework.
+     */
+    public static boolean isBatch(String[] args) {
+        for (String s : args) {
+            if (s.equals(Main.BATCH_MODE_SWITCH) || s.equals("-?") || s.equals("--help") ||
+                    s.equals("-f") || s.equals("--fork")) {
+                return false;
+            }
+        }
+        if (args.length == 2 && !args[0].startsWith("-") && !args[1].startsWith("-")) {
+            if (new File(args[0]).isDirectory() && !new File(args[1]).isFile()) {
+                return true;
+            }
+        }
+        for (String s : args) {
+            if (s.equals("-inputDir") || s.equals("--inputDir") || s.equals("-i")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public BatchWatchdog(String[] args) {
+        List<String> jvmOpts = new ArrayList<String>();
+        List<String> processArgs = new ArrayList<String>();
+        int max = -1;
+        boolean standby = false;
+        boolean jmx = false;
+        Matcher matcher = JVM_OPTS_PATTERN.matcher("");
+        for (int i = 0; i < args.length; i++) {
+            if (matcher.reset(args[i]).find()) {
+                //as BatchCommandLineBuilder: a following non-option is the value
+                jvmOpts.add(matcher.group(1) + matcher.group(2));
+                if (i < args.length - 1 && !args[i + 1].startsWith("-")) {
+                    jvmOpts.add(args[++i]);
+                }
+            } else if (args[i].equals("-maxRestarts") && i < args.length - 1) {
+                max = parseInt("-maxRestarts", args[++i], -1);
+            } else {
+                if (args[i].equals("-standby")) {
+                    standby = true;
+                } else if (args[i].equals("-jmx")) {
+                    jmx = true;
+                }
+                processArgs.add(args[i]);
+            }
+        }
+        this.maxRestarts = max;
+        this.useStandby = standby;
+        this.useJmx = jmx;
+
+        List<String> cmd = new ArrayList<String>();
+        cmd.add("java");
+        if (!jvmOpts.contains("-cp") && !jvmOpts.contains("--classpath")) {
+            cmd.add("-cp");
+            cmd.add(System.getProperty("java.class.path"));
+        }
+        boolean hasLog4j = false;
+        for (String opt : jvmOpts) {
+            if (opt.startsWith("-Dlog4j.configuration=")) {
+                hasLog4j = true;
+            }
+        }
+        if (!hasLog4j) {
+            cmd.add("-Dlog4j.configuration=log4j_batch_process.properties");
+        }
+        cmd.addAll(jvmOpts);
+        cmd.add(Main.class.getName());
+        cmd.add(Main.BATCH_MODE_SWITCH);
+        cmd.addAll(processArgs);
+        this.command = cmd;
+        this.standbyCommand = standbyCommand(cmd);
+    }
+
+    /**
+     * @param command the child's command line, starting with the java executable
+     */
+    BatchWatchdog(List<String> command, int maxRestarts, boolean useStandby) {
+        this.command = command;
+        this.standbyCommand = standbyCommand(command);
+        this.maxRestarts = maxRestarts;
+        this.useStandby = useStandby;
+        this.useJmx = false;
+    }
+
+    private static List<String> standbyCommand(List<String> command) {
+        List<String> cmd = new ArrayList<String>(command);
+        //the first element is the java executable
+        cmd.add(1, "-D" + STANDBY_PROP + "=true");
+        return cmd;
+    }
+
+    /**
+     * As the command bundle's Activator parses its int properties
+     */
+    private static int parseInt(String name, String value, int defaultValue) {
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.warning("Couldn't parse " + name + "=" + value + "; using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param mustRestartWaitMillis how long a child that printed
+     *                              {@value #MUST_RESTART} has to exit before it's killed
+     */
+    void setMustRestartWaitMillis(long mustRestartWaitMillis) {
+        this.mustRestartWaitMillis = mustRestartWaitMillis;
+    }
+
+    /**
+     * @return the last child's exit code
+     */
+    public int execute() throws IOException, InterruptedException {
+        ObjectName name = null;
+        if (useJmx) {
+            name = register();
+        }
+        Thread hook = new Thread(new Runnable() {
+            public void run() {
+                destroyChildren();
+            }
+        }, "batch-watchdog-shutdown");
+        Runtime.getRuntime().addShutdownHook(hook);
+        try {
+            setActive(start(command, false));
+            if (useStandby) {
+                setStandby(start(standbyCommand, true));
+            }
+            childRunning = true;
+            while (true) {
+                int exit = waitFor(active);
+                if (isShuttingDown()) {
+                    return exit;
+                }
+                if (exit == 0 || exit == NO_RESTART_EXIT_CODE) {
+                    LOG.info("Child process exited with " + exit);
+                    return exit;
+                }
+                if (maxRestarts > -1 && restarts >= maxRestarts) {
+                    LOG.warning("Child process exited with " + exit + "; hit maxRestarts (" + maxRestarts + ")");
+                    return exit;
+                }
+                synchronized (this) {
+                    restarts++;
+                    lastRestartMillis = System.currentTimeMillis();
+                    lastRestartReason = "exit code " + exit;
+                }
+                long started = System.currentTimeMillis();
+                if (standby != null) {
+                    setActive(claim(standby));
+                    setStandby(start(standbyCommand, true));
+                } else {
+                    setActive(start(command, false));
+                }
+                LOG.warning("Child process exited with " + exit + "; restart " + restarts +
+                        " took " + (System.currentTimeMillis() - started) + "ms");
+            }
+        } finally {
+            childRunning = false;
+            destroyChildren();
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException e) {
+                //already shutting down
+            }
+            if (name != null) {
+                unregister(name);
+            }
+        }
+    }
+
+    /**
+     * Waits for the child to exit, killing it if it printed
+     * {@value #MUST_RESTART} and didn't exit in time.
+     *
+     * @return the child's exit code, {@value #RESTART_EXIT_CODE} if it was killed
+     */
+    private int waitFor(Child child) throws InterruptedException {
+        while (isAlive(child.process)) {
+            long mustRestart = child.mustRestartMillis;
+            if (mustRestart > -1 && System.currentTimeMillis() - mustRestart > mustRestartWaitMillis) {
+                LOG.warning("Child process didn't exit " + mustRestartWaitMillis +
+                        "ms after it asked to be restarted; killing it");
+                child.process.destroy();
+                child.process.waitFor();
+                child.finish();
+                return RESTART_EXIT_CODE;
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+        child.finish();
+        return child.process.exitValue();
+    }
+
+    private synchronized void setActive(Child child) {
+        active = child;
+        if (shuttingDown) {
+            child.process.destroy();
+        }
+    }
+
+    private synchronized void setStandby(Child child) {
+        standby = child;
+        if (shuttingDown) {
+            child.process.destroy();
+        }
+    }
+
+    private synchronized boolean isShuttingDown() {
+        return shuttingDown;
+    }
+
+    /**
+     * Kills both children, and any started after this
+     */
+    private synchronized void destroyChildren() {
+        shuttingDown = true;
+        if (active != null) {
+            active.process.destroy();
+        }
+        if (standby != null) {
+            standby.process.destroy();
+        }
+    }
+
+    @Override
+    public int getRestarts() {
+        return restarts;
+    }
+
+    @Override
+    public long getLastRestartMillis() {
+        return lastRestartMillis;
+    }
+
+    @Override
+    public String getLastRestartReason() {
+        return lastRestartReason;
+    }
+
+    @Override
+    public long getUptimeMillis() {
+        return System.currentTimeMillis() - startMillis;
+    }
+
+    @Override
+    public boolean isChildRunning() {
+        return childRunning;
+    }
+
+    List<String> getCommand() {
+        return command;
+    }
+
+    private ObjectName register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            //same name as the command bundle registers for its watchdog
+            ObjectName name = new ObjectName("org.apache.tika", "type", "BatchWatchdog");
+            server.registerMBean(this, name);
+            return name;
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Couldn't register the BatchWatchdog MBean", e);
+            return null;
+        }
+    }
+
+    private void unregister(ObjectName name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (Exception e) {
+            //exiting anyway
+        }
+    }
+
+    private Child claim(Child standby) throws IOException, InterruptedException {
+        while (!standby.ready.await(100, TimeUnit.MILLISECONDS)) {
+            if (!isAlive(standby.process)) {
+                break;
+            }
+        }
+        if (!isAlive(standby.process)) {
+            LOG.warning("Standby child died before it was needed; starting a new child");
+            standby.finish();
+            return start(command, false);
+        }
+        OutputStream stdin = standby.process.getOutputStream();
+        stdin.write((GO + "\n").getBytes(UTF_8));
+        stdin.flush();
+        return standby;
+    }
+
+    private static boolean isAlive(Process process) {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    private static Child start(List<String> command, boolean standby) throws IOException {
+        Child child = new Child(new ProcessBuilder(command).start());
+        if (!standby) {
+            child.ready.countDown();
+        }
+        child.relay(child.process.getInputStream(), System.out, "stdout");
+        child.relay(child.process.getErrorStream(), System.err, "stderr");
+        return child;
+    }
+
+    private static class Child {
+        private final Process process;
+        private final CountDownLatch ready = new CountDownLatch(1);
+        private final List<Thread> relays = new ArrayList<Thread>();
+        private volatile long mustRestartMillis = -1;
+
+        Child(Process process) {
+            this.process = process;
+        }
+
+        void relay(final InputStream is, final PrintStream out, String name) {
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(is, UTF_8));
+                    try {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            if (line.equals(READY)) {
+                                ready.countDown();
+                            } else {
+                                if (line.startsWith(MUST_RESTART) && mustRestartMillis < 0) {
+                                    mustRestartMillis = System.currentTimeMillis();
+                                }
+                                out.println(line);
+                            }
+                        }
+                    } catch (IOException e) {
+                        //child is gone
+                    } finally {
+                        try {
+                            reader.close();
+                        } catch (IOException e) {
+                            //nothing to do
+                        }
+                    }
+                }
+            }, "child-" + name + "-relay");
+            t.setDaemon(true);
+            t.start();
+            relays.add(t);
+        }
+
+        void finish() throws InterruptedException {
+            for (Thread t : relays) {
+                t.join(1000);
+            }
+        }
+    }
+}
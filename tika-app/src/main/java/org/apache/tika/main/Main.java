@@ -106,10 +106,20 @@ public class Main {
      * Gogo Shell Gosh Property
      */
     public static final String GOGO_SHELL_GOSH_PROP = "gosh.args";
-    
+
+    /**
+     * Set to false to boot the framework in the batch watchdog process too
+     */
+    public static final String LAUNCHER_WATCHDOG_PROP = "org.apache.tika.batch.launcherWatchdog";
+
     private static Framework m_fwk = null;
 
     public static void main(String[] args) throws Exception {
+        if (BatchWatchdog.isBatch(args) &&
+                !"false".equalsIgnoreCase(System.getProperty(LAUNCHER_WATCHDOG_PROP))) {
+            // Only the batch children need the framework
+            System.exit(new BatchWatchdog(args).execute());
+        }
         Main main = new Main();
         main.startFramework(args);
     }
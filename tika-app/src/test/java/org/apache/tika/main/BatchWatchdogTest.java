@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tika.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchWatchdogTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Path runs;
+
+    @Before
+    public void setUp() throws Exception {
+        runs = Files.createTempFile("tika-watchdog-runs", ".txt");
+        Files.delete(runs);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(runs);
+    }
+
+    @Test
+    public void testIsBatch() {
+        String dir = System.getProperty("java.io.tmpdir");
+        assertTrue(BatchWatchdog.isBatch(new String[]{dir, "no-such-output"}));
+        assertTrue(BatchWatchdog.isBatch(new String[]{"-i", "in", "-o", "out"}));
+        assertFalse(BatchWatchdog.isBatch(new String[]{"--batch-mode", "-i", "in"}));
+        assertFalse(BatchWatchdog.isBatch(new String[]{"-f", "-i", "in"}));
+        assertFalse(BatchWatchdog.isBatch(new String[]{"-t", "file.pdf"}));
+    }
+
+    @Test
+    public void testChildCommand() {
+        BatchWatchdog watchdog = new BatchWatchdog(new String[]{
+                "-JXmx2g", "-i", "in", "-maxRestarts", "3", "-JDfoo=bar", "-o", "out", "-t"});
+        List<String> command = watchdog.getCommand();
+        assertEquals("java", command.get(0));
+        int main = command.indexOf(Main.class.getName());
+        assertTrue(command.subList(0, main).contains("-Xmx2g"));
+        assertTrue(command.subList(0, main).contains("-Dfoo=bar"));
+        assertTrue(command.subList(0, main).contains("-cp"));
+        //the child translates the rest itself
+        assertEquals(Arrays.asList(Main.BATCH_MODE_SWITCH, "-i", "in", "-o", "out", "-t"),
+                command.subList(main + 1, command.size()));
+        assertFalse(command.contains("-maxRestarts"));
+    }
+
+    @Test
+    public void testBadMaxRestarts() {
+        BatchWatchdog watchdog = new BatchWatchdog(new String[]{"-i", "in", "-maxRestarts", "three"});
+        assertFalse(watchdog.getCommand().contains("three"));
+    }
+
+    @Test
+    public void testRestartsUntilTheChildSucceeds() throws Exception {
+        BatchWatchdog watchdog = new BatchWatchdog(command("1", "2", "0"), -1, false);
+        assertEquals(0, watchdog.execute());
+        assertEquals(2, watchdog.getRestarts());
+        assertEquals("exit code 2", watchdog.getLastRestartReason());
+        assertEquals(3, runs());
+        assertFalse(watchdog.isChildRunning());
+    }
+
+    @Test
+    public void testReturnsTheChildsExitCodeAtMaxRestarts() throws Exception {
+        BatchWatchdog watchdog = new BatchWatchdog(command("3"), 2, false);
+        assertEquals(3, watchdog.execute());
+        assertEquals(2, watchdog.getRestarts());
+        assertEquals(3, runs());
+    }
+
+    @Test
+    public void testNoRestartExitCode() throws Exception {
+        BatchWatchdog watchdog = new BatchWatchdog(
+                command(Integer.toString(BatchWatchdog.NO_RESTART_EXIT_CODE), "0"), -1, false);
+        assertEquals(BatchWatchdog.NO_RESTART_EXIT_CODE, watchdog.execute());
+        assertEquals(0, watchdog.getRestarts());
+        assertEquals(1, runs());
+    }
+
+    @Test
+    public void testHungChildThatMustRestartIsKilled() throws Exception {
+        BatchWatchdog watchdog = new BatchWatchdog(command(TestChild.HANG, "0"), -1, false);
+        watchdog.setMustRestartWaitMillis(200);
+        assertEquals(0, watchdog.execute());
+        assertEquals(1, watchdog.getRestarts());
+        assertEquals("exit code " + BatchWatchdog.RESTART_EXIT_CODE, watchdog.getLastRestartReason());
+        assertEquals(2, runs());
+    }
+
+    @Test
+    public void testRestartsFromTheStandby() throws Exception {
+        BatchWatchdog watchdog = new BatchWatchdog(command("1", "1", "0"), -1, true);
+        assertEquals(0, watchdog.execute());
+        assertEquals(2, watchdog.getRestarts());
+        //the standby left waiting at the end never ran
+        assertEquals(3, runs());
+    }
+
+    private List<String> command(String... exitCodes) {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(TestChild.class.getName());
+        command.add(runs.toString());
+        command.addAll(Arrays.asList(exitCodes));
+        return command;
+    }
+
+    private int runs() throws Exception {
+        return Files.readAllLines(runs, UTF_8).size();
+    }
+
+    /**
+     * Stands in for the batch child: notes each run in the file given first,
+     * and exits with the code given for that run, the last one from then on.
+     */
+    public static class TestChild {
+
+        static final String HANG = "hang";
+
+        public static void main(String[] args) throws Exception {
+            if (Boolean.getBoolean(BatchWatchdog.STANDBY_PROP)) {
+                System.out.println(BatchWatchdog.READY);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, UTF_8));
+                if (!BatchWatchdog.GO.equals(reader.readLine())) {
+                    return;
+                }
+            }
+            Path runs = new File(args[0]).toPath();
+            Files.write(runs, "run\n".getBytes(UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            int run = Files.readAllLines(runs, UTF_8).size();
+            String code = args[Math.min(run, args.length - 1)];
+            if (code.equals(HANG)) {
+                System.out.println(BatchWatchdog.MUST_RESTART);
+                Thread.sleep(600000);
+            }
+            System.exit(Integer.parseInt(code));
+        }
+    }
+}
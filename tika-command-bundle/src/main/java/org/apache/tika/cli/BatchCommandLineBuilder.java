@@ -36,7 +36,7 @@ import java.util.regex.Pattern;
  * if no batch config file is specified on the commandline
  * is: tika-batch/src/main/resources/.../default-tika-batch-config.xml
  */
-class BatchCommandLineBuilder {
+public class BatchCommandLineBuilder {
 
     static Pattern JVM_OPTS_PATTERN = Pattern.compile("^(--?)J(.+)");
 
@@ -84,13 +84,31 @@ class BatchCommandLineBuilder {
         fullCommand.add("org.apache.tika.main.Main");
         fullCommand.add("--batch-mode");
         //now add the process commands
+        addProcessArgs(processArgs, fullCommand);
+        return fullCommand.toArray(new String[fullCommand.size()]);
+    }
+
+    /**
+     * Translates TikaCLI args into batch process args, dropping jvm args.
+     * Already translated args come back unchanged, so the child can apply
+     * this to whatever the launcher's watchdog passed on.
+     */
+    public static String[] buildProcessArgs(String[] args) throws IOException {
+        Map<String, String> processArgs = new LinkedHashMap<String, String>();
+        mapifyArgs(args, processArgs, new LinkedHashMap<String, String>());
+        translateCommandLine(args, processArgs);
+        List<String> command = new ArrayList<String>();
+        addProcessArgs(processArgs, command);
+        return command.toArray(new String[command.size()]);
+    }
+
+    private static void addProcessArgs(Map<String, String> processArgs, List<String> command) {
         for (Map.Entry<String, String> e : processArgs.entrySet()) {
-            fullCommand.add(e.getKey());
+            command.add(e.getKey());
             if (e.getValue().length() > 0) {
-                fullCommand.add(e.getValue());
+                command.add(e.getValue());
             }
         }
-        return fullCommand.toArray(new String[fullCommand.size()]);
     }
 
 
@@ -156,6 +174,16 @@ class BatchCommandLineBuilder {
                 break;
             }
         }
+        //and the parse result cache
+        for (String arg : args) {
+            if (arg.startsWith("--cache=")) {
+                map.remove(arg);
+                map.put("-cache", arg.substring("--cache=".length()));
+            } else if (arg.startsWith("--cache-max-mb=")) {
+                map.remove(arg);
+                map.put("-cacheMaxMb", arg.substring("--cache-max-mb=".length()));
+            }
+        }
         //now translate output types
         if (map.containsKey("-h") || map.containsKey("--html")) {
             map.remove("-h");
@@ -24,6 +24,7 @@ import javax.xml.transform.sax.SAXTransformerFactory;
 import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -44,6 +45,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -57,6 +59,7 @@ import java.util.TreeSet;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.log4j.Level;
@@ -67,6 +70,11 @@ import org.apache.poi.poifs.filesystem.DocumentInputStream;
 import org.apache.poi.poifs.filesystem.POIFSFileSystem;
 import org.apache.tika.Tika;
 import org.apache.tika.batch.BatchProcessDriverCLI;
+import org.apache.tika.cli.batch.Fingerprint;
+import org.apache.tika.cli.batch.ParseResultCache;
+import org.apache.tika.cli.process.JmxSupport;
+import org.apache.tika.cli.process.StandbyBatchDriver;
+import org.apache.tika.cli.process.Supervisor;
 import org.apache.tika.config.ServiceLoader;
 import org.apache.tika.config.TikaConfig;
 import org.apache.tika.config.TikaConfigSerializer;
@@ -127,8 +135,34 @@ public class TikaCLI {
             return CommandStatus.COMPLETE;
         } else if (testForBatch(args)) {
             String[] batchArgs = BatchCommandLineBuilder.build(args);
-            BatchProcessDriverCLI batchDriver = new BatchProcessDriverCLI(batchArgs);
-            batchDriver.execute();
+            if (Arrays.asList(args).contains("-standby")) {
+                StandbyBatchDriver standbyDriver = new StandbyBatchDriver(batchArgs);
+                Closeable watchdogMBean = registerWatchdog(args, standbyDriver.getSupervisor());
+                try {
+                    standbyDriver.execute();
+                } finally {
+                    watchdogMBean.close();
+                }
+                return CommandStatus.COMPLETE;
+            }
+            final BatchProcessDriverCLI batchDriver = new BatchProcessDriverCLI(batchArgs);
+            Closeable watchdogMBean = registerWatchdog(args, new Supervisor() {
+                @Override
+                public int getRestarts() {
+                    return batchDriver.getNumRestarts();
+                }
+
+                //only registered while the driver runs
+                @Override
+                public boolean isChildRunning() {
+                    return true;
+                }
+            });
+            try {
+                batchDriver.execute();
+            } finally {
+                watchdogMBean.close();
+            }
             return CommandStatus.COMPLETE;
         } else if(testForGUI(args)) {
             TikaGUI.startGUI(this.tikaServiceFactory);
@@ -159,6 +193,20 @@ public class TikaCLI {
             }
         }
     }
+    /**
+     * With -jmx, exposes the watchdog's restart count as a Supervisor MBean
+     */
+    private Closeable registerWatchdog(String[] args, Supervisor watchdog) {
+        if (!Arrays.asList(args).contains("-jmx")) {
+            return new Closeable() {
+                @Override
+                public void close() {
+                }
+            };
+        }
+        return JmxSupport.register(watchdog, "BatchWatchdog");
+    }
+
     private class OutputType {
 
         public void process(
@@ -309,6 +357,17 @@ public class TikaCLI {
 
     private DigestingParser.Digester digester = null;
 
+    private String digestAlgorithms = null;
+
+    /**
+     * Directory of the parse result cache, or <code>null</code> for none
+     */
+    private Path cacheDir = null;
+
+    private long cacheMaxMb = 1024;
+
+    private ParseResultCache cache = null;
+
     private boolean pipeMode = true;
 
     private boolean prettyPrint;
@@ -377,7 +436,12 @@ public class TikaCLI {
             CommonsDigester.DigestAlgorithm[] algos = CommonsDigester.parse(
                     arg.substring("--digest=".length()));
             digester = new CommonsDigester(MAX_MARK,algos);
+            digestAlgorithms = arg.substring("--digest=".length());
             parser = new DigestingParser(parser, digester);
+        } else if (arg.startsWith("--cache=")) {
+            cacheDir = Paths.get(arg.substring("--cache=".length()));
+        } else if (arg.startsWith("--cache-max-mb=")) {
+            cacheMaxMb = Long.parseLong(arg.substring("--cache-max-mb=".length()));
         } else if (arg.startsWith("-e")) {
             encoding = arg.substring("-e".length());
         } else if (arg.startsWith("--encoding=")) {
@@ -437,7 +501,9 @@ public class TikaCLI {
                 } else {
                     url = new URL(arg);
                 }
-                if (recursiveJSON) {
+                if (cacheDir != null && file.isFile() && type != NO_OUTPUT) {
+                    processCached(file, url);
+                } else if (recursiveJSON) {
                     handleRecursiveJson(url, System.out);
                 } else {
                     Metadata metadata = new Metadata();
@@ -455,6 +521,84 @@ public class TikaCLI {
         }
     }
 
+    /**
+     * Writes the cached output for the file, or parses it and caches what
+     * was written if the parse succeeds.
+     */
+    private void processCached(File file, URL url) throws Exception {
+        ParseResultCache resultCache = getCache();
+        String key = ParseResultCache.key(Fingerprint.md5(file.toPath()), getCacheFingerprint());
+        //TikaInputStream sets the file name as the resourceName
+        Map<String, String> names = Collections.singletonMap(Metadata.RESOURCE_NAME_KEY, file.getName());
+        try (InputStream cached = resultCache.get(key, names)) {
+            if (cached != null) {
+                IOUtils.copy(cached, System.out);
+                System.out.flush();
+                return;
+            }
+        }
+        ParseResultCache.Entry entry = resultCache.begin(key, names);
+        boolean parsed = false;
+        try {
+            OutputStream output = new TeeOutputStream(System.out, entry.getOutputStream());
+            if (recursiveJSON) {
+                handleRecursiveJson(url, output);
+            } else {
+                Metadata metadata = new Metadata();
+                try (InputStream input = TikaInputStream.get(url, metadata)) {
+                    type.process(input, output, metadata);
+                }
+            }
+            output.flush();
+            parsed = true;
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (parsed) {
+                entry.commit();
+            } else {
+                entry.discard();
+            }
+            System.out.flush();
+        }
+    }
+
+    private ParseResultCache getCache() throws IOException {
+        if (cache == null) {
+            cache = new ParseResultCache(cacheDir, cacheMaxMb * 1024 * 1024);
+        }
+        return cache;
+    }
+
+    private String getCacheFingerprint() {
+        return ParseResultCache.fingerprint(config, parser, getTypeName() +
+                " recursiveJSON=" + recursiveJSON + " prettyPrint=" + prettyPrint +
+                " encoding=" + encoding + " digest=" + digestAlgorithms);
+    }
+
+    private String getTypeName() {
+        if (type == XML) {
+            return "xml";
+        } else if (type == HTML) {
+            return "html";
+        } else if (type == TEXT) {
+            return "text";
+        } else if (type == TEXT_MAIN) {
+            return "text-main";
+        } else if (type == METADATA) {
+            return "metadata";
+        } else if (type == JSON) {
+            return "json";
+        } else if (type == XMP) {
+            return "xmp";
+        } else if (type == LANGUAGE) {
+            return "language";
+        } else if (type == DETECT) {
+            return "detect";
+        }
+        return type.getClass().getName();
+    }
+
     private void handleRecursiveJson(URL url, OutputStream output) throws IOException, SAXException, TikaException {
         Metadata metadata = new Metadata();
         RecursiveParserWrapper wrapper = new RecursiveParserWrapper(parser, getContentHandlerFactory(type));
@@ -496,6 +640,10 @@ public class TikaCLI {
         out.println();
         out.println("    -g  or --gui           Start the Apache Tika GUI");
         out.println("    -f  or --fork          Use Fork Mode for out-of-process extraction");
+        out.println("        Limit the forked process with -Dorg.apache.tika.fork.maxRssMb,");
+        out.println("        .maxOpenFiles, .maxCpuPercent, .resourcePolicy (log|restart)");
+        out.println("        and .maxRestarts; -Dorg.apache.tika.fork.jmx=true exposes restarts");
+        out.println("        as the org.apache.tika:type=ForkSupervisor MBean");
         out.println();
         out.println("    --config=<tika-config.xml>");
         out.println("        TikaConfig file. Must be specified before -g, -s, -f or the dump-x-config !");
@@ -523,6 +671,10 @@ public class TikaCLI {
         out.println("    --extract-dir=<dir>    Specify target directory for -z");
         out.println("    -r  or --pretty-print  For JSON, XML and XHTML outputs, adds newlines and");
         out.println("                           whitespace, for better readability");
+        out.println("    --cache=<dir>          Keep outputs in <dir> by content digest and");
+        out.println("                           configuration; duplicates aren't parsed again");
+        out.println("    --cache-max-mb=X       Evict the least recently used outputs beyond");
+        out.println("                           X megabytes (default 1024)");
         out.println();
         out.println("    --list-parsers");
         out.println("         List the available document parsers");
@@ -582,6 +734,108 @@ public class TikaCLI {
         out.println("    -excludeFilePat            Regular expression to determine which");
         out.println("                               files to avoid processing, e.g. \"(?i)\\.pdf\"");
         out.println("    -maxFileSizeBytes          Skip files longer than this value");
+        out.println("    -crawlOrder                Order in which files are added: random");
+        out.println("                               (default), sorted, os or cost (slowest first)");
+        out.println("    -parseStatsFile            Parse time history used by -crawlOrder cost");
+        out.println("    -scheduler                 How consumers pick the next file: fifo");
+        out.println("                               (default) follows the crawl order, costClass");
+        out.println("                               interleaves heavy and light files, locality");
+        out.println("                               drains one directory at a time");
+        out.println("    -journal                   Resume journal; files it records as done are");
+        out.println("                               skipped on restart and in later runs");
+        out.println("    -incremental               Only process files that are new or modified");
+        out.println("                               since the last completed run; deleted files");
+        out.println("                               are listed in <manifest>.deleted");
+        out.println("    -manifest                  Manifest used by -incremental (default:");
+        out.println("                               .tika-manifest.tsv in the output directory)");
+        out.println("    -incrementalHash           Also compare content when only the");
+        out.println("                               modification time of a file changed");
+        out.println("    -segmented                 Append output to indexed segment files");
+        out.println("                               instead of writing one file per input");
+        out.println("    -segmentMb                 Size of each -segmented output segment");
+        out.println("    -compression               Compress output files: bzip2, gzip, zip or");
+        out.println("                               pgzip (gzip compressed on a shared pool)");
+        out.println("    -compressionLevel          pgzip level: fast, default, best or 0-9");
+        out.println("    -compressionThreads        Threads used by pgzip; defaults to the cores");
+        out.println("    -metrics                   Write per media type and parser throughput and");
+        out.println("                               latency to tika-metrics.json and");
+        out.println("                               tika-metrics.prom in the output directory");
+        out.println("    -metricsMillis             Milliseconds between metrics writes");
+        out.println("    -jmx                       Register BatchChild and BatchWatchdog MBeans");
+        out.println("                               (in-flight documents, consumer states, parser");
+        out.println("                               timings, restarts) for jconsole or jcmd");
+        out.println("    -maxChildRssMb             Maximum resident memory of the child process");
+        out.println("    -maxChildOpenFiles         Maximum open file descriptors of the child process");
+        out.println("    -maxChildCpuPercent        Maximum cpu use of the child process, where");
+        out.println("                               100 is one fully used core");
+        out.println("    -resourcePolicy            What to do when the child exceeds a limit:");
+        out.println("                               log (default), throttle or restart");
+        out.println("    -resourceSampleMillis      Milliseconds between resource samples");
+        out.println("    -crawlThreads              Threads listing directories concurrently;");
+        out.println("                               filters are applied during the walk");
+        out.println("    -crawlDirAttrs             false to check each file separately instead of");
+        out.println("                               using the attributes from the listing");
+        out.println("    -crawlSpool                Crawl ahead into a file of paths and feed the");
+        out.println("                               queue from it; a restarted child resumes");
+        out.println("                               from its cursor instead of crawling again");
+        out.println("    -crawlSpoolFile            File used by -crawlSpool (default:");
+        out.println("                               .tika-crawl-spool in the output directory)");
+        out.println("    -standby                   Keep a second child booted and waiting so that");
+        out.println("                               a restart doesn't wait for the framework to start");
+        out.println("    -shardDir                  Directory shared with other runs over the same");
+        out.println("                               input; each run leases top-level directories");
+        out.println("                               and takes over those of runs that stopped");
+        out.println("    -shardNode                 Id of this run in the shard directory");
+        out.println("    -shardLeaseMillis          Milliseconds before an unrenewed lease expires");
+        out.println("    -shardUnitDepth            Directory depth to split the work units at");
+        out.println("                               (default 1: top-level directories)");
+        out.println("    -cache                     Directory of a parse result cache shared with");
+        out.println("                               --cache; duplicates aren't parsed again");
+        out.println("    -cacheMaxMb                Size of the cache in megabytes (default 1024)");
+        out.println("    -sharedParser              Build one parser at startup and share it between");
+        out.println("                               the consumers instead of one per consumer");
+        out.println("    -triage                    Only detect and digest each file into a manifest");
+        out.println("                               that flags duplicates; nothing is parsed");
+        out.println("    -triageManifest            File used by -triage (default:");
+        out.println("                               tika-triage.tsv in the output directory)");
+        out.println("    -tee                       Parse each file once into several outputs,");
+        out.println("                               e.g. text,json.gz=/data/json; each is");
+        out.println("                               type[.compression][=outputDir]");
+        out.println("    -maxReadMbPerSecond        Read bandwidth budget for the input");
+        out.println("    -maxReadOpsPerSecond       Budget of opens, 128 KB blocks read and");
+        out.println("                               directory listings per second; both can be");
+        out.println("                               changed during the run through the IoThrottle");
+        out.println("                               MBean");
+        out.println("    -maxInFlightMb             Estimated memory of the documents parsed at");
+        out.println("                               once (or default, half the heap); big");
+        out.println("                               documents wait for room");
+        out.println("    -admissionSmallMb          Documents estimated at up to this go ahead");
+        out.println("                               of big ones waiting for room");
+        out.println("    -autoscale                 Vary the number of consumers parsing at once,");
+        out.println("                               up to -numConsumers, with the load");
+        out.println("    -minConsumers              Fewest consumers parsing with -autoscale");
+        out.println("    -autoscaleMillis           Interval between -autoscale adjustments");
+        out.println("    -quarantine                Quarantine files that were in flight when the");
+        out.println("                               child died -quarantineStrikes times (default 2)");
+        out.println("    -quarantinePolicy          skip (default) or slowLane, to parse each");
+        out.println("                               quarantined file once more on its own");
+        out.println("    -quarantineDir             Where the quarantine list is kept");
+        out.println("    -watch                     Keep running and process new files as they");
+        out.println("                               land in the input directory");
+        out.println("    -watchSettleMillis         How long a new file's size must stay the same");
+        out.println("                               (default 2000)");
+        out.println("    -watchMarker               Wait for a marker file with this suffix,");
+        out.println("                               e.g. .done, instead");
+        out.println("    -watchPoll                 Rescan instead of waiting for events");
+        out.println("    -watchMaxIdleMillis        Stop once nothing has landed for this long");
+        out.println("    -archives                  Parse the entries of zips and tars in the");
+        out.println("                               input directory as files of their own");
+        out.println("    -writeBehind               Write outputs on writer threads instead of");
+        out.println("                               the parsing threads");
+        out.println("    -writeBehindMb             Memory for outputs waiting to be written");
+        out.println("                               (default 256)");
+        out.println("    -writeBehindThreads        Number of writer threads (default 2)");
+        out.println("    -writeBehindSync           fsync the written outputs, in groups");
         out.println();
         out.println("    Control the type of output with -x, -h, -t and/or -J.");
         out.println();
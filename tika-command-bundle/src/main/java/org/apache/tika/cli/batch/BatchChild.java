@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.tika.batch.FileResourceConsumer;
+
+/**
+ * {@link BatchChildMXBean} backed by the child's {@link BatchMetrics} and
+ * its {@link InterceptingConsumer}s.
+ */
+public class BatchChild implements BatchChildMXBean {
+
+    private final BatchMetrics metrics;
+    private final List<FileResourceConsumer> consumers;
+
+    public BatchChild(BatchMetrics metrics, List<FileResourceConsumer> consumers) {
+        this.metrics = metrics;
+        this.consumers = consumers;
+    }
+
+    @Override
+    public long getUptimeMillis() {
+        return System.currentTimeMillis() - metrics.getStartMillis();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return metrics.getQueueDepth();
+    }
+
+    @Override
+    public int getNumConsumers() {
+        return metrics.getNumConsumers();
+    }
+
+    @Override
+    public String[] getInFlightDocuments() {
+        long now = System.currentTimeMillis();
+        List<String> lines = new ArrayList<>();
+        for (BatchMetrics.InFlight f : metrics.getInFlight()) {
+            lines.add(f.getPath() + " | " + f.getType() + " | " + (now - f.getStartMillis()) +
+                    " ms | " + f.getThread());
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    @Override
+    public String[] getConsumerStates() {
+        long now = System.currentTimeMillis();
+        String[] states = new String[consumers.size()];
+        for (int i = 0; i < consumers.size(); i++) {
+            FileResourceConsumer consumer = consumers.get(i);
+            if (consumer instanceof InterceptingConsumer) {
+                InterceptingConsumer c = (InterceptingConsumer) consumer;
+                String resource = c.getCurrentResourceId();
+                states[i] = "consumer-" + i + " | " + c.getState() + " | " +
+                        (now - c.getStateChangeMillis()) + " ms" +
+                        (resource == null ? "" : " | " + resource);
+            } else {
+                states[i] = "consumer-" + i + " | unknown";
+            }
+        }
+        return states;
+    }
+
+    @Override
+    public long getDocuments() {
+        return metrics.getTotal().getDocuments();
+    }
+
+    @Override
+    public long getFailures() {
+        return metrics.getTotal().getFailures();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return metrics.getTimeouts();
+    }
+
+    @Override
+    public double getBusyRatio() {
+        return metrics.getBusyRatio(System.currentTimeMillis());
+    }
+
+    @Override
+    public String[] getParserTimings() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, DocumentMetrics> e : metrics.getByParser().entrySet()) {
+            LatencyHistogram latency = e.getValue().getLatency();
+            long count = latency.getCount();
+            lines.add(e.getKey() + " | docs=" + count + " | totalMs=" + latency.getSum() +
+                    " | meanMs=" + (count == 0 ? 0 : latency.getSum() / count) +
+                    " | p50Ms=" + latency.getPercentile(0.5) +
+                    " | p99Ms=" + latency.getPercentile(0.99) +
+                    " | maxMs=" + latency.getMax());
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+}
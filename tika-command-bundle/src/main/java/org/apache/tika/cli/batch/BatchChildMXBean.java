@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+/**
+ * Live view of a batch child for <code>jconsole</code> and <code>jcmd</code>.
+ * Lists are one line per entry so they read well in either.
+ */
+public interface BatchChildMXBean {
+
+    long getUptimeMillis();
+
+    int getQueueDepth();
+
+    int getNumConsumers();
+
+    /**
+     * @return path, guessed type, elapsed millis and thread of each document being parsed
+     */
+    String[] getInFlightDocuments();
+
+    /**
+     * @return thread, state, millis in that state and current resource of each consumer
+     */
+    String[] getConsumerStates();
+
+    long getDocuments();
+
+    long getFailures();
+
+    long getTimeouts();
+
+    double getBusyRatio();
+
+    /**
+     * @return documents, total, mean and percentile parse millis per parser class
+     */
+    String[] getParserTimings();
+}
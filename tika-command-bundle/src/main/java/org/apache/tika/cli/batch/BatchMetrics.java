@@ -0,0 +1,424 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tika.metadata.Metadata;
+
+/**
+ * Live statistics of a batch child: documents, bytes and parse latency
+ * per media type and per parser class, the documents in flight, queue
+ * depth, how busy the consumers are and how many parses ran past the
+ * timeout threshold.
+ * <p>
+ * Updates only touch atomics and concurrent maps, so consumers never
+ * contend on a lock.  Snapshots are rendered as JSON or in the Prometheus
+ * text format.
+ */
+public class BatchMetrics {
+
+    public static final String JSON_FILE_NAME = "tika-metrics.json";
+    public static final String PROMETHEUS_FILE_NAME = "tika-metrics.prom";
+
+    static final String UNKNOWN = "unknown";
+    private static final String PARSED_BY = "X-Parsed-By";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private final long startMillis = System.currentTimeMillis();
+    private final int numConsumers;
+    private BlockingQueue<?> queue;
+    private long timeoutMillis = -1;
+
+    private final DocumentMetrics total = new DocumentMetrics();
+    private final ConcurrentMap<String, DocumentMetrics> byType = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, DocumentMetrics> byParser = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Thread, InFlight> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong busyMillis = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    public BatchMetrics(int numConsumers) {
+        this.numConsumers = numConsumers;
+    }
+
+    /**
+     * Call on the consumer thread before the parse.
+     *
+     * @param type best guess before the parse, e.g. from the file name
+     */
+    public void started(String path, String type) {
+        Thread thread = Thread.currentThread();
+        inFlight.put(thread, new InFlight(path, type, thread.getName(), System.currentTimeMillis()));
+    }
+
+    /**
+     * Call on the consumer thread if the document won't be parsed after all.
+     */
+    public void abandoned() {
+        inFlight.remove(Thread.currentThread());
+    }
+
+    /**
+     * Call on the consumer thread after the parse.
+     *
+     * @param metadata the document's metadata after the parse
+     * @param length input length, or -1 if unknown
+     */
+    public void finished(Metadata metadata, long length, long elapsedMillis, boolean processed) {
+        InFlight started = inFlight.remove(Thread.currentThread());
+        String type = getMediaType(metadata);
+        if (type == null) {
+            type = started == null ? UNKNOWN : started.getType();
+        }
+        get(byType, type).record(length, elapsedMillis, processed);
+        get(byParser, getParser(metadata)).record(length, elapsedMillis, processed);
+        total.record(length, elapsedMillis, processed);
+        busyMillis.addAndGet(elapsedMillis);
+    }
+
+    /**
+     * Counts documents that have been in flight for longer than the timeout
+     * threshold; each is counted once.  Tika-batch restarts the child when
+     * this happens, so call it often enough to catch them first.
+     *
+     * @return number of new timeouts
+     */
+    public int checkTimeouts() {
+        if (timeoutMillis <= 0) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        int found = 0;
+        for (InFlight f : inFlight.values()) {
+            if (!f.timedOut && now - f.startMillis > timeoutMillis) {
+                f.timedOut = true;
+                found++;
+            }
+        }
+        timeouts.addAndGet(found);
+        return found;
+    }
+
+    private static DocumentMetrics get(ConcurrentMap<String, DocumentMetrics> map, String key) {
+        DocumentMetrics metrics = map.get(key);
+        if (metrics == null) {
+            DocumentMetrics created = new DocumentMetrics();
+            metrics = map.putIfAbsent(key, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @return the content type without parameters, or null
+     */
+    static String getMediaType(Metadata metadata) {
+        String type = metadata.get(Metadata.CONTENT_TYPE);
+        if (type == null) {
+            return null;
+        }
+        int semi = type.indexOf(';');
+        return (semi < 0 ? type : type.substring(0, semi)).trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return the most specific parser, which tika lists last
+     */
+    static String getParser(Metadata metadata) {
+        String[] parsedBy = metadata.getValues(PARSED_BY);
+        return parsedBy == null || parsedBy.length == 0 ? UNKNOWN : parsedBy[parsedBy.length - 1];
+    }
+
+    public void setQueue(BlockingQueue<?> queue) {
+        this.queue = queue;
+    }
+
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public int getQueueDepth() {
+        return queue == null ? -1 : queue.size();
+    }
+
+    public int getNumConsumers() {
+        return numConsumers;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public DocumentMetrics getTotal() {
+        return total;
+    }
+
+    /**
+     * @return sorted copy
+     */
+    public Map<String, DocumentMetrics> getByType() {
+        return new TreeMap<>(byType);
+    }
+
+    /**
+     * @return sorted copy
+     */
+    public Map<String, DocumentMetrics> getByParser() {
+        return new TreeMap<>(byParser);
+    }
+
+    public List<InFlight> getInFlight() {
+        return new ArrayList<>(inFlight.values());
+    }
+
+    /**
+     * @return share of the consumers' time spent parsing since the start,
+     * counting documents still in flight
+     */
+    public double getBusyRatio(long now) {
+        long wall = (now - startMillis) * numConsumers;
+        if (wall <= 0) {
+            return 0;
+        }
+        long busy = busyMillis.get();
+        for (InFlight f : inFlight.values()) {
+            busy += Math.max(0, now - f.startMillis);
+        }
+        return Math.min(1.0, (double) busy / wall);
+    }
+
+    public String toJson(long now) {
+        double seconds = Math.max(0.001, (now - startMillis) / 1000.0);
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"timestamp\": ").append(now).append(",\n");
+        sb.append("  \"uptimeMillis\": ").append(now - startMillis).append(",\n");
+        sb.append("  \"consumers\": ").append(numConsumers).append(",\n");
+        sb.append("  \"queueDepth\": ").append(getQueueDepth()).append(",\n");
+        sb.append("  \"inFlight\": ").append(inFlight.size()).append(",\n");
+        sb.append("  \"busyRatio\": ").append(format(getBusyRatio(now))).append(",\n");
+        sb.append("  \"timeouts\": ").append(timeouts.get()).append(",\n");
+        sb.append("  \"total\": ");
+        appendJson(total, seconds, "  ", sb);
+        sb.append(",\n  \"byMediaType\": ");
+        appendJson(getByType(), seconds, sb);
+        sb.append(",\n  \"byParser\": ");
+        appendJson(getByParser(), seconds, sb);
+        sb.append("\n}\n");
+        return sb.toString();
+    }
+
+    private static void appendJson(Map<String, DocumentMetrics> metrics, double seconds, StringBuilder sb) {
+        sb.append('{');
+        boolean first = true;
+        for (Map.Entry<String, DocumentMetrics> e : metrics.entrySet()) {
+            sb.append(first ? "\n" : ",\n").append("    ");
+            appendJsonString(e.getKey(), sb);
+            sb.append(": ");
+            appendJson(e.getValue(), seconds, "    ", sb);
+            first = false;
+        }
+        sb.append(first ? "}" : "\n  }");
+    }
+
+    private static void appendJson(DocumentMetrics m, double seconds, String indent, StringBuilder sb) {
+        LatencyHistogram latency = m.getLatency();
+        sb.append("{\"documents\": ").append(m.getDocuments())
+                .append(", \"failures\": ").append(m.getFailures())
+                .append(", \"bytes\": ").append(m.getBytes())
+                .append(", \"documentsPerSec\": ").append(format(m.getDocuments() / seconds))
+                .append(", \"bytesPerSec\": ").append(format(m.getBytes() / seconds))
+                .append(",\n").append(indent).append(" \"latencyMillis\": {\"count\": ").append(latency.getCount())
+                .append(", \"sum\": ").append(latency.getSum())
+                .append(", \"max\": ").append(latency.getMax());
+        for (double q : QUANTILES) {
+            sb.append(", \"p").append(quantileName(q)).append("\": ").append(latency.getPercentile(q));
+        }
+        sb.append("}}");
+    }
+
+    private static void appendJsonString(String s, StringBuilder sb) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Counters are cumulative since the child started; rates are left to
+     * the scraper.
+     */
+    public String toPrometheus(long now) {
+        StringBuilder sb = new StringBuilder();
+        gauge("tika_batch_uptime_seconds", "Seconds since the batch child started",
+                format((now - startMillis) / 1000.0), sb);
+        gauge("tika_batch_queue_depth", "Files waiting for a consumer", Integer.toString(getQueueDepth()), sb);
+        gauge("tika_batch_in_flight", "Documents being parsed", Integer.toString(inFlight.size()), sb);
+        gauge("tika_batch_consumer_busy_ratio", "Share of consumer time spent parsing",
+                format(getBusyRatio(now)), sb);
+        sb.append("# HELP tika_batch_timeouts_total Parses that ran past the timeout threshold\n");
+        sb.append("# TYPE tika_batch_timeouts_total counter\n");
+        sb.append("tika_batch_timeouts_total ").append(timeouts.get()).append('\n');
+        appendPrometheus("media_type", getByType(), sb);
+        appendPrometheus("parser", getByParser(), sb);
+        return sb.toString();
+    }
+
+    private static void gauge(String name, String help, String value, StringBuilder sb) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" gauge\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void appendPrometheus(String label, Map<String, DocumentMetrics> metrics, StringBuilder sb) {
+        String prefix = "tika_batch_" + label;
+        sb.append("# HELP ").append(prefix).append("_documents_total Documents parsed by ").append(label).append('\n');
+        sb.append("# TYPE ").append(prefix).append("_documents_total counter\n");
+        for (Map.Entry<String, DocumentMetrics> e : metrics.entrySet()) {
+            sample(prefix + "_documents_total", label, e.getKey(), null, Long.toString(e.getValue().getDocuments()), sb);
+        }
+        sb.append("# HELP ").append(prefix).append("_failures_total Documents that failed to parse by ")
+                .append(label).append('\n');
+        sb.append("# TYPE ").append(prefix).append("_failures_total counter\n");
+        for (Map.Entry<String, DocumentMetrics> e : metrics.entrySet()) {
+            sample(prefix + "_failures_total", label, e.getKey(), null, Long.toString(e.getValue().getFailures()), sb);
+        }
+        sb.append("# HELP ").append(prefix).append("_bytes_total Input bytes parsed by ").append(label).append('\n');
+        sb.append("# TYPE ").append(prefix).append("_bytes_total counter\n");
+        for (Map.Entry<String, DocumentMetrics> e : metrics.entrySet()) {
+            sample(prefix + "_bytes_total", label, e.getKey(), null, Long.toString(e.getValue().getBytes()), sb);
+        }
+        String latency = prefix + "_parse_seconds";
+        sb.append("# HELP ").append(latency).append(" Parse latency by ").append(label).append('\n');
+        sb.append("# TYPE ").append(latency).append(" summary\n");
+        for (Map.Entry<String, DocumentMetrics> e : metrics.entrySet()) {
+            LatencyHistogram h = e.getValue().getLatency();
+            for (double q : QUANTILES) {
+                sample(latency, label, e.getKey(), Double.toString(q),
+                        format(h.getPercentile(q) / 1000.0), sb);
+            }
+            sample(latency + "_sum", label, e.getKey(), null, format(h.getSum() / 1000.0), sb);
+            sample(latency + "_count", label, e.getKey(), null, Long.toString(h.getCount()), sb);
+        }
+    }
+
+    private static void sample(String name, String label, String value, String quantile,
+                               String sampleValue, StringBuilder sb) {
+        sb.append(name).append('{').append(label).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+        if (quantile != null) {
+            sb.append(",quantile=\"").append(quantile).append('"');
+        }
+        sb.append("} ").append(sampleValue).append('\n');
+    }
+
+    private static String quantileName(double q) {
+        String s = Double.toString(q * 100);
+        return s.endsWith(".0") ? s.substring(0, s.length() - 2) : s.replace('.', '_');
+    }
+
+    private static String format(double d) {
+        return String.format(Locale.ROOT, "%.3f", d);
+    }
+
+    /**
+     * Writes both files into the directory, each replaced atomically.
+     */
+    public void write(Path dir, long now) throws IOException {
+        writeAtomically(dir.resolve(JSON_FILE_NAME), toJson(now));
+        writeAtomically(dir.resolve(PROMETHEUS_FILE_NAME), toPrometheus(now));
+    }
+
+    private static void writeAtomically(Path path, String content) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tmp, content.getBytes(UTF_8));
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * A document being parsed.
+     */
+    public static class InFlight {
+        private final String path;
+        private final String type;
+        private final String thread;
+        private final long startMillis;
+        private volatile boolean timedOut = false;
+
+        InFlight(String path, String type, String thread, long startMillis) {
+            this.path = path;
+            this.type = type;
+            this.thread = thread;
+            this.startMillis = startMillis;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getThread() {
+            return thread;
+        }
+
+        public long getStartMillis() {
+            return startMillis;
+        }
+    }
+}
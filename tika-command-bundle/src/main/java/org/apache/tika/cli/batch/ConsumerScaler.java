@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits how many of the child's consumers parse at once, and moves the
+ * limit between a minimum and the number of consumers as the load of the
+ * run changes.  All the consumers are started; the ones over the limit
+ * wait in {@link #enter()} before they take a resource from the queue.
+ * <p>
+ * {@link #adjust(double, double, double, int)} is called at a fixed
+ * interval with what was sampled over it, and moves the limit by one at
+ * most:
+ * <ul>
+ *     <li>down while the collector takes more than
+ *     {@link #setMaxGcPercent(double) maxGcPercent} of the time or the cpu
+ *     is above {@link #setHighCpuPercent(double) highCpuPercent}, since
+ *     more threads then only add contention;</li>
+ *     <li>up while the cpu is below {@link #setLowCpuPercent(double)
+ *     lowCpuPercent}, every active consumer is busy and there is work in
+ *     the queue, since the consumers are then waiting on I/O;</li>
+ *     <li>back down if the throughput fell after the last step up, after
+ *     which the limit is left alone for a few intervals.</li>
+ * </ul>
+ */
+public class ConsumerScaler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConsumerScaler.class);
+
+    //intervals to leave the limit alone after a step up that didn't pay
+    private static final int HOLD_INTERVALS = 3;
+    //a step up must keep at least this share of the throughput before it
+    private static final double MIN_GAIN = 0.95;
+
+    private final int minConsumers;
+    private final int maxConsumers;
+    private int active;
+    private int running = 0;
+    private double lowCpuPercent = 70;
+    private double highCpuPercent = 95;
+    private double maxGcPercent = 15;
+    private boolean steppedUp = false;
+    private double rateBeforeStep = -1;
+    private int hold = 0;
+
+    /**
+     * @param initial number of consumers allowed to parse at first
+     */
+    public ConsumerScaler(int minConsumers, int maxConsumers, int initial) {
+        if (minConsumers < 1 || maxConsumers < minConsumers) {
+            throw new IllegalArgumentException("consumer bounds must be 1 <= min <= max: "
+                    + minConsumers + ", " + maxConsumers);
+        }
+        this.minConsumers = minConsumers;
+        this.maxConsumers = maxConsumers;
+        this.active = Math.max(minConsumers, Math.min(maxConsumers, initial));
+    }
+
+    /**
+     * Waits until fewer consumers than the limit are parsing
+     */
+    public synchronized void enter() throws InterruptedException {
+        while (running >= active) {
+            wait(1000);
+        }
+        running++;
+    }
+
+    public synchronized void exit() {
+        running--;
+        notifyAll();
+    }
+
+    /**
+     * @param cpuPercent    cpu use of the child as a percentage of the whole
+     *                      machine, or -1 if unknown
+     * @param gcPercent     share of the interval spent collecting garbage
+     * @param docsPerSecond documents finished per second over the interval
+     * @param queueDepth    resources waiting for a consumer
+     * @return the new limit
+     */
+    public synchronized int adjust(double cpuPercent, double gcPercent, double docsPerSecond, int queueDepth) {
+        int before = active;
+        String reason = null;
+        if (steppedUp && docsPerSecond < rateBeforeStep * MIN_GAIN) {
+            active--;
+            hold = HOLD_INTERVALS;
+            reason = "throughput fell from " + format(rateBeforeStep) + " to " + format(docsPerSecond);
+        } else if (hold > 0) {
+            hold--;
+        } else if (gcPercent > maxGcPercent && active > minConsumers) {
+            active--;
+            reason = "gc at " + format(gcPercent) + "%";
+        } else if (cpuPercent > highCpuPercent && active > minConsumers) {
+            active--;
+            reason = "cpu at " + format(cpuPercent) + "%";
+        } else if (cpuPercent > -1 && cpuPercent < lowCpuPercent && gcPercent <= maxGcPercent
+                && queueDepth > 0 && running >= active && active < maxConsumers) {
+            active++;
+            rateBeforeStep = docsPerSecond;
+            reason = "cpu at " + format(cpuPercent) + "% with " + queueDepth + " queued";
+        }
+        steppedUp = active > before;
+        if (active != before) {
+            LOG.info("Consumers: " + before + " -> " + active + " (" + reason + ")");
+            notifyAll();
+        }
+        return active;
+    }
+
+    private static String format(double d) {
+        return Long.toString(Math.round(d));
+    }
+
+    public synchronized int getActive() {
+        return active;
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    public int getMinConsumers() {
+        return minConsumers;
+    }
+
+    public int getMaxConsumers() {
+        return maxConsumers;
+    }
+
+    public synchronized void setLowCpuPercent(double lowCpuPercent) {
+        this.lowCpuPercent = lowCpuPercent;
+    }
+
+    public synchronized void setHighCpuPercent(double highCpuPercent) {
+        this.highCpuPercent = highCpuPercent;
+    }
+
+    public synchronized void setMaxGcPercent(double maxGcPercent) {
+        this.maxGcPercent = maxGcPercent;
+    }
+}
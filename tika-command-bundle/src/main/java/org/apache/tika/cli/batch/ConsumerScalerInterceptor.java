@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.cli.process.ProcResourceSampler;
+import org.apache.tika.cli.process.ResourceUsage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lets a consumer take a resource only while its {@link ConsumerScaler}
+ * has room, so a parked consumer holds no resource and isn't timed out,
+ * and adjusts the scaler every interval from the child's cpu use, the
+ * time spent in garbage collection, the documents finished and the depth
+ * of the consumers' queue.
+ * <p>
+ * The cpu use is read from /proc where there is one, and otherwise
+ * estimated from the system load average, which also counts other
+ * processes; where neither is available the limit only goes down.
+ */
+public class ConsumerScalerInterceptor extends ProcessingInterceptor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConsumerScalerInterceptor.class);
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 5000;
+
+    private final ConsumerScaler scaler;
+    private final BlockingQueue<?> queue;
+    private final long intervalMillis;
+    private final AtomicLong finished = new AtomicLong();
+    private volatile boolean running = true;
+    private Thread controller;
+
+    public ConsumerScalerInterceptor(ConsumerScaler scaler, BlockingQueue<?> queue, long intervalMillis) {
+        this.scaler = scaler;
+        this.queue = queue;
+        this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    public void init() throws IOException {
+        controller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                control();
+            }
+        }, "consumer-scaler");
+        controller.setDaemon(true);
+        controller.start();
+        LOG.info("Scaling between " + scaler.getMinConsumers() + " and " + scaler.getMaxConsumers() +
+                " consumers, starting at " + scaler.getActive());
+    }
+
+    private void control() {
+        ProcResourceSampler sampler = ProcResourceSampler.isSupported() ? ProcResourceSampler.forSelf() : null;
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        int processors = Runtime.getRuntime().availableProcessors();
+        ResourceUsage previousUsage = sampler == null ? null : sampler.sample();
+        long previousGc = getGcMillis();
+        long previousFinished = finished.get();
+        long previousMillis = System.currentTimeMillis();
+        while (running) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            long elapsed = Math.max(1, now - previousMillis);
+            double cpu = -1;
+            if (sampler != null) {
+                ResourceUsage usage = sampler.sample();
+                double ofOneCore = usage.getCpuPercentSince(previousUsage);
+                cpu = ofOneCore < 0 ? -1 : ofOneCore / processors;
+                previousUsage = usage;
+            } else if (os.getSystemLoadAverage() >= 0) {
+                cpu = 100 * os.getSystemLoadAverage() / processors;
+            }
+            long gc = getGcMillis();
+            long done = finished.get();
+            scaler.adjust(cpu, 100.0 * (gc - previousGc) / elapsed,
+                    1000.0 * (done - previousFinished) / elapsed, queue.size());
+            previousGc = gc;
+            previousFinished = done;
+            previousMillis = now;
+        }
+    }
+
+    private static long getGcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    @Override
+    public void beforeTaking() throws InterruptedException {
+        scaler.enter();
+    }
+
+    @Override
+    public void released() {
+        scaler.exit();
+    }
+
+    @Override
+    public void afterProcessing(FileResource fileResource, boolean processed, long elapsedMillis) {
+        finished.incrementAndGet();
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        running = false;
+        if (controller != null) {
+            controller.interrupt();
+        }
+    }
+
+    public ConsumerScaler getScaler() {
+        return scaler;
+    }
+}
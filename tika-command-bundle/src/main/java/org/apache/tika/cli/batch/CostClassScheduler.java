@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tika.batch.FileResource;
+
+/**
+ * {@link LookaheadScheduler} that keeps one queue per {@link CostClass}, so
+ * that a run of expensive documents doesn't hide the cheap ones behind it.
+ * Each consumer thread has a home class (assigned round robin, heavy first)
+ * and steals from the head of the longest other class when its own is empty,
+ * so no consumer sits idle while there is work of any kind.
+ */
+public class CostClassScheduler extends LookaheadScheduler {
+
+    //heavy and light first so that two consumers already interleave them
+    private static final CostClass[] HOME_ORDER =
+            new CostClass[]{CostClass.HEAVY, CostClass.LIGHT, CostClass.MEDIUM};
+
+    private final CostClassifier classifier;
+    private final Deque<FileResource>[] queues;
+
+    private final AtomicInteger nextHome = new AtomicInteger();
+    private final ThreadLocal<CostClass> home = new ThreadLocal<CostClass>() {
+        @Override
+        protected CostClass initialValue() {
+            return HOME_ORDER[nextHome.getAndIncrement() % HOME_ORDER.length];
+        }
+    };
+    private final AtomicLong steals = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public CostClassScheduler(ArrayBlockingQueue<FileResource> upstream,
+                              CostClassifier classifier, int lookahead) {
+        super(upstream, lookahead);
+        this.classifier = classifier;
+        this.queues = new Deque[CostClass.values().length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * @return number of resources pulled ahead and waiting in the given class
+     */
+    public int getQueued(CostClass costClass) {
+        synchronized (getLock()) {
+            return queues[costClass.ordinal()].size();
+        }
+    }
+
+    /**
+     * @return number of times a consumer took work outside its home class
+     */
+    public long getSteals() {
+        return steals.get();
+    }
+
+    @Override
+    protected void hold(FileResource fileResource) {
+        queues[classifier.getCostClass(fileResource).ordinal()].addLast(fileResource);
+    }
+
+    @Override
+    protected FileResource next() {
+        Deque<FileResource> own = queues[home.get().ordinal()];
+        if (!own.isEmpty()) {
+            return own.pollFirst();
+        }
+        Deque<FileResource> victim = null;
+        for (Deque<FileResource> q : queues) {
+            if (q.size() > 0 && (victim == null || q.size() > victim.size())) {
+                victim = q;
+            }
+        }
+        if (victim != null) {
+            steals.incrementAndGet();
+            return victim.pollFirst();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+
+/**
+ * Assigns a {@link CostClass} to a {@link FileResource} from its file name
+ * and, if the crawler recorded it, its length.  Nothing is read from the file.
+ */
+public class CostClassifier {
+
+    public static final long DEFAULT_HEAVY_BYTES = 20 * 1024 * 1024;
+    public static final long DEFAULT_LIGHT_BYTES = 256 * 1024;
+
+    private static final Set<String> HEAVY_TYPES = new HashSet<>(Arrays.asList(
+            "application/pdf",
+            "application/msword",
+            "application/vnd.ms-excel",
+            "application/vnd.ms-powerpoint",
+            "application/vnd.ms-outlook",
+            "application/vnd.ms-outlook-pst",
+            "application/vnd.visio",
+            "application/zip",
+            "application/x-tar",
+            "application/gzip",
+            "application/x-gzip",
+            "application/x-bzip2",
+            "application/x-7z-compressed",
+            "application/x-rar-compressed",
+            "application/x-sqlite3",
+            "application/vnd.oasis.opendocument.text",
+            "application/vnd.oasis.opendocument.spreadsheet",
+            "application/vnd.oasis.opendocument.presentation"));
+
+    private static final Set<String> LIGHT_TYPES = new HashSet<>(Arrays.asList(
+            "application/xml",
+            "application/json",
+            "application/javascript",
+            "application/rtf",
+            "message/rfc822"));
+
+    private final Detector nameDetector;
+    private long heavyBytes = DEFAULT_HEAVY_BYTES;
+    private long lightBytes = DEFAULT_LIGHT_BYTES;
+
+    /**
+     * @param nameDetector detector that can work from the resource name alone,
+     *                     typically the config's MimeTypes
+     */
+    public CostClassifier(Detector nameDetector) {
+        this.nameDetector = nameDetector;
+    }
+
+    public CostClass getCostClass(FileResource fileResource) {
+        Metadata metadata = fileResource.getMetadata();
+        long length = getLength(metadata);
+        if (heavyBytes > -1 && length >= heavyBytes) {
+            return CostClass.HEAVY;
+        }
+        CostClass byType = getCostClass(getMediaType(metadata));
+        if (byType == CostClass.MEDIUM && length > -1 && length <= lightBytes) {
+            return CostClass.LIGHT;
+        }
+        return byType;
+    }
+
+    CostClass getCostClass(MediaType mediaType) {
+        if (mediaType == null) {
+            return CostClass.MEDIUM;
+        }
+        String type = mediaType.getBaseType().toString();
+        if (HEAVY_TYPES.contains(type)
+                || type.startsWith("application/vnd.openxmlformats-officedocument.")
+                || type.startsWith("application/vnd.ms-")
+                || mediaType.getType().equals("image")
+                || mediaType.getType().equals("video")
+                || mediaType.getType().equals("audio")) {
+            return CostClass.HEAVY;
+        }
+        if (LIGHT_TYPES.contains(type) || mediaType.getType().equals("text")) {
+            return CostClass.LIGHT;
+        }
+        return CostClass.MEDIUM;
+    }
+
+    /**
+     * @return media type guessed from the resource name, or <code>null</code>
+     * if the name is unknown or doesn't identify a type
+     */
+    public MediaType getMediaType(Metadata metadata) {
+        if (metadata == null) {
+            return null;
+        }
+        return getMediaType(metadata.get(Metadata.RESOURCE_NAME_KEY));
+    }
+
+    /**
+     * @return media type guessed from the resource name, or <code>null</code>
+     * if the name is <code>null</code> or doesn't identify a type
+     */
+    public MediaType getMediaType(String resourceName) {
+        if (nameDetector == null || resourceName == null) {
+            return null;
+        }
+        Metadata nameOnly = new Metadata();
+        nameOnly.set(Metadata.RESOURCE_NAME_KEY, resourceName);
+        try {
+            MediaType type = nameDetector.detect(null, nameOnly);
+            if (type == null || MediaType.OCTET_STREAM.equals(type)) {
+                return null;
+            }
+            return type;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return length from {@link Metadata#CONTENT_LENGTH} or -1 if it isn't set
+     */
+    public static long getLength(Metadata metadata) {
+        if (metadata == null) {
+            return -1;
+        }
+        String length = metadata.get(Metadata.CONTENT_LENGTH);
+        if (length == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(length);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param heavyBytes files at least this long are always heavy; -1 to ignore length
+     */
+    public void setHeavyBytes(long heavyBytes) {
+        this.heavyBytes = heavyBytes;
+    }
+
+    /**
+     * @param lightBytes files of an unremarkable type up to this long are light
+     */
+    public void setLightBytes(long lightBytes) {
+        this.lightBytes = lightBytes;
+    }
+}
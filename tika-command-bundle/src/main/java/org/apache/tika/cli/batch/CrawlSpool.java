@@ -0,0 +1,344 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only file of the paths found by the crawler, read back through a
+ * cursor, so that the walk can run ahead of the consumers without holding
+ * the backlog in memory.  Each record is
+ * <code>length(int) path(UTF-8) fileLength(long)</code>.
+ * <p>
+ * A walk that finishes writes <code>&lt;spool&gt;.done</code>.  The reader
+ * stores its position in <code>&lt;spool&gt;.cursor</code>, and a child
+ * that finds a finished spool carries on from the cursor instead of
+ * crawling again; an unfinished spool is crawled again from scratch.  The
+ * cursor is only moved past records that can't still be queued or in a
+ * consumer, so a restart repeats a few files rather than losing any.
+ * <p>
+ * The spool is deleted once a child has handled everything in it.  The
+ * crawler and the consumers are built separately, so both get hold of the
+ * spool through {@link #forPath(Path)}.
+ */
+public class CrawlSpool implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CrawlSpool.class);
+
+    public static final String DEFAULT_FILE_NAME = ".tika-crawl-spool";
+
+    //how much the writer buffers before the reader gets to see it
+    private static final int FLUSH_BYTES = 64 * 1024;
+
+    private static final ConcurrentMap<Path, CrawlSpool> SPOOLS = new ConcurrentHashMap<>();
+
+    private final Path path;
+    private final Path cursorPath;
+    private final Path donePath;
+
+    private DataOutputStream writer;
+    private long written = 0;
+    private long flushed = 0;
+    private boolean walkDone = false;
+    private boolean waiting = false;
+
+    private DataInputStream reader;
+    private long readPos = 0;
+    private boolean exhausted = false;
+    private final AtomicLong added = new AtomicLong();
+
+    /**
+     * @return the spool set with <code>crawlSpoolFile</code> or the default
+     * one in <code>outputDir</code>
+     * @throws RuntimeException if neither is set
+     */
+    public static Path getSpoolPath(Map<String, String> attributes) {
+        String spool = attributes.get("crawlSpoolFile");
+        if (spool != null && spool.trim().length() > 0) {
+            return Paths.get(spool);
+        }
+        String outputDir = attributes.get("outputDir");
+        if (outputDir != null && outputDir.trim().length() > 0) {
+            return Paths.get(outputDir).resolve(DEFAULT_FILE_NAME);
+        }
+        throw new RuntimeException("crawlSpool needs a crawlSpoolFile or an outputDir");
+    }
+
+    /**
+     * @return the spool for this path, opening it on first use
+     */
+    public static CrawlSpool forPath(Path path) {
+        Path key = path.toAbsolutePath().normalize();
+        CrawlSpool spool = SPOOLS.get(key);
+        if (spool == null) {
+            synchronized (SPOOLS) {
+                spool = SPOOLS.get(key);
+                if (spool == null) {
+                    spool = new CrawlSpool(key);
+                    SPOOLS.put(key, spool);
+                }
+            }
+        }
+        return spool;
+    }
+
+    CrawlSpool(Path path) {
+        this.path = path;
+        this.cursorPath = path.resolveSibling(path.getFileName() + ".cursor");
+        this.donePath = path.resolveSibling(path.getFileName() + ".done");
+        if (Files.isRegularFile(path) && Files.isRegularFile(donePath)) {
+            try {
+                flushed = written = Files.size(path);
+                readPos = loadCursor();
+                walkDone = true;
+            } catch (IOException e) {
+                LOG.warn("Couldn't read the crawl spool " + path + "; crawling again", e);
+            }
+        }
+    }
+
+    /**
+     * @return true if an earlier child finished the walk, in which case
+     * there's nothing to write and reading starts at the stored cursor
+     */
+    public synchronized boolean isWalkFinished() {
+        return walkDone && writer == null;
+    }
+
+    /**
+     * Empties the spool for a new walk.
+     */
+    public synchronized void startWalk() throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Files.deleteIfExists(donePath);
+        Files.deleteIfExists(cursorPath);
+        writer = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE), FLUSH_BYTES));
+        written = flushed = readPos = 0;
+        walkDone = false;
+        exhausted = false;
+    }
+
+    /**
+     * @param length file length or -1 if the walk didn't read it
+     */
+    public synchronized void append(String relPath, long length) throws IOException {
+        byte[] bytes = relPath.getBytes(UTF_8);
+        writer.writeInt(bytes.length);
+        writer.write(bytes);
+        writer.writeLong(length);
+        written += 4 + bytes.length + 8;
+        if (waiting || written - flushed >= FLUSH_BYTES) {
+            flush();
+        }
+    }
+
+    /**
+     * Ends the walk.
+     *
+     * @param finished false if the walk was interrupted or hit a limit, so
+     *                 the spool mustn't be resumed from
+     */
+    public synchronized void walkFinished(boolean finished) {
+        try {
+            if (writer != null) {
+                flush();
+                writer.close();
+            }
+            if (finished) {
+                Files.write(donePath, new byte[0]);
+            }
+        } catch (IOException e) {
+            LOG.warn("Couldn't finish the crawl spool " + path, e);
+        } finally {
+            writer = null;
+            walkDone = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return the next record, waiting for the walk if necessary, or null
+     * once the walk is done and every record has been read
+     */
+    public Record next() throws IOException, InterruptedException {
+        synchronized (this) {
+            while (readPos >= flushed) {
+                if (walkDone) {
+                    exhausted = true;
+                    return null;
+                }
+                if (written > flushed) {
+                    flush();
+                    break;
+                }
+                waiting = true;
+                try {
+                    wait(1000);
+                } finally {
+                    waiting = false;
+                }
+            }
+        }
+        //only this thread reads, and it never reads past a flushed record
+        if (reader == null) {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            channel.position(readPos);
+            reader = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        }
+        long offset = readPos;
+        byte[] bytes = new byte[reader.readInt()];
+        reader.readFully(bytes);
+        long length = reader.readLong();
+        readPos += 4 + bytes.length + 8;
+        return new Record(new String(bytes, UTF_8), length, offset);
+    }
+
+    /**
+     * Stores the offset of the first record a restarted child has to read.
+     */
+    public void saveCursor(long offset) {
+        Path tmp = cursorPath.resolveSibling(cursorPath.getFileName() + ".tmp");
+        try {
+            Files.write(tmp, Long.toString(offset).getBytes(UTF_8));
+            Files.move(tmp, cursorPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Couldn't save the crawl spool cursor " + cursorPath, e);
+        }
+    }
+
+    /**
+     * Call for every record the crawler queued.
+     */
+    public void added() {
+        added.incrementAndGet();
+    }
+
+    public long getAdded() {
+        return added.get();
+    }
+
+    /**
+     * The crawler hit a limit; the run ends here.
+     */
+    public synchronized void stopped() {
+        exhausted = true;
+    }
+
+    /**
+     * @return true once the reader has reached the end of a finished walk
+     * or the crawler stopped at a limit
+     */
+    public synchronized boolean isExhausted() {
+        return exhausted;
+    }
+
+    /**
+     * Removes the spool, its cursor and its marker once the run is over.
+     */
+    public synchronized void delete() throws IOException {
+        close();
+        Files.deleteIfExists(donePath);
+        Files.deleteIfExists(cursorPath);
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        IOUtils.closeQuietly(writer);
+        IOUtils.closeQuietly(reader);
+        writer = null;
+        reader = null;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    private void flush() throws IOException {
+        writer.flush();
+        flushed = written;
+        notifyAll();
+    }
+
+    private long loadCursor() throws IOException {
+        if (!Files.isRegularFile(cursorPath)) {
+            return 0;
+        }
+        try {
+            long cursor = Long.parseLong(new String(Files.readAllBytes(cursorPath), UTF_8).trim());
+            return cursor >= 0 && cursor <= flushed ? cursor : 0;
+        } catch (NumberFormatException e) {
+            LOG.warn("Ignoring a corrupt crawl spool cursor " + cursorPath);
+            return 0;
+        }
+    }
+
+    public static class Record {
+        private final String relPath;
+        private final long length;
+        private final long offset;
+
+        Record(String relPath, long length, long offset) {
+            this.relPath = relPath;
+            this.length = length;
+            this.offset = offset;
+        }
+
+        public String getRelPath() {
+            return relPath;
+        }
+
+        /**
+         * @return file length or -1 if the walk didn't read it
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * @return where the record starts, for {@link #saveCursor(long)}
+         */
+        public long getOffset() {
+            return offset;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tika.batch.FileResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deletes the {@link CrawlSpool} once every file the crawler queued from it
+ * has been handled.  A child that dies or times out leaves the spool and its
+ * cursor in place for the restarted child.
+ * <p>
+ * Like {@link IncrementalInterceptor}, this must come before any interceptor
+ * that can veto a resource.
+ */
+public class CrawlSpoolInterceptor extends ProcessingInterceptor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CrawlSpoolInterceptor.class);
+
+    private final CrawlSpool spool;
+    private final AtomicLong handled = new AtomicLong();
+
+    public CrawlSpoolInterceptor(CrawlSpool spool) {
+        this.spool = spool;
+    }
+
+    @Override
+    public void afterProcessing(FileResource fileResource, boolean processed, long elapsedMillis) {
+        handled.incrementAndGet();
+    }
+
+    @Override
+    public void vetoed(FileResource fileResource) {
+        handled.incrementAndGet();
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        if (!spool.isExhausted() || handled.get() < spool.getAdded()) {
+            LOG.info("Keeping the crawl spool " + spool.getPath() + " after " + handled.get() + " of " +
+                    spool.getAdded() + " queued files");
+            spool.close();
+            return;
+        }
+        spool.delete();
+        LOG.info("Run complete; deleted the crawl spool " + spool.getPath());
+    }
+}
@@ -23,13 +23,39 @@ import org.apache.tika.parser.AutoDetectParser;
 import org.apache.tika.parser.DigestingParser;
 import org.apache.tika.parser.Parser;
 
+/**
+ * Builds an {@link AutoDetectParser}, wrapped in a {@link DigestingParser}
+ * if there is a digester.
+ * <p>
+ * By default every consumer gets its own parser, with its own detectors and
+ * parser maps.  With {@link #setShared(boolean)}, the first call builds one
+ * parser for the child and every consumer gets that same instance.
+ * AutoDetectParser and the digester keep no state between parses, so this
+ * is safe, and the heap no longer grows with <code>numConsumers</code> for
+ * the parser graph.
+ */
 public class DigestingAutoDetectParserFactory extends ParserFactory {
 
     private DigestingParser.Digester digester = null;
-
+    private boolean shared = false;
+    private Parser sharedParser;
+    private TikaConfig sharedConfig;
 
     @Override
     public Parser getParser(TikaConfig config) {
+        if (!shared) {
+            return buildParser(config);
+        }
+        synchronized (this) {
+            if (sharedParser == null || sharedConfig != config) {
+                sharedParser = buildParser(config);
+                sharedConfig = config;
+            }
+            return sharedParser;
+        }
+    }
+
+    private Parser buildParser(TikaConfig config) {
         Parser p = new AutoDetectParser(config);
         if (digester == null) {
             return p;
@@ -41,4 +67,11 @@ public class DigestingAutoDetectParserFactory extends ParserFactory {
     public void setDigester(DigestingParser.Digester digester) {
         this.digester = digester;
     }
+
+    /**
+     * @param shared hand the same parser to every consumer
+     */
+    public void setShared(boolean shared) {
+        this.shared = shared;
+    }
 }
@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts, bytes and parse latency for one media type or parser class.
+ */
+public class DocumentMetrics {
+
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * @param length input length, or -1 if unknown
+     */
+    public void record(long length, long elapsedMillis, boolean processed) {
+        documents.incrementAndGet();
+        if (!processed) {
+            failures.incrementAndGet();
+        }
+        if (length > 0) {
+            bytes.addAndGet(length);
+        }
+        latency.record(elapsedMillis);
+    }
+
+    public long getDocuments() {
+        return documents.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 64 bit fingerprints of input files, used as compact keys where keeping
+ * the paths themselves in memory would be too expensive.
+ */
+public final class Fingerprint {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private Fingerprint() {
+    }
+
+    /**
+     * @param digest content digest or <code>null</code>
+     * @return fingerprint of a file's path, length, modification time and, optionally, digest
+     */
+    public static long of(String path, long size, long lastModified, byte[] digest) {
+        long h = update(FNV_OFFSET, path.getBytes(UTF_8));
+        h = update(h, size);
+        h = update(h, lastModified);
+        if (digest != null) {
+            h = update(h, digest);
+        }
+        return finish(h);
+    }
+
+    /**
+     * @return fingerprint of the path alone
+     */
+    public static long ofPath(String path) {
+        return finish(update(FNV_OFFSET, path.getBytes(UTF_8)));
+    }
+
+    /**
+     * @return MD5 of the file's content
+     */
+    public static byte[] md5(Path path) throws IOException {
+        return md5(Files.newInputStream(path));
+    }
+
+    /**
+     * @return MD5 of the stream's content; the stream is closed
+     */
+    public static byte[] md5(InputStream stream) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buffer = new byte[65536];
+        try (InputStream is = new DigestInputStream(stream, md)) {
+            while (is.read(buffer) != -1) {
+                //just digesting
+            }
+        }
+        return md.digest();
+    }
+
+    /**
+     * @return the first 8 bytes of the digest as a long
+     */
+    public static long toLong(byte[] digest) {
+        long v = 0;
+        for (int i = 0; i < 8 && i < digest.length; i++) {
+            v = (v << 8) | (digest[i] & 0xff);
+        }
+        return v;
+    }
+
+    /**
+     * @return 16 hex digit representation
+     */
+    public static String toHex(long fingerprint) {
+        String hex = Long.toHexString(fingerprint);
+        StringBuilder sb = new StringBuilder(16);
+        for (int i = hex.length(); i < 16; i++) {
+            sb.append('0');
+        }
+        return sb.append(hex).toString();
+    }
+
+    /**
+     * @throws NumberFormatException if this isn't a 16 hex digit string
+     */
+    public static long fromHex(String hex) {
+        if (hex.length() != 16) {
+            throw new NumberFormatException("expected 16 hex digits: " + hex);
+        }
+        //no unsigned parsing in Java 7
+        return (Long.parseLong(hex.substring(0, 8), 16) << 32) | Long.parseLong(hex.substring(8), 16);
+    }
+
+    private static long update(long h, byte[] bytes) {
+        for (byte b : bytes) {
+            h ^= (b & 0xff);
+            h *= FNV_PRIME;
+        }
+        return h;
+    }
+
+    private static long update(long h, long value) {
+        for (int i = 0; i < 8; i++) {
+            h ^= (value >>> (i * 8)) & 0xff;
+            h *= FNV_PRIME;
+        }
+        return h;
+    }
+
+    //murmur3 finalizer, spreads FNV's weak high bits
+    private static long finish(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
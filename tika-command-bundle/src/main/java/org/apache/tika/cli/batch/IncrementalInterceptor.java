@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.fs.FSProperties;
+import org.apache.tika.cli.batch.fs.OutputFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Makes the {@link IncrementalManifest} written during the crawl the
+ * baseline for the next run, but only once every file the crawler queued
+ * has been handled.  A child that dies or times out leaves the previous
+ * manifest in place, so the restarted child crawls against it again.
+ * <p>
+ * The output factories skip inputs whose outputs exist, so the stale
+ * outputs of a modified file are deleted before it is processed.  A file
+ * that wasn't processed although it had no output, new or modified, still
+ * counts as handled but is {@link IncrementalManifest#failed(String) left
+ * modified} in the committed manifest, so the next run tries it again.
+ * <p>
+ * This must be the first interceptor so that it sees every resource,
+ * including ones a later interceptor vetoes.
+ */
+public class IncrementalInterceptor extends ProcessingInterceptor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementalInterceptor.class);
+
+    private final IncrementalManifest manifest;
+    private final AtomicLong handled = new AtomicLong();
+    //whether the current resource's output already existed, so it is skipped
+    private final ThreadLocal<Boolean> outputExisted = new ThreadLocal<>();
+    private OutputFiles outputFiles;
+
+    public IncrementalInterceptor(IncrementalManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * @param outputFiles where the stale outputs of modified files are deleted from
+     */
+    public void setOutputFiles(OutputFiles outputFiles) {
+        this.outputFiles = outputFiles;
+    }
+
+    @Override
+    public boolean beforeProcessing(FileResource fileResource) {
+        String relPath = fileResource.getMetadata().get(FSProperties.FS_REL_PATH);
+        boolean existed = false;
+        if (outputFiles != null && relPath != null) {
+            if (manifest.isModified(relPath)) {
+                try {
+                    outputFiles.delete(relPath);
+                } catch (IOException e) {
+                    LOG.warn("Couldn't delete the stale output of " + relPath, e);
+                }
+            }
+            try {
+                existed = outputFiles.exists(relPath);
+            } catch (IOException e) {
+                LOG.warn("Couldn't check the output of " + relPath, e);
+            }
+        }
+        outputExisted.set(existed);
+        return true;
+    }
+
+    @Override
+    public void afterProcessing(FileResource fileResource, boolean processed, long elapsedMillis) {
+        String relPath = fileResource.getMetadata().get(FSProperties.FS_REL_PATH);
+        //a file whose output exists was skipped as in any other run
+        if (!processed && relPath != null && !Boolean.TRUE.equals(outputExisted.get())) {
+            LOG.warn("{} wasn't processed; the next run will try it again", relPath);
+            manifest.failed(relPath);
+        }
+        outputExisted.remove();
+        handled.incrementAndGet();
+    }
+
+    @Override
+    public void vetoed(FileResource fileResource) {
+        handled.incrementAndGet();
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        if (!manifest.isCrawlComplete()) {
+            LOG.info("Crawl didn't complete; keeping the previous manifest");
+            return;
+        }
+        if (handled.get() < manifest.getQueued()) {
+            LOG.info("Only " + handled.get() + " of " + manifest.getQueued() +
+                    " queued files were handled; keeping the previous manifest");
+            return;
+        }
+        manifest.commit();
+        LOG.info("Committed manifest after " + handled.get() + " new or modified files");
+    }
+
+    public long getHandled() {
+        return handled.get();
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * State of the input tree as of the last completed incremental run: the
+ * length, modification time and, optionally, the start of an MD5 of every
+ * file, stored as <code>path TAB length TAB mtime TAB md5</code>.
+ * <p>
+ * During the crawl every file is {@link #check checked} against the previous
+ * manifest and written to a new one.  When the crawl covered the whole tree,
+ * files in the previous manifest that weren't seen are reported as deleted
+ * in <code>&lt;manifest&gt;.deleted</code>.  The new manifest replaces the
+ * previous one only when the run {@link #commit() completes}, so a run that
+ * dies part way is simply repeated against the same baseline.  Files that
+ * {@link #failed(String) failed} are committed without a length or mtime,
+ * so the next run finds them modified and tries them again.
+ * <p>
+ * The previous manifest is held in parallel <code>long[]</code> tables keyed
+ * on a fingerprint of the path rather than as strings; that's 16 bytes per
+ * file plus 8 when hashing.
+ * <p>
+ * The crawler and the consumers are built separately, so both get hold of
+ * the manifest through {@link #forPath(Path, boolean)}.
+ */
+public class IncrementalManifest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementalManifest.class);
+
+    public static final String DEFAULT_FILE_NAME = ".tika-manifest.tsv";
+
+    private static final String HEADER = "#path\tlength\tmtime\tmd5";
+    private static final double MAX_LOAD = 0.7;
+
+    public enum Change {
+        NEW,
+        MODIFIED,
+        UNCHANGED
+    }
+
+    private static final ConcurrentMap<Path, IncrementalManifest> MANIFESTS = new ConcurrentHashMap<>();
+
+    private final Path path;
+    private final Path newPath;
+    private final Path deletedPath;
+    private final boolean useHash;
+
+    //previous manifest; slots with key 0 are empty
+    private long[] keys;
+    private long[] states;
+    private long[] hashes;
+    private long[] seen;
+    private int previousSize = 0;
+    //keys of the files found modified in this crawl
+    private final LongHashSet modifiedKeys = new LongHashSet();
+    //keys of the files whose processing failed in this run
+    private final LongHashSet failedKeys = new LongHashSet();
+
+    private BufferedWriter writer;
+    private volatile boolean crawlComplete = false;
+    private final AtomicLong queued = new AtomicLong();
+    private long newFiles = 0;
+    private long modified = 0;
+    private long unchanged = 0;
+    private long deleted = 0;
+
+    /**
+     * @return the manifest set with <code>manifest</code> or the default one
+     * in <code>outputDir</code>
+     * @throws RuntimeException if neither is set
+     */
+    public static Path getManifestPath(Map<String, String> attributes) {
+        String manifest = attributes.get("manifest");
+        if (manifest != null && manifest.trim().length() > 0) {
+            return Paths.get(manifest);
+        }
+        String outputDir = attributes.get("outputDir");
+        if (outputDir != null && outputDir.trim().length() > 0) {
+            return Paths.get(outputDir).resolve(DEFAULT_FILE_NAME);
+        }
+        throw new RuntimeException("incremental mode needs a manifest or an outputDir");
+    }
+
+    /**
+     * @return the manifest for this path, loading it on first use
+     */
+    public static IncrementalManifest forPath(Path path, boolean useHash) {
+        Path key = path.toAbsolutePath().normalize();
+        IncrementalManifest manifest = MANIFESTS.get(key);
+        if (manifest == null) {
+            synchronized (MANIFESTS) {
+                manifest = MANIFESTS.get(key);
+                if (manifest == null) {
+                    manifest = new IncrementalManifest(key, useHash);
+                    MANIFESTS.put(key, manifest);
+                }
+            }
+        }
+        return manifest;
+    }
+
+    IncrementalManifest(Path path, boolean useHash) {
+        this.path = path;
+        this.newPath = path.resolveSibling(path.getFileName() + ".new");
+        this.deletedPath = path.resolveSibling(path.getFileName() + ".deleted");
+        this.useHash = useHash;
+        allocate(1024);
+        load();
+    }
+
+    /**
+     * Compares a file with the previous manifest and records its current state.
+     *
+     * @param file used to compute the MD5 when hashing and the length or mtime changed
+     */
+    public synchronized Change check(String relPath, Path file, long length, long lastModified)
+            throws IOException {
+        int slot = find(key(relPath));
+        long state = state(length, lastModified);
+        long hash = 0;
+        Change change;
+        if (slot < 0) {
+            change = Change.NEW;
+            if (useHash) {
+                hash = Fingerprint.toLong(Fingerprint.md5(file));
+            }
+        } else {
+            seen[slot >>> 6] |= 1L << slot;
+            if (states[slot] == state) {
+                change = Change.UNCHANGED;
+                hash = hashes[slot];
+            } else if (useHash) {
+                hash = Fingerprint.toLong(Fingerprint.md5(file));
+                //touched but not changed
+                change = (hashes[slot] != 0 && hashes[slot] == hash) ? Change.UNCHANGED : Change.MODIFIED;
+            } else {
+                change = Change.MODIFIED;
+            }
+        }
+        switch (change) {
+            case NEW:
+                newFiles++;
+                break;
+            case MODIFIED:
+                modified++;
+                modifiedKeys.add(key(relPath));
+                break;
+            default:
+                unchanged++;
+        }
+        write(relPath, length, lastModified, hash);
+        return change;
+    }
+
+    /**
+     * @return whether this crawl found the file changed since the previous
+     * manifest, so that its existing outputs are stale
+     */
+    public synchronized boolean isModified(String relPath) {
+        return modifiedKeys.contains(key(relPath));
+    }
+
+    /**
+     * Records that the file wasn't processed, so that it's committed as
+     * modified for the next run to try again.
+     */
+    public synchronized void failed(String relPath) {
+        failedKeys.add(key(relPath));
+    }
+
+    /**
+     * Call for every file the crawler queued.
+     */
+    public void added() {
+        queued.incrementAndGet();
+    }
+
+    public long getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * Closes the new manifest and, if the crawl covered the whole tree,
+     * writes the deletion report.
+     *
+     * @param complete whether every directory was read and the crawl wasn't stopped early
+     */
+    public synchronized void crawlFinished(boolean complete) {
+        try {
+            openWriter();
+            writer.close();
+        } catch (IOException e) {
+            LOG.warn("Couldn't finish new manifest " + newPath, e);
+            return;
+        }
+        if (!complete) {
+            LOG.warn("Crawl didn't cover the whole input; not reporting deletions and " +
+                    "keeping the previous manifest");
+            return;
+        }
+        try {
+            reportDeleted();
+        } catch (IOException e) {
+            LOG.warn("Couldn't write deletion report " + deletedPath, e);
+            return;
+        }
+        crawlComplete = true;
+        LOG.info("Incremental crawl: " + newFiles + " new, " + modified + " modified, " +
+                unchanged + " unchanged, " + deleted + " deleted" +
+                (deleted > 0 ? " (listed in " + deletedPath + ")" : ""));
+    }
+
+    public boolean isCrawlComplete() {
+        return crawlComplete;
+    }
+
+    /**
+     * Makes the manifest written by this run the baseline for the next one.
+     */
+    public synchronized void commit() throws IOException {
+        if (!crawlComplete) {
+            throw new IllegalStateException("crawl didn't complete");
+        }
+        if (failedKeys.size() > 0) {
+            forgetFailed();
+        }
+        Files.move(newPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        crawlComplete = false;
+    }
+
+    public synchronized long getDeleted() {
+        return deleted;
+    }
+
+    private void reportDeleted() throws IOException {
+        deleted = 0;
+        try (BufferedWriter deletedWriter = Files.newBufferedWriter(deletedPath, UTF_8)) {
+            if (previousSize == 0) {
+                return;
+            }
+            try (BufferedReader reader = Files.newBufferedReader(path, UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("#")) {
+                        continue;
+                    }
+                    int tab = line.indexOf('\t');
+                    if (tab < 0) {
+                        continue;
+                    }
+                    String escaped = line.substring(0, tab);
+                    int slot = find(key(TabSeparated.unescape(escaped)));
+                    if (slot >= 0 && (seen[slot >>> 6] & (1L << slot)) == 0) {
+                        deletedWriter.write(escaped);
+                        deletedWriter.newLine();
+                        deleted++;
+                    }
+                }
+            }
+        }
+    }
+
+    //rewrites the new manifest with the failed files' state cleared
+    private void forgetFailed() throws IOException {
+        Path tmp = newPath.resolveSibling(newPath.getFileName() + ".tmp");
+        try (BufferedReader reader = Files.newBufferedReader(newPath, UTF_8);
+             BufferedWriter failedWriter = Files.newBufferedWriter(tmp, UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (!line.startsWith("#") && tab > 0) {
+                    String escaped = line.substring(0, tab);
+                    if (failedKeys.contains(key(TabSeparated.unescape(escaped)))) {
+                        line = escaped + "\t-1\t-1\t";
+                    }
+                }
+                failedWriter.write(line);
+                failedWriter.newLine();
+            }
+        }
+        Files.move(tmp, newPath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void write(String relPath, long length, long lastModified, long hash) throws IOException {
+        openWriter();
+        StringBuilder sb = new StringBuilder(relPath.length() + 48);
+        TabSeparated.escape(relPath, sb);
+        sb.append('\t').append(length).append('\t').append(lastModified).append('\t');
+        if (hash != 0) {
+            sb.append(Fingerprint.toHex(hash));
+        }
+        writer.write(sb.toString());
+        writer.newLine();
+    }
+
+    private void openWriter() throws IOException {
+        if (writer == null) {
+            Path parent = newPath.getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            writer = Files.newBufferedWriter(newPath, UTF_8);
+            writer.write(HEADER);
+            writer.newLine();
+        }
+    }
+
+    private void load() {
+        if (!Files.isRegularFile(path)) {
+            LOG.info("No previous manifest at " + path + "; every file is new");
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path, UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                String[] cols = line.split("\t", -1);
+                if (cols.length < 3) {
+                    continue;
+                }
+                try {
+                    long hash = cols.length > 3 && cols[3].length() > 0 ? Fingerprint.fromHex(cols[3]) : 0;
+                    put(key(TabSeparated.unescape(cols[0])),
+                            state(Long.parseLong(cols[1]), Long.parseLong(cols[2])), hash);
+                } catch (NumberFormatException e) {
+                    LOG.warn("Skipping bad manifest line: " + line);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't read manifest " + path, e);
+        }
+        LOG.info("Loaded " + previousSize + " files from manifest " + path);
+    }
+
+    private static long key(String relPath) {
+        long key = Fingerprint.ofPath(relPath);
+        return key == 0 ? 1 : key;
+    }
+
+    private static long state(long length, long lastModified) {
+        return Fingerprint.of("", length, lastModified, null);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        states = new long[capacity];
+        hashes = new long[capacity];
+        seen = new long[(capacity + 63) >>> 6];
+    }
+
+    private void put(long key, long state, long hash) {
+        if (previousSize + 1 > keys.length * MAX_LOAD) {
+            long[] oldKeys = keys;
+            long[] oldStates = states;
+            long[] oldHashes = hashes;
+            allocate(keys.length << 1);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    insert(oldKeys[i], oldStates[i], oldHashes[i]);
+                }
+            }
+        }
+        if (insert(key, state, hash)) {
+            previousSize++;
+        }
+    }
+
+    private boolean insert(long key, long state, long hash) {
+        int mask = keys.length - 1;
+        int i = (int) (key ^ (key >>> 32)) & mask;
+        while (keys[i] != 0) {
+            if (keys[i] == key) {
+                states[i] = state;
+                hashes[i] = hash;
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        states[i] = state;
+        hashes[i] = hash;
+        return true;
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int i = (int) (key ^ (key >>> 32)) & mask;
+        while (keys[i] != 0) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.FileResourceConsumer;
+import org.apache.tika.batch.FileStarted;
+
+/**
+ * Consumer that pulls from the queue itself and hands each resource
+ * to a delegate consumer, calling the {@link ProcessingInterceptor}s
+ * before and after.
+ * <p>
+ * The delegate's own queue is never read.
+ * <p>
+ * The batch's timeout covers the parse only: time an interceptor holds a
+ * resource back before the parse, waiting for memory for instance, and
+ * the {@link TimeoutAllowance} the parse builds up are added to the
+ * threshold in {@link #checkForTimedOutMillis(long)}, which also reports
+ * the consumer as timed out once an interceptor asks for a restart.
+ */
+public class InterceptingConsumer extends FileResourceConsumer {
+
+    public enum State {
+        IDLE, //waiting for a resource
+        HELD, //held back by an interceptor before taking a resource
+        INTERCEPTING, //in the interceptors
+        PARSING //in the delegate
+    }
+
+    private final FileResourceConsumer delegate;
+    private final List<ProcessingInterceptor> interceptors;
+    private volatile State state = State.IDLE;
+    private volatile String currentResourceId;
+    private volatile long stateChangeMillis = System.currentTimeMillis();
+    //time the resource in hand spent in the interceptors before its parse,
+    //-1 until the parse starts
+    private volatile long beforeParseMillis = -1;
+    //the TimeoutAllowance of the resource in hand
+    private final AtomicLong waitedNanos = new AtomicLong();
+    //interceptors whose beforeTaking() returned for the resource in hand
+    private int held = 0;
+
+    public InterceptingConsumer(ArrayBlockingQueue<FileResource> queue,
+                                FileResourceConsumer delegate,
+                                List<ProcessingInterceptor> interceptors) {
+        super(queue);
+        this.delegate = delegate;
+        this.interceptors = interceptors;
+    }
+
+    @Override
+    protected FileResource getNextFileResource() throws InterruptedException {
+        setState(State.HELD);
+        try {
+            for (ProcessingInterceptor interceptor : interceptors) {
+                interceptor.beforeTaking();
+                held++;
+            }
+        } catch (InterruptedException e) {
+            release();
+            setState(State.IDLE);
+            throw e;
+        }
+        setState(State.IDLE);
+        FileResource fileResource = null;
+        try {
+            fileResource = super.getNextFileResource();
+        } finally {
+            if (fileResource == null) {
+                release();
+            }
+        }
+        return fileResource;
+    }
+
+    @Override
+    public boolean processFileResource(FileResource fileResource) {
+        currentResourceId = fileResource.getResourceId();
+        waitedNanos.set(0);
+        TimeoutAllowance.bind(waitedNanos);
+        setState(State.INTERCEPTING);
+        try {
+            return intercept(fileResource, stateChangeMillis);
+        } finally {
+            TimeoutAllowance.unbind();
+            release();
+            beforeParseMillis = -1;
+            currentResourceId = null;
+            setState(State.IDLE);
+        }
+    }
+
+    @Override
+    public FileStarted checkForTimedOutMillis(long staleThresholdMillis) {
+        for (ProcessingInterceptor interceptor : interceptors) {
+            String reason = interceptor.getRestartReason();
+            if (reason != null) {
+                String resourceId = currentResourceId;
+                return new FileStarted(resourceId == null ? reason : resourceId, stateChangeMillis);
+            }
+        }
+        if (staleThresholdMillis < 0) {
+            return super.checkForTimedOutMillis(staleThresholdMillis);
+        }
+        long beforeParse = beforeParseMillis;
+        if (beforeParse < 0) {
+            //not parsing yet
+            return null;
+        }
+        long allowance = beforeParse + TimeUnit.NANOSECONDS.toMillis(waitedNanos.get());
+        return super.checkForTimedOutMillis(staleThresholdMillis + allowance);
+    }
+
+    private void release() {
+        for (int i = held - 1; i >= 0; i--) {
+            interceptors.get(i).released();
+        }
+        held = 0;
+    }
+
+    private boolean intercept(FileResource fileResource, long takenMillis) {
+        int admitted = 0;
+        boolean vetoed = false;
+        try {
+            for (ProcessingInterceptor interceptor : interceptors) {
+                if (!interceptor.beforeProcessing(fileResource)) {
+                    vetoed = true;
+                    break;
+                }
+                admitted++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            vetoed = true;
+        }
+        if (vetoed) {
+            for (int i = admitted - 1; i >= 0; i--) {
+                interceptors.get(i).vetoed(fileResource);
+            }
+            return false;
+        }
+
+        long start = System.currentTimeMillis();
+        boolean processed = false;
+        beforeParseMillis = start - takenMillis;
+        setState(State.PARSING);
+        try {
+            processed = delegate.processFileResource(fileResource);
+        } finally {
+            setState(State.INTERCEPTING);
+            afterProcessing(fileResource, admitted, processed, System.currentTimeMillis() - start);
+        }
+        return processed;
+    }
+
+    private void afterProcessing(FileResource fileResource, int admitted,
+                                 boolean processed, long elapsed) {
+        for (int i = admitted - 1; i >= 0; i--) {
+            interceptors.get(i).afterProcessing(fileResource, processed, elapsed);
+        }
+    }
+
+    private void setState(State state) {
+        this.state = state;
+        stateChangeMillis = System.currentTimeMillis();
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return the resource being handled, or null when idle
+     */
+    public String getCurrentResourceId() {
+        return currentResourceId;
+    }
+
+    public long getStateChangeMillis() {
+        return stateChangeMillis;
+    }
+
+    @Override
+    public int getNumHandledExceptions() {
+        return delegate.getNumHandledExceptions();
+    }
+
+    public FileResourceConsumer getDelegate() {
+        return delegate;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tika.util.PropsUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read bandwidth and IOPS budgets for the batch input, shared by the
+ * crawler's directory listings and the consumers' reads so that a run
+ * puts a predictable load on shared storage.
+ * <p>
+ * Each budget is a token bucket that holds up to one second of its rate.
+ * A reader takes what it needs even if that overdraws the bucket and then
+ * sleeps until the debt is repaid, so large reads are never starved by
+ * small ones and the long-run rate stays at the budget.  Opening a file
+ * or skipping within it and listing a directory count as one operation, and
+ * reading a file counts one more for every {@link #OP_BYTES} read, so that
+ * a parser reading a byte at a time costs what a bulk reader does.
+ * <p>
+ * A consumer's reads are throttled in the middle of its parse.  The time it
+ * waits for the budgets is a {@link TimeoutAllowance}, so a tight budget
+ * slows the run down but doesn't time documents out.
+ * <p>
+ * The budgets can be changed while the run goes on through the
+ * {@link IoThrottleMXBean}.  There is one throttle per batch, built by the
+ * consumers builder and {@link #share shared} with the crawler built for
+ * the same queue.
+ */
+public class IoThrottle implements IoThrottleMXBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IoThrottle.class);
+
+    /**
+     * Bytes read that count as one operation, after the first block which
+     * the open pays for
+     */
+    public static final int OP_BYTES = 128 * 1024;
+
+    //tika-batch builds the consumers and the crawler separately; the batch
+    //queue is the one thing both are given
+    private static final Map<ArrayBlockingQueue<?>, IoThrottle> SHARED = new WeakHashMap<>();
+
+    private final Bucket bytes;
+    private final Bucket ops;
+    private final AtomicLong readBytes = new AtomicLong();
+    private final AtomicLong readOps = new AtomicLong();
+    private final AtomicLong throttledNanos = new AtomicLong();
+
+    /**
+     * @param maxBytesPerSecond zero or less for no limit
+     * @param maxOpsPerSecond   zero or less for no limit
+     */
+    public IoThrottle(long maxBytesPerSecond, long maxOpsPerSecond) {
+        this.bytes = new Bucket(maxBytesPerSecond);
+        this.ops = new Bucket(maxOpsPerSecond);
+    }
+
+    /**
+     * @return a throttle for <code>maxReadMbPerSecond</code> and
+     * <code>maxReadOpsPerSecond</code>, or null if neither is set
+     */
+    public static IoThrottle forAttributes(Map<String, String> attributes) {
+        long mb = PropsUtil.getLong(attributes.get("maxReadMbPerSecond"), -1L);
+        long maxOps = PropsUtil.getLong(attributes.get("maxReadOpsPerSecond"), -1L);
+        if (mb <= 0 && maxOps <= 0) {
+            return null;
+        }
+        LOG.info("Throttling input reads to " + (mb > 0 ? mb + " MB/s" : "unlimited bandwidth") +
+                " and " + (maxOps > 0 ? maxOps + " ops/s" : "unlimited ops"));
+        return new IoThrottle(mb > 0 ? mb * 1024 * 1024 : -1, maxOps);
+    }
+
+    /**
+     * Makes <code>throttle</code> the one {@link #getShared(ArrayBlockingQueue)}
+     * returns for the batch fed through <code>queue</code>.
+     *
+     * @param throttle may be null for no throttle
+     */
+    public static void share(ArrayBlockingQueue<?> queue, IoThrottle throttle) {
+        synchronized (SHARED) {
+            SHARED.put(queue, throttle);
+        }
+    }
+
+    /**
+     * @return the throttle {@link #share shared} for the batch fed through
+     * <code>queue</code>, or null if there is none
+     */
+    public static IoThrottle getShared(ArrayBlockingQueue<?> queue) {
+        synchronized (SHARED) {
+            return SHARED.get(queue);
+        }
+    }
+
+    /**
+     * Waits for one operation's worth of budget
+     */
+    public void acquireOp() throws InterruptedException {
+        readOps.incrementAndGet();
+        pause(ops.reserve(1));
+    }
+
+    /**
+     * Waits for the budget of reading <code>n</code> bytes in <code>numOps</code>
+     * operations
+     */
+    public void acquire(long numOps, long n) throws InterruptedException {
+        readOps.addAndGet(numOps);
+        readBytes.addAndGet(n);
+        pause(Math.max(numOps > 0 ? ops.reserve(numOps) : 0, n > 0 ? bytes.reserve(n) : 0));
+    }
+
+    /**
+     * @return the stream, with every read paid for from the budgets
+     */
+    public InputStream throttle(InputStream is) {
+        return new ThrottledInputStream(is, this);
+    }
+
+    private void pause(long nanos) throws InterruptedException {
+        if (nanos > 0) {
+            throttledNanos.addAndGet(nanos);
+            TimeoutAllowance.waited(nanos);
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    }
+
+    @Override
+    public long getMaxReadBytesPerSecond() {
+        return bytes.rate;
+    }
+
+    @Override
+    public void setMaxReadBytesPerSecond(long maxReadBytesPerSecond) {
+        bytes.setRate(maxReadBytesPerSecond);
+        LOG.info("Read bandwidth budget set to " + maxReadBytesPerSecond + " bytes/s");
+    }
+
+    @Override
+    public long getMaxReadOpsPerSecond() {
+        return ops.rate;
+    }
+
+    @Override
+    public void setMaxReadOpsPerSecond(long maxReadOpsPerSecond) {
+        ops.setRate(maxReadOpsPerSecond);
+        LOG.info("Read ops budget set to " + maxReadOpsPerSecond + " ops/s");
+    }
+
+    @Override
+    public long getReadBytes() {
+        return readBytes.get();
+    }
+
+    @Override
+    public long getReadOps() {
+        return readOps.get();
+    }
+
+    @Override
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.get());
+    }
+
+    private static class Bucket {
+
+        private volatile long rate;
+        private double tokens;
+        private long lastNanos = System.nanoTime();
+
+        private Bucket(long rate) {
+            this.rate = rate;
+            this.tokens = Math.max(0, rate);
+        }
+
+        private synchronized void setRate(long rate) {
+            refill(this.rate);
+            this.rate = rate;
+            tokens = Math.min(tokens, Math.max(0, rate));
+        }
+
+        /**
+         * @return nanos to wait before the reservation is covered
+         */
+        private synchronized long reserve(long n) {
+            long r = rate;
+            if (r <= 0) {
+                return 0;
+            }
+            refill(r);
+            tokens -= n;
+            return tokens >= 0 ? 0 : (long) (-tokens * 1000000000d / r);
+        }
+
+        //must hold lock
+        private void refill(long r) {
+            long now = System.nanoTime();
+            if (r > 0) {
+                tokens = Math.min(r, tokens + (now - lastNanos) * (double) r / 1000000000d);
+            }
+            lastNanos = now;
+        }
+    }
+
+    private static class ThrottledInputStream extends FilterInputStream {
+
+        private final IoThrottle throttle;
+        //bytes read since the last operation was paid for
+        private long unpaid = 0;
+
+        private ThrottledInputStream(InputStream in, IoThrottle throttle) {
+            super(in);
+            this.throttle = throttle;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                paid(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                paid(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            if (skipped > 0) {
+                //a seek; reading goes on from a new block
+                unpaid = 0;
+                acquire(1, 0);
+            }
+            return skipped;
+        }
+
+        private void paid(long n) throws IOException {
+            unpaid += n;
+            long numOps = unpaid / OP_BYTES;
+            unpaid %= OP_BYTES;
+            acquire(numOps, n);
+        }
+
+        private void acquire(long numOps, long n) throws IOException {
+            try {
+                throttle.acquire(numOps, n);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while throttled");
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch;
+
+/**
+ * Live view and control of the child's {@link IoThrottle}.  Setting a
+ * budget to zero or less removes it.
+ */
+public interface IoThrottleMXBean {
+
+    long getMaxReadBytesPerSecond();
+
+    void setMaxReadBytesPerSecond(long maxReadBytesPerSecond);
+
+    long getMaxReadOpsPerSecond();
+
+    void setMaxReadOpsPerSecond(long maxReadOpsPerSecond);
+
+    long getReadBytes();
+
+    long getReadOps();
+
+    /**
+     * @return total time readers have been held back, summed over threads
+     */
+    long getThrottledMillis();
+}
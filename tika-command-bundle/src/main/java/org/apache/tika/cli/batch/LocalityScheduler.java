@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.fs.FSProperties;
+
+/**
+ * {@link LookaheadScheduler} that groups reads by directory: the consumers
+ * all take files from one directory until it is drained, then move on to
+ * the next directory in path order, like an elevator.  On network storage
+ * this keeps the server's read-ahead and metadata caches on one directory
+ * at a time instead of spreading the consumers over the whole tree.
+ * <p>
+ * Directories are only known within the lookahead, so a larger
+ * <code>schedulerLookahead</code> gives longer runs per directory.
+ */
+public class LocalityScheduler extends LookaheadScheduler {
+
+    private final TreeMap<String, Deque<FileResource>> directories = new TreeMap<>();
+    private String current = null;
+
+    public LocalityScheduler(ArrayBlockingQueue<FileResource> upstream, int lookahead) {
+        super(upstream, lookahead);
+    }
+
+    /**
+     * @return the number of directories with files pulled ahead
+     */
+    public int getDirectories() {
+        synchronized (getLock()) {
+            return directories.size();
+        }
+    }
+
+    @Override
+    protected void hold(FileResource fileResource) {
+        String directory = getDirectory(fileResource);
+        Deque<FileResource> files = directories.get(directory);
+        if (files == null) {
+            files = new ArrayDeque<>();
+            directories.put(directory, files);
+        }
+        files.addLast(fileResource);
+    }
+
+    @Override
+    protected FileResource next() {
+        if (directories.isEmpty()) {
+            return null;
+        }
+        Map.Entry<String, Deque<FileResource>> entry = current == null ? null : directories.ceilingEntry(current);
+        if (entry == null) {
+            //wrap around to the start of the tree
+            entry = directories.firstEntry();
+        }
+        current = entry.getKey();
+        FileResource next = entry.getValue().pollFirst();
+        if (entry.getValue().isEmpty()) {
+            directories.remove(current);
+        }
+        return next;
+    }
+
+    static String getDirectory(FileResource fileResource) {
+        String relPath = fileResource.getMetadata().get(FSProperties.FS_REL_PATH);
+        if (relPath == null) {
+            relPath = fileResource.getResourceId();
+        }
+        int slash = Math.max(relPath.lastIndexOf('/'), relPath.lastIndexOf('\\'));
+        return slash > -1 ? relPath.substring(0, slash) : "";
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+/**
+ * Open addressing set of 64 bit values backed by a single <code>long[]</code>,
+ * about a third of the memory of a HashSet&lt;Long&gt; per entry.
+ * Not thread safe.
+ */
+public class LongHashSet {
+
+    //0 marks an empty slot; a real 0 is tracked separately
+    private static final long EMPTY = 0L;
+    private static final double MAX_LOAD = 0.7;
+
+    private long[] slots;
+    private int size = 0;
+    private boolean containsZero = false;
+
+    public LongHashSet() {
+        this(1024);
+    }
+
+    public LongHashSet(int expected) {
+        int capacity = 16;
+        while (capacity * MAX_LOAD < expected) {
+            capacity <<= 1;
+        }
+        slots = new long[capacity];
+    }
+
+    /**
+     * @return <code>true</code> if the value wasn't in the set yet
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        if ((size + 1) > slots.length * MAX_LOAD) {
+            resize();
+        }
+        if (insert(slots, value)) {
+            size++;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsZero;
+        }
+        int mask = slots.length - 1;
+        int i = mix(value) & mask;
+        while (slots[i] != EMPTY) {
+            if (slots[i] == value) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static boolean insert(long[] table, long value) {
+        int mask = table.length - 1;
+        int i = mix(value) & mask;
+        while (table[i] != EMPTY) {
+            if (table[i] == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = value;
+        return true;
+    }
+
+    private void resize() {
+        long[] bigger = new long[slots.length << 1];
+        for (long v : slots) {
+            if (v != EMPTY) {
+                insert(bigger, v);
+            }
+        }
+        slots = bigger;
+    }
+
+    private static int mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
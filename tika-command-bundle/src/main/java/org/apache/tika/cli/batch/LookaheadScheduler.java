@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.PoisonFileResource;
+
+/**
+ * Scheduling view of the crawler's queue that is handed to the consumers
+ * in place of the queue itself.  Resources are pulled up to
+ * <code>lookahead</code> ahead of the consumers and handed out in the
+ * order the subclass chooses.  Poison pills are only handed out once
+ * every pulled resource has been.
+ * <p>
+ * Only the queue operations used by consumers and crawlers are supported;
+ * iteration and bulk operations see an empty queue.
+ */
+public abstract class LookaheadScheduler extends ArrayBlockingQueue<FileResource> {
+
+    public static final int DEFAULT_LOOKAHEAD = 1000;
+
+    private static final long UPSTREAM_POLL_MILLIS = 100;
+
+    private final ArrayBlockingQueue<FileResource> upstream;
+    private final int lookahead;
+
+    private final Object lock = new Object();
+    private final Deque<FileResource> poison = new ArrayDeque<>();
+    private int buffered = 0;
+
+    protected LookaheadScheduler(ArrayBlockingQueue<FileResource> upstream, int lookahead) {
+        super(1);
+        this.upstream = upstream;
+        this.lookahead = Math.max(1, lookahead);
+    }
+
+    /**
+     * Holds a resource pulled from the crawler's queue.  Called under the
+     * scheduler's lock.
+     */
+    protected abstract void hold(FileResource fileResource);
+
+    /**
+     * @return the held resource to hand to the calling consumer thread, or
+     * null if none is held.  Called under the scheduler's lock.
+     */
+    protected abstract FileResource next();
+
+    @Override
+    public FileResource poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            FileResource next;
+            synchronized (lock) {
+                fill();
+                next = nextOrPoison();
+            }
+            if (next != null) {
+                return next;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            FileResource fileResource = upstream.poll(
+                    Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(UPSTREAM_POLL_MILLIS)),
+                    TimeUnit.NANOSECONDS);
+            if (fileResource != null) {
+                synchronized (lock) {
+                    enqueue(fileResource);
+                }
+            }
+        }
+    }
+
+    @Override
+    public FileResource poll() {
+        synchronized (lock) {
+            fill();
+            return nextOrPoison();
+        }
+    }
+
+    @Override
+    public FileResource take() throws InterruptedException {
+        FileResource fileResource = null;
+        while (fileResource == null) {
+            fileResource = poll(1, TimeUnit.SECONDS);
+        }
+        return fileResource;
+    }
+
+    @Override
+    public boolean offer(FileResource fileResource) {
+        return upstream.offer(fileResource);
+    }
+
+    @Override
+    public boolean offer(FileResource fileResource, long timeout, TimeUnit unit) throws InterruptedException {
+        return upstream.offer(fileResource, timeout, unit);
+    }
+
+    @Override
+    public void put(FileResource fileResource) throws InterruptedException {
+        upstream.put(fileResource);
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return upstream.remainingCapacity();
+    }
+
+    @Override
+    public int size() {
+        synchronized (lock) {
+            return upstream.size() + buffered + poison.size();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public int drainTo(Collection<? super FileResource> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super FileResource> c, int maxElements) {
+        int drained = 0;
+        FileResource fileResource;
+        while (drained < maxElements && (fileResource = poll()) != null) {
+            c.add(fileResource);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * Runs under the scheduler's lock, for subclasses' accessors
+     */
+    protected Object getLock() {
+        return lock;
+    }
+
+    //must hold lock
+    private void fill() {
+        while (buffered < lookahead) {
+            FileResource fileResource = upstream.poll();
+            if (fileResource == null) {
+                return;
+            }
+            enqueue(fileResource);
+        }
+    }
+
+    //must hold lock
+    private void enqueue(FileResource fileResource) {
+        if (fileResource instanceof PoisonFileResource) {
+            poison.add(fileResource);
+            return;
+        }
+        hold(fileResource);
+        buffered++;
+    }
+
+    //must hold lock
+    private FileResource nextOrPoison() {
+        FileResource next = next();
+        if (next != null) {
+            buffered--;
+            return next;
+        }
+        if (upstream.isEmpty()) {
+            return poison.pollFirst();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Byte budget for the memory of the documents being parsed at once.
+ * <p>
+ * Each document's footprint is estimated as its length times a multiplier
+ * for its media type.  A document is admitted while the estimates of the
+ * documents in flight stay within the budget, and otherwise its consumer
+ * waits.  A document bigger than the whole budget is admitted once
+ * nothing else is in flight, so it runs alone rather than never.
+ * <p>
+ * Small documents, with an estimate up to {@link #setSmallBytes(long)},
+ * go ahead of the big ones waiting for room, so that a few big documents
+ * don't stall the run.  Big documents are admitted in the order they
+ * arrived, and once the oldest has waited {@link #setMaxHoldMillis(long)}
+ * the small ones wait behind it as well.
+ * <p>
+ * The multipliers are learned.  The heap left live after garbage
+ * collection is sampled while documents are in flight, and what it grew
+ * by over the heap with nothing in flight is compared with their
+ * estimates.  When a document finishes, its type's multiplier moves
+ * towards the largest ratio seen while it ran.  This is coarse, since
+ * documents in flight together share the blame, but it errs on the side
+ * of the budget.  The multipliers are kept across runs in a small tab
+ * delimited file, as {@link ParseTimeStats} are.
+ */
+public class MemoryAdmission {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MemoryAdmission.class);
+
+    public static final String DEFAULT_FILE_NAME = ".tika-memory-stats.tsv";
+
+    public static final long DEFAULT_MAX_HOLD_MILLIS = 30000;
+
+    //estimate for documents whose length isn't known, and the least for any
+    static final long MIN_ESTIMATE = 1024 * 1024;
+    static final double MIN_MULTIPLIER = 1;
+    static final double MAX_MULTIPLIER = 64;
+    //weight of a document's observation in its type's multiplier
+    private static final double LEARNING_RATE = 0.2;
+
+    private static final String HEADER = "#mediaType\tmultiplier";
+
+    private final long budgetBytes;
+    private final Map<String, Double> multipliers = new HashMap<>();
+    private final List<Ticket> inFlight = new ArrayList<>();
+    private final LinkedList<Ticket> bigWaiting = new LinkedList<>();
+    private long smallBytes;
+    private long maxHoldMillis = DEFAULT_MAX_HOLD_MILLIS;
+    private long inFlightBytes = 0;
+    private long baselineBytes = -1;
+    private long admitted = 0;
+    private long held = 0;
+    private long heldMillis = 0;
+
+    /**
+     * @param budgetBytes estimated bytes allowed in flight at once
+     */
+    public MemoryAdmission(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        this.smallBytes = budgetBytes / 16;
+    }
+
+    /**
+     * @return the file set with <code>memoryStatsFile</code>, the default
+     * file in <code>outputDir</code>, or <code>null</code> if neither is set
+     */
+    public static Path getStatsPath(Map<String, String> attributes) {
+        String statsFile = attributes.get("memoryStatsFile");
+        if (statsFile != null && statsFile.trim().length() > 0) {
+            return Paths.get(statsFile);
+        }
+        String outputDir = attributes.get("outputDir");
+        if (outputDir != null && outputDir.trim().length() > 0) {
+            return Paths.get(outputDir).resolve(DEFAULT_FILE_NAME);
+        }
+        return null;
+    }
+
+    /**
+     * Waits until the document fits in the budget.
+     *
+     * @param mediaType         key of the document's type, see {@link ParseCostModel#getStatsKey}
+     * @param defaultMultiplier multiplier for a type with no history
+     * @param bytes             length of the document or -1 if unknown
+     * @return the document's place in the budget, to be {@link #release(Ticket) released}
+     */
+    public Ticket acquire(String mediaType, double defaultMultiplier, long bytes) throws InterruptedException {
+        synchronized (this) {
+            double multiplier = getMultiplier(mediaType, defaultMultiplier);
+            Ticket ticket = new Ticket(mediaType, estimate(multiplier, bytes), multiplier);
+            boolean big = ticket.estimate > smallBytes;
+            if (big) {
+                bigWaiting.add(ticket);
+            }
+            long start = System.currentTimeMillis();
+            boolean waited = false;
+            try {
+                while (!canAdmit(ticket, big)) {
+                    waited = true;
+                    wait(1000);
+                }
+            } finally {
+                if (big) {
+                    bigWaiting.remove(ticket);
+                    //the next big one may fit now
+                    notifyAll();
+                }
+            }
+            if (waited) {
+                held++;
+                heldMillis += System.currentTimeMillis() - start;
+            }
+            inFlight.add(ticket);
+            inFlightBytes += ticket.estimate;
+            admitted++;
+            return ticket;
+        }
+    }
+
+    private boolean canAdmit(Ticket ticket, boolean big) {
+        if (inFlight.isEmpty()) {
+            return !big || bigWaiting.getFirst() == ticket;
+        }
+        if (inFlightBytes + ticket.estimate > budgetBytes) {
+            return false;
+        }
+        if (big) {
+            return bigWaiting.getFirst() == ticket;
+        }
+        return bigWaiting.isEmpty()
+                || System.currentTimeMillis() - bigWaiting.getFirst().created < maxHoldMillis;
+    }
+
+    /**
+     * Gives the document's estimate back and learns from what was observed
+     * while it was in flight.
+     */
+    public void release(Ticket ticket) {
+        synchronized (this) {
+            if (!inFlight.remove(ticket)) {
+                return;
+            }
+            inFlightBytes -= ticket.estimate;
+            //a document at the floor estimate says nothing about its type
+            if (ticket.maxRatio > 0 && ticket.estimate > MIN_ESTIMATE) {
+                double m = getMultiplier(ticket.mediaType, ticket.multiplier);
+                m += LEARNING_RATE * (m * ticket.maxRatio - m);
+                multipliers.put(ticket.mediaType, clamp(m));
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * @param liveHeapBytes heap in use after the last garbage collection
+     */
+    public synchronized void observe(long liveHeapBytes) {
+        if (inFlight.isEmpty() || baselineBytes < 0) {
+            baselineBytes = liveHeapBytes;
+            return;
+        }
+        double ratio = (double) Math.max(0, liveHeapBytes - baselineBytes) / inFlightBytes;
+        for (Ticket ticket : inFlight) {
+            ticket.maxRatio = Math.max(ticket.maxRatio, ratio);
+        }
+    }
+
+    /**
+     * @return estimated footprint of a document of this type and length
+     */
+    public synchronized long estimate(String mediaType, double defaultMultiplier, long bytes) {
+        return estimate(getMultiplier(mediaType, defaultMultiplier), bytes);
+    }
+
+    private static long estimate(double multiplier, long bytes) {
+        if (bytes < 0) {
+            return MIN_ESTIMATE;
+        }
+        return Math.max(MIN_ESTIMATE, (long) (bytes * multiplier));
+    }
+
+    private double getMultiplier(String mediaType, double defaultMultiplier) {
+        Double m = multipliers.get(mediaType);
+        return m == null ? clamp(defaultMultiplier) : m;
+    }
+
+    private static double clamp(double m) {
+        return Math.min(MAX_MULTIPLIER, Math.max(MIN_MULTIPLIER, m));
+    }
+
+    /**
+     * Reads the multipliers learned by earlier runs; a missing or unreadable
+     * file leaves the defaults.
+     */
+    public synchronized void load(Path path) {
+        try (BufferedReader reader = Files.newBufferedReader(path, UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#") || line.trim().length() == 0) {
+                    continue;
+                }
+                String[] cols = line.split("\t");
+                if (cols.length < 2) {
+                    continue;
+                }
+                try {
+                    multipliers.put(cols[0], clamp(Double.parseDouble(cols[1])));
+                } catch (NumberFormatException e) {
+                    LOG.warn("Skipping bad line in memory stats file: " + line);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            //first run
+        } catch (IOException e) {
+            LOG.warn("Couldn't read memory stats from " + path, e);
+        }
+    }
+
+    /**
+     * Writes the multipliers to a temporary file next to <code>path</code>
+     * and moves it into place, as {@link ParseTimeStats#save(Path)} does.
+     */
+    public void save(Path path) throws IOException {
+        Map<String, Double> copy;
+        synchronized (this) {
+            copy = new TreeMap<>(multipliers);
+        }
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Map.Entry<String, Double> e : copy.entrySet()) {
+                writer.write(e.getKey() + "\t" + String.format(Locale.ROOT, "%.3f", e.getValue()));
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param smallBytes documents estimated at up to this many bytes go
+     *                   ahead of big ones waiting for room; a sixteenth of
+     *                   the budget by default
+     */
+    public synchronized void setSmallBytes(long smallBytes) {
+        this.smallBytes = smallBytes;
+    }
+
+    /**
+     * @param maxHoldMillis how long the oldest big document waits before
+     *                      small ones stop going ahead of it
+     */
+    public synchronized void setMaxHoldMillis(long maxHoldMillis) {
+        this.maxHoldMillis = maxHoldMillis;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public synchronized long getInFlightBytes() {
+        return inFlightBytes;
+    }
+
+    public synchronized long getAdmitted() {
+        return admitted;
+    }
+
+    /**
+     * @return number of documents that had to wait for room
+     */
+    public synchronized long getHeld() {
+        return held;
+    }
+
+    public synchronized long getHeldMillis() {
+        return heldMillis;
+    }
+
+    /**
+     * A document's place in the budget
+     */
+    public static class Ticket {
+        private final String mediaType;
+        private final long estimate;
+        private final double multiplier;
+        private final long created = System.currentTimeMillis();
+        private double maxRatio = 0;
+
+        private Ticket(String mediaType, long estimate, double multiplier) {
+            this.mediaType = mediaType;
+            this.estimate = estimate;
+            this.multiplier = multiplier;
+        }
+
+        public long getEstimate() {
+            return estimate;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.mime.MediaType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds each document back until it fits in the {@link MemoryAdmission}
+ * budget, so that several big documents don't start at once and run the
+ * child out of heap.  The wait needs the resource's type and length, so
+ * it happens after the resource is taken; {@link InterceptingConsumer}
+ * leaves it out of the batch's timeout.  A sampler thread feeds the admission the heap left
+ * live after garbage collection, from which it learns its multipliers.
+ * <p>
+ * Types with no history start from a multiplier for their
+ * {@link CostClass}.
+ */
+public class MemoryAdmissionInterceptor extends ProcessingInterceptor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MemoryAdmissionInterceptor.class);
+
+    private static final long SAMPLE_MILLIS = 500;
+    private static final long SAVE_INTERVAL_MILLIS = 60000;
+
+    //by CostClass ordinal
+    private static final double[] DEFAULT_MULTIPLIERS = new double[]{8, 4, 2};
+
+    private final MemoryAdmission admission;
+    private final CostClassifier classifier;
+    private final Path statsPath;
+    private final ThreadLocal<MemoryAdmission.Ticket> tickets = new ThreadLocal<>();
+    private final AtomicLong lastSave = new AtomicLong(System.currentTimeMillis());
+    private volatile boolean running = true;
+    private Thread sampler;
+
+    /**
+     * @param statsPath where the learned multipliers are kept, or null
+     */
+    public MemoryAdmissionInterceptor(MemoryAdmission admission, CostClassifier classifier, Path statsPath) {
+        this.admission = admission;
+        this.classifier = classifier;
+        this.statsPath = statsPath;
+        if (statsPath != null) {
+            admission.load(statsPath);
+        }
+    }
+
+    @Override
+    public void init() throws IOException {
+        sampler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running) {
+                    admission.observe(getLiveHeapBytes());
+                    try {
+                        Thread.sleep(SAMPLE_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "memory-admission");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    @Override
+    public boolean beforeProcessing(FileResource fileResource) throws InterruptedException {
+        MediaType mediaType = classifier.getMediaType(fileResource.getMetadata());
+        double defaultMultiplier = DEFAULT_MULTIPLIERS[classifier.getCostClass(mediaType).ordinal()];
+        tickets.set(admission.acquire(ParseCostModel.getStatsKey(mediaType), defaultMultiplier,
+                CostClassifier.getLength(fileResource.getMetadata())));
+        return true;
+    }
+
+    @Override
+    public void afterProcessing(FileResource fileResource, boolean processed, long elapsedMillis) {
+        release();
+        long last = lastSave.get();
+        long now = System.currentTimeMillis();
+        if (statsPath != null && now - last > SAVE_INTERVAL_MILLIS && lastSave.compareAndSet(last, now)) {
+            save();
+        }
+    }
+
+    @Override
+    public void vetoed(FileResource fileResource) {
+        release();
+    }
+
+    private void release() {
+        MemoryAdmission.Ticket ticket = tickets.get();
+        if (ticket != null) {
+            tickets.remove();
+            admission.release(ticket);
+        }
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        running = false;
+        if (sampler != null) {
+            sampler.interrupt();
+        }
+        if (statsPath != null) {
+            save();
+        }
+        LOG.info("Memory admission: " + admission.getAdmitted() + " documents admitted, " +
+                admission.getHeld() + " held for " + admission.getHeldMillis() + " ms in all");
+    }
+
+    private void save() {
+        try {
+            admission.save(statsPath);
+        } catch (IOException e) {
+            LOG.warn("Couldn't save memory stats to " + statsPath, e);
+        }
+    }
+
+    public MemoryAdmission getAdmission() {
+        return admission;
+    }
+
+    /**
+     * @return heap in use after the last collection of each heap pool, or
+     * the heap in use now if the pools don't report it
+     */
+    static long getLiveHeapBytes() {
+        long live = 0;
+        boolean reported = false;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP || !pool.isValid()) {
+                continue;
+            }
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null) {
+                live += usage.getUsed();
+                reported = true;
+            }
+        }
+        if (reported) {
+            return live;
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
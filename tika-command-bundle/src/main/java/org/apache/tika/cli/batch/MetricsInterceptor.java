@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.fs.FSProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Feeds {@link BatchMetrics} and writes its JSON and Prometheus files to a
+ * directory every <code>writeMillis</code> and at shutdown.  The writer
+ * checks for timed out parses every second and writes straight away when
+ * it finds one, because tika-batch is about to restart the child.
+ * <p>
+ * Without a directory the metrics are only kept for JMX.
+ */
+public class MetricsInterceptor extends ProcessingInterceptor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsInterceptor.class);
+
+    private static final long CHECK_MILLIS = 1000;
+
+    private final BatchMetrics metrics;
+    private final CostClassifier classifier;
+    private final Path dir;
+    private final long writeMillis;
+    private Thread writer;
+
+    /**
+     * @param dir null to only keep the metrics in memory
+     */
+    public MetricsInterceptor(BatchMetrics metrics, CostClassifier classifier, Path dir, long writeMillis) {
+        this.metrics = metrics;
+        this.classifier = classifier;
+        this.dir = dir;
+        this.writeMillis = writeMillis;
+    }
+
+    @Override
+    public void init() throws IOException {
+        if (dir != null) {
+            Files.createDirectories(dir);
+        }
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long lastWrite = System.currentTimeMillis();
+                while (!Thread.currentThread().isInterrupted()) {
+                    try {
+                        Thread.sleep(Math.min(CHECK_MILLIS, writeMillis));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long now = System.currentTimeMillis();
+                    if (metrics.checkTimeouts() > 0 || now - lastWrite >= writeMillis) {
+                        write();
+                        lastWrite = now;
+                    }
+                }
+            }
+        }, "batch-metrics-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public boolean beforeProcessing(FileResource fileResource) {
+        String path = fileResource.getMetadata().get(FSProperties.FS_REL_PATH);
+        metrics.started(path == null ? fileResource.getResourceId() : path,
+                ParseCostModel.getStatsKey(classifier.getMediaType(fileResource.getMetadata())));
+        return true;
+    }
+
+    @Override
+    public void afterProcessing(FileResource fileResource, boolean processed, long elapsedMillis) {
+        metrics.finished(fileResource.getMetadata(), CostClassifier.getLength(fileResource.getMetadata()),
+                elapsedMillis, processed);
+    }
+
+    @Override
+    public void vetoed(FileResource fileResource) {
+        metrics.abandoned();
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        if (writer != null) {
+            writer.interrupt();
+        }
+        write();
+    }
+
+    private synchronized void write() {
+        if (dir == null) {
+            return;
+        }
+        try {
+            metrics.write(dir, System.currentTimeMillis());
+        } catch (IOException e) {
+            LOG.warn("Couldn't write metrics to " + dir, e);
+        }
+    }
+
+    public BatchMetrics getMetrics() {
+        return metrics;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import org.apache.tika.mime.MediaType;
+
+/**
+ * Estimates how long a file will take to parse from its name and length,
+ * using the {@link ParseTimeStats} history for its media type when there is
+ * one and a per {@link CostClass} guess otherwise.
+ */
+public class ParseCostModel {
+
+    private static final long MB = 1024 * 1024;
+
+    //guesses for types without history: fixed millis per document and millis per MB
+    private static final long[] DEFAULT_MILLIS_PER_DOC = new long[]{200, 50, 5};
+    private static final long[] DEFAULT_MILLIS_PER_MB = new long[]{500, 200, 50};
+
+    private final CostClassifier classifier;
+    private final ParseTimeStats stats;
+
+    public ParseCostModel(CostClassifier classifier, ParseTimeStats stats) {
+        this.classifier = classifier;
+        this.stats = stats;
+    }
+
+    /**
+     * @param bytes length of the file or -1 if unknown
+     * @return estimated parse time in milliseconds
+     */
+    public long estimateMillis(String resourceName, long bytes) {
+        MediaType mediaType = classifier.getMediaType(resourceName);
+        long fromHistory = stats.estimateMillis(getStatsKey(mediaType), bytes);
+        if (fromHistory > -1) {
+            return fromHistory;
+        }
+        int c = classifier.getCostClass(mediaType).ordinal();
+        return DEFAULT_MILLIS_PER_DOC[c] + Math.max(0, bytes) * DEFAULT_MILLIS_PER_MB[c] / MB;
+    }
+
+    /**
+     * @return the key under which parse times for this type are recorded
+     */
+    public static String getStatsKey(MediaType mediaType) {
+        return mediaType == null ? ParseTimeStats.UNKNOWN_TYPE : mediaType.getBaseType().toString();
+    }
+}
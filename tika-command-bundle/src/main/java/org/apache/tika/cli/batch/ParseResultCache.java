@@ -0,0 +1,397 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.config.TikaConfigSerializer;
+import org.apache.tika.parser.CompositeParser;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.parser.ParserDecorator;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk cache of rendered parse results, so that duplicate inputs are
+ * parsed only once.  The output written for a document, content and
+ * metadata as the handler renders them, is stored under the MD5 of the
+ * input plus a {@link #fingerprint} of everything else that shapes the
+ * output: the TikaConfig, the parsers and the bundles they come from, and
+ * the handler settings.  A change to any of these changes the key, so stale
+ * entries are never returned; they age out instead.  Duplicates with
+ * other names share the entry: it records the name-dependent metadata it
+ * was rendered with, and a hit {@link #get(String, Map) renders} the
+ * duplicate's names in their place.
+ * <p>
+ * Entries are evicted least recently used first once the cache grows past
+ * <code>maxBytes</code>.  A hit touches the entry's file, so several
+ * processes can share the directory; each only counts what it has seen,
+ * though, so a shared directory can briefly grow past the limit.
+ * <p>
+ * Entries are written to a temporary file and moved into place on
+ * {@link Entry#commit()}, so readers never see a partial result.
+ */
+public class ParseResultCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParseResultCache.class);
+
+    private static final String SUFFIX = ".cache";
+    private static final String TMP_SUFFIX = ".tmp";
+    //temporary files older than this were left by a process that died
+    private static final long STALE_TMP_MILLIS = 24L * 60 * 60 * 1000;
+
+    private final Path dir;
+    private final long maxBytes;
+    //key to entry size, least recently used first
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ParseResultCache(Path dir, long maxBytes) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(dir);
+        load();
+    }
+
+    /**
+     * @return the MD5 of the stream's content, reading it to the end
+     */
+    public static byte[] digest(InputStream is) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buffer = new byte[65536];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            md.update(buffer, 0, read);
+        }
+        return md.digest();
+    }
+
+    public static String key(byte[] digest, String fingerprint) {
+        return toHex(digest) + "-" + fingerprint;
+    }
+
+    /**
+     * @param config  may be null if only the parser is known
+     * @param handler the handler type and anything else that changes the
+     *                rendered output
+     * @return hex digest of the configuration, the parsers with their bundle
+     * versions, and the handler
+     */
+    public static String fingerprint(TikaConfig config, Parser parser, String handler) {
+        StringBuilder sb = new StringBuilder();
+        if (config != null) {
+            StringWriter writer = new StringWriter();
+            try {
+                TikaConfigSerializer.serialize(config, TikaConfigSerializer.Mode.CURRENT, writer, UTF_8);
+                sb.append(writer.toString());
+            } catch (Exception e) {
+                //the parser graph below still covers the parsers
+                LOG.debug("Couldn't serialize the TikaConfig for the cache fingerprint", e);
+            }
+        }
+        TreeSet<String> parsers = new TreeSet<>();
+        addParsers(parser, parsers, Collections.newSetFromMap(new IdentityHashMap<Parser, Boolean>()));
+        for (String p : parsers) {
+            sb.append('\n').append(p);
+        }
+        sb.append('\n').append(handler);
+        try {
+            return toHex(MessageDigest.getInstance("MD5").digest(sb.toString().getBytes(UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void addParsers(Parser parser, TreeSet<String> parsers, Set<Parser> seen) {
+        if (parser == null || !seen.add(parser)) {
+            return;
+        }
+        parsers.add(parser.getClass().getName() + " " + getVersion(parser.getClass()));
+        if (parser instanceof CompositeParser) {
+            for (Parser child : ((CompositeParser) parser).getAllComponentParsers()) {
+                addParsers(child, parsers, seen);
+            }
+        } else if (parser instanceof ParserDecorator) {
+            addParsers(((ParserDecorator) parser).getWrappedParser(), parsers, seen);
+        }
+    }
+
+    private static String getVersion(Class<?> cls) {
+        Bundle bundle = null;
+        try {
+            bundle = FrameworkUtil.getBundle(cls);
+        } catch (NoClassDefFoundError e) {
+            //not running in a framework
+        }
+        if (bundle != null) {
+            return bundle.getSymbolicName() + "/" + bundle.getVersion();
+        }
+        Package p = cls.getPackage();
+        return p == null ? "" : String.valueOf(p.getImplementationVersion());
+    }
+
+    /**
+     * @return the cached result as it was rendered, or null on a miss; the
+     * caller closes it
+     */
+    public InputStream get(String key) {
+        return get(key, null);
+    }
+
+    /**
+     * @param names the name-dependent metadata of the input looked up, such
+     *              as its resource name, rendered in place of the values the
+     *              result was rendered with; null for the result as it was
+     * @return the cached result, or null on a miss; the caller closes it
+     */
+    public InputStream get(String key, Map<String, String> names) {
+        Path path = dir.resolve(key + SUFFIX);
+        InputStream is;
+        Map<String, String> rendered;
+        try {
+            is = new BufferedInputStream(Files.newInputStream(path));
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            synchronized (this) {
+                Long size = entries.remove(key);
+                if (size != null) {
+                    totalBytes -= size;
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            LOG.warn("Couldn't read cached result " + path, e);
+            misses.incrementAndGet();
+            return null;
+        }
+        try {
+            rendered = RenderedNames.read(is);
+        } catch (IOException e) {
+            LOG.warn("Couldn't read cached result " + path, e);
+            closeQuietly(is);
+            misses.incrementAndGet();
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            //only affects the eviction order seen by other processes
+        }
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                //written by another process
+                try {
+                    long size = Files.size(path);
+                    entries.put(key, size);
+                    totalBytes += size;
+                } catch (IOException e) {
+                    //evicted meanwhile; the open stream still reads it
+                }
+            }
+        }
+        hits.incrementAndGet();
+        return names == null ? is : RenderedNames.apply(is, rendered, names);
+    }
+
+    /**
+     * Starts writing a result rendered without name-dependent metadata.
+     */
+    public Entry begin(String key) throws IOException {
+        return begin(key, null);
+    }
+
+    /**
+     * Starts writing a result.  Call {@link Entry#commit()} if the parse
+     * succeeded and {@link Entry#discard()} otherwise.
+     *
+     * @param names the name-dependent metadata the result is rendered with
+     */
+    public Entry begin(String key, Map<String, String> names) throws IOException {
+        return new Entry(key, dir.resolve(key + "." + UUID.randomUUID() + TMP_SUFFIX), names);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public synchronized long getSizeBytes() {
+        return totalBytes;
+    }
+
+    private synchronized void put(String key, long size) {
+        Long old = entries.put(key, size);
+        totalBytes += size - (old == null ? 0 : old);
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.getValue();
+            try {
+                Files.deleteIfExists(dir.resolve(eldest.getKey() + SUFFIX));
+            } catch (IOException e) {
+                LOG.warn("Couldn't evict cached result " + eldest.getKey(), e);
+            }
+        }
+    }
+
+    private synchronized void load() throws IOException {
+        List<CachedFile> found = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                if (name.endsWith(SUFFIX)) {
+                    found.add(new CachedFile(name.substring(0, name.length() - SUFFIX.length()),
+                            attrs.lastModifiedTime().toMillis(), attrs.size()));
+                } else if (name.endsWith(TMP_SUFFIX) &&
+                        now - attrs.lastModifiedTime().toMillis() > STALE_TMP_MILLIS) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        }
+        Collections.sort(found, new Comparator<CachedFile>() {
+            @Override
+            public int compare(CachedFile o1, CachedFile o2) {
+                return Long.compare(o1.lastUsed, o2.lastUsed);
+            }
+        });
+        for (CachedFile f : found) {
+            entries.put(f.key, f.size);
+            totalBytes += f.size;
+        }
+        evict();
+        LOG.info("Parse result cache " + dir + ": " + entries.size() + " entries, " + totalBytes + " bytes");
+    }
+
+    private static void closeQuietly(InputStream is) {
+        try {
+            is.close();
+        } catch (IOException e) {
+            //nothing was read
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static class CachedFile {
+        private final String key;
+        private final long lastUsed;
+        private final long size;
+
+        private CachedFile(String key, long lastUsed, long size) {
+            this.key = key;
+            this.lastUsed = lastUsed;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A result being written
+     */
+    public class Entry {
+
+        private final String key;
+        private final Path tmp;
+        private final OutputStream os;
+
+        private Entry(String key, Path tmp, Map<String, String> names) throws IOException {
+            this.key = key;
+            this.tmp = tmp;
+            this.os = new BufferedOutputStream(Files.newOutputStream(tmp));
+            RenderedNames.write(names, os);
+        }
+
+        public OutputStream getOutputStream() {
+            return os;
+        }
+
+        public void commit() throws IOException {
+            os.close();
+            long size = Files.size(tmp);
+            Files.move(tmp, dir.resolve(key + SUFFIX),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            put(key, size);
+        }
+
+        public void discard() {
+            try {
+                os.close();
+            } catch (IOException e) {
+                //deleting it anyway
+            }
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                LOG.warn("Couldn't delete " + tmp, e);
+            }
+        }
+    }
+}
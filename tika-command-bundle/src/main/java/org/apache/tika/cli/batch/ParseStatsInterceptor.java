@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tika.batch.FileResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the parse time of every document in {@link ParseTimeStats} and
+ * saves the stats periodically and at shutdown, so that the next run's
+ * crawler can order files by expected cost.
+ */
+public class ParseStatsInterceptor extends ProcessingInterceptor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParseStatsInterceptor.class);
+
+    private static final long SAVE_INTERVAL_MILLIS = 60000;
+
+    private final Path statsPath;
+    private final CostClassifier classifier;
+    private final ParseTimeStats stats;
+    private final AtomicLong lastSave = new AtomicLong(System.currentTimeMillis());
+
+    public ParseStatsInterceptor(Path statsPath, CostClassifier classifier) {
+        this.statsPath = statsPath;
+        this.classifier = classifier;
+        this.stats = ParseTimeStats.load(statsPath);
+    }
+
+    @Override
+    public void afterProcessing(FileResource fileResource, boolean processed, long elapsedMillis) {
+        //keyed on the name based type, which is all the crawler has to go on
+        String key = ParseCostModel.getStatsKey(classifier.getMediaType(fileResource.getMetadata()));
+        stats.record(key, CostClassifier.getLength(fileResource.getMetadata()), elapsedMillis);
+
+        long last = lastSave.get();
+        long now = System.currentTimeMillis();
+        if (now - last > SAVE_INTERVAL_MILLIS && lastSave.compareAndSet(last, now)) {
+            save();
+        }
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        save();
+    }
+
+    private synchronized void save() {
+        try {
+            stats.save(statsPath);
+        } catch (IOException e) {
+            LOG.warn("Couldn't save parse stats to " + statsPath, e);
+        }
+    }
+
+    public ParseTimeStats getStats() {
+        return stats;
+    }
+}
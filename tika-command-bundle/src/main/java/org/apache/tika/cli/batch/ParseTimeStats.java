@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parse time history per media type, kept across batch runs in a small
+ * tab delimited file (media type, documents, bytes, milliseconds).
+ * <p>
+ * The file is read when a run starts and rewritten with the accumulated
+ * totals, so a restarted child picks up where the previous one saved.
+ */
+public class ParseTimeStats {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParseTimeStats.class);
+
+    public static final String DEFAULT_FILE_NAME = ".tika-parse-stats.tsv";
+
+    public static final String UNKNOWN_TYPE = "unknown";
+
+    private static final String HEADER = "#mediaType\tdocs\tbytes\tmillis";
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Stats are only kept when asked for, so that other runs leave nothing
+     * in the output directory.
+     *
+     * @return the stats file set with <code>parseStatsFile</code>, the default
+     * file in <code>outputDir</code> if <code>crawlOrder</code> is
+     * <code>cost</code>, or <code>null</code>
+     */
+    public static Path getStatsPath(Map<String, String> attributes) {
+        String statsFile = attributes.get("parseStatsFile");
+        if (statsFile != null && statsFile.trim().length() > 0) {
+            return Paths.get(statsFile);
+        }
+        String crawlOrder = attributes.get("crawlOrder");
+        if (crawlOrder == null || !crawlOrder.toLowerCase(Locale.ROOT).contains("cost")) {
+            return null;
+        }
+        String outputDir = attributes.get("outputDir");
+        if (outputDir != null && outputDir.trim().length() > 0) {
+            return Paths.get(outputDir).resolve(DEFAULT_FILE_NAME);
+        }
+        return null;
+    }
+
+    /**
+     * @return stats loaded from the file, or empty stats if the file
+     * doesn't exist yet or can't be read
+     */
+    public static ParseTimeStats load(Path path) {
+        ParseTimeStats stats = new ParseTimeStats();
+        if (path == null) {
+            return stats;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path, UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#") || line.trim().length() == 0) {
+                    continue;
+                }
+                String[] cols = line.split("\t");
+                if (cols.length < 4) {
+                    continue;
+                }
+                try {
+                    stats.getEntry(cols[0]).add(Long.parseLong(cols[1]),
+                            Long.parseLong(cols[2]), Long.parseLong(cols[3]));
+                } catch (NumberFormatException e) {
+                    LOG.warn("Skipping bad line in parse stats file: " + line);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            //first run
+        } catch (IOException e) {
+            LOG.warn("Couldn't read parse stats from " + path, e);
+        }
+        return stats;
+    }
+
+    public void record(String mediaType, long bytes, long millis) {
+        getEntry(mediaType == null ? UNKNOWN_TYPE : mediaType).add(1, Math.max(0, bytes), millis);
+    }
+
+    /**
+     * @param bytes length of the document or -1 if unknown
+     * @return estimated parse time, or -1 if there is no history for the type
+     */
+    public long estimateMillis(String mediaType, long bytes) {
+        Entry entry = entries.get(mediaType == null ? UNKNOWN_TYPE : mediaType);
+        if (entry == null || entry.docs.get() == 0) {
+            return -1;
+        }
+        long docs = entry.docs.get();
+        long totalBytes = entry.bytes.get();
+        long totalMillis = entry.millis.get();
+        if (bytes < 0 || totalBytes == 0) {
+            return totalMillis / docs;
+        }
+        return (long) ((double) totalMillis / totalBytes * bytes);
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Writes the totals to a temporary file next to <code>path</code> and
+     * moves it into place so that a crash can't leave a truncated file.
+     */
+    public void save(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Map.Entry<String, Entry> e : new TreeMap<>(entries).entrySet()) {
+                Entry entry = e.getValue();
+                writer.write(e.getKey() + "\t" + entry.docs.get() + "\t" +
+                        entry.bytes.get() + "\t" + entry.millis.get());
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Entry getEntry(String mediaType) {
+        Entry entry = entries.get(mediaType);
+        if (entry == null) {
+            entry = new Entry();
+            Entry existing = entries.putIfAbsent(mediaType, entry);
+            if (existing != null) {
+                entry = existing;
+            }
+        }
+        return entry;
+    }
+
+    private static class Entry {
+        private final AtomicLong docs = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong millis = new AtomicLong();
+
+        void add(long docs, long bytes, long millis) {
+            this.docs.addAndGet(docs);
+            this.bytes.addAndGet(bytes);
+            this.millis.addAndGet(millis);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable list of the files that were being parsed when a child died,
+ * whether from running out of memory, a timeout or a crash in a parser,
+ * with a strike for each time.  A file with {@link #getMaxStrikes()}
+ * strikes is quarantined, in this child and in every later run that uses
+ * the same directory.
+ * <p>
+ * Every consumer thread has a small in-flight file in the quarantine
+ * directory that holds the path of the document it is parsing, written
+ * when the parse starts and emptied when it ends.  These writes aren't
+ * synced: they only need to outlive the child, not the machine.  When the
+ * next child starts, each path left in an in-flight file gets a strike,
+ * including those of consumers that were still parsing when the child
+ * shut down, after a timeout for instance.
+ * Documents that happened to be in flight beside the culprit get a strike
+ * too, which is why it takes more than one.
+ * <p>
+ * The strikes are kept in {@value #LIST_FILE_NAME}, one
+ * <code>strikes TAB path</code> line per file, which is rewritten when a
+ * child starts.  A struck file that later finishes has its strikes
+ * cleared by an appended line with no strikes.
+ */
+public class PoisonQuarantine implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PoisonQuarantine.class);
+
+    public static final String DEFAULT_DIR_NAME = ".tika-quarantine";
+    public static final String LIST_FILE_NAME = "quarantine.tsv";
+    public static final int DEFAULT_MAX_STRIKES = 2;
+
+    private static final String IN_FLIGHT_PREFIX = "in-flight-";
+    private static final String HEADER = "#strikes\tpath";
+
+    private final Path dir;
+    private final int maxStrikes;
+    private final Map<String, Integer> strikes = new HashMap<>();
+    private final List<FileChannel> slots = new ArrayList<>();
+    private final ThreadLocal<FileChannel> slot = new ThreadLocal<>();
+    private final Writer list;
+    private int quarantined = 0;
+
+    public PoisonQuarantine(Path dir, int maxStrikes) throws IOException {
+        this.dir = dir;
+        this.maxStrikes = maxStrikes;
+        Files.createDirectories(dir);
+        Path listPath = dir.resolve(LIST_FILE_NAME);
+        load(listPath);
+        strikeInFlight();
+        save(listPath);
+        list = Files.newBufferedWriter(listPath, UTF_8, StandardOpenOption.APPEND);
+        for (int s : strikes.values()) {
+            if (s >= maxStrikes) {
+                quarantined++;
+            }
+        }
+        if (quarantined > 0) {
+            LOG.info(quarantined + " files are quarantined in " + listPath);
+        }
+    }
+
+    /**
+     * @return the <code>quarantineDir</code> attribute, the default directory
+     * in <code>outputDir</code>, or <code>null</code> if neither is set
+     */
+    public static Path getQuarantineDir(Map<String, String> attributes) {
+        String quarantineDir = attributes.get("quarantineDir");
+        if (quarantineDir != null && quarantineDir.trim().length() > 0) {
+            return Paths.get(quarantineDir);
+        }
+        String outputDir = attributes.get("outputDir");
+        if (outputDir != null && outputDir.trim().length() > 0) {
+            return Paths.get(outputDir).resolve(DEFAULT_DIR_NAME);
+        }
+        return null;
+    }
+
+    public synchronized int getStrikes(String path) {
+        Integer s = strikes.get(path);
+        return s == null ? 0 : s;
+    }
+
+    public boolean isQuarantined(String path) {
+        return getStrikes(path) >= maxStrikes;
+    }
+
+    public int getMaxStrikes() {
+        return maxStrikes;
+    }
+
+    /**
+     * @return number of files quarantined when this child started
+     */
+    public int getQuarantined() {
+        return quarantined;
+    }
+
+    /**
+     * Records that the calling thread has started on <code>path</code>
+     */
+    public void started(String path) throws IOException {
+        FileChannel channel = slot.get();
+        if (channel == null) {
+            synchronized (this) {
+                channel = FileChannel.open(dir.resolve(IN_FLIGHT_PREFIX + slots.size()),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                slots.add(channel);
+            }
+            slot.set(channel);
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(path.getBytes(UTF_8));
+        channel.truncate(0);
+        channel.position(0);
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    /**
+     * Records that the calling thread is done with <code>path</code>
+     *
+     * @param survived the parse ran to its end, so any strikes the file
+     *                 had were a bystander's
+     */
+    public void finished(String path, boolean survived) throws IOException {
+        FileChannel channel = slot.get();
+        if (channel != null) {
+            channel.truncate(0);
+        }
+        if (!survived) {
+            return;
+        }
+        synchronized (this) {
+            if (strikes.remove(path) != null) {
+                StringBuilder sb = new StringBuilder("0\t");
+                TabSeparated.escape(path, sb);
+                list.write(sb.append('\n').toString());
+                list.flush();
+            }
+        }
+    }
+
+    /**
+     * Deletes the empty in-flight files.  One that still holds a path
+     * belongs to a consumer that never finished, one that timed out for
+     * instance, and is kept so that the next child strikes the file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        list.close();
+        for (int i = 0; i < slots.size(); i++) {
+            FileChannel channel = slots.get(i);
+            long size = channel.size();
+            channel.close();
+            Path p = dir.resolve(IN_FLIGHT_PREFIX + i);
+            if (size == 0) {
+                Files.deleteIfExists(p);
+            } else {
+                LOG.warn(new String(Files.readAllBytes(p), UTF_8) + " was still being parsed at shutdown");
+            }
+        }
+    }
+
+    private void load(Path listPath) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(listPath, UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                int tab = line.indexOf('\t');
+                if (tab < 0) {
+                    continue;
+                }
+                String path = TabSeparated.unescape(line.substring(tab + 1));
+                try {
+                    int s = Integer.parseInt(line.substring(0, tab));
+                    if (s > 0) {
+                        strikes.put(path, s);
+                    } else {
+                        strikes.remove(path);
+                    }
+                } catch (NumberFormatException e) {
+                    //a line torn by the child's death
+                }
+            }
+        } catch (NoSuchFileException e) {
+            //first run
+        }
+    }
+
+    private void strikeInFlight() throws IOException {
+        try (DirectoryStream<Path> inFlight = Files.newDirectoryStream(dir, IN_FLIGHT_PREFIX + "*")) {
+            for (Path p : inFlight) {
+                String path = new String(Files.readAllBytes(p), UTF_8);
+                if (path.length() > 0) {
+                    int s = getStrikes(path) + 1;
+                    strikes.put(path, s);
+                    LOG.warn(path + " was being parsed when the last child died; strike " + s +
+                            (s >= maxStrikes ? ", quarantined" : ""));
+                }
+                Files.delete(p);
+            }
+        }
+    }
+
+    private void save(Path listPath) throws IOException {
+        Path tmp = listPath.resolveSibling(listPath.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Map.Entry<String, Integer> e : new TreeMap<>(strikes).entrySet()) {
+                StringBuilder sb = new StringBuilder();
+                sb.append(e.getValue()).append('\t');
+                TabSeparated.escape(e.getKey(), sb);
+                writer.write(sb.toString());
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, listPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
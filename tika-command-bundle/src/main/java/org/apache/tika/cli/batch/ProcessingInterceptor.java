@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import java.io.IOException;
+
+import org.apache.tika.batch.FileResource;
+
+/**
+ * Hook around the processing of each {@link FileResource} by an
+ * {@link InterceptingConsumer}.  {@link #init()} and {@link #shutdown()}
+ * are called once per batch child by the consumers manager.
+ * <p>
+ * Implementations are shared by all consumers and must be thread safe.
+ */
+public abstract class ProcessingInterceptor {
+
+    public void init() throws IOException {
+    }
+
+    /**
+     * Called before a consumer takes its next resource from the queue.  A
+     * consumer held back here has no resource yet, so the wait doesn't
+     * count towards the batch's timeout.
+     *
+     * @throws InterruptedException if the consumer was interrupted while waiting
+     */
+    public void beforeTaking() throws InterruptedException {
+    }
+
+    /**
+     * Called once for each {@link #beforeTaking()} that returned, after the
+     * resource taken has been processed or vetoed, or straight away if the
+     * consumer took nothing.
+     */
+    public void released() {
+    }
+
+    /**
+     * @return <code>false</code> if the resource should not be processed
+     * @throws InterruptedException if the consumer was interrupted while waiting
+     */
+    public boolean beforeProcessing(FileResource fileResource) throws InterruptedException {
+        return true;
+    }
+
+    /**
+     * Called after processing for every interceptor whose
+     * {@link #beforeProcessing(FileResource)} returned true.
+     *
+     * @param processed whether the consumer reported successful processing
+     * @param elapsedMillis time spent processing
+     */
+    public void afterProcessing(FileResource fileResource, boolean processed, long elapsedMillis) {
+    }
+
+    /**
+     * Called instead of {@link #afterProcessing(FileResource, boolean, long)}
+     * when this interceptor admitted the resource but a later one vetoed it.
+     */
+    public void vetoed(FileResource fileResource) {
+    }
+
+    /**
+     * Polled with the batch's timeout check.  A reason stops the batch as
+     * a timed out consumer does, so that the child shuts down through the
+     * consumers manager and exits with the restart exit code.
+     *
+     * @return why the child must be restarted, or <code>null</code>
+     */
+    public String getRestartReason() {
+        return null;
+    }
+
+    public void shutdown() throws IOException {
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.fs.FSProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a {@link PoisonQuarantine} of the files in flight when a child
+ * died, and skips the quarantined ones or gives them a last attempt in a
+ * slow lane.
+ * <p>
+ * A file in the slow lane is parsed alone: it waits until no other
+ * consumer is parsing, and the others wait until it is done.  It has the
+ * child's whole heap to itself, and if it kills the child again, it is the
+ * only file in flight and no bystander is struck.  After that strike it
+ * is skipped.
+ * <p>
+ * A file is recorded as in flight in {@link #beforeProcessing(FileResource)},
+ * so this interceptor has to come after any that hold a resource back, such
+ * as the {@link MemoryAdmissionInterceptor}; otherwise a file that was only
+ * waiting when the child died would be struck.
+ * <p>
+ * With the {@link ResumeJournal} on as well, <code>journalMaxStarts</code>
+ * has to be above the quarantine's strikes for the slow lane to get its
+ * turn, since the journal would skip the file first.
+ */
+public class QuarantineInterceptor extends ProcessingInterceptor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QuarantineInterceptor.class);
+
+    public enum Policy {
+        /**
+         * Don't parse quarantined files again
+         */
+        SKIP,
+        /**
+         * Parse each quarantined file once more, alone
+         */
+        SLOW_LANE;
+
+        public static Policy parse(String s) {
+            if (s == null || s.trim().length() == 0) {
+                return SKIP;
+            }
+            String v = s.trim().toLowerCase(Locale.ROOT);
+            if (v.equals("skip")) {
+                return SKIP;
+            } else if (v.equals("slowlane")) {
+                return SLOW_LANE;
+            }
+            throw new IllegalArgumentException("quarantinePolicy must be skip or slowLane: " + s);
+        }
+    }
+
+    private final PoisonQuarantine quarantine;
+    private final Policy policy;
+    private final ReentrantReadWriteLock lane = new ReentrantReadWriteLock();
+    private final ThreadLocal<Lock> held = new ThreadLocal<>();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong slowLane = new AtomicLong();
+
+    public QuarantineInterceptor(PoisonQuarantine quarantine, Policy policy) {
+        this.quarantine = quarantine;
+        this.policy = policy;
+    }
+
+    @Override
+    public boolean beforeProcessing(FileResource fileResource) throws InterruptedException {
+        String path = getPath(fileResource);
+        int strikes = quarantine.getStrikes(path);
+        Lock lock = null;
+        if (strikes >= quarantine.getMaxStrikes()) {
+            if (policy == Policy.SKIP || strikes > quarantine.getMaxStrikes()) {
+                skipped.incrementAndGet();
+                LOG.warn("Skipping quarantined " + path + " (" + strikes + " strikes)");
+                return false;
+            }
+            LOG.info("Parsing quarantined " + path + " alone");
+            slowLane.incrementAndGet();
+            lock = lane.writeLock();
+        } else if (policy == Policy.SLOW_LANE) {
+            lock = lane.readLock();
+        }
+        if (lock != null) {
+            lock.lockInterruptibly();
+            held.set(lock);
+        }
+        try {
+            quarantine.started(path);
+        } catch (IOException e) {
+            LOG.warn("Couldn't record " + path + " as in flight", e);
+        }
+        return true;
+    }
+
+    @Override
+    public void afterProcessing(FileResource fileResource, boolean processed, long elapsedMillis) {
+        done(fileResource, true);
+    }
+
+    @Override
+    public void vetoed(FileResource fileResource) {
+        done(fileResource, false);
+    }
+
+    private void done(FileResource fileResource, boolean survived) {
+        String path = getPath(fileResource);
+        try {
+            quarantine.finished(path, survived);
+        } catch (IOException e) {
+            LOG.warn("Couldn't record the end of " + path, e);
+        } finally {
+            Lock lock = held.get();
+            if (lock != null) {
+                held.remove();
+                lock.unlock();
+            }
+        }
+    }
+
+    private static String getPath(FileResource fileResource) {
+        String relPath = fileResource.getMetadata().get(FSProperties.FS_REL_PATH);
+        return relPath == null ? fileResource.getResourceId() : relPath;
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        LOG.info("Quarantine: skipped " + skipped.get() + " files, parsed " + slowLane.get() + " in the slow lane");
+        quarantine.close();
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    public long getSlowLane() {
+        return slowLane.get();
+    }
+}
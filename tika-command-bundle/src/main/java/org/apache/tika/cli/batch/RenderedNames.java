@@ -0,0 +1,293 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The name-dependent metadata a cached result was rendered with, such as
+ * the resource name and the batch's relative path, kept as the first line
+ * of the entry, and the rewriting of the result for a duplicate with other
+ * names.
+ * <p>
+ * Only the forms the output handlers render metadata in are rewritten: an
+ * XHTML <code>meta</code> element and a JSON string member.  Text outputs
+ * carry no metadata and are copied as they are.
+ */
+final class RenderedNames {
+
+    private static final String HEADER = "#names";
+    //longer first lines aren't a header this wrote
+    private static final int MAX_HEADER_BYTES = 64 * 1024;
+
+    private RenderedNames() {
+    }
+
+    static void write(Map<String, String> names, OutputStream os) throws IOException {
+        StringBuilder sb = new StringBuilder(HEADER);
+        if (names != null) {
+            for (Map.Entry<String, String> e : names.entrySet()) {
+                if (e.getValue() == null) {
+                    continue;
+                }
+                sb.append('\t');
+                TabSeparated.escape(e.getKey(), sb);
+                sb.append('\t');
+                TabSeparated.escape(e.getValue(), sb);
+            }
+        }
+        sb.append('\n');
+        os.write(sb.toString().getBytes(UTF_8));
+    }
+
+    /**
+     * Reads the first line of a cached result, leaving the stream at the result
+     */
+    static Map<String, String> read(InputStream is) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = is.read()) != '\n') {
+            if (b == -1 || line.size() >= MAX_HEADER_BYTES) {
+                throw new IOException("not a cached result");
+            }
+            line.write(b);
+        }
+        String[] cols = new String(line.toByteArray(), UTF_8).split("\t", -1);
+        if (!cols[0].equals(HEADER) || cols.length % 2 != 1) {
+            throw new IOException("not a cached result");
+        }
+        Map<String, String> names = new LinkedHashMap<>();
+        for (int i = 1; i < cols.length; i += 2) {
+            names.put(TabSeparated.unescape(cols[i]), TabSeparated.unescape(cols[i + 1]));
+        }
+        return names;
+    }
+
+    /**
+     * @return the result with each of <code>names</code> rendered in place
+     * of the value it was <code>rendered</code> with
+     */
+    static InputStream apply(InputStream is, Map<String, String> rendered, Map<String, String> names) {
+        List<byte[]> from = new ArrayList<>();
+        List<byte[]> to = new ArrayList<>();
+        for (Map.Entry<String, String> e : names.entrySet()) {
+            String was = rendered.get(e.getKey());
+            String now = e.getValue();
+            if (was == null || now == null || was.equals(now)) {
+                continue;
+            }
+            String name = e.getKey();
+            add("name=\"" + xml(name) + "\" content=\"" + xml(was) + "\"",
+                    "name=\"" + xml(name) + "\" content=\"" + xml(now) + "\"", from, to);
+            for (String separator : new String[]{":", ": "}) {
+                add("\"" + json(name, false) + "\"" + separator + "\"" + json(was, false) + "\"",
+                        "\"" + json(name, false) + "\"" + separator + "\"" + json(now, false) + "\"", from, to);
+                add("\"" + json(name, true) + "\"" + separator + "\"" + json(was, true) + "\"",
+                        "\"" + json(name, true) + "\"" + separator + "\"" + json(now, true) + "\"", from, to);
+            }
+        }
+        if (from.isEmpty()) {
+            return is;
+        }
+        return new SubstitutingInputStream(is, from.toArray(new byte[from.size()][]),
+                to.toArray(new byte[to.size()][]));
+    }
+
+    private static void add(String from, String to, List<byte[]> froms, List<byte[]> tos) {
+        byte[] bytes = from.getBytes(UTF_8);
+        for (byte[] f : froms) {
+            if (Arrays.equals(f, bytes)) {
+                return;
+            }
+        }
+        froms.add(bytes);
+        tos.add(to.getBytes(UTF_8));
+    }
+
+    private static String xml(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '"':
+                    sb.append("&quot;");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param htmlSafe also escape the characters Gson escapes by default
+     */
+    private static String json(String s, boolean htmlSafe) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c == '\r') {
+                sb.append("\\r");
+            } else if (c == '\t') {
+                sb.append("\\t");
+            } else if (c < 0x20 || (htmlSafe && "<>&='".indexOf(c) >= 0)) {
+                sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Replaces each occurrence of one of <code>from</code> with the matching
+     * <code>to</code>, holding back only as many bytes as a match can span
+     */
+    private static class SubstitutingInputStream extends InputStream {
+
+        private static final int BUFFER_SIZE = 65536;
+
+        private final InputStream in;
+        private final byte[][] from;
+        private final byte[][] to;
+        private final int maxFrom;
+        //bytes read but not yet scanned
+        private final byte[] window;
+        private int windowLength = 0;
+        private boolean eof = false;
+        private final ByteArrayOutputStream scanned = new ByteArrayOutputStream();
+        private byte[] out = new byte[0];
+        private int outPos = 0;
+
+        private SubstitutingInputStream(InputStream in, byte[][] from, byte[][] to) {
+            this.in = in;
+            this.from = from;
+            this.to = to;
+            int max = 0;
+            for (byte[] f : from) {
+                max = Math.max(max, f.length);
+            }
+            this.maxFrom = max;
+            this.window = new byte[BUFFER_SIZE + max];
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (outPos == out.length && !fill()) {
+                return -1;
+            }
+            return out[outPos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (outPos == out.length && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, out.length - outPos);
+            System.arraycopy(out, outPos, b, off, n);
+            outPos += n;
+            return n;
+        }
+
+        //false at the end of the stream
+        private boolean fill() throws IOException {
+            while (true) {
+                while (!eof && windowLength < window.length) {
+                    int n = in.read(window, windowLength, window.length - windowLength);
+                    if (n == -1) {
+                        eof = true;
+                    } else {
+                        windowLength += n;
+                    }
+                }
+                if (windowLength == 0) {
+                    return false;
+                }
+                int limit = eof ? windowLength : windowLength - (maxFrom - 1);
+                scanned.reset();
+                int i = 0;
+                while (i < limit) {
+                    int match = match(i);
+                    if (match >= 0) {
+                        scanned.write(to[match]);
+                        i += from[match].length;
+                    } else {
+                        scanned.write(window[i++]);
+                    }
+                }
+                System.arraycopy(window, i, window, 0, windowLength - i);
+                windowLength -= i;
+                out = scanned.toByteArray();
+                outPos = 0;
+                if (out.length > 0) {
+                    return true;
+                }
+            }
+        }
+
+        private int match(int start) {
+            for (int k = 0; k < from.length; k++) {
+                byte[] f = from[k];
+                if (start + f.length > windowLength) {
+                    continue;
+                }
+                int j = 0;
+                while (j < f.length && window[start + j] == f[j]) {
+                    j++;
+                }
+                if (j == f.length) {
+                    return k;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch;
+
+import java.io.IOException;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.fs.FSProperties;
+import org.apache.tika.cli.batch.fs.OutputFiles;
+import org.apache.tika.cli.batch.fs.WatchFolderCrawler;
+import org.apache.tika.metadata.Metadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deletes the outputs of a file that a {@link WatchFolderCrawler} added
+ * again because it was replaced, so that the output factory writes them
+ * again instead of skipping them as done.  The crawler's mark is taken out
+ * of the metadata so that it doesn't end up in the output.
+ * <p>
+ * This must come after the {@link ShardInterceptor}, since the outputs of
+ * a file another node parses are that node's to write.
+ */
+public class ReplacedInputInterceptor extends ProcessingInterceptor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplacedInputInterceptor.class);
+
+    private final OutputFiles outputFiles;
+
+    public ReplacedInputInterceptor(OutputFiles outputFiles) {
+        this.outputFiles = outputFiles;
+    }
+
+    @Override
+    public boolean beforeProcessing(FileResource fileResource) {
+        Metadata metadata = fileResource.getMetadata();
+        if (metadata.get(WatchFolderCrawler.REPLACED) == null) {
+            return true;
+        }
+        metadata.remove(WatchFolderCrawler.REPLACED);
+        String relPath = metadata.get(FSProperties.FS_REL_PATH);
+        if (relPath == null) {
+            return true;
+        }
+        try {
+            if (outputFiles.delete(relPath) > 0) {
+                LOG.info("{} was replaced; deleted its old output", relPath);
+            }
+        } catch (IOException e) {
+            LOG.warn("Couldn't delete the old output of the replaced " + relPath, e);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import java.io.IOException;
+
+import org.apache.tika.cli.process.ProcResourceSampler;
+import org.apache.tika.cli.process.ResourceGovernor;
+import org.apache.tika.cli.process.ResourcePolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MarkerFactory;
+
+/**
+ * Governs the batch child it runs in.  The child samples its own
+ * <code>/proc</code> entry, which is what the watchdog would see, and
+ * either logs, holds consumers back before they pick up their next
+ * document, or has the child restarted before the kernel's OOM killer
+ * gets involved.  A restart holds every consumer back and reports a
+ * {@link #getRestartReason()}, so the batch stops as it does for a timed
+ * out consumer: the consumers manager shuts the interceptors down and the
+ * child exits with the restart exit code.
+ */
+public class ResourceGovernorInterceptor extends ProcessingInterceptor
+        implements ResourceGovernor.Listener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResourceGovernorInterceptor.class);
+
+    private final ResourceGovernor governor;
+    private final Object lock = new Object();
+    private boolean throttled = false;
+    private volatile String restartReason;
+    private Thread governorThread;
+
+    public ResourceGovernorInterceptor(ResourcePolicy policy) {
+        this.governor = new ResourceGovernor(ProcResourceSampler.forSelf(), policy, this);
+    }
+
+    public ResourceGovernor getGovernor() {
+        return governor;
+    }
+
+    @Override
+    public void init() throws IOException {
+        if (!ProcResourceSampler.isSupported()) {
+            LOG.warn("/proc is not available on this platform; child resource limits will not be enforced");
+            return;
+        }
+        governorThread = new Thread(governor, "resource-governor");
+        governorThread.setDaemon(true);
+        governorThread.start();
+    }
+
+    @Override
+    public void beforeTaking() throws InterruptedException {
+        synchronized (lock) {
+            while (throttled) {
+                lock.wait(1000);
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        governor.stop();
+        if (governorThread != null) {
+            governorThread.interrupt();
+        }
+        throttle(false);
+    }
+
+    @Override
+    public void throttle(boolean throttle) {
+        synchronized (lock) {
+            throttled = throttle;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void restart(String reason) {
+        if (restartReason != null) {
+            return;
+        }
+        LOG.error(MarkerFactory.getMarker("FATAL"),
+                "Batch child exceeded resource limit (" + reason + "); stopping for restart");
+        //no new documents until the batch stops
+        throttle(true);
+        restartReason = "resource limit exceeded: " + reason;
+    }
+
+    @Override
+    public String getRestartReason() {
+        return restartReason;
+    }
+}
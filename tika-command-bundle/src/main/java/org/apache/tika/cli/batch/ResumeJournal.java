@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only record of which inputs have been processed, so that a
+ * restarted child or a later run can skip them without probing the output.
+ * <p>
+ * Each line is <code>outcome TAB fingerprint TAB path</code>, where outcome is
+ * <code>S</code> (started), <code>O</code> (ok) or <code>F</code> (failed).
+ * Records are written straight to the file, so they survive the child being
+ * killed; they are fsync'd in batches every <code>syncMillis</code>, which
+ * bounds what can be lost if the machine goes down.  A torn last line is
+ * ignored on load.
+ * <p>
+ * On load, finished fingerprints go into a {@link LongHashSet}.  Files that
+ * were started but never finished are retried until they have been started
+ * <code>maxStarts</code> times, so that the documents that happened to be in
+ * flight when a child died get another chance but a file that kills the
+ * child every time doesn't.
+ */
+public class ResumeJournal implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResumeJournal.class);
+
+    public static final int DEFAULT_MAX_STARTS = 2;
+    public static final long DEFAULT_SYNC_MILLIS = 1000;
+
+    private static final char STARTED = 'S';
+    private static final char OK = 'O';
+    private static final char FAILED = 'F';
+
+    private final Path path;
+    private final LongHashSet finished = new LongHashSet();
+    private final Map<Long, Integer> unfinishedStarts = new HashMap<>();
+    private final int maxStarts;
+    private final FileChannel channel;
+    private final Thread syncThread;
+
+    private volatile boolean dirty = false;
+    private volatile boolean closed = false;
+    private int loaded = 0;
+
+    public ResumeJournal(Path path, int maxStarts, final long syncMillis) throws IOException {
+        this.path = path;
+        this.maxStarts = maxStarts;
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        boolean tornTail = load();
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (tornTail) {
+            //so the next record doesn't get glued to the partial one
+            write("\n".getBytes(UTF_8));
+        }
+        LOG.info("Loaded " + loaded + " records from journal " + path + ": " +
+                finished.size() + " finished, " + unfinishedStarts.size() + " started but unfinished");
+
+        syncThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!closed) {
+                    try {
+                        Thread.sleep(syncMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    sync();
+                }
+            }
+        }, "resume-journal-sync");
+        syncThread.setDaemon(true);
+        syncThread.start();
+    }
+
+    /**
+     * @return whether the file with this fingerprint should be skipped, either
+     * because it was finished or because it has been started too often
+     */
+    public synchronized boolean shouldSkip(long fingerprint) {
+        if (finished.contains(fingerprint)) {
+            return true;
+        }
+        Integer starts = unfinishedStarts.get(fingerprint);
+        return starts != null && starts >= maxStarts;
+    }
+
+    public synchronized boolean isFinished(long fingerprint) {
+        return finished.contains(fingerprint);
+    }
+
+    /**
+     * @return number of times the file was started without finishing
+     */
+    public synchronized int getUnfinishedStarts(long fingerprint) {
+        Integer starts = unfinishedStarts.get(fingerprint);
+        return starts == null ? 0 : starts;
+    }
+
+    public void started(long fingerprint, String inputPath) throws IOException {
+        synchronized (this) {
+            Integer starts = unfinishedStarts.get(fingerprint);
+            unfinishedStarts.put(fingerprint, starts == null ? 1 : starts + 1);
+        }
+        append(STARTED, fingerprint, inputPath);
+    }
+
+    public void finished(long fingerprint, String inputPath, boolean ok) throws IOException {
+        synchronized (this) {
+            unfinishedStarts.remove(fingerprint);
+            finished.add(fingerprint);
+        }
+        append(ok ? OK : FAILED, fingerprint, inputPath);
+    }
+
+    /**
+     * Forces written records to disk if anything was written since the last sync.
+     */
+    public void sync() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            LOG.warn("Couldn't sync journal " + path, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        syncThread.interrupt();
+        dirty = true;
+        sync();
+        channel.close();
+    }
+
+    private void append(char outcome, long fingerprint, String inputPath) throws IOException {
+        StringBuilder sb = new StringBuilder(inputPath.length() + 24);
+        sb.append(outcome).append('\t').append(Fingerprint.toHex(fingerprint)).append('\t');
+        TabSeparated.escape(inputPath, sb);
+        sb.append('\n');
+        write(sb.toString().getBytes(UTF_8));
+    }
+
+    private synchronized void write(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        dirty = true;
+    }
+
+    /**
+     * @return whether the file ends with a partial line
+     */
+    private boolean load() throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(path), 65536)) {
+            int b;
+            while ((b = is.read()) != -1) {
+                if (b == '\n') {
+                    apply(line.toByteArray());
+                    line.reset();
+                } else {
+                    line.write(b);
+                }
+            }
+        }
+        return line.size() > 0;
+    }
+
+    private void apply(byte[] line) {
+        //outcome, tab, 16 hex digits, tab
+        if (line.length < 19 || line[1] != '\t' || line[18] != '\t') {
+            return;
+        }
+        long fingerprint;
+        try {
+            fingerprint = Fingerprint.fromHex(new String(line, 2, 16, UTF_8));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        loaded++;
+        switch (line[0]) {
+            case STARTED:
+                Integer starts = unfinishedStarts.get(fingerprint);
+                unfinishedStarts.put(fingerprint, starts == null ? 1 : starts + 1);
+                break;
+            case OK:
+            case FAILED:
+                unfinishedStarts.remove(fingerprint);
+                finished.add(fingerprint);
+                break;
+            default:
+                loaded--;
+        }
+    }
+}
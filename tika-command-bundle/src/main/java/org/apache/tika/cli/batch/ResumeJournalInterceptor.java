@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.fs.FSProperties;
+import org.apache.tika.cli.batch.fs.ArchiveEntryResource;
+import org.apache.tika.cli.batch.fs.OutputFiles;
+import org.apache.tika.cli.batch.fs.PendingOutputs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Skips inputs that the {@link ResumeJournal} says are done and records
+ * the start and outcome of everything else.
+ * <p>
+ * Inputs are identified by relative path, length and modification time and,
+ * if <code>useDigest</code> is set, an MD5 of their content.  An archive
+ * entry has no file of its own, so the archive's modification time stands
+ * in for the entry's.  This must be
+ * the last interceptor so that nothing can veto a resource after its start
+ * has been journaled.
+ * <p>
+ * An input that was started but never finished may have left a truncated
+ * output, which the output factory would skip; its outputs are deleted
+ * before it is processed again.
+ * <p>
+ * With write-behind output, an input is journaled as finished only once
+ * its outputs are written, see {@link #setPendingOutputs(PendingOutputs)}.
+ */
+public class ResumeJournalInterceptor extends ProcessingInterceptor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResumeJournalInterceptor.class);
+
+    private final Path journalPath;
+    private final Path inputDir;
+    private final boolean useDigest;
+    private int maxStarts = ResumeJournal.DEFAULT_MAX_STARTS;
+    private long syncMillis = ResumeJournal.DEFAULT_SYNC_MILLIS;
+    private OutputFiles outputFiles;
+    private PendingOutputs pendingOutputs;
+
+    private ResumeJournal journal;
+    private final ThreadLocal<Long> current = new ThreadLocal<>();
+    private final AtomicLong skipped = new AtomicLong();
+
+    public ResumeJournalInterceptor(Path journalPath, Path inputDir, boolean useDigest) {
+        this.journalPath = journalPath;
+        this.inputDir = inputDir;
+        this.useDigest = useDigest;
+    }
+
+    @Override
+    public void init() throws IOException {
+        journal = new ResumeJournal(journalPath, maxStarts, syncMillis);
+    }
+
+    @Override
+    public boolean beforeProcessing(FileResource fileResource) {
+        String relPath = fileResource.getMetadata().get(FSProperties.FS_REL_PATH);
+        if (relPath == null) {
+            return true;
+        }
+        long fingerprint;
+        try {
+            fingerprint = fingerprint(fileResource, relPath);
+        } catch (IOException e) {
+            LOG.warn("Couldn't fingerprint " + relPath + "; processing it without journaling", e);
+            return true;
+        }
+        if (journal.shouldSkip(fingerprint)) {
+            skipped.incrementAndGet();
+            LOG.debug("Journal says {} is done; skipping", relPath);
+            return false;
+        }
+        if (outputFiles != null && journal.getUnfinishedStarts(fingerprint) > 0) {
+            try {
+                if (outputFiles.delete(relPath) > 0) {
+                    LOG.info("Deleted the partial output of {}, which was started before", relPath);
+                }
+            } catch (IOException e) {
+                LOG.warn("Couldn't delete the partial output of " + relPath, e);
+            }
+        }
+        try {
+            journal.started(fingerprint, relPath);
+        } catch (IOException e) {
+            LOG.warn("Couldn't journal the start of " + relPath, e);
+        }
+        current.set(fingerprint);
+        return true;
+    }
+
+    @Override
+    public void afterProcessing(FileResource fileResource, boolean processed, long elapsedMillis) {
+        Long fingerprint = current.get();
+        if (fingerprint == null) {
+            return;
+        }
+        current.remove();
+        final String relPath = fileResource.getMetadata().get(FSProperties.FS_REL_PATH);
+        if (pendingOutputs == null) {
+            finished(fingerprint, relPath, processed);
+            return;
+        }
+        final long fp = fingerprint;
+        final boolean consumerProcessed = processed;
+        //on a writer thread if the outputs are still queued
+        pendingOutputs.whenWritten(relPath, new PendingOutputs.Listener() {
+            @Override
+            public void written(boolean success) {
+                finished(fp, relPath, consumerProcessed && success);
+            }
+        });
+    }
+
+    private void finished(long fingerprint, String relPath, boolean processed) {
+        try {
+            journal.finished(fingerprint, relPath, processed);
+        } catch (IOException e) {
+            LOG.warn("Couldn't journal the outcome of " + relPath, e);
+        }
+    }
+
+    @Override
+    public void vetoed(FileResource fileResource) {
+        current.remove();
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        if (journal != null) {
+            LOG.info("Skipped " + skipped.get() + " files already recorded in " + journalPath);
+            journal.close();
+        }
+    }
+
+    private long fingerprint(FileResource fileResource, String relPath) throws IOException {
+        if (fileResource instanceof ArchiveEntryResource) {
+            ArchiveEntryResource entry = (ArchiveEntryResource) fileResource;
+            long archiveModified = Files.getLastModifiedTime(entry.getArchive()).toMillis();
+            byte[] digest = useDigest ? Fingerprint.md5(entry.openInputStream()) : null;
+            return Fingerprint.of(relPath, entry.getSize(), archiveModified, digest);
+        }
+        Path path = inputDir.resolve(relPath);
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        byte[] digest = useDigest ? Fingerprint.md5(path) : null;
+        return Fingerprint.of(relPath, attrs.size(), attrs.lastModifiedTime().toMillis(), digest);
+    }
+
+    public void setMaxStarts(int maxStarts) {
+        this.maxStarts = maxStarts;
+    }
+
+    public void setSyncMillis(long syncMillis) {
+        this.syncMillis = syncMillis;
+    }
+
+    /**
+     * @param outputFiles where the outputs of an unfinished input are deleted from
+     */
+    public void setOutputFiles(OutputFiles outputFiles) {
+        this.outputFiles = outputFiles;
+    }
+
+    /**
+     * @param pendingOutputs the outputs write-behind factories still have
+     *                       to write, which an input waits for before it
+     *                       is journaled as finished
+     */
+    public void setPendingOutputs(PendingOutputs pendingOutputs) {
+        this.pendingOutputs = pendingOutputs;
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+}
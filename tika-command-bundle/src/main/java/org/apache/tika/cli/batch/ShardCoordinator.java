@@ -0,0 +1,636 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shares one input tree between several batch runs, typically on different
+ * machines, through files in a coordination directory that all of them can
+ * see.  No other coordinator is needed.
+ * <p>
+ * The work units are the directories <code>unitDepth</code> levels below
+ * the input directory, each with everything under it, plus a unit for the
+ * files directly in each directory above that level: {@value #ROOT_UNIT}
+ * for the input directory itself and <code>dir/.</code> for the others.
+ * With the default depth of 1, these are the top-level directories and
+ * {@value #ROOT_UNIT}; a deeper split spreads a tree with few, large
+ * top-level directories over more nodes.  The first node to
+ * arrive takes <code>units.lock</code> and writes them to
+ * <code>units.txt</code>, so the other nodes use its depth; a lock left by
+ * a node that died before writing them is taken over once it is
+ * <code>leaseMillis</code> old.  A node leases a unit by
+ * creating <code>leases/&lt;unit&gt;</code>, which only one node can do,
+ * and renews the lease by touching the file while it works on the unit.
+ * A lease that hasn't been renewed for <code>leaseMillis</code> is taken
+ * over by renaming it, which only one node can do; the node then checks
+ * that the file it moved is still the stale lease it judged, and puts it
+ * back if another node took the lease over and renewed it in between.  So
+ * the units of a node that died are reassigned once.  A node that restarts
+ * under the same id picks its own leases up again straight away.
+ * <p>
+ * A unit is done, and <code>done/&lt;unit&gt;</code> is written, once it
+ * has been crawled and every file queued from it has been handled.  Each
+ * node keeps its counts in <code>nodes/&lt;node&gt;.properties</code>,
+ * carried over when a child restarts under the same id, and
+ * the node that sees the last unit done merges them into
+ * <code>report.txt</code>.
+ * <p>
+ * Files can be processed twice if a lease expires while its holder is
+ * still working, so <code>leaseMillis</code> should allow for clock skew
+ * between machines and for pauses; the resume journal or
+ * <code>handleExisting</code> keep the repeats cheap.
+ */
+public class ShardCoordinator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShardCoordinator.class);
+
+    public static final String ROOT_UNIT = ".";
+    public static final long DEFAULT_LEASE_MILLIS = 300000;
+    public static final int DEFAULT_UNIT_DEPTH = 1;
+
+    private static final String FILES_ONLY = "/" + ROOT_UNIT;
+
+    private static final String ROOT_UNIT_FILE = "_root_";
+    private static final long POLL_MILLIS = 1000;
+
+    private static final ConcurrentMap<Path, ShardCoordinator> COORDINATORS = new ConcurrentHashMap<>();
+
+    private final Path dir;
+    private final Path leases;
+    private final Path done;
+    private final Path nodes;
+    private final String node;
+    private final long leaseMillis;
+    private int unitDepth = DEFAULT_UNIT_DEPTH;
+
+    private final Map<String, Unit> held = new ConcurrentHashMap<>();
+    private final AtomicLong handledFiles = new AtomicLong();
+    private final AtomicLong doneUnits = new AtomicLong();
+    private List<String> units;
+    private Set<String> unitSet;
+    private Thread renewer;
+
+    /**
+     * @return the coordinator for this directory, creating it on first use
+     */
+    public static ShardCoordinator forPath(Path dir, String node, long leaseMillis) {
+        Path key = dir.toAbsolutePath().normalize();
+        ShardCoordinator coordinator = COORDINATORS.get(key);
+        if (coordinator == null) {
+            synchronized (COORDINATORS) {
+                coordinator = COORDINATORS.get(key);
+                if (coordinator == null) {
+                    coordinator = new ShardCoordinator(key, node, leaseMillis);
+                    COORDINATORS.put(key, coordinator);
+                }
+            }
+        }
+        return coordinator;
+    }
+
+    /**
+     * @return the coordinator for <code>shardDir</code>, or null if it isn't set
+     */
+    public static ShardCoordinator forAttributes(Map<String, String> attributes) {
+        String shardDir = attributes.get("shardDir");
+        if (shardDir == null || shardDir.trim().length() == 0) {
+            return null;
+        }
+        long leaseMillis = DEFAULT_LEASE_MILLIS;
+        String lease = attributes.get("shardLeaseMillis");
+        if (lease != null && lease.trim().length() > 0) {
+            leaseMillis = Long.parseLong(lease.trim());
+        }
+        ShardCoordinator coordinator = forPath(Paths.get(shardDir.trim()), getNodeId(attributes), leaseMillis);
+        String depth = attributes.get("shardUnitDepth");
+        if (depth != null && depth.trim().length() > 0) {
+            coordinator.setUnitDepth(Integer.parseInt(depth.trim()));
+        }
+        return coordinator;
+    }
+
+    /**
+     * @return <code>shardNode</code> or the host name plus a hash of the
+     * output directory, which stays the same when the child restarts
+     */
+    public static String getNodeId(Map<String, String> attributes) {
+        String node = attributes.get("shardNode");
+        if (node != null && node.trim().length() > 0) {
+            return node.trim();
+        }
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "localhost";
+        }
+        String outputDir = attributes.get("outputDir");
+        String suffix = outputDir == null ? "" :
+                Fingerprint.toHex(Fingerprint.ofPath(Paths.get(outputDir).toAbsolutePath().toString()));
+        return host + "-" + suffix;
+    }
+
+    public ShardCoordinator(Path dir, String node, long leaseMillis) {
+        this.dir = dir;
+        this.leases = dir.resolve("leases");
+        this.done = dir.resolve("done");
+        this.nodes = dir.resolve("nodes");
+        this.node = node;
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * @param unitDepth levels of directories below the input directory to
+     *                  split the work units at, if this node lists them
+     */
+    public void setUnitDepth(int unitDepth) {
+        if (unitDepth < 1) {
+            throw new IllegalArgumentException("unitDepth must be at least 1: " + unitDepth);
+        }
+        this.unitDepth = unitDepth;
+    }
+
+    /**
+     * Reads the work units, listing them from the input directory if this is
+     * the first node, and starts renewing leases.
+     */
+    public synchronized void start(Path inputDir) throws IOException, InterruptedException {
+        if (units != null) {
+            return;
+        }
+        Files.createDirectories(leases);
+        Files.createDirectories(done);
+        Files.createDirectories(nodes);
+        loadNodeStatus();
+        units = loadUnits(inputDir);
+        unitSet = new HashSet<>(units);
+        LOG.info("Node " + node + " sharing " + units.size() + " work units through " + dir);
+        renewer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    try {
+                        Thread.sleep(Math.max(1, leaseMillis / 3));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    renew();
+                }
+            }
+        }, "shard-lease-renewer");
+        renewer.setDaemon(true);
+        renewer.start();
+    }
+
+    /**
+     * Leases the next unit, waiting while units are leased by other live
+     * nodes in case they die.
+     *
+     * @return the unit, or null once every unit is done or leased by this node
+     */
+    public String acquire() throws IOException, InterruptedException {
+        while (true) {
+            boolean pending = false;
+            for (String unit : units) {
+                if (held.containsKey(unit) || Files.exists(done.resolve(fileName(unit)))) {
+                    continue;
+                }
+                pending = true;
+                if (tryLease(unit)) {
+                    return unit;
+                }
+            }
+            if (!pending) {
+                //every unit is done or is ours and still being processed
+                return null;
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+
+    /**
+     * @return the unit that a path relative to the input directory belongs
+     * to, or null if it's in none, such as a directory made after the units
+     * were listed
+     */
+    public String unitOf(String relPath) {
+        String p = relPath.replace('\\', '/');
+        int i = p.lastIndexOf('/');
+        if (i < 0) {
+            return ROOT_UNIT;
+        }
+        String parent = p.substring(0, i);
+        if (unitSet.contains(parent + FILES_ONLY)) {
+            return parent + FILES_ONLY;
+        }
+        while (parent != null) {
+            if (unitSet.contains(parent)) {
+                return parent;
+            }
+            i = parent.lastIndexOf('/');
+            parent = i < 0 ? null : parent.substring(0, i);
+        }
+        return null;
+    }
+
+    /**
+     * @return whether the unit is just the files directly in {@link #directoryOf(String)}
+     */
+    public static boolean isFilesOnly(String unit) {
+        return unit.equals(ROOT_UNIT) || unit.endsWith(FILES_ONLY);
+    }
+
+    /**
+     * @return the unit's directory relative to the input directory, "" for
+     * the input directory itself
+     */
+    public static String directoryOf(String unit) {
+        if (unit.equals(ROOT_UNIT)) {
+            return "";
+        }
+        return unit.endsWith(FILES_ONLY) ? unit.substring(0, unit.length() - FILES_ONLY.length()) : unit;
+    }
+
+    /**
+     * Call for every file queued from a leased unit.
+     */
+    public void added(String relPath) {
+        String unit = unitOf(relPath);
+        Unit u = unit == null ? null : held.get(unit);
+        if (u != null) {
+            u.added.incrementAndGet();
+        }
+    }
+
+    /**
+     * Call for every queued file once it's been processed or skipped.
+     */
+    public void handled(String relPath) {
+        String unit = unitOf(relPath);
+        Unit u = unit == null ? null : held.get(unit);
+        if (u != null) {
+            u.handled.incrementAndGet();
+            checkDone(unit, u);
+        }
+    }
+
+    /**
+     * Call when the crawler has walked a unit.
+     */
+    public void crawled(String unit) {
+        Unit u = held.get(unit);
+        if (u != null) {
+            u.crawled = true;
+            checkDone(unit, u);
+        }
+    }
+
+    public void stop() {
+        if (renewer != null) {
+            renewer.interrupt();
+        }
+        writeNodeStatus();
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public Path getReportPath() {
+        return dir.resolve("report.txt");
+    }
+
+    private void checkDone(String unit, Unit u) {
+        synchronized (u) {
+            if (!u.crawled || u.handled.get() < u.added.get() || u.done) {
+                return;
+            }
+            u.done = true;
+        }
+        try {
+            Files.write(done.resolve(fileName(unit)), (node + "\t" + u.handled.get()).getBytes(UTF_8));
+            Files.deleteIfExists(leases.resolve(fileName(unit)));
+        } catch (IOException e) {
+            LOG.warn("Couldn't mark work unit " + unit + " done", e);
+        }
+        held.remove(unit);
+        doneUnits.incrementAndGet();
+        //counted per unit, so that a unit resumed after a restart isn't counted twice
+        handledFiles.addAndGet(u.handled.get());
+        writeNodeStatus();
+        LOG.info("Work unit " + unit + " done: " + u.handled.get() + " files");
+        if (isAllDone()) {
+            try {
+                writeReport();
+            } catch (IOException e) {
+                LOG.warn("Couldn't write the shard report", e);
+            }
+        }
+    }
+
+    /**
+     * @return whether every unit has been done, by any node
+     */
+    public boolean isAllDone() {
+        for (String unit : units) {
+            if (!Files.exists(done.resolve(fileName(unit)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean tryLease(String unit) throws IOException {
+        Path lease = leases.resolve(fileName(unit));
+        try {
+            Files.write(lease, node.getBytes(UTF_8), StandardOpenOption.CREATE_NEW);
+            //the unit may have been finished, and its lease deleted, since we looked
+            if (Files.exists(done.resolve(fileName(unit)))) {
+                Files.deleteIfExists(lease);
+                return false;
+            }
+            held.put(unit, new Unit());
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            //fall through
+        }
+        String owner;
+        FileTime renewed;
+        try {
+            owner = new String(Files.readAllBytes(lease), UTF_8).trim();
+            renewed = Files.getLastModifiedTime(lease);
+        } catch (NoSuchFileException e) {
+            //just finished or taken over; try again next time round
+            return false;
+        }
+        if (owner.equals(node)) {
+            //ours from before a restart
+            Files.setLastModifiedTime(lease, FileTime.fromMillis(System.currentTimeMillis()));
+            held.put(unit, new Unit());
+            LOG.info("Resuming work unit " + unit);
+            return true;
+        }
+        if (System.currentTimeMillis() - renewed.toMillis() < leaseMillis) {
+            return false;
+        }
+        if (!removeIfUnchanged(lease, leases.resolve(fileName(unit) + ".expired." + node), owner, renewed)) {
+            return false;
+        }
+        LOG.warn("Lease on work unit " + unit + " held by " + owner + " expired; taking it over");
+        return tryLease(unit);
+    }
+
+    /**
+     * Removes a stale lease or lock by moving it aside, which only one node
+     * can do.  Another node may have taken the same file over, and made a
+     * new one, between our look and our move, so the moved file must still
+     * be the one judged stale; if it isn't, it's put back.  Should yet
+     * another node have created the file again in the meantime, the moved
+     * one is dropped and its owner finds out when it next renews.
+     *
+     * @param owner the owner read from the stale file, null for the units lock
+     * @param judged the modification time the file was judged stale by
+     * @return whether the stale file was removed
+     */
+    static boolean removeIfUnchanged(Path file, Path aside, String owner, FileTime judged) throws IOException {
+        try {
+            Files.move(file, aside, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        boolean unchanged;
+        try {
+            unchanged = judged.equals(Files.getLastModifiedTime(aside)) &&
+                    (owner == null || owner.equals(new String(Files.readAllBytes(aside), UTF_8).trim()));
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (unchanged) {
+            Files.deleteIfExists(aside);
+            return true;
+        }
+        try {
+            Files.move(aside, file);
+        } catch (FileAlreadyExistsException e) {
+            Files.deleteIfExists(aside);
+        }
+        return false;
+    }
+
+    private void renew() {
+        long now = System.currentTimeMillis();
+        for (String unit : held.keySet()) {
+            Path lease = leases.resolve(fileName(unit));
+            try {
+                String owner = new String(Files.readAllBytes(lease), UTF_8).trim();
+                if (!owner.equals(node)) {
+                    LOG.warn("Lost the lease on work unit " + unit + " to " + owner);
+                    held.remove(unit);
+                    continue;
+                }
+                Files.setLastModifiedTime(lease, FileTime.fromMillis(now));
+            } catch (IOException e) {
+                LOG.warn("Couldn't renew the lease on work unit " + unit, e);
+            }
+        }
+        writeNodeStatus();
+    }
+
+    private List<String> loadUnits(Path inputDir) throws IOException, InterruptedException {
+        Path unitsPath = dir.resolve("units.txt");
+        Path lock = dir.resolve("units.lock");
+        while (!Files.exists(unitsPath)) {
+            try {
+                Files.createFile(lock);
+            } catch (FileAlreadyExistsException e) {
+                //another node is listing them, or died doing so
+                if (!takeOverStaleLock(lock)) {
+                    Thread.sleep(100);
+                }
+                continue;
+            }
+            try {
+                writeUnits(inputDir, unitsPath);
+            } catch (IOException e) {
+                Files.deleteIfExists(lock);
+                throw e;
+            }
+        }
+        return Files.readAllLines(unitsPath, UTF_8);
+    }
+
+    /**
+     * @return whether the lock is gone, or was older than a lease and has
+     * been removed
+     */
+    private boolean takeOverStaleLock(Path lock) throws IOException {
+        FileTime created;
+        try {
+            created = Files.getLastModifiedTime(lock);
+        } catch (NoSuchFileException e) {
+            return true;
+        }
+        if (System.currentTimeMillis() - created.toMillis() < leaseMillis) {
+            return false;
+        }
+        if (!removeIfUnchanged(lock, dir.resolve("units.lock.expired." + node), null, created)) {
+            //gone, or taken over by another node since we looked
+            return false;
+        }
+        LOG.warn("Taking over " + lock + ", which its node left without writing the work units");
+        return true;
+    }
+
+    private void writeUnits(Path inputDir, Path unitsPath) throws IOException {
+        List<String> listed = new ArrayList<>();
+        listUnits(inputDir, "", 1, listed);
+        Collections.sort(listed);
+        Path tmp = dir.resolve("units.txt." + node + ".tmp");
+        Files.write(tmp, listed, UTF_8);
+        //a node whose lock was taken over lists the same units
+        Files.move(tmp, unitsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void listUnits(Path directory, String relPath, int depth, List<String> listed) throws IOException {
+        listed.add(relPath.length() == 0 ? ROOT_UNIT : relPath + FILES_ONLY);
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory)) {
+            for (Path p : ds) {
+                if (!Files.isDirectory(p)) {
+                    continue;
+                }
+                String child = relPath.length() == 0 ? p.getFileName().toString() :
+                        relPath + "/" + p.getFileName().toString();
+                if (depth < unitDepth) {
+                    listUnits(p, child, depth + 1, listed);
+                } else {
+                    listed.add(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Carries on the counts of an earlier child with this node id
+     */
+    private void loadNodeStatus() throws IOException {
+        Path path = nodes.resolve(node + ".properties");
+        if (!Files.exists(path)) {
+            return;
+        }
+        Properties props = new Properties();
+        try (Reader r = Files.newBufferedReader(path, UTF_8)) {
+            props.load(r);
+        }
+        doneUnits.set(Long.parseLong(props.getProperty("units", "0")));
+        handledFiles.set(Long.parseLong(props.getProperty("files", "0")));
+    }
+
+    private synchronized void writeNodeStatus() {
+        Properties props = new Properties();
+        props.setProperty("units", Long.toString(doneUnits.get()));
+        props.setProperty("files", Long.toString(handledFiles.get()));
+        props.setProperty("leased", Integer.toString(held.size()));
+        props.setProperty("updated", Long.toString(System.currentTimeMillis()));
+        Path path = nodes.resolve(node + ".properties");
+        Path tmp = nodes.resolve(node + ".properties.tmp");
+        try {
+            try (Writer w = Files.newBufferedWriter(tmp, UTF_8)) {
+                props.store(w, null);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Couldn't write node status " + path, e);
+        }
+    }
+
+    /**
+     * Merges the counts of every node into report.txt.
+     */
+    void writeReport() throws IOException {
+        writeNodeStatus();
+        StringBuilder sb = new StringBuilder();
+        long totalUnits = 0;
+        long totalFiles = 0;
+        List<String> lines = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(nodes, "*.properties")) {
+            for (Path p : ds) {
+                Properties props = new Properties();
+                try (Reader r = Files.newBufferedReader(p, UTF_8)) {
+                    props.load(r);
+                }
+                String name = p.getFileName().toString();
+                name = name.substring(0, name.length() - ".properties".length());
+                long u = Long.parseLong(props.getProperty("units", "0"));
+                long f = Long.parseLong(props.getProperty("files", "0"));
+                totalUnits += u;
+                totalFiles += f;
+                lines.add(name + "\t" + u + "\t" + f);
+            }
+        }
+        Collections.sort(lines);
+        sb.append("#node\tunits\tfiles\n");
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+        sb.append("total\t").append(totalUnits).append('\t').append(totalFiles).append('\n');
+        Path tmp = dir.resolve("report.txt." + node + ".tmp");
+        Files.write(tmp, sb.toString().getBytes(UTF_8));
+        Files.move(tmp, getReportPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOG.info("All " + units.size() + " work units done; " + totalFiles + " files on " + lines.size() +
+                " nodes, see " + getReportPath());
+    }
+
+    private static String fileName(String unit) {
+        return unit.equals(ROOT_UNIT) ? ROOT_UNIT_FILE : unit.replace("%", "%25").replace("/", "%2F");
+    }
+
+    private static class Unit {
+        private final AtomicLong added = new AtomicLong();
+        private final AtomicLong handled = new AtomicLong();
+        private volatile boolean crawled = false;
+        private boolean done = false;
+    }
+}
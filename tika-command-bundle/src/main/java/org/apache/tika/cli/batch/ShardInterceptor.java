@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import java.io.IOException;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.fs.FSProperties;
+
+/**
+ * Tells the {@link ShardCoordinator} which files have been handled, so
+ * that it can mark work units done and release their leases.
+ * <p>
+ * Like {@link IncrementalInterceptor}, this must come before any interceptor
+ * that can veto a resource.
+ */
+public class ShardInterceptor extends ProcessingInterceptor {
+
+    private final ShardCoordinator shards;
+
+    public ShardInterceptor(ShardCoordinator shards) {
+        this.shards = shards;
+    }
+
+    @Override
+    public void afterProcessing(FileResource fileResource, boolean processed, long elapsedMillis) {
+        handled(fileResource);
+    }
+
+    @Override
+    public void vetoed(FileResource fileResource) {
+        handled(fileResource);
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        shards.stop();
+    }
+
+    private void handled(FileResource fileResource) {
+        String path = fileResource.getMetadata().get(FSProperties.FS_REL_PATH);
+        if (path != null) {
+            shards.handled(path);
+        }
+    }
+}
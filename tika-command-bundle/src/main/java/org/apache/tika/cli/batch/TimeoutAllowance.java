@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time a consumer spends waiting on a budget it shares with the other
+ * consumers in the middle of its parse, such as the read throttle's or
+ * the write-behind buffers'.  {@link InterceptingConsumer} binds a counter
+ * to its thread for each resource and leaves what was added to it out of
+ * the batch's timeout; on other threads, such as the crawler's, waits
+ * aren't counted.
+ */
+public final class TimeoutAllowance {
+
+    private static final ThreadLocal<AtomicLong> CURRENT = new ThreadLocal<>();
+
+    private TimeoutAllowance() {
+    }
+
+    /**
+     * Counts the calling thread's waits in <code>waitedNanos</code> until
+     * {@link #unbind()}
+     */
+    static void bind(AtomicLong waitedNanos) {
+        CURRENT.set(waitedNanos);
+    }
+
+    static void unbind() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Records that the calling thread waited for <code>nanos</code>
+     */
+    public static void waited(long nanos) {
+        AtomicLong waitedNanos = CURRENT.get();
+        if (waitedNanos != null && nanos > 0) {
+            waitedNanos.addAndGet(nanos);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tab separated manifest written by a triage run: one line per file with
+ * its path, length, detected media type, digests and whether an earlier
+ * line had the same content.  Duplicates are found by the first 64 bits
+ * of the first digest, kept in memory for the whole run.
+ * <p>
+ * Lines are appended, so a restarted child adds to the manifest.  The
+ * digests already in it are read back so that duplicates are still
+ * flagged across the restart, and so are the paths, so that files listed
+ * before aren't triaged and listed again, see {@link #isListed(String)}.
+ * Lines are flushed every
+ * {@value #FLUSH_LINES} lines and on close.
+ */
+public class TriageManifest implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TriageManifest.class);
+
+    public static final String DEFAULT_FILE_NAME = "tika-triage.tsv";
+
+    private static final int FLUSH_LINES = 1000;
+
+    private final Path path;
+    private final String[] algorithms;
+    private final LongHashSet seen = new LongHashSet();
+    //paths listed before this manifest was opened
+    private final LongHashSet listed = new LongHashSet();
+    private final Writer writer;
+    private long lines = 0;
+    private long duplicates = 0;
+
+    /**
+     * @param algorithms names of the digests in the order of their columns
+     */
+    public TriageManifest(Path path, String[] algorithms) throws IOException {
+        this.path = path;
+        this.algorithms = algorithms;
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        boolean exists = Files.isRegularFile(path) && Files.size(path) > 0;
+        boolean partialLine = false;
+        if (exists) {
+            partialLine = load();
+        }
+        writer = Files.newBufferedWriter(path, UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if (partialLine) {
+            writer.write('\n');
+        }
+        if (!exists) {
+            StringBuilder sb = new StringBuilder("#path\tlength\tmediaType");
+            for (String algorithm : algorithms) {
+                sb.append('\t').append(algorithm.toLowerCase(Locale.ROOT));
+            }
+            sb.append("\tduplicate\n");
+            writer.write(sb.toString());
+        }
+    }
+
+    /**
+     * @return the <code>triageManifest</code> attribute, or
+     * {@value #DEFAULT_FILE_NAME} in the output directory
+     */
+    public static Path getManifestPath(Map<String, String> attributes) {
+        String manifest = attributes.get("triageManifest");
+        if (manifest != null && manifest.trim().length() > 0) {
+            return Paths.get(manifest);
+        }
+        String outputDir = attributes.get("outputDir");
+        if (outputDir != null && outputDir.trim().length() > 0) {
+            return Paths.get(outputDir).resolve(DEFAULT_FILE_NAME);
+        }
+        throw new RuntimeException("triage mode needs a triageManifest or an outputDir");
+    }
+
+    /**
+     * @return true if an earlier run or child already listed the file
+     */
+    public synchronized boolean isListed(String relPath) {
+        return listed.contains(Fingerprint.ofPath(relPath));
+    }
+
+    /**
+     * @param digests hex digests in the order of the algorithms
+     * @return true if the content has been seen before
+     */
+    public synchronized boolean add(String relPath, long length, String mediaType, String[] digests)
+            throws IOException {
+        boolean duplicate = digests.length > 0 && !seen.add(Fingerprint.fromHex(digests[0].substring(0, 16)));
+        StringBuilder sb = new StringBuilder();
+        TabSeparated.escape(relPath, sb);
+        sb.append('\t').append(length).append('\t').append(mediaType);
+        for (String digest : digests) {
+            sb.append('\t').append(digest);
+        }
+        sb.append('\t').append(duplicate ? '1' : '0').append('\n');
+        writer.write(sb.toString());
+        if (duplicate) {
+            duplicates++;
+        }
+        if (++lines % FLUSH_LINES == 0) {
+            writer.flush();
+        }
+        return duplicate;
+    }
+
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+        LOG.info("Triage manifest " + path + ": " + lines + " files, " + duplicates + " duplicates");
+    }
+
+    /**
+     * @return true if the last line was cut short
+     */
+    private boolean load() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                String[] cols = line.split("\t", -1);
+                //a line cut short by a crash has fewer columns, and its file is triaged again
+                if (cols.length != 4 + algorithms.length) {
+                    continue;
+                }
+                listed.add(Fingerprint.ofPath(TabSeparated.unescape(cols[0])));
+                if (algorithms.length > 0 && cols[3].length() >= 16) {
+                    seen.add(Fingerprint.fromHex(cols[3].substring(0, 16)));
+                }
+            }
+        }
+        LOG.info("Read " + listed.size() + " files and " + seen.size() + " digests from the triage manifest " + path);
+        try (SeekableByteChannel channel = Files.newByteChannel(path)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.position(channel.size() - 1).read(last);
+            return last.get(0) != '\n';
+        }
+    }
+}
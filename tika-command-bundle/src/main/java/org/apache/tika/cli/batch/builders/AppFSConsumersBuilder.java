@@ -0,0 +1,770 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch.builders;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.tika.batch.ConsumersManager;
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.FileResourceConsumer;
+import org.apache.tika.batch.OutputStreamFactory;
+import org.apache.tika.batch.ParserFactory;
+import org.apache.tika.batch.builders.AbstractConsumersBuilder;
+import org.apache.tika.batch.builders.BatchProcessBuilder;
+import org.apache.tika.batch.builders.IContentHandlerFactoryBuilder;
+import org.apache.tika.batch.builders.IParserFactoryBuilder;
+import org.apache.tika.batch.fs.BasicTikaFSConsumer;
+import org.apache.tika.batch.fs.FSOutputStreamFactory;
+import org.apache.tika.batch.fs.FSUtil;
+import org.apache.tika.batch.fs.RecursiveParserWrapperFSConsumer;
+import org.apache.tika.cli.batch.BatchChild;
+import org.apache.tika.cli.batch.BatchMetrics;
+import org.apache.tika.cli.batch.ConsumerScaler;
+import org.apache.tika.cli.batch.ConsumerScalerInterceptor;
+import org.apache.tika.cli.batch.CostClassScheduler;
+import org.apache.tika.cli.batch.CostClassifier;
+import org.apache.tika.cli.batch.CrawlSpool;
+import org.apache.tika.cli.batch.CrawlSpoolInterceptor;
+import org.apache.tika.cli.batch.IncrementalInterceptor;
+import org.apache.tika.cli.batch.IncrementalManifest;
+import org.apache.tika.cli.batch.InterceptingConsumer;
+import org.apache.tika.cli.batch.IoThrottle;
+import org.apache.tika.cli.batch.LocalityScheduler;
+import org.apache.tika.cli.batch.LookaheadScheduler;
+import org.apache.tika.cli.batch.MemoryAdmission;
+import org.apache.tika.cli.batch.MemoryAdmissionInterceptor;
+import org.apache.tika.cli.batch.MetricsInterceptor;
+import org.apache.tika.cli.batch.ParseResultCache;
+import org.apache.tika.cli.batch.ParseStatsInterceptor;
+import org.apache.tika.cli.batch.ParseTimeStats;
+import org.apache.tika.cli.batch.PoisonQuarantine;
+import org.apache.tika.cli.batch.ProcessingInterceptor;
+import org.apache.tika.cli.batch.QuarantineInterceptor;
+import org.apache.tika.cli.batch.ReplacedInputInterceptor;
+import org.apache.tika.cli.batch.ResourceGovernorInterceptor;
+import org.apache.tika.cli.batch.ResumeJournal;
+import org.apache.tika.cli.batch.ResumeJournalInterceptor;
+import org.apache.tika.cli.batch.ShardCoordinator;
+import org.apache.tika.cli.batch.ShardInterceptor;
+import org.apache.tika.cli.batch.TriageManifest;
+import org.apache.tika.cli.batch.fs.AppFSConsumersManager;
+import org.apache.tika.cli.batch.fs.CachingFSConsumer;
+import org.apache.tika.cli.batch.fs.CachingOutputStreamFactory;
+import org.apache.tika.cli.batch.fs.OutputFiles;
+import org.apache.tika.cli.batch.fs.PendingOutputs;
+import org.apache.tika.cli.batch.fs.ParallelGzipOutputStreamFactory;
+import org.apache.tika.cli.batch.fs.SegmentedOutputStreamFactory;
+import org.apache.tika.cli.batch.fs.TeeFSConsumer;
+import org.apache.tika.cli.batch.fs.ThrottledFSConsumer;
+import org.apache.tika.cli.batch.fs.TriageFSConsumer;
+import org.apache.tika.cli.batch.fs.WriteBehindOutputStreamFactory;
+import org.apache.tika.cli.process.JmxSupport;
+import org.apache.tika.cli.process.ResourceGovernor;
+import org.apache.tika.cli.process.ResourcePolicy;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.sax.BasicContentHandlerFactory;
+import org.apache.tika.sax.ContentHandlerFactory;
+import org.apache.tika.util.ClassLoaderUtil;
+import org.apache.tika.util.PropsUtil;
+import org.apache.tika.util.XMLDOMUtil;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Builds the same consumers as tika-batch's BasicTikaFSConsumersBuilder,
+ * but wraps each of them in an {@link InterceptingConsumer} so that the app's
+ * {@link ProcessingInterceptor}s run around every document.
+ * <p>
+ * Child resource limits are read from the consumers element or the commandline:
+ * <code>maxChildRssMb</code>, <code>maxChildOpenFiles</code>,
+ * <code>maxChildCpuPercent</code>, <code>resourcePolicy</code> (log|throttle|restart)
+ * and <code>resourceSampleMillis</code>.
+ * <p>
+ * <code>scheduler="costClass"</code> hands the consumers a {@link CostClassScheduler}
+ * instead of the crawler's FIFO queue; <code>schedulerLookahead</code> bounds how
+ * many resources it pulls ahead.  <code>scheduler="locality"</code> hands
+ * them a {@link LocalityScheduler}, which groups reads by directory.
+ * <p>
+ * <code>maxReadMbPerSecond</code> and <code>maxReadOpsPerSecond</code> keep
+ * the consumers' reads within the budgets of an {@link IoThrottle},
+ * {@link IoThrottle#share shared} with the crawler built for the same
+ * queue and registered as an MBean so that the budgets can be changed
+ * during the run.
+ * <p>
+ * <code>quarantine</code> keeps a {@link PoisonQuarantine} of the files
+ * in flight when a child died, in <code>quarantineDir</code>; files with
+ * <code>quarantineStrikes</code> strikes are skipped, or with
+ * <code>quarantinePolicy="slowLane"</code> parsed once more on their own.
+ * <p>
+ * <code>autoscale</code> starts <code>numConsumers</code> consumers but
+ * lets a {@link ConsumerScaler} decide how many of them parse at once,
+ * between <code>minConsumers</code> and <code>numConsumers</code>,
+ * re-evaluated every <code>autoscaleMillis</code>.
+ * <p>
+ * <code>maxInFlightMb</code> (a number or "default", half the heap) holds
+ * documents back until their estimated memory fits in a
+ * {@link MemoryAdmission} budget; documents estimated at up to
+ * <code>admissionSmallMb</code> go ahead of big ones waiting for room.
+ * <p>
+ * Parse times are recorded in the {@link ParseTimeStats} file used by the
+ * crawler's cost order whenever a stats file or output directory is known.
+ * <p>
+ * <code>journal</code> turns on the {@link ResumeJournal}, with
+ * <code>journalDigest</code>, <code>journalMaxStarts</code> and
+ * <code>journalSyncMillis</code>.
+ * <p>
+ * <code>incremental</code> commits the crawler's {@link IncrementalManifest}
+ * once the run has handled every file it queued, and <code>crawlSpool</code>
+ * deletes the crawler's {@link CrawlSpool} likewise.  With
+ * <code>shardDir</code>, the crawler's {@link ShardCoordinator} is told as
+ * files are handled, so that finished work units are released.
+ * <p>
+ * <code>segmented</code> replaces the one-file-per-input output with a
+ * {@link SegmentedOutputStreamFactory}, rolling segments at
+ * <code>segmentMb</code>.
+ * <p>
+ * <code>compression="pgzip"</code> writes gzip through a
+ * {@link ParallelGzipOutputStreamFactory} with <code>compressionLevel</code>
+ * (fast|default|best|0-9) and <code>compressionThreads</code>.
+ * <p>
+ * <code>writeBehind</code> hands finished outputs to a
+ * {@link WriteBehindOutputStreamFactory}'s writer threads
+ * (<code>writeBehindThreads</code>), buffering up to
+ * <code>writeBehindMb</code>; <code>writeBehindSync</code> fsyncs them.
+ * <p>
+ * <code>cache</code> looks inputs up in a {@link ParseResultCache} in that
+ * directory, bounded by <code>cacheMaxMb</code>, and writes the stored
+ * result instead of parsing a duplicate.
+ * <p>
+ * <code>output</code> children, or <code>tee</code> on the commandline,
+ * write one parse to several outputs through a {@link TeeFSConsumer}; each
+ * output has a <code>type</code> (xml|html|text|body|json) and its own
+ * <code>outputDir</code>, <code>outputSuffix</code> and
+ * <code>compression</code>.
+ * <p>
+ * <code>triage</code> replaces parsing with a {@link TriageFSConsumer} that
+ * only detects and digests each file, with the parser's digest settings,
+ * into a {@link TriageManifest} (<code>triageManifest</code>, by default
+ * in the output directory).
+ * <p>
+ * <code>metrics</code> writes {@link BatchMetrics} to the output directory
+ * every <code>metricsMillis</code>; <code>jmx</code> registers them, along
+ * with the consumers' states, as a {@link BatchChild} MBean.
+ */
+public class AppFSConsumersBuilder extends AbstractConsumersBuilder {
+
+    private static final long DEFAULT_METRICS_MILLIS = 10000;
+    private static final long DEFAULT_CACHE_MAX_MB = 1024;
+
+    //attributes of the parser and contenthandler elements that change the output
+    private static final String[] OUTPUT_ATTRS = {
+            "class", "parseRecursively", "digest", "digestMarkLimit", "basicHandlerType", "writeLimit"
+    };
+
+    @Override
+    public ConsumersManager build(Node node, Map<String, String> runtimeAttributes,
+                                  ArrayBlockingQueue<FileResource> queue) {
+        Map<String, String> localAttrs = XMLDOMUtil.mapifyAttrs(node, runtimeAttributes);
+
+        boolean recursiveParserWrapper = PropsUtil.getBoolean(
+                localAttrs.get("recursiveParserWrapper"), false);
+        Long consumersManagerMaxMillis = PropsUtil.getLong(
+                localAttrs.get("consumersManagerMaxMillis"), null);
+
+        TikaConfig config = getTikaConfig(localAttrs);
+
+        Node contentHandlerFactoryNode = null;
+        Node parserFactoryNode = null;
+        Node outputStreamFactoryNode = null;
+        NodeList nodeList = node.getChildNodes();
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            Node child = nodeList.item(i);
+            String cn = child.getNodeName();
+            if (cn.equals("parser")) {
+                parserFactoryNode = child;
+            } else if (cn.equals("contenthandler")) {
+                contentHandlerFactoryNode = child;
+            } else if (cn.equals("outputstream")) {
+                outputStreamFactoryNode = child;
+            }
+        }
+        if (contentHandlerFactoryNode == null || parserFactoryNode == null
+                || outputStreamFactoryNode == null) {
+            throw new RuntimeException("You must specify a ContentHandlerFactory, " +
+                    "a ParserFactory and an OutputStreamFactory");
+        }
+        ContentHandlerFactory contentHandlerFactory =
+                getContentHandlerFactory(contentHandlerFactoryNode, runtimeAttributes);
+        ParserFactory parserFactory = getParserFactory(parserFactoryNode, runtimeAttributes);
+        OutputFiles outputFiles = new OutputFiles();
+        String journal = localAttrs.get("journal");
+        if (journal != null && journal.trim().length() > 0) {
+            //the journal waits for write-behind outputs before an input is finished
+            outputFiles.setPendingOutputs(new PendingOutputs());
+        }
+        OutputStreamFactory outputStreamFactory = getOutputStreamFactory(outputStreamFactoryNode,
+                runtimeAttributes, contentHandlerFactory, recursiveParserWrapper, outputFiles);
+        TriageManifest triageManifest = null;
+        String[] triageAlgorithms = null;
+        if (PropsUtil.getBoolean(localAttrs.get("triage"), false)) {
+            //the digests configured for the parser
+            triageAlgorithms = TriageFSConsumer.getAlgorithms(
+                    XMLDOMUtil.mapifyAttrs(parserFactoryNode, runtimeAttributes).get("digest"));
+            Path manifestPath = TriageManifest.getManifestPath(localAttrs);
+            try {
+                triageManifest = new TriageManifest(manifestPath, triageAlgorithms);
+            } catch (IOException e) {
+                throw new RuntimeException("Couldn't open the triage manifest " + manifestPath, e);
+            }
+        }
+        List<TeeFSConsumer.Output> teeOutputs = buildTeeOutputs(node, localAttrs,
+                XMLDOMUtil.mapifyAttrs(contentHandlerFactoryNode, runtimeAttributes), outputFiles);
+        if (!teeOutputs.isEmpty() && triageManifest != null) {
+            throw new RuntimeException("triage doesn't parse, so it can't tee");
+        }
+        if (!teeOutputs.isEmpty() && localAttrs.get("cache") != null) {
+            throw new RuntimeException("the parse result cache holds a single output, so it can't be used with tee");
+        }
+        ParseResultCache cache = triageManifest == null ? buildCache(localAttrs) : null;
+        CachingOutputStreamFactory cachingFactory = null;
+        String fingerprint = null;
+        if (cache != null) {
+            cachingFactory = new CachingOutputStreamFactory(outputStreamFactory, cache);
+            fingerprint = ParseResultCache.fingerprint(config, parserFactory.getParser(config),
+                    getOutputFingerprint(recursiveParserWrapper, contentHandlerFactory,
+                            parserFactoryNode, contentHandlerFactoryNode, runtimeAttributes));
+        }
+        OutputStreamFactory consumerOutputStreamFactory =
+                cachingFactory == null ? outputStreamFactory : cachingFactory;
+
+        CostClassifier classifier = new CostClassifier(config.getMimeRepository());
+        int numConsumers = BatchProcessBuilder.getNumConsumers(runtimeAttributes);
+        BatchMetrics metrics = buildMetrics(node, runtimeAttributes, numConsumers);
+        ArrayBlockingQueue<FileResource> consumerQueue = buildScheduler(localAttrs, queue, classifier);
+        List<ProcessingInterceptor> interceptors = buildInterceptors(localAttrs, classifier, metrics,
+                consumerQueue, numConsumers, outputFiles);
+        if (metrics != null) {
+            metrics.setQueue(consumerQueue);
+        }
+
+        IoThrottle throttle = IoThrottle.forAttributes(localAttrs);
+        IoThrottle.share(queue, throttle);
+        List<FileResourceConsumer> consumers = new ArrayList<>();
+        for (int i = 0; i < numConsumers; i++) {
+            FileResourceConsumer delegate;
+            if (triageManifest != null) {
+                delegate = new TriageFSConsumer(queue, config.getDetector(), triageManifest, triageAlgorithms);
+            } else if (!teeOutputs.isEmpty()) {
+                delegate = new TeeFSConsumer(queue, parserFactory, contentHandlerFactory, teeOutputs, config);
+            } else if (recursiveParserWrapper) {
+                delegate = new RecursiveParserWrapperFSConsumer(queue,
+                        parserFactory, contentHandlerFactory, consumerOutputStreamFactory, config);
+            } else {
+                delegate = new BasicTikaFSConsumer(queue,
+                        parserFactory, contentHandlerFactory, consumerOutputStreamFactory, config);
+            }
+            if (cachingFactory != null) {
+                delegate = new CachingFSConsumer(queue, delegate, cache, cachingFactory, fingerprint);
+            }
+            if (throttle != null) {
+                delegate = new ThrottledFSConsumer(queue, delegate, throttle);
+            }
+            consumers.add(new InterceptingConsumer(consumerQueue, delegate, interceptors));
+        }
+        AppFSConsumersManager manager = new AppFSConsumersManager(consumers, interceptors);
+        if (outputStreamFactory instanceof Closeable) {
+            manager.addCloseable((Closeable) outputStreamFactory);
+        }
+        for (TeeFSConsumer.Output output : teeOutputs) {
+            if (output.getOutputStreamFactory() instanceof Closeable) {
+                manager.addCloseable((Closeable) output.getOutputStreamFactory());
+            }
+        }
+        if (triageManifest != null) {
+            manager.addCloseable(triageManifest);
+        }
+        if (throttle != null) {
+            //registered without -jmx so that the budgets can be changed during the run
+            manager.addCloseable(JmxSupport.register(throttle, "IoThrottle"));
+        }
+        if (PropsUtil.getBoolean(localAttrs.get("jmx"), false)) {
+            manager.addCloseable(JmxSupport.register(new BatchChild(metrics, consumers), "BatchChild"));
+        }
+        if (consumersManagerMaxMillis != null) {
+            manager.setConsumersManagerMaxMillis(consumersManagerMaxMillis);
+        }
+        return manager;
+    }
+
+    /**
+     * @param metrics       null unless metrics are on
+     * @param consumerQueue the queue the consumers take from
+     * @param outputFiles   the outputs written for each input
+     */
+    List<ProcessingInterceptor> buildInterceptors(Map<String, String> localAttrs,
+                                                  CostClassifier classifier, BatchMetrics metrics,
+                                                  BlockingQueue<FileResource> consumerQueue, int numConsumers,
+                                                  OutputFiles outputFiles) {
+        List<ProcessingInterceptor> interceptors = new ArrayList<>();
+        //these must come before anything that vetoes, see IncrementalInterceptor
+        ShardCoordinator shards = ShardCoordinator.forAttributes(localAttrs);
+        if (shards != null) {
+            interceptors.add(new ShardInterceptor(shards));
+        }
+        if (PropsUtil.getBoolean(localAttrs.get("crawlSpool"), false)) {
+            interceptors.add(new CrawlSpoolInterceptor(CrawlSpool.forPath(CrawlSpool.getSpoolPath(localAttrs))));
+        }
+        if (PropsUtil.getBoolean(localAttrs.get("incremental"), false)) {
+            IncrementalInterceptor incremental = new IncrementalInterceptor(IncrementalManifest.forPath(
+                    IncrementalManifest.getManifestPath(localAttrs),
+                    PropsUtil.getBoolean(localAttrs.get("incrementalHash"), false)));
+            incremental.setOutputFiles(outputFiles);
+            interceptors.add(incremental);
+        }
+        //only acts on files a watch crawler added again
+        interceptors.add(new ReplacedInputInterceptor(outputFiles));
+        if (metrics != null) {
+            Path outputDir = null;
+            if (PropsUtil.getBoolean(localAttrs.get("metrics"), false)) {
+                outputDir = PropsUtil.getPath(localAttrs.get("outputDir"), null);
+                if (outputDir == null) {
+                    throw new RuntimeException("metrics are written to the outputDir, which isn't set");
+                }
+            }
+            interceptors.add(new MetricsInterceptor(metrics, classifier, outputDir,
+                    PropsUtil.getLong(localAttrs.get("metricsMillis"), DEFAULT_METRICS_MILLIS)));
+        }
+        Path statsPath = ParseTimeStats.getStatsPath(localAttrs);
+        if (statsPath != null) {
+            interceptors.add(new ParseStatsInterceptor(statsPath, classifier));
+        }
+        //ahead of the admission, so that a consumer over the limit holds no budget
+        if (PropsUtil.getBoolean(localAttrs.get("autoscale"), false)) {
+            interceptors.add(new ConsumerScalerInterceptor(buildScaler(localAttrs, numConsumers), consumerQueue,
+                    PropsUtil.getLong(localAttrs.get("autoscaleMillis"),
+                            ConsumerScalerInterceptor.DEFAULT_INTERVAL_MILLIS)));
+        }
+        MemoryAdmission admission = buildMemoryAdmission(localAttrs);
+        if (admission != null) {
+            interceptors.add(new MemoryAdmissionInterceptor(admission, classifier,
+                    MemoryAdmission.getStatsPath(localAttrs)));
+        }
+        ResourceGovernorInterceptor governorInterceptor = buildResourceGovernor(localAttrs);
+        if (governorInterceptor != null) {
+            interceptors.add(governorInterceptor);
+        }
+        //after anything that waits, so that a document is only in flight once its parse is about to start
+        if (PropsUtil.getBoolean(localAttrs.get("quarantine"), false)) {
+            interceptors.add(new QuarantineInterceptor(buildQuarantine(localAttrs),
+                    QuarantineInterceptor.Policy.parse(localAttrs.get("quarantinePolicy"))));
+        }
+        //must stay last, see ResumeJournalInterceptor
+        String journal = localAttrs.get("journal");
+        if (journal != null && journal.trim().length() > 0) {
+            ResumeJournalInterceptor journalInterceptor = new ResumeJournalInterceptor(Paths.get(journal),
+                    PropsUtil.getPath(localAttrs.get("inputDir"), Paths.get("input")),
+                    PropsUtil.getBoolean(localAttrs.get("journalDigest"), false));
+            journalInterceptor.setMaxStarts(PropsUtil.getInt(localAttrs.get("journalMaxStarts"),
+                    ResumeJournal.DEFAULT_MAX_STARTS));
+            journalInterceptor.setSyncMillis(PropsUtil.getLong(localAttrs.get("journalSyncMillis"),
+                    ResumeJournal.DEFAULT_SYNC_MILLIS));
+            journalInterceptor.setOutputFiles(outputFiles);
+            journalInterceptor.setPendingOutputs(outputFiles.getPendingOutputs());
+            interceptors.add(journalInterceptor);
+        }
+        return interceptors;
+    }
+
+    private ParseResultCache buildCache(Map<String, String> localAttrs) {
+        Path cacheDir = PropsUtil.getPath(localAttrs.get("cache"), null);
+        if (cacheDir == null) {
+            return null;
+        }
+        long maxMb = PropsUtil.getLong(localAttrs.get("cacheMaxMb"), DEFAULT_CACHE_MAX_MB);
+        try {
+            return new ParseResultCache(cacheDir, maxMb * 1024 * 1024);
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't open the parse result cache " + cacheDir, e);
+        }
+    }
+
+    private String getOutputFingerprint(boolean recursiveParserWrapper, ContentHandlerFactory contentHandlerFactory,
+                                        Node parserNode, Node contentHandlerNode,
+                                        Map<String, String> runtimeAttributes) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("recursiveParserWrapper=").append(recursiveParserWrapper);
+        sb.append(" handler=").append(contentHandlerFactory.getClass().getName());
+        Map<String, String> parserAttrs = XMLDOMUtil.mapifyAttrs(parserNode, runtimeAttributes);
+        Map<String, String> handlerAttrs = XMLDOMUtil.mapifyAttrs(contentHandlerNode, runtimeAttributes);
+        for (String attr : OUTPUT_ATTRS) {
+            sb.append(' ').append(attr).append('=').append(parserAttrs.get(attr))
+                    .append('/').append(handlerAttrs.get(attr));
+        }
+        return sb.toString();
+    }
+
+    private BatchMetrics buildMetrics(Node node, Map<String, String> runtimeAttributes, int numConsumers) {
+        Map<String, String> localAttrs = XMLDOMUtil.mapifyAttrs(node, runtimeAttributes);
+        if (!PropsUtil.getBoolean(localAttrs.get("metrics"), false) &&
+                !PropsUtil.getBoolean(localAttrs.get("jmx"), false)) {
+            return null;
+        }
+        BatchMetrics metrics = new BatchMetrics(numConsumers);
+        //the threshold is an attribute of the root element
+        Map<String, String> batchAttrs = XMLDOMUtil.mapifyAttrs(
+                node.getOwnerDocument().getDocumentElement(), runtimeAttributes);
+        metrics.setTimeoutMillis(PropsUtil.getLong(batchAttrs.get("timeoutThresholdMillis"), -1L));
+        return metrics;
+    }
+
+    private ArrayBlockingQueue<FileResource> buildScheduler(Map<String, String> localAttrs,
+                                                            ArrayBlockingQueue<FileResource> queue,
+                                                            CostClassifier classifier) {
+        String scheduler = localAttrs.get("scheduler");
+        if (scheduler == null || scheduler.equals("fifo")) {
+            return queue;
+        }
+        int lookahead = PropsUtil.getInt(localAttrs.get("schedulerLookahead"),
+                LookaheadScheduler.DEFAULT_LOOKAHEAD);
+        if (scheduler.equals("costClass")) {
+            return new CostClassScheduler(queue, classifier, lookahead);
+        } else if (scheduler.equals("locality")) {
+            return new LocalityScheduler(queue, lookahead);
+        }
+        throw new RuntimeException("scheduler must be fifo, costClass or locality: " + scheduler);
+    }
+
+    private PoisonQuarantine buildQuarantine(Map<String, String> localAttrs) {
+        Path dir = PoisonQuarantine.getQuarantineDir(localAttrs);
+        if (dir == null) {
+            throw new RuntimeException("quarantine needs a quarantineDir or an outputDir");
+        }
+        try {
+            return new PoisonQuarantine(dir, PropsUtil.getInt(localAttrs.get("quarantineStrikes"),
+                    PoisonQuarantine.DEFAULT_MAX_STRIKES));
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't open the quarantine in " + dir, e);
+        }
+    }
+
+    private ConsumerScaler buildScaler(Map<String, String> localAttrs, int numConsumers) {
+        int minConsumers = PropsUtil.getInt(localAttrs.get("minConsumers"), 1);
+        //numConsumers threads are started, so it is the upper bound
+        int initial = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        return new ConsumerScaler(Math.min(minConsumers, numConsumers), numConsumers, initial);
+    }
+
+    private MemoryAdmission buildMemoryAdmission(Map<String, String> localAttrs) {
+        String maxInFlightMb = localAttrs.get("maxInFlightMb");
+        if (maxInFlightMb == null || maxInFlightMb.trim().length() == 0) {
+            return null;
+        }
+        long budgetBytes;
+        if (maxInFlightMb.equals("default")) {
+            //the rest is for the parsers' own state and the outputs
+            budgetBytes = Runtime.getRuntime().maxMemory() / 2;
+        } else {
+            budgetBytes = PropsUtil.getLong(maxInFlightMb, -1L) * 1024 * 1024;
+            if (budgetBytes <= 0) {
+                throw new RuntimeException("maxInFlightMb must be a positive number or \"default\": " + maxInFlightMb);
+            }
+        }
+        MemoryAdmission admission = new MemoryAdmission(budgetBytes);
+        long smallMb = PropsUtil.getLong(localAttrs.get("admissionSmallMb"), -1L);
+        if (smallMb > -1) {
+            admission.setSmallBytes(smallMb * 1024 * 1024);
+        }
+        return admission;
+    }
+
+    private ResourceGovernorInterceptor buildResourceGovernor(Map<String, String> localAttrs) {
+        ResourceGovernorInterceptor interceptor = new ResourceGovernorInterceptor(
+                ResourcePolicy.parse(localAttrs.get("resourcePolicy")));
+        ResourceGovernor governor = interceptor.getGovernor();
+        long maxRssMb = PropsUtil.getLong(localAttrs.get("maxChildRssMb"), -1L);
+        if (maxRssMb > -1) {
+            governor.setMaxRssBytes(maxRssMb * 1024 * 1024);
+        }
+        governor.setMaxOpenFiles(PropsUtil.getInt(localAttrs.get("maxChildOpenFiles"), -1));
+        governor.setMaxCpuPercent(PropsUtil.getInt(localAttrs.get("maxChildCpuPercent"), -1));
+        governor.setSampleMillis(PropsUtil.getLong(localAttrs.get("resourceSampleMillis"), 1000L));
+        return governor.hasLimits() ? interceptor : null;
+    }
+
+    private TikaConfig getTikaConfig(Map<String, String> localAttrs) {
+        String tikaConfigPath = localAttrs.get("c");
+        if (tikaConfigPath == null) {
+            tikaConfigPath = localAttrs.get("tikaConfig");
+        }
+        if (tikaConfigPath == null) {
+            return TikaConfig.getDefaultConfig();
+        }
+        try (InputStream is = Files.newInputStream(Paths.get(tikaConfigPath))) {
+            return new TikaConfig(is);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private ContentHandlerFactory getContentHandlerFactory(Node node, Map<String, String> runtimeAttributes) {
+        Map<String, String> localAttrs = XMLDOMUtil.mapifyAttrs(node, runtimeAttributes);
+        String className = localAttrs.get("builderClass");
+        if (className == null) {
+            throw new RuntimeException("Must specify builderClass for contentHandler");
+        }
+        IContentHandlerFactoryBuilder builder =
+                ClassLoaderUtil.buildClass(IContentHandlerFactoryBuilder.class, className);
+        return builder.build(node, runtimeAttributes);
+    }
+
+    private ParserFactory getParserFactory(Node node, Map<String, String> runtimeAttributes) {
+        Map<String, String> localAttrs = XMLDOMUtil.mapifyAttrs(node, runtimeAttributes);
+        String className = localAttrs.get("builderClass");
+        IParserFactoryBuilder builder = ClassLoaderUtil.buildClass(IParserFactoryBuilder.class, className);
+        return builder.build(node, runtimeAttributes);
+    }
+
+    private OutputStreamFactory getOutputStreamFactory(Node node, Map<String, String> runtimeAttributes,
+                                                       ContentHandlerFactory contentHandlerFactory,
+                                                       boolean useRecursiveParserWrapper, OutputFiles outputFiles) {
+        return getOutputStreamFactory(XMLDOMUtil.mapifyAttrs(node, runtimeAttributes),
+                contentHandlerFactory, useRecursiveParserWrapper, outputFiles);
+    }
+
+    /**
+     * @param outputFiles gets the outputs if the factory writes a file per input
+     */
+    private OutputStreamFactory getOutputStreamFactory(Map<String, String> attrs,
+                                                       ContentHandlerFactory contentHandlerFactory,
+                                                       boolean useRecursiveParserWrapper, OutputFiles outputFiles) {
+        Path outputDir = PropsUtil.getPath(attrs.get("outputDir"), null);
+        if (PropsUtil.getBoolean(attrs.get("segmented"), false) ||
+                SegmentedOutputStreamFactory.class.getSimpleName().equals(attrs.get("class"))) {
+            return writeBehind(buildSegmentedOutputStreamFactory(outputDir, attrs), attrs, null, null,
+                    outputFiles.getPendingOutputs());
+        }
+        boolean parallelGzip = isParallelGzip(attrs.get("compression"));
+        FSOutputStreamFactory.COMPRESSION compression = parallelGzip ?
+                FSOutputStreamFactory.COMPRESSION.GZIP : getCompression(attrs.get("compression"));
+        String suffix = attrs.get("outputSuffix");
+        if (suffix == null) {
+            StringBuilder sb = new StringBuilder();
+            if (useRecursiveParserWrapper) {
+                sb.append("json");
+            } else if (contentHandlerFactory instanceof BasicContentHandlerFactory) {
+                appendSuffix(((BasicContentHandlerFactory) contentHandlerFactory).getType(), sb);
+            }
+            appendCompression(compression, sb);
+            suffix = sb.toString();
+        }
+        OutputStreamFactory factory;
+        if (parallelGzip) {
+            factory = new ParallelGzipOutputStreamFactory(outputDir, suffix,
+                    ParallelGzipOutputStreamFactory.parseLevel(attrs.get("compressionLevel")),
+                    PropsUtil.getInt(attrs.get("compressionThreads"), -1));
+        } else {
+            //as in tika-batch, only skip is allowed so that a restarted
+            //child doesn't overwrite or rename what it already wrote
+            factory = new FSOutputStreamFactory(outputDir, FSUtil.HANDLE_EXISTING.SKIP,
+                    compression, suffix);
+        }
+        if (outputDir != null) {
+            outputFiles.add(outputDir, suffix);
+        }
+        return writeBehind(factory, attrs, outputDir, suffix, outputFiles.getPendingOutputs());
+    }
+
+    /**
+     * @param outputDir null if the factory doesn't write a file per input,
+     *                  which can't be moved into place or synced
+     * @param pendingOutputs null unless the journal waits for the outputs
+     */
+    private OutputStreamFactory writeBehind(OutputStreamFactory factory, Map<String, String> attrs,
+                                            Path outputDir, String suffix, PendingOutputs pendingOutputs) {
+        if (!PropsUtil.getBoolean(attrs.get("writeBehind"), false)) {
+            return factory;
+        }
+        long budgetMb = PropsUtil.getLong(attrs.get("writeBehindMb"), -1L);
+        WriteBehindOutputStreamFactory writeBehind = new WriteBehindOutputStreamFactory(factory,
+                budgetMb > 0 ? budgetMb * 1024 * 1024 : WriteBehindOutputStreamFactory.DEFAULT_BUDGET_BYTES,
+                PropsUtil.getInt(attrs.get("writeBehindThreads"), WriteBehindOutputStreamFactory.DEFAULT_THREADS));
+        if (outputDir != null) {
+            writeBehind.setOutputs(outputDir, suffix);
+        }
+        writeBehind.setPendingOutputs(pendingOutputs);
+        if (PropsUtil.getBoolean(attrs.get("writeBehindSync"), false)) {
+            if (outputDir == null) {
+                throw new RuntimeException("writeBehindSync needs a file per input, not segmented output");
+            }
+            writeBehind.setSync(true);
+        }
+        return writeBehind;
+    }
+
+    /**
+     * @return the outputs from the consumers element's <code>output</code>
+     * children and its <code>tee</code> attribute, empty if there are none
+     */
+    List<TeeFSConsumer.Output> buildTeeOutputs(Node node, Map<String, String> localAttrs,
+                                               Map<String, String> contentHandlerAttrs,
+                                               OutputFiles outputFiles) {
+        List<Map<String, String>> specs = new ArrayList<>();
+        NodeList nodeList = node.getChildNodes();
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            Node child = nodeList.item(i);
+            if (child.getNodeName().equals("output")) {
+                //each output has its own outputDir, so the commandline's mustn't win
+                specs.add(XMLDOMUtil.mapifyAttrs(child, new HashMap<String, String>()));
+            }
+        }
+        String tee = localAttrs.get("tee");
+        if (tee != null && tee.trim().length() > 0) {
+            for (String spec : tee.split(",")) {
+                specs.add(parseTeeSpec(spec.trim()));
+            }
+        }
+        Path outputDir = PropsUtil.getPath(localAttrs.get("outputDir"), null);
+        int writeLimit = PropsUtil.getInt(contentHandlerAttrs.get("writeLimit"), -1);
+        List<TeeFSConsumer.Output> outputs = new ArrayList<>();
+        boolean json = false;
+        for (Map<String, String> spec : specs) {
+            String type = spec.get("type");
+            if (type == null) {
+                throw new RuntimeException("each tee output needs a type: xml, html, text, body or json");
+            }
+            type = type.toLowerCase(Locale.ROOT);
+            if (spec.get("outputDir") == null) {
+                if (outputDir == null) {
+                    throw new RuntimeException("tee output " + type + " needs an outputDir");
+                }
+                spec.put("outputDir", outputDir.resolve(type).toString());
+            }
+            if (type.equals("json")) {
+                if (json) {
+                    throw new RuntimeException("only one tee output can be json");
+                }
+                json = true;
+                outputs.add(TeeFSConsumer.Output.json(getOutputStreamFactory(spec, null, true, outputFiles)));
+                continue;
+            }
+            BasicContentHandlerFactory.HANDLER_TYPE handlerType =
+                    BasicContentHandlerFactory.parseHandlerType(type, null);
+            if (handlerType == null || handlerType == BasicContentHandlerFactory.HANDLER_TYPE.IGNORE) {
+                throw new RuntimeException("tee output type must be xml, html, text, body or json: " + type);
+            }
+            BasicContentHandlerFactory factory = new BasicContentHandlerFactory(handlerType, writeLimit);
+            outputs.add(TeeFSConsumer.Output.sax(getOutputStreamFactory(spec, factory, false, outputFiles), factory));
+        }
+        return outputs;
+    }
+
+    /**
+     * @param spec <code>type[.compression][=outputDir]</code>, e.g.
+     *             <code>text</code> or <code>json.gz=/data/json</code>
+     */
+    static Map<String, String> parseTeeSpec(String spec) {
+        Map<String, String> attrs = new HashMap<>();
+        int eq = spec.indexOf('=');
+        String type = eq > -1 ? spec.substring(0, eq) : spec;
+        if (eq > -1) {
+            attrs.put("outputDir", spec.substring(eq + 1));
+        }
+        int dot = type.indexOf('.');
+        if (dot > -1) {
+            attrs.put("compression", type.substring(dot + 1));
+            type = type.substring(0, dot);
+        }
+        attrs.put("type", type.toLowerCase(Locale.ROOT));
+        return attrs;
+    }
+
+    private SegmentedOutputStreamFactory buildSegmentedOutputStreamFactory(Path outputDir,
+                                                                           Map<String, String> attrs) {
+        if (outputDir == null) {
+            throw new RuntimeException("segmented output requires an outputDir");
+        }
+        long segmentBytes = PropsUtil.getLong(attrs.get("segmentMb"), -1L);
+        segmentBytes = segmentBytes > 0 ? segmentBytes * 1024 * 1024 :
+                SegmentedOutputStreamFactory.DEFAULT_SEGMENT_BYTES;
+        try {
+            return new SegmentedOutputStreamFactory(outputDir, segmentBytes,
+                    SegmentedOutputStreamFactory.DEFAULT_SPILL_BYTES);
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't open segmented output in " + outputDir, e);
+        }
+    }
+
+    static boolean isParallelGzip(String compressionString) {
+        return compressionString != null &&
+                (compressionString.contains("pgz") || compressionString.contains("parallel"));
+    }
+
+    static FSOutputStreamFactory.COMPRESSION getCompression(String compressionString) {
+        if (compressionString == null) {
+            return FSOutputStreamFactory.COMPRESSION.NONE;
+        } else if (compressionString.contains("bz")) {
+            return FSOutputStreamFactory.COMPRESSION.BZIP2;
+        } else if (compressionString.contains("gz")) {
+            return FSOutputStreamFactory.COMPRESSION.GZIP;
+        } else if (compressionString.contains("zip")) {
+            return FSOutputStreamFactory.COMPRESSION.ZIP;
+        }
+        return FSOutputStreamFactory.COMPRESSION.NONE;
+    }
+
+    static void appendSuffix(BasicContentHandlerFactory.HANDLER_TYPE type, StringBuilder sb) {
+        switch (type) {
+            case XML:
+                sb.append("xml");
+                break;
+            case HTML:
+                sb.append("html");
+                break;
+            default:
+                sb.append("txt");
+        }
+    }
+
+    static void appendCompression(FSOutputStreamFactory.COMPRESSION compression, StringBuilder sb) {
+        switch (compression) {
+            case NONE:
+                break;
+            case ZIP:
+                sb.append(".zip");
+                break;
+            case BZIP2:
+                sb.append(".bz2");
+                break;
+            case GZIP:
+                sb.append(".gz");
+                break;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch.builders;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.regex.Pattern;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.FileResourceCrawler;
+import org.apache.tika.batch.builders.BatchProcessBuilder;
+import org.apache.tika.batch.builders.ICrawlerBuilder;
+import org.apache.tika.batch.fs.FSDocumentSelector;
+import org.apache.tika.batch.fs.FSListCrawler;
+import org.apache.tika.cli.batch.CostClassifier;
+import org.apache.tika.cli.batch.CrawlSpool;
+import org.apache.tika.cli.batch.IncrementalManifest;
+import org.apache.tika.cli.batch.IoThrottle;
+import org.apache.tika.cli.batch.LookaheadScheduler;
+import org.apache.tika.cli.batch.ParseCostModel;
+import org.apache.tika.cli.batch.ParseTimeStats;
+import org.apache.tika.cli.batch.ShardCoordinator;
+import org.apache.tika.cli.batch.fs.AppFSDirectoryCrawler;
+import org.apache.tika.cli.batch.fs.ArchiveCrawler;
+import org.apache.tika.cli.batch.fs.CrawlFilter;
+import org.apache.tika.cli.batch.fs.WatchFolderCrawler;
+import org.apache.tika.extractor.DocumentSelector;
+import org.apache.tika.mime.MimeTypes;
+import org.apache.tika.util.PropsUtil;
+import org.apache.tika.util.XMLDOMUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Node;
+
+/**
+ * Builds the same crawlers as tika-batch's FSCrawlerBuilder, with the
+ * directory crawler replaced by {@link AppFSDirectoryCrawler} so that
+ * <code>crawlOrder</code> can also be <code>cost</code>.
+ * <p>
+ * The cost order uses the parse time history in <code>parseStatsFile</code>
+ * (default: <code>.tika-parse-stats.tsv</code> in the output directory).
+ * The history is only recorded with the cost order or an explicit
+ * <code>parseStatsFile</code>.
+ * <p>
+ * <code>incremental</code> only queues files that are new or modified since
+ * the last completed run according to <code>manifest</code> (default:
+ * <code>.tika-manifest.tsv</code> in the output directory);
+ * <code>incrementalHash</code> also compares content when only the
+ * modification time changed.  Directory crawls only.
+ * <p>
+ * <code>crawlThreads</code> greater than one lists directories on that many
+ * threads and applies the include/exclude patterns and size limits during
+ * the walk; <code>crawlDirAttrs="false"</code> checks each file separately
+ * instead of using the attributes returned with the directory listing.
+ * <p>
+ * <code>crawlSpool</code> walks ahead of the consumers into a
+ * {@link CrawlSpool} (default: <code>.tika-crawl-spool</code> in the output
+ * directory, or <code>crawlSpoolFile</code>) and feeds the queue from it, so
+ * that a restarted child resumes from the spool instead of crawling again.
+ * <p>
+ * <code>shardDir</code> shares the input directory's top-level directories,
+ * or its directories <code>shardUnitDepth</code> levels down,
+ * with other runs pointed at the same shard directory through a
+ * {@link ShardCoordinator}; see there for <code>shardNode</code> and
+ * <code>shardLeaseMillis</code>.
+ * <p>
+ * <code>maxReadOpsPerSecond</code> counts each directory listing against
+ * the {@link IoThrottle} the consumers builder shared for the same queue,
+ * or against one of the crawler's own if the budgets are set only here.
+ * <p>
+ * <code>watch</code> replaces the crawl with a {@link WatchFolderCrawler}
+ * that keeps adding files as they land in the input directory, with
+ * <code>watchSettleMillis</code>, <code>watchMarker</code>,
+ * <code>watchPoll</code>, <code>watchPollMillis</code>,
+ * <code>watchRescanMillis</code> and <code>watchMaxIdleMillis</code>.
+ * <p>
+ * <code>archives</code> replaces the crawl with an {@link ArchiveCrawler}
+ * that adds the entries of zips and tars as files of their own.
+ */
+public class AppFSCrawlerBuilder implements ICrawlerBuilder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AppFSCrawlerBuilder.class);
+
+    private static final String MAX_CONSEC_WAIT_MILLIS = "maxConsecWaitMillis";
+    private static final String MAX_FILES_TO_ADD_ATTR = "maxFilesToAdd";
+    private static final String MAX_FILES_TO_CONSIDER_ATTR = "maxFilesToConsider";
+
+    private static final String CRAWL_ORDER = "crawlOrder";
+    private static final String INPUT_DIR_ATTR = "inputDir";
+    private static final String INPUT_START_DIR_ATTR = "startDir";
+    private static final String MAX_FILE_SIZE_BYTES_ATTR = "maxFileSizeBytes";
+    private static final String MIN_FILE_SIZE_BYTES_ATTR = "minFileSizeBytes";
+
+    private static final String INCLUDE_FILE_PAT_ATTR = "includeFilePat";
+    private static final String EXCLUDE_FILE_PAT_ATTR = "excludeFilePat";
+
+    private static final String INCREMENTAL_ATTR = "incremental";
+    private static final String INCREMENTAL_HASH_ATTR = "incrementalHash";
+
+    private static final String CRAWL_THREADS_ATTR = "crawlThreads";
+    private static final String CRAWL_DIR_ATTRS_ATTR = "crawlDirAttrs";
+    private static final String CRAWL_SPOOL_ATTR = "crawlSpool";
+    private static final String SHARD_DIR_ATTR = "shardDir";
+    private static final String WATCH_ATTR = "watch";
+    private static final String ARCHIVES_ATTR = "archives";
+
+    @Override
+    public FileResourceCrawler build(Node node, Map<String, String> runtimeAttributes,
+                                     ArrayBlockingQueue<FileResource> queue) {
+        Map<String, String> attributes = XMLDOMUtil.mapifyAttrs(node, runtimeAttributes);
+
+        int numConsumers = BatchProcessBuilder.getNumConsumers(runtimeAttributes);
+        Path inputDir = PropsUtil.getPath(attributes.get(INPUT_DIR_ATTR), Paths.get("input"));
+        FileResourceCrawler crawler = null;
+        boolean incremental = PropsUtil.getBoolean(attributes.get(INCREMENTAL_ATTR), false);
+        if (PropsUtil.getBoolean(attributes.get(WATCH_ATTR), false)) {
+            crawler = buildWatchCrawler(attributes, queue, numConsumers, inputDir);
+        } else if (PropsUtil.getBoolean(attributes.get(ARCHIVES_ATTR), false)) {
+            rejectDirectoryCrawlOptions(attributes, ARCHIVES_ATTR);
+            crawler = new ArchiveCrawler(queue, numConsumers, inputDir);
+        } else if (attributes.containsKey("fileList")) {
+            if (incremental) {
+                throw new RuntimeException("incremental mode isn't supported with a fileList");
+            }
+            if (PropsUtil.getBoolean(attributes.get(CRAWL_SPOOL_ATTR), false)) {
+                throw new RuntimeException("crawlSpool isn't supported with a fileList");
+            }
+            if (attributes.containsKey(SHARD_DIR_ATTR)) {
+                throw new RuntimeException("shardDir isn't supported with a fileList");
+            }
+            String crawlOrderString = attributes.get(CRAWL_ORDER);
+            if (crawlOrderString != null) {
+                //as with tika-batch, the list is processed in the order given
+                LOG.warn("crawlOrder attribute is ignored by FSListCrawler");
+            }
+            Path fileList = PropsUtil.getPath(attributes.get("fileList"), null);
+            String encodingString = PropsUtil.getString(attributes.get("fileListEncoding"), "UTF-8");
+
+            try {
+                Charset encoding = Charset.forName(encodingString);
+                crawler = new FSListCrawler(queue, numConsumers, inputDir, fileList, encoding);
+            } catch (FileNotFoundException e) {
+                throw new RuntimeException("fileList file not found for FSListCrawler: " +
+                        fileList.toAbsolutePath());
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException("fileList encoding not supported: " + encodingString);
+            } catch (IOException e) {
+                throw new RuntimeException("IOException while trying to open fileList: " + e.getMessage(), e);
+            }
+        } else {
+            AppFSDirectoryCrawler.CRAWL_ORDER crawlOrder = getCrawlOrder(attributes.get(CRAWL_ORDER));
+            Path startDir = PropsUtil.getPath(attributes.get(INPUT_START_DIR_ATTR), null);
+            AppFSDirectoryCrawler directoryCrawler =
+                    new AppFSDirectoryCrawler(queue, numConsumers, inputDir, startDir, crawlOrder);
+            if (crawlOrder == AppFSDirectoryCrawler.CRAWL_ORDER.COST) {
+                directoryCrawler.setCostModel(buildCostModel(attributes));
+            }
+            if (incremental) {
+                directoryCrawler.setManifest(IncrementalManifest.forPath(
+                        IncrementalManifest.getManifestPath(attributes),
+                        PropsUtil.getBoolean(attributes.get(INCREMENTAL_HASH_ATTR), false)));
+            }
+            int crawlThreads = PropsUtil.getInt(attributes.get(CRAWL_THREADS_ATTR), 1);
+            if (crawlThreads > 1) {
+                directoryCrawler.setParallelWalk(crawlThreads, buildCrawlFilter(attributes),
+                        PropsUtil.getBoolean(attributes.get(CRAWL_DIR_ATTRS_ATTR), true));
+            }
+            if (PropsUtil.getBoolean(attributes.get(CRAWL_SPOOL_ATTR), false)) {
+                //the consumers' scheduler may hold this many files beyond the queue
+                directoryCrawler.setSpool(CrawlSpool.forPath(CrawlSpool.getSpoolPath(attributes)),
+                        PropsUtil.getInt(attributes.get("schedulerLookahead"), LookaheadScheduler.DEFAULT_LOOKAHEAD));
+            }
+            directoryCrawler.setThrottle(getThrottle(attributes, queue));
+            ShardCoordinator shards = ShardCoordinator.forAttributes(attributes);
+            if (shards != null) {
+                if (startDir != null || PropsUtil.getBoolean(attributes.get(CRAWL_SPOOL_ATTR), false)) {
+                    throw new RuntimeException("shardDir isn't supported with startDir or crawlSpool");
+                }
+                directoryCrawler.setShards(shards);
+            }
+            crawler = directoryCrawler;
+        }
+
+        crawler.setMaxFilesToConsider(PropsUtil.getInt(attributes.get(MAX_FILES_TO_CONSIDER_ATTR), -1));
+        crawler.setMaxFilesToAdd(PropsUtil.getInt(attributes.get(MAX_FILES_TO_ADD_ATTR), -1));
+
+        DocumentSelector selector = buildSelector(attributes);
+        if (selector != null) {
+            crawler.setDocumentSelector(selector);
+        }
+
+        //a watch crawler waits on the consumers for as long as it takes
+        long defaultConsecWait = crawler instanceof WatchFolderCrawler ? Long.MAX_VALUE : 300000L;//5 minutes
+        crawler.setMaxConsecWaitInMillis(PropsUtil.getLong(attributes.get(MAX_CONSEC_WAIT_MILLIS), defaultConsecWait));
+        return crawler;
+    }
+
+    private WatchFolderCrawler buildWatchCrawler(Map<String, String> attributes,
+                                                 ArrayBlockingQueue<FileResource> queue,
+                                                 int numConsumers, Path inputDir) {
+        //these finish with the crawl, and a watch doesn't finish
+        rejectDirectoryCrawlOptions(attributes, WATCH_ATTR);
+        WatchFolderCrawler crawler = new WatchFolderCrawler(queue, numConsumers, inputDir);
+        crawler.setSettleMillis(PropsUtil.getLong(attributes.get("watchSettleMillis"),
+                WatchFolderCrawler.DEFAULT_SETTLE_MILLIS));
+        String marker = attributes.get("watchMarker");
+        if (marker != null && marker.length() > 0) {
+            crawler.setMarkerSuffix(marker);
+        }
+        crawler.setPoll(PropsUtil.getBoolean(attributes.get("watchPoll"), false));
+        crawler.setPollMillis(PropsUtil.getLong(attributes.get("watchPollMillis"),
+                WatchFolderCrawler.DEFAULT_POLL_MILLIS));
+        crawler.setRescanMillis(PropsUtil.getLong(attributes.get("watchRescanMillis"),
+                WatchFolderCrawler.DEFAULT_RESCAN_MILLIS));
+        crawler.setMaxIdleMillis(PropsUtil.getLong(attributes.get("watchMaxIdleMillis"), -1L));
+        return crawler;
+    }
+
+    /**
+     * Rejects the options that only work with the directory crawler's walk
+     */
+    private static IoThrottle getThrottle(Map<String, String> attributes,
+                                          ArrayBlockingQueue<FileResource> queue) {
+        IoThrottle throttle = IoThrottle.getShared(queue);
+        return throttle != null ? throttle : IoThrottle.forAttributes(attributes);
+    }
+
+    private static void rejectDirectoryCrawlOptions(Map<String, String> attributes, String mode) {
+        for (String attr : new String[]{"fileList", INCREMENTAL_ATTR, CRAWL_SPOOL_ATTR, SHARD_DIR_ATTR}) {
+            String value = attributes.get(attr);
+            if (value != null && !value.equals("false")) {
+                throw new RuntimeException(attr + " isn't supported with " + mode);
+            }
+        }
+    }
+
+    private ParseCostModel buildCostModel(Map<String, String> attributes) {
+        ParseTimeStats stats = ParseTimeStats.load(ParseTimeStats.getStatsPath(attributes));
+        return new ParseCostModel(new CostClassifier(MimeTypes.getDefaultMimeTypes()), stats);
+    }
+
+    static DocumentSelector buildSelector(Map<String, String> attributes) {
+        return new FSDocumentSelector(getPattern(attributes.get(INCLUDE_FILE_PAT_ATTR)),
+                getPattern(attributes.get(EXCLUDE_FILE_PAT_ATTR)),
+                PropsUtil.getLong(attributes.get(MIN_FILE_SIZE_BYTES_ATTR), -1L),
+                PropsUtil.getLong(attributes.get(MAX_FILE_SIZE_BYTES_ATTR), -1L));
+    }
+
+    /**
+     * @return the same rules as {@link #buildSelector(Map)}, for the walk
+     */
+    static CrawlFilter buildCrawlFilter(Map<String, String> attributes) {
+        return new CrawlFilter(getPattern(attributes.get(INCLUDE_FILE_PAT_ATTR)),
+                getPattern(attributes.get(EXCLUDE_FILE_PAT_ATTR)),
+                PropsUtil.getLong(attributes.get(MIN_FILE_SIZE_BYTES_ATTR), -1L),
+                PropsUtil.getLong(attributes.get(MAX_FILE_SIZE_BYTES_ATTR), -1L));
+    }
+
+    private static Pattern getPattern(String s) {
+        return (s != null && s.length() > 0) ? Pattern.compile(s) : null;
+    }
+
+    static AppFSDirectoryCrawler.CRAWL_ORDER getCrawlOrder(String s) {
+        if (s == null || s.trim().length() == 0 || s.equals("os")) {
+            return AppFSDirectoryCrawler.CRAWL_ORDER.OS_ORDER;
+        }
+        String v = s.toLowerCase(Locale.ROOT);
+        if (v.contains("rand")) {
+            return AppFSDirectoryCrawler.CRAWL_ORDER.RANDOM;
+        } else if (v.contains("sort")) {
+            return AppFSDirectoryCrawler.CRAWL_ORDER.SORTED;
+        } else if (v.contains("cost")) {
+            return AppFSDirectoryCrawler.CRAWL_ORDER.COST;
+        }
+        return AppFSDirectoryCrawler.CRAWL_ORDER.OS_ORDER;
+    }
+}
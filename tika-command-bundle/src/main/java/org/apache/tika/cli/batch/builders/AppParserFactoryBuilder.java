@@ -26,6 +26,7 @@ import org.apache.tika.util.ClassLoaderUtil;
 import org.apache.tika.cli.batch.DigestingAutoDetectParserFactory;
 import org.apache.tika.parser.DigestingParser;
 import org.apache.tika.parser.digesting.CommonsDigester;
+import org.apache.tika.util.PropsUtil;
 import org.apache.tika.util.XMLDOMUtil;
 import org.w3c.dom.Node;
 
@@ -51,6 +52,8 @@ public class AppParserFactoryBuilder implements IParserFactoryBuilder {
         if (pf instanceof DigestingAutoDetectParserFactory) {
             DigestingParser.Digester d = buildDigester(localAttrs);
             ((DigestingAutoDetectParserFactory)pf).setDigester(d);
+            ((DigestingAutoDetectParserFactory)pf).setShared(
+                    PropsUtil.getBoolean(localAttrs.get("sharedParser"), false));
         }
         return pf;
     }
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch.fs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.tika.batch.FileResourceConsumer;
+import org.apache.tika.batch.fs.FSConsumersManager;
+import org.apache.tika.cli.batch.ProcessingInterceptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Consumers manager that also initializes and shuts down the
+ * {@link ProcessingInterceptor}s shared by its consumers and closes
+ * resources they share, such as a segmented output sink.
+ */
+public class AppFSConsumersManager extends FSConsumersManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AppFSConsumersManager.class);
+
+    private final List<ProcessingInterceptor> interceptors;
+    private final List<Closeable> closeables = new ArrayList<>();
+
+    public AppFSConsumersManager(List<FileResourceConsumer> consumers,
+                                 List<ProcessingInterceptor> interceptors) {
+        super(consumers);
+        this.interceptors = Collections.unmodifiableList(interceptors);
+    }
+
+    @Override
+    public void init() {
+        super.init();
+        for (ProcessingInterceptor interceptor : interceptors) {
+            try {
+                interceptor.init();
+            } catch (IOException e) {
+                throw new RuntimeException("Couldn't initialize " +
+                        interceptor.getClass().getSimpleName(), e);
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        //outputs still queued are written before the journal and the others record the run
+        for (Closeable closeable : closeables) {
+            try {
+                closeable.close();
+            } catch (IOException|RuntimeException e) {
+                LOG.warn("Problem closing " + closeable.getClass().getSimpleName(), e);
+            }
+        }
+        for (int i = interceptors.size() - 1; i >= 0; i--) {
+            ProcessingInterceptor interceptor = interceptors.get(i);
+            try {
+                interceptor.shutdown();
+            } catch (IOException|RuntimeException e) {
+                LOG.warn("Problem shutting down " + interceptor.getClass().getSimpleName(), e);
+            }
+        }
+        super.shutdown();
+    }
+
+    /**
+     * Closes this before the interceptors at shutdown
+     */
+    public void addCloseable(Closeable closeable) {
+        closeables.add(closeable);
+    }
+
+    public List<ProcessingInterceptor> getInterceptors() {
+        return interceptors;
+    }
+}
@@ -0,0 +1,564 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch.fs;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.FileResourceCrawler;
+import org.apache.tika.batch.fs.FSFileResource;
+import org.apache.tika.cli.batch.CrawlSpool;
+import org.apache.tika.cli.batch.IncrementalManifest;
+import org.apache.tika.cli.batch.IoThrottle;
+import org.apache.tika.cli.batch.ParseCostModel;
+import org.apache.tika.cli.batch.ShardCoordinator;
+import org.apache.tika.metadata.Metadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Directory crawler with the same orders as tika-batch's FSDirectoryCrawler
+ * plus {@link CRAWL_ORDER#COST}, which walks the whole tree first and then
+ * adds files from the most to the least expensive according to a
+ * {@link ParseCostModel}, so that the largest and slowest files don't end
+ * up as the tail of the run.
+ * <p>
+ * The cost order keeps one entry per file in memory until the walk is done.
+ * <p>
+ * With an {@link IncrementalManifest} only new and modified files are added,
+ * and the manifest is told whether the crawl covered the whole tree.
+ * <p>
+ * With more than one crawl thread, directories are listed concurrently by a
+ * {@link ParallelDirectoryWalker} and this crawler only adds what it finds,
+ * so that a slow listing doesn't leave the consumers waiting.  The sorted
+ * and random orders then apply within each directory, and a
+ * {@link CrawlFilter} rejects files during the walk.
+ * <p>
+ * With a {@link CrawlSpool}, the walk runs on its own thread and writes to
+ * the spool instead of the queue, and this crawler feeds the queue from the
+ * spool; a restarted child feeds from the spool's cursor without walking.
+ * <p>
+ * With a {@link ShardCoordinator}, the crawler walks only the work units
+ * it leases, one after the other, until no unit is left.
+ */
+public class AppFSDirectoryCrawler extends FileResourceCrawler {
+
+    public enum CRAWL_ORDER {
+        SORTED, //alphabetical order; necessary for cross-platform unit tests
+        RANDOM, //shuffle
+        OS_ORDER, //operating system chooses
+        COST //most expensive first
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(AppFSDirectoryCrawler.class);
+
+    private static final Comparator<Path> PATH_COMPARATOR = new Comparator<Path>() {
+        @Override
+        public int compare(Path o1, Path o2) {
+            return o1.getFileName().toString().compareTo(o2.getFileName().toString());
+        }
+    };
+
+    //files found by the walker ahead of the queue
+    private static final int WALK_QUEUE_SIZE = 10000;
+
+    private static final long CURSOR_SAVE_MILLIS = 1000;
+
+    protected final Path root;
+    private final ArrayBlockingQueue<FileResource> queue;
+    private final int numConsumers;
+    private final Path startDirectory;
+    private final CRAWL_ORDER crawlOrder;
+    private ParseCostModel costModel;
+    private IncrementalManifest manifest;
+    private int crawlThreads = 1;
+    private CrawlFilter crawlFilter;
+    private boolean useDirAttrs = true;
+    private CrawlSpool spool;
+    private int spoolLookahead;
+    private ShardCoordinator shards;
+    private IoThrottle throttle;
+    private volatile boolean complete = true;
+
+    public AppFSDirectoryCrawler(ArrayBlockingQueue<FileResource> fileQueue,
+                                 int numConsumers, Path root, Path startDirectory,
+                                 CRAWL_ORDER crawlOrder) {
+        super(fileQueue, numConsumers);
+        this.queue = fileQueue;
+        this.numConsumers = numConsumers;
+        this.root = root;
+        this.startDirectory = startDirectory == null ? root : startDirectory;
+        this.crawlOrder = crawlOrder;
+        if (!Files.isDirectory(this.startDirectory)) {
+            throw new RuntimeException("Crawler couldn't find this directory:" +
+                    this.startDirectory.toAbsolutePath());
+        }
+    }
+
+    /**
+     * Required for {@link CRAWL_ORDER#COST}
+     */
+    public void setCostModel(ParseCostModel costModel) {
+        this.costModel = costModel;
+    }
+
+    /**
+     * Only add files that are new or modified since the manifest's last run
+     */
+    public void setManifest(IncrementalManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * @param crawlThreads number of threads listing directories; 1 walks the
+     *                     tree on the crawler's own thread
+     * @param crawlFilter  applied during a multi-threaded walk; may be null
+     * @param useDirAttrs  take file attributes from the directory listing
+     *                     instead of checking each file separately
+     */
+    public void setParallelWalk(int crawlThreads, CrawlFilter crawlFilter, boolean useDirAttrs) {
+        this.crawlThreads = crawlThreads;
+        this.crawlFilter = crawlFilter;
+        this.useDirAttrs = useDirAttrs;
+    }
+
+    /**
+     * @param lookahead how many queued files the consumers' scheduler may
+     *                  hold besides the queue; the cursor stays behind them
+     */
+    public void setSpool(CrawlSpool spool, int lookahead) {
+        this.spool = spool;
+        this.spoolLookahead = lookahead;
+    }
+
+    /**
+     * Pay for each directory listing from the throttle shared with the consumers
+     */
+    public void setThrottle(IoThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * Walk only the work units leased from the coordinator
+     */
+    public void setShards(ShardCoordinator shards) {
+        this.shards = shards;
+    }
+
+    @Override
+    public void start() throws InterruptedException {
+        complete = true;
+        try {
+            if (spool != null) {
+                feedFromSpool();
+            } else if (shards != null) {
+                crawlShards();
+            } else if (!walk(startDirectory)) {
+                complete = false;
+            }
+        } catch (InterruptedException e) {
+            complete = false;
+            throw e;
+        } finally {
+            if (manifest != null) {
+                //a partial crawl can't tell deleted files from ones it didn't get to
+                manifest.crawlFinished(complete && startDirectory.equals(root));
+            }
+        }
+    }
+
+    /**
+     * @return false if the crawler hit a limit
+     */
+    private boolean walk(Path directory) throws InterruptedException {
+        if (crawlThreads > 1) {
+            return addFilesInParallel(directory);
+        } else if (crawlOrder == CRAWL_ORDER.COST) {
+            return addFilesByCost(directory);
+        }
+        return addFiles(directory, true);
+    }
+
+    private void crawlShards() throws InterruptedException {
+        //each node sees only part of the tree
+        complete = false;
+        try {
+            shards.start(root);
+            String unit;
+            while ((unit = shards.acquire()) != null) {
+                LOG.info("Crawling work unit " + unit);
+                Path directory = root.resolve(ShardCoordinator.directoryOf(unit));
+                boolean finished = ShardCoordinator.isFilesOnly(unit) ?
+                        addFiles(directory, false) : walk(directory);
+                if (!finished) {
+                    //the lease is left to expire so that another node finishes the unit
+                    return;
+                }
+                shards.crawled(unit);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't coordinate work units through the shard directory", e);
+        }
+    }
+
+    private void feedFromSpool() throws InterruptedException {
+        Thread spooler = null;
+        if (spool.isWalkFinished()) {
+            LOG.info("Resuming from the crawl spool " + spool.getPath());
+            //nothing was walked, so the manifest can't tell what was deleted
+            complete = false;
+        } else {
+            try {
+                spool.startWalk();
+            } catch (IOException e) {
+                throw new RuntimeException("Couldn't write the crawl spool " + spool.getPath(), e);
+            }
+            spooler = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    boolean finished = false;
+                    try {
+                        finished = walk(startDirectory);
+                    } catch (InterruptedException e) {
+                        //stopped by the feeder
+                    } finally {
+                        spool.walkFinished(finished);
+                    }
+                }
+            }, "crawl-spooler");
+            spooler.setDaemon(true);
+            spooler.start();
+        }
+        //offsets of the records that may still be queued or in a consumer
+        long[] offsets = new long[queue.size() + queue.remainingCapacity() + spoolLookahead + numConsumers + 1];
+        long fed = 0;
+        long lastSave = System.currentTimeMillis();
+        try {
+            CrawlSpool.Record r;
+            while ((r = spool.next()) != null) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException("file adder interrupted");
+                }
+                offsets[(int) (fed++ % offsets.length)] = r.getOffset();
+                FSFileResource resource = new FSFileResource(root, root.resolve(r.getRelPath()));
+                if (r.getLength() > -1) {
+                    resource.getMetadata().set(Metadata.CONTENT_LENGTH, Long.toString(r.getLength()));
+                }
+                int added = tryToAdd(resource);
+                if (added == FileResourceCrawler.STOP_NOW) {
+                    LOG.debug("crawler has hit a limit: " + r.getRelPath() + " : " + added);
+                    spool.stopped();
+                    complete = false;
+                    return;
+                }
+                if (added == FileResourceCrawler.ADDED) {
+                    spool.added();
+                    if (manifest != null) {
+                        manifest.added();
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastSave >= CURSOR_SAVE_MILLIS) {
+                    long firstPending = fed - queue.size() - spoolLookahead - numConsumers;
+                    if (firstPending > 0) {
+                        spool.saveCursor(offsets[(int) (firstPending % offsets.length)]);
+                    }
+                    lastSave = now;
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't read the crawl spool " + spool.getPath(), e);
+        } finally {
+            if (spooler != null) {
+                spooler.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Adds a file to the queue, or to the spool if there is one.
+     *
+     * @param length file length or -1 if the walk didn't read it
+     * @return one of {@link FileResourceCrawler#ADDED}, {@link FileResourceCrawler#SKIPPED}
+     * or {@link FileResourceCrawler#STOP_NOW}
+     */
+    private int add(Path file, long length) throws InterruptedException {
+        if (spool != null) {
+            try {
+                spool.append(root.relativize(file).toString(), length);
+                return FileResourceCrawler.ADDED;
+            } catch (IOException e) {
+                LOG.error("Couldn't write to the crawl spool " + spool.getPath(), e);
+                return FileResourceCrawler.STOP_NOW;
+            }
+        }
+        FSFileResource resource = new FSFileResource(root, file);
+        if (length > -1) {
+            //saves the selector and the cost classifier another stat
+            resource.getMetadata().set(Metadata.CONTENT_LENGTH, Long.toString(length));
+        }
+        int added = tryToAdd(resource);
+        if (added == FileResourceCrawler.ADDED) {
+            if (manifest != null) {
+                manifest.added();
+            }
+            if (shards != null) {
+                shards.added(root.relativize(file).toString());
+            }
+        }
+        return added;
+    }
+
+    /**
+     * @param recurse false to add only the files directly in the directory
+     * @return false if the crawler hit a limit
+     */
+    private boolean addFiles(Path directory, boolean recurse) throws InterruptedException {
+        List<Path> files = new ArrayList<>();
+        if (throttle != null) {
+            throttle.acquireOp();
+        }
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory)) {
+            for (Path p : ds) {
+                files.add(p);
+            }
+        } catch (IOException e) {
+            LOG.warn("FSFileAdder couldn't read " + directory.toAbsolutePath() + ": " + e.getMessage());
+            complete = false;
+        }
+        if (files.size() == 0) {
+            LOG.info("Empty directory: " + directory.toAbsolutePath());
+            return true;
+        }
+
+        if (crawlOrder == CRAWL_ORDER.RANDOM) {
+            Collections.shuffle(files);
+        } else if (crawlOrder == CRAWL_ORDER.SORTED) {
+            Collections.sort(files, PATH_COMPARATOR);
+        }
+
+        List<Path> directories = new LinkedList<>();
+        for (Path f : files) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("file adder interrupted");
+            }
+            if (!Files.isReadable(f)) {
+                LOG.warn("Skipping -- " + f.toAbsolutePath() + " -- file/directory is not readable");
+                continue;
+            }
+            if (Files.isDirectory(f)) {
+                if (recurse) {
+                    directories.add(f);
+                }
+                continue;
+            }
+            if (manifest != null && !isChanged(f, null)) {
+                continue;
+            }
+            int added = add(f, -1);
+            if (added == FileResourceCrawler.STOP_NOW) {
+                LOG.debug("crawler has hit a limit: " + f.toAbsolutePath() + " : " + added);
+                return false;
+            }
+        }
+
+        for (Path f : directories) {
+            if (!addFiles(f, true)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks a file against the manifest, reading its attributes if the
+     * caller doesn't already have them.  Files that can't be checked are
+     * treated as changed.
+     */
+    private boolean isChanged(Path file, BasicFileAttributes attrs) {
+        try {
+            if (attrs == null) {
+                attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            }
+            String relPath = root.relativize(file).toString();
+            return manifest.check(relPath, file, attrs.size(), attrs.lastModifiedTime().toMillis())
+                    != IncrementalManifest.Change.UNCHANGED;
+        } catch (IOException e) {
+            LOG.warn("Couldn't check " + file.toAbsolutePath() + " against the manifest: " + e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * @return false if the crawler hit a limit
+     */
+    private boolean addFilesInParallel(Path directory) throws InterruptedException {
+        if (crawlOrder == CRAWL_ORDER.COST && costModel == null) {
+            throw new IllegalStateException("cost crawl order requires a cost model");
+        }
+        List<CostedPath> costed = crawlOrder == CRAWL_ORDER.COST ? new ArrayList<CostedPath>() : null;
+        ParallelDirectoryWalker walker = new ParallelDirectoryWalker(root, directory,
+                crawlThreads, WALK_QUEUE_SIZE, crawlOrder, crawlFilter, useDirAttrs);
+        walker.setThrottle(throttle);
+        walker.start();
+        try {
+            while (true) {
+                ParallelDirectoryWalker.Entry e = walker.take();
+                if (e == ParallelDirectoryWalker.END) {
+                    break;
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException("file adder interrupted");
+                }
+                if (manifest != null && !isChanged(e.path, e.attrs)) {
+                    continue;
+                }
+                long size = e.attrs.size();
+                if (costed != null) {
+                    costed.add(new CostedPath(e.path,
+                            costModel.estimateMillis(e.path.getFileName().toString(), size), size));
+                    continue;
+                }
+                int added = add(e.path, size);
+                if (added == FileResourceCrawler.STOP_NOW) {
+                    LOG.debug("crawler has hit a limit: " + e.path.toAbsolutePath() + " : " + added);
+                    return false;
+                }
+            }
+        } finally {
+            walker.stop();
+        }
+        if (!walker.isComplete()) {
+            complete = false;
+        }
+        if (costed != null) {
+            LOG.info("Estimated parse cost for " + costed.size() + " files; adding the most expensive first");
+            return addCosted(costed);
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the crawler hit a limit
+     */
+    private boolean addFilesByCost(Path directory) throws InterruptedException {
+        if (costModel == null) {
+            throw new IllegalStateException("cost crawl order requires a cost model");
+        }
+        final List<CostedPath> costed = new ArrayList<>();
+        try {
+            //walkFileTree hands us the attributes it already read, so no second stat per file
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (throttle != null) {
+                        try {
+                            throttle.acquireOp();
+                        } catch (InterruptedException e) {
+                            //addCosted stops the crawl
+                            Thread.currentThread().interrupt();
+                            return FileVisitResult.TERMINATE;
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        if (manifest != null && !isChanged(file, attrs)) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        long cost = costModel.estimateMillis(file.getFileName().toString(), attrs.size());
+                        costed.add(new CostedPath(file, cost, attrs.size()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    LOG.warn("Skipping -- " + file.toAbsolutePath() + " -- " + e.getMessage());
+                    complete = false;
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOG.warn("FSFileAdder couldn't walk " + directory.toAbsolutePath() + ": " + e.getMessage());
+            complete = false;
+        }
+        LOG.info("Estimated parse cost for " + costed.size() + " files; adding the most expensive first");
+        return addCosted(costed);
+    }
+
+    /**
+     * @return false if the crawler hit a limit
+     */
+    private boolean addCosted(List<CostedPath> costed) throws InterruptedException {
+        Collections.sort(costed);
+        for (CostedPath p : costed) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("file adder interrupted");
+            }
+            if (!Files.isReadable(p.path)) {
+                LOG.warn("Skipping -- " + p.path.toAbsolutePath() + " -- file is not readable");
+                continue;
+            }
+            int added = add(p.path, p.size);
+            if (added == FileResourceCrawler.STOP_NOW) {
+                LOG.debug("crawler has hit a limit: " + p.path.toAbsolutePath() + " : " + added);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class CostedPath implements Comparable<CostedPath> {
+        private final Path path;
+        private final long cost;
+        private final long size;
+
+        CostedPath(Path path, long cost, long size) {
+            this.path = path;
+            this.cost = cost;
+            this.size = size;
+        }
+
+        @Override
+        public int compareTo(CostedPath o) {
+            if (cost != o.cost) {
+                return cost > o.cost ? -1 : 1;
+            }
+            if (size != o.size) {
+                return size > o.size ? -1 : 1;
+            }
+            return path.compareTo(o.path);
+        }
+    }
+}
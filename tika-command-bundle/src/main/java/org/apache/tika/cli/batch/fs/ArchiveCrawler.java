@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch.fs;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.FileResourceCrawler;
+import org.apache.tika.batch.fs.FSFileResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Crawls the input directory and treats each zip and uncompressed tar as a
+ * directory: its entries are added one by one as {@link ArchiveEntryResource}s,
+ * so the consumers parse them in parallel straight out of the archive,
+ * without the archive being extracted to disk or parsed as one document.
+ * <p>
+ * Only the archive's index is read by the crawler, see {@link ArchiveIndex};
+ * each consumer reads its entry's bytes at their offset.  Other files are
+ * added as usual.  An archive that can't be indexed, such as a damaged zip
+ * or a compressed tar, is added as a file, so the parser still sees it.
+ * <p>
+ * Directories and archives are crawled in name order.
+ */
+public class ArchiveCrawler extends FileResourceCrawler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArchiveCrawler.class);
+
+    private final Path root;
+    private long archives = 0;
+    private long entries = 0;
+
+    public ArchiveCrawler(ArrayBlockingQueue<FileResource> fileQueue, int numConsumers, Path root) {
+        super(fileQueue, numConsumers);
+        this.root = root;
+        if (!Files.isDirectory(root)) {
+            throw new RuntimeException("Crawler couldn't find this directory:" + root.toAbsolutePath());
+        }
+    }
+
+    @Override
+    public void start() throws InterruptedException {
+        crawl(root);
+        LOG.info("Added " + entries + " entries from " + archives + " archives");
+    }
+
+    /**
+     * @return false if the crawler hit a limit
+     */
+    private boolean crawl(Path directory) throws InterruptedException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory)) {
+            for (Path p : ds) {
+                files.add(p);
+            }
+        } catch (IOException e) {
+            LOG.warn("Couldn't read " + directory.toAbsolutePath() + ": " + e.getMessage());
+            return true;
+        }
+        Collections.sort(files);
+        for (Path f : files) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("archive crawler interrupted");
+            }
+            boolean more;
+            if (Files.isDirectory(f)) {
+                more = crawl(f);
+            } else if (ArchiveIndex.isArchive(f)) {
+                more = addArchive(f);
+            } else {
+                more = tryToAdd(new FSFileResource(root, f)) != FileResourceCrawler.STOP_NOW;
+            }
+            if (!more) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean addArchive(Path archive) throws InterruptedException {
+        ArchiveIndex index;
+        try {
+            index = ArchiveIndex.read(archive);
+        } catch (IOException e) {
+            LOG.warn("Couldn't index " + archive + "; adding it as a file: " + e.getMessage());
+            return tryToAdd(new FSFileResource(root, archive)) != FileResourceCrawler.STOP_NOW;
+        }
+        archives++;
+        String archiveRelPath = root.relativize(archive).toString().replace('\\', '/');
+        for (ArchiveIndex.Entry entry : index.getEntries()) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("archive crawler interrupted");
+            }
+            int added = tryToAdd(new ArchiveEntryResource(index, entry, archiveRelPath));
+            if (added == FileResourceCrawler.STOP_NOW) {
+                return false;
+            } else if (added == FileResourceCrawler.ADDED) {
+                entries++;
+            }
+        }
+        return true;
+    }
+}
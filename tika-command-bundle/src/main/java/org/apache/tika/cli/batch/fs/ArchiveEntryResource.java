@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch.fs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.fs.FSProperties;
+import org.apache.tika.metadata.Metadata;
+
+/**
+ * A file inside an archive, whose relative path is the archive's relative
+ * path followed by the entry's name, so that outputs mirror the archive
+ * as if it had been extracted.
+ */
+public class ArchiveEntryResource implements FileResource {
+
+    private final ArchiveIndex index;
+    private final ArchiveIndex.Entry entry;
+    private final String relPath;
+    private final Metadata metadata = new Metadata();
+
+    /**
+     * @param archiveRelPath the archive's path relative to the input directory
+     */
+    public ArchiveEntryResource(ArchiveIndex index, ArchiveIndex.Entry entry, String archiveRelPath) {
+        this.index = index;
+        this.entry = entry;
+        this.relPath = archiveRelPath + "/" + entry.getName();
+        String name = entry.getName();
+        metadata.set(FSProperties.FS_REL_PATH, relPath);
+        metadata.set(Metadata.RESOURCE_NAME_KEY, name.substring(name.lastIndexOf('/') + 1));
+        metadata.set(Metadata.CONTENT_LENGTH, Long.toString(entry.getSize()));
+    }
+
+    /**
+     * @return the archive the entry is in
+     */
+    public Path getArchive() {
+        return index.getArchive();
+    }
+
+    /**
+     * @return the entry's uncompressed size
+     */
+    public long getSize() {
+        return entry.getSize();
+    }
+
+    @Override
+    public String getResourceId() {
+        return relPath;
+    }
+
+    @Override
+    public Metadata getMetadata() {
+        return metadata;
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+        return index.open(entry);
+    }
+}
@@ -0,0 +1,550 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch.fs;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The file entries of a zip or an uncompressed tar, with where each one's
+ * data starts, so that any entry can be read on its own with positional
+ * reads while other threads read others.
+ * <p>
+ * A zip is indexed from its central directory, including zip64 sizes and
+ * offsets; stored and deflated entries are supported, and encrypted ones
+ * are left out.  A tar is indexed by stepping from header to header
+ * without reading the data, with ustar prefixes, GNU long names and pax
+ * paths and sizes.  Compressed tars can only be read from the start, so
+ * they aren't indexed.
+ * <p>
+ * A damaged archive fails with an {@link IOException}, whatever its
+ * offsets and lengths point at.
+ * <p>
+ * Entry names are normalized to forward slashes, and entries whose names
+ * would leave the archive's own directory are left out.
+ */
+public class ArchiveIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArchiveIndex.class);
+
+    private static final int ZIP_EOCD_SIG = 0x06054b50;
+    private static final int ZIP64_EOCD_LOCATOR_SIG = 0x07064b50;
+    private static final int ZIP64_EOCD_SIG = 0x06064b50;
+    private static final int ZIP_CEN_SIG = 0x02014b50;
+    private static final int ZIP_LOC_SIG = 0x04034b50;
+    private static final int ZIP_LOC_HEADER = 30;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final int TAR_BLOCK = 512;
+    //GNU long names and pax headers larger than this are taken as damage
+    private static final int MAX_EXTENDED_HEADER = 1024 * 1024;
+
+    private static final Charset CP437 = getCp437();
+
+    private final Path archive;
+    private final boolean zip;
+    private final List<Entry> entries;
+
+    private ArchiveIndex(Path archive, boolean zip, List<Entry> entries) {
+        this.archive = archive;
+        this.zip = zip;
+        this.entries = entries;
+    }
+
+    /**
+     * @return true if the file name says it is an archive this class can index
+     */
+    public static boolean isArchive(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".zip") || name.endsWith(".tar");
+    }
+
+    public static ArchiveIndex read(Path archive) throws IOException {
+        boolean zip = archive.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".zip");
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            List<Entry> entries = zip ? readZip(channel) : readTar(channel);
+            return new ArchiveIndex(archive, zip, entries);
+        } catch (RuntimeException e) {
+            //a length or offset the checks below missed
+            throw new IOException("Damaged archive " + archive + ": " + e, e);
+        }
+    }
+
+    public Path getArchive() {
+        return archive;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Opens one entry.  Each stream has its own channel, so entries can be
+     * read concurrently.
+     */
+    public InputStream open(Entry entry) throws IOException {
+        FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ);
+        try {
+            long dataOffset = entry.offset;
+            if (zip) {
+                //the local header's name and extra field may differ from the central directory's
+                ByteBuffer loc = readFully(channel, entry.offset, ZIP_LOC_HEADER);
+                if (loc.getInt(0) != ZIP_LOC_SIG) {
+                    throw new ZipException("No local header for " + entry.name + " in " + archive);
+                }
+                dataOffset += ZIP_LOC_HEADER + (loc.getShort(26) & 0xFFFF) + (loc.getShort(28) & 0xFFFF);
+            }
+            InputStream range = new RangeInputStream(channel, dataOffset, entry.compressedSize);
+            if (entry.method == DEFLATED) {
+                return new InflaterInputStream(range, new Inflater(true), 8192) {
+                    private boolean eof = false;
+
+                    @Override
+                    protected void fill() throws IOException {
+                        if (eof) {
+                            throw new EOFException("Unexpected end of deflated entry");
+                        }
+                        len = in.read(buf, 0, buf.length);
+                        if (len == -1) {
+                            //a raw inflater may need a byte past the end, as in ZipFile
+                            buf[0] = 0;
+                            len = 1;
+                            eof = true;
+                        }
+                        inf.setInput(buf, 0, len);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        //not the default inflater, so super doesn't end it
+                        inf.end();
+                    }
+                };
+            }
+            return range;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static List<Entry> readZip(FileChannel channel) throws IOException {
+        long size = channel.size();
+        //the end record is within the last 64k plus its own length
+        int tail = (int) Math.min(size, 65535 + 22);
+        ByteBuffer end = readFully(channel, size - tail, tail);
+        int eocd = -1;
+        for (int i = tail - 22; i >= 0; i--) {
+            if (end.getInt(i) == ZIP_EOCD_SIG) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new ZipException("No end of central directory");
+        }
+        long count = end.getShort(eocd + 10) & 0xFFFF;
+        long cenSize = end.getInt(eocd + 12) & ZIP64_MAGIC;
+        long cenOffset = end.getInt(eocd + 16) & ZIP64_MAGIC;
+        long eocdPosition = size - tail + eocd;
+        if (eocdPosition >= 20) {
+            ByteBuffer locator = readFully(channel, eocdPosition - 20, 20);
+            if (locator.getInt(0) == ZIP64_EOCD_LOCATOR_SIG) {
+                ByteBuffer eocd64 = readFully(channel, locator.getLong(8), 56);
+                if (eocd64.getInt(0) != ZIP64_EOCD_SIG) {
+                    throw new ZipException("Bad zip64 end of central directory");
+                }
+                count = eocd64.getLong(32);
+                cenSize = eocd64.getLong(40);
+                cenOffset = eocd64.getLong(48);
+            }
+        }
+        if (cenSize > Integer.MAX_VALUE) {
+            throw new ZipException("Central directory too large: " + cenSize);
+        }
+        if (cenOffset < 0 || cenSize < 0 || cenOffset + cenSize > size) {
+            throw new ZipException("Central directory outside the archive");
+        }
+        ByteBuffer cen = readFully(channel, cenOffset, (int) cenSize);
+        List<Entry> entries = new ArrayList<>();
+        int p = 0;
+        for (long i = 0; i < count; i++) {
+            if (p + 46 > cen.limit() || cen.getInt(p) != ZIP_CEN_SIG) {
+                throw new ZipException("Bad central directory entry " + i);
+            }
+            int flags = cen.getShort(p + 8) & 0xFFFF;
+            int method = cen.getShort(p + 10) & 0xFFFF;
+            long compressedSize = cen.getInt(p + 20) & ZIP64_MAGIC;
+            long uncompressedSize = cen.getInt(p + 24) & ZIP64_MAGIC;
+            int nameLength = cen.getShort(p + 28) & 0xFFFF;
+            int extraLength = cen.getShort(p + 30) & 0xFFFF;
+            int commentLength = cen.getShort(p + 32) & 0xFFFF;
+            long offset = cen.getInt(p + 42) & ZIP64_MAGIC;
+            if (p + 46 + nameLength + extraLength + commentLength > cen.limit()) {
+                throw new ZipException("Central directory entry " + i + " runs past its end");
+            }
+            byte[] nameBytes = new byte[nameLength];
+            cen.position(p + 46);
+            cen.get(nameBytes);
+            String name = new String(nameBytes, (flags & 0x800) != 0 ? UTF_8 : CP437);
+
+            //zip64 values come in this order, for the fields that are maxed out
+            int extra = p + 46 + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = cen.getShort(extra) & 0xFFFF;
+                int length = cen.getShort(extra + 2) & 0xFFFF;
+                if (id == 0x0001) {
+                    int v = extra + 4;
+                    int vEnd = Math.min(extraEnd, v + length);
+                    if (uncompressedSize == ZIP64_MAGIC && v + 8 <= vEnd) {
+                        uncompressedSize = cen.getLong(v);
+                        v += 8;
+                    }
+                    if (compressedSize == ZIP64_MAGIC && v + 8 <= vEnd) {
+                        compressedSize = cen.getLong(v);
+                        v += 8;
+                    }
+                    if (offset == ZIP64_MAGIC && v + 8 <= vEnd) {
+                        offset = cen.getLong(v);
+                    }
+                }
+                extra += 4 + length;
+            }
+            p += 46 + nameLength + extraLength + commentLength;
+
+            if (name.endsWith("/")) {
+                continue;
+            }
+            if ((flags & 0x1) != 0) {
+                LOG.warn("Skipping encrypted entry " + name);
+                continue;
+            }
+            if (method != STORED && method != DEFLATED) {
+                LOG.warn("Skipping entry " + name + " compressed with method " + method);
+                continue;
+            }
+            if (offset < 0 || compressedSize < 0 || uncompressedSize < 0 || offset + compressedSize > size) {
+                throw new ZipException("Entry " + name + " lies outside the archive");
+            }
+            add(entries, name, offset, compressedSize, uncompressedSize, method);
+        }
+        return entries;
+    }
+
+    private static List<Entry> readTar(FileChannel channel) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long size = channel.size();
+        long position = 0;
+        String longName = null;
+        Map<String, String> pax = null;
+        while (position + TAR_BLOCK <= size) {
+            ByteBuffer header = readFully(channel, position, TAR_BLOCK);
+            if (isZeros(header)) {
+                break;
+            }
+            long entrySize = parseOctal(header, 124, 12);
+            char type = (char) header.get(156);
+            boolean extended = type == 'L' || type == 'x' || type == 'g';
+            if (!extended && pax != null && pax.containsKey("size")) {
+                //for entries too large for the header's field
+                try {
+                    entrySize = Long.parseLong(pax.get("size"));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad pax size: " + pax.get("size"));
+                }
+            }
+            long data = position + TAR_BLOCK;
+            if (entrySize < 0 || entrySize > size - data) {
+                throw new IOException("Tar entry at " + position + " runs past the end of the archive");
+            }
+            if (extended && entrySize > MAX_EXTENDED_HEADER) {
+                throw new IOException("Tar extended header at " + position + " is too large: " + entrySize);
+            }
+            position = data + (entrySize + TAR_BLOCK - 1) / TAR_BLOCK * TAR_BLOCK;
+            if (type == 'L') {
+                //GNU long name for the next entry
+                longName = trim(readFully(channel, data, (int) entrySize), 0, (int) entrySize);
+                continue;
+            } else if (type == 'x') {
+                //pax extended header for the next entry
+                ByteBuffer records = readFully(channel, data, (int) entrySize);
+                pax = parsePax(records.array(), (int) entrySize);
+                continue;
+            } else if (type == 'g') {
+                //pax global header, nothing in it names a file
+                continue;
+            }
+            String name = longName;
+            longName = null;
+            if (pax != null && pax.containsKey("path")) {
+                name = pax.get("path");
+            }
+            pax = null;
+            if (name == null) {
+                name = trim(header, 0, 100);
+                //"ustar\0"; old GNU tars write "ustar " and keep times where ustar has the prefix
+                if (trim(header, 257, 6).equals("ustar")) {
+                    String prefix = trim(header, 345, 155);
+                    if (prefix.length() > 0) {
+                        name = prefix + "/" + name;
+                    }
+                }
+            }
+            if (type == '0' || type == '\0' || type == '7') {
+                add(entries, name, data, entrySize, entrySize, STORED);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return the records of a pax extended header, each
+     * <code>length key=value\n</code> with the length in bytes
+     */
+    static Map<String, String> parsePax(byte[] bytes, int length) throws IOException {
+        Map<String, String> records = new HashMap<>();
+        int p = 0;
+        while (p < length && bytes[p] != 0) {
+            int space = p;
+            while (space < length && bytes[space] != ' ') {
+                space++;
+            }
+            int recordLength;
+            try {
+                recordLength = Integer.parseInt(new String(bytes, p, space - p, ISO_8859_1));
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad pax record length at " + p);
+            }
+            int end = p + recordLength;
+            if (space >= length || end <= space + 1 || end > length || bytes[end - 1] != '\n') {
+                throw new IOException("Bad pax record at " + p);
+            }
+            String record = new String(bytes, space + 1, end - space - 2, UTF_8);
+            int eq = record.indexOf('=');
+            if (eq < 0) {
+                throw new IOException("Bad pax record: " + record);
+            }
+            records.put(record.substring(0, eq), record.substring(eq + 1));
+            p = end;
+        }
+        return records;
+    }
+
+    private static void add(List<Entry> entries, String name, long offset, long compressedSize,
+                            long size, int method) {
+        String normalized = normalize(name);
+        if (normalized == null) {
+            LOG.warn("Skipping entry with a name outside the archive: " + name);
+            return;
+        }
+        entries.add(new Entry(normalized, offset, compressedSize, size, method));
+    }
+
+    /**
+     * @return the name with forward slashes and no leading slash, or null if
+     * it would climb out of the archive
+     */
+    static String normalize(String name) {
+        String n = name.replace('\\', '/');
+        while (n.startsWith("/")) {
+            n = n.substring(1);
+        }
+        if (n.length() == 0 || n.matches("^[A-Za-z]:.*")) {
+            return null;
+        }
+        for (String segment : n.split("/")) {
+            if (segment.equals("..")) {
+                return null;
+            }
+        }
+        return n;
+    }
+
+    private static boolean isZeros(ByteBuffer buffer) {
+        for (int i = 0; i < buffer.limit(); i++) {
+            if (buffer.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parseOctal(ByteBuffer header, int offset, int length) throws IOException {
+        if ((header.get(offset) & 0x80) != 0) {
+            //base-256, for entries of 8GB and more
+            long value = header.get(offset) & 0x7F;
+            for (int i = 1; i < length; i++) {
+                value = (value << 8) | (header.get(offset + i) & 0xFF);
+            }
+            return value;
+        }
+        String s = trim(header, offset, length).trim();
+        if (s.length() == 0) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(s, 8);
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad tar header size: " + s);
+        }
+    }
+
+    private static String trim(ByteBuffer buffer, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && buffer.get(end) != 0) {
+            end++;
+        }
+        byte[] bytes = new byte[end - offset];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        //ustar names are ascii, but utf-8 is what tars written today use
+        return new String(bytes, UTF_8);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Archive ends early at " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static Charset getCp437() {
+        try {
+            return Charset.forName("IBM437");
+        } catch (IllegalArgumentException e) {
+            return ISO_8859_1;
+        }
+    }
+
+    /**
+     * One file in the archive
+     */
+    public static class Entry {
+        private final String name;
+        //the local header for a zip entry, the data for a tar entry
+        private final long offset;
+        private final long compressedSize;
+        private final long size;
+        private final int method;
+
+        private Entry(String name, long offset, long compressedSize, long size, int method) {
+            this.name = name;
+            this.offset = offset;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.method = method;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return uncompressed length
+         */
+        public long getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * A range of a file, read with positional reads so that the channel's
+     * own position doesn't matter
+     */
+    private static class RangeInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private long position;
+        private long remaining;
+
+        private RangeInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+            if (n < 0) {
+                return -1;
+            }
+            position += n;
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, remaining));
+            position += skipped;
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, remaining);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch.fs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.FileResourceConsumer;
+import org.apache.tika.batch.fs.FSProperties;
+import org.apache.tika.cli.batch.ParseResultCache;
+import org.apache.tika.metadata.Metadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Looks each resource up in a {@link ParseResultCache} by its content
+ * digest and writes the cached result instead of parsing it.  On a miss
+ * the delegate parses as usual, and its output is cached if it finished
+ * without a handled exception.
+ * <p>
+ * Duplicates with other names share an entry; the resource name and
+ * relative path the entry was rendered with are replaced with the
+ * duplicate's on a hit.
+ * <p>
+ * The digest costs a read of the whole input ahead of the parse, which is
+ * cheap next to the parse it can save.
+ * <p>
+ * As with {@link org.apache.tika.cli.batch.InterceptingConsumer}, the
+ * delegate's own queue is never read.
+ */
+public class CachingFSConsumer extends FileResourceConsumer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CachingFSConsumer.class);
+
+    private final FileResourceConsumer delegate;
+    private final ParseResultCache cache;
+    private final CachingOutputStreamFactory outputStreamFactory;
+    private final String fingerprint;
+
+    /**
+     * @param outputStreamFactory the factory the delegate writes through
+     * @param fingerprint         see {@link ParseResultCache#fingerprint}
+     */
+    public CachingFSConsumer(ArrayBlockingQueue<FileResource> queue, FileResourceConsumer delegate,
+                             ParseResultCache cache, CachingOutputStreamFactory outputStreamFactory,
+                             String fingerprint) {
+        super(queue);
+        this.delegate = delegate;
+        this.cache = cache;
+        this.outputStreamFactory = outputStreamFactory;
+        this.fingerprint = fingerprint;
+    }
+
+    @Override
+    public boolean processFileResource(FileResource fileResource) {
+        String key;
+        try (InputStream is = fileResource.openInputStream()) {
+            key = ParseResultCache.key(ParseResultCache.digest(is), fingerprint);
+        } catch (IOException e) {
+            LOG.warn("Couldn't digest " + fileResource.getResourceId() + "; parsing without the cache", e);
+            return delegate.processFileResource(fileResource);
+        }
+        Map<String, String> names = getNames(fileResource.getMetadata());
+        InputStream cached = cache.get(key, names);
+        if (cached != null) {
+            return writeCached(fileResource, cached);
+        }
+        int exceptions = delegate.getNumHandledExceptions();
+        boolean processed = false;
+        outputStreamFactory.expect(key, names);
+        try {
+            processed = delegate.processFileResource(fileResource);
+        } finally {
+            outputStreamFactory.finish(processed && delegate.getNumHandledExceptions() == exceptions);
+        }
+        return processed;
+    }
+
+    //the metadata that differs between duplicates
+    private static Map<String, String> getNames(Metadata metadata) {
+        Map<String, String> names = new LinkedHashMap<>();
+        names.put(Metadata.RESOURCE_NAME_KEY, metadata.get(Metadata.RESOURCE_NAME_KEY));
+        names.put(FSProperties.FS_REL_PATH.getName(), metadata.get(FSProperties.FS_REL_PATH));
+        return names;
+    }
+
+    private boolean writeCached(FileResource fileResource, InputStream cached) {
+        OutputStream os = null;
+        try {
+            os = outputStreamFactory.getUncachedOutputStream(fileResource.getMetadata());
+            if (os == null) {
+                //as in tika-batch, an existing output is skipped
+                return false;
+            }
+            IOUtils.copy(cached, os);
+            os.flush();
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Couldn't write the cached result for " + fileResource.getResourceId(), e);
+            incrementHandledExceptions();
+            return false;
+        } finally {
+            close(cached);
+            if (os != null) {
+                close(os);
+            }
+        }
+    }
+
+    @Override
+    public int getNumHandledExceptions() {
+        return super.getNumHandledExceptions() + delegate.getNumHandledExceptions();
+    }
+
+    public FileResourceConsumer getDelegate() {
+        return delegate;
+    }
+}
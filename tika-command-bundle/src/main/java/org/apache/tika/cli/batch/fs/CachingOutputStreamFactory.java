@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch.fs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import org.apache.commons.io.output.TeeOutputStream;
+import org.apache.tika.batch.OutputStreamFactory;
+import org.apache.tika.cli.batch.ParseResultCache;
+import org.apache.tika.metadata.Metadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies what a consumer writes into a {@link ParseResultCache} entry as
+ * well as to the delegate's stream.  The {@link CachingFSConsumer} names
+ * the entry before handing the resource to its delegate, and commits or
+ * discards it afterwards, all on the consumer's thread.
+ * <p>
+ * The copy is taken before the delegate's compression or segment framing,
+ * so cached results can be replayed into any output format.
+ */
+public class CachingOutputStreamFactory implements OutputStreamFactory, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CachingOutputStreamFactory.class);
+
+    private final OutputStreamFactory delegate;
+    private final ParseResultCache cache;
+    private final ThreadLocal<String> pendingKey = new ThreadLocal<>();
+    private final ThreadLocal<Map<String, String>> pendingNames = new ThreadLocal<>();
+    private final ThreadLocal<ParseResultCache.Entry> pendingEntry = new ThreadLocal<>();
+
+    public CachingOutputStreamFactory(OutputStreamFactory delegate, ParseResultCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public OutputStream getOutputStream(Metadata metadata) throws IOException {
+        OutputStream os = delegate.getOutputStream(metadata);
+        String key = pendingKey.get();
+        if (os == null || key == null) {
+            return os;
+        }
+        pendingKey.remove();
+        ParseResultCache.Entry entry;
+        try {
+            entry = cache.begin(key, pendingNames.get());
+        } catch (IOException e) {
+            LOG.warn("Couldn't start a cache entry; not caching this result", e);
+            return os;
+        }
+        pendingEntry.set(entry);
+        return new TeeOutputStream(os, entry.getOutputStream());
+    }
+
+    /**
+     * The next stream opened on this thread is cached under the key
+     *
+     * @param names the name-dependent metadata the result is rendered with
+     */
+    void expect(String key, Map<String, String> names) {
+        pendingKey.set(key);
+        pendingNames.set(names);
+    }
+
+    /**
+     * @param success commit the entry started on this thread, or discard it
+     */
+    void finish(boolean success) {
+        pendingKey.remove();
+        pendingNames.remove();
+        ParseResultCache.Entry entry = pendingEntry.get();
+        if (entry == null) {
+            return;
+        }
+        pendingEntry.remove();
+        if (!success) {
+            entry.discard();
+            return;
+        }
+        try {
+            entry.commit();
+        } catch (IOException e) {
+            LOG.warn("Couldn't commit a cache entry", e);
+            entry.discard();
+        }
+    }
+
+    /**
+     * @return the delegate's stream, not copied to the cache
+     */
+    OutputStream getUncachedOutputStream(Metadata metadata) throws IOException {
+        return delegate.getOutputStream(metadata);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+}
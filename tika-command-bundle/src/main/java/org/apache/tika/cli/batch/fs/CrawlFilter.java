@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch.fs;
+
+import java.util.regex.Pattern;
+
+/**
+ * The include/exclude patterns and size limits of tika-batch's
+ * FSDocumentSelector, applied while walking, to paths relative to the input
+ * directory and to the length the walk already read.
+ */
+public class CrawlFilter {
+
+    private final Pattern include;
+    private final Pattern exclude;
+    private final long minSize;
+    private final long maxSize;
+
+    /**
+     * @param include null to include everything
+     * @param exclude null to exclude nothing
+     * @param minSize -1 for no minimum
+     * @param maxSize -1 for no maximum
+     */
+    public CrawlFilter(Pattern include, Pattern exclude, long minSize, long maxSize) {
+        this.include = include;
+        this.exclude = exclude;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+    }
+
+    public boolean accept(String relPath, long size) {
+        if (include != null && !include.matcher(relPath).find()) {
+            return false;
+        }
+        if (exclude != null && exclude.matcher(relPath).find()) {
+            return false;
+        }
+        if (maxSize > -1 && size > maxSize) {
+            return false;
+        }
+        return minSize <= -1 || size >= minSize;
+    }
+}
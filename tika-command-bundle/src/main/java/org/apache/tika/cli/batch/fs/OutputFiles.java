@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch.fs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.tika.batch.fs.FSProperties;
+import org.apache.tika.batch.fs.FSUtil;
+import org.apache.tika.metadata.Metadata;
+
+/**
+ * The one-file-per-input outputs of a batch run, named as tika-batch's
+ * {@link FSUtil} names them.  The output factories skip an input whose
+ * output exists, so an input that must be written again, such as one
+ * whose last attempt died half way, has its outputs deleted first.
+ * <p>
+ * Segmented outputs aren't one file per input and aren't listed.
+ * <p>
+ * The run's {@link PendingOutputs}, if something waits for them, are kept
+ * here too, since every output factory is built with this.
+ */
+public class OutputFiles {
+
+    private final List<Path> outputDirs = new ArrayList<>();
+    private final List<String> suffixes = new ArrayList<>();
+    private PendingOutputs pendingOutputs;
+
+    public void setPendingOutputs(PendingOutputs pendingOutputs) {
+        this.pendingOutputs = pendingOutputs;
+    }
+
+    /**
+     * @return null if nothing waits for the outputs to be written
+     */
+    public PendingOutputs getPendingOutputs() {
+        return pendingOutputs;
+    }
+
+    /**
+     * @param suffix as passed to the output factory, may be null
+     */
+    public synchronized void add(Path outputDir, String suffix) {
+        outputDirs.add(outputDir);
+        suffixes.add(suffix);
+    }
+
+    /**
+     * @return the number of outputs deleted
+     */
+    public synchronized int delete(String relPath) throws IOException {
+        int deleted = 0;
+        for (int i = 0; i < outputDirs.size(); i++) {
+            if (Files.deleteIfExists(resolve(outputDirs.get(i), suffixes.get(i), relPath))) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * @return whether any output of this input exists
+     */
+    public synchronized boolean exists(String relPath) throws IOException {
+        for (int i = 0; i < outputDirs.size(); i++) {
+            if (Files.exists(resolve(outputDirs.get(i), suffixes.get(i), relPath))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return where an output factory writes the output of this input
+     */
+    public static Path resolve(Path outputDir, String suffix, String relPath) throws IOException {
+        return FSUtil.getOutputPath(outputDir, relPath, FSUtil.HANDLE_EXISTING.OVERWRITE, suffix);
+    }
+
+    /**
+     * @return a copy of the metadata, for an output factory to write
+     * <code>relPath</code>'s output
+     */
+    static Metadata withRelPath(Metadata metadata, String relPath) {
+        Metadata copy = new Metadata();
+        for (String name : metadata.names()) {
+            for (String value : metadata.getValues(name)) {
+                copy.add(name, value);
+            }
+        }
+        copy.set(FSProperties.FS_REL_PATH, relPath);
+        return copy;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch.fs;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.tika.cli.batch.IoThrottle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lists directories on a fixed number of threads and hands the files it
+ * finds, with their attributes, to a bounded queue.  Every directory
+ * found is listed as its own task, so the fan-out is bounded by the
+ * number of threads rather than by the shape of the tree, and a slow
+ * directory (a cold NFS cache, say) only holds up one thread.
+ * <p>
+ * With <code>useDirAttrs</code>, each directory is read with a depth-one
+ * walkFileTree, which takes attributes from the directory listing on
+ * platforms that return them with it and needs one stat per entry
+ * elsewhere.  Without it, entries are listed by name and then read one by
+ * one, as tika-batch's crawler does, including a readability check.
+ * <p>
+ * Files rejected by the {@link CrawlFilter} never reach the queue.
+ */
+class ParallelDirectoryWalker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelDirectoryWalker.class);
+
+    static final Entry END = new Entry(null, null);
+
+    private static final Comparator<Entry> NAME_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry o1, Entry o2) {
+            return o1.path.getFileName().toString().compareTo(o2.path.getFileName().toString());
+        }
+    };
+
+    private final Path root;
+    private final Path startDirectory;
+    private final AppFSDirectoryCrawler.CRAWL_ORDER order;
+    private final CrawlFilter filter;
+    private final boolean useDirAttrs;
+    private final ExecutorService executor;
+    private final BlockingQueue<Entry> entries;
+    private final AtomicInteger pending = new AtomicInteger();
+    private IoThrottle throttle;
+    private volatile boolean complete = true;
+
+    ParallelDirectoryWalker(Path root, Path startDirectory, int threads, int queueSize,
+                            AppFSDirectoryCrawler.CRAWL_ORDER order, CrawlFilter filter,
+                            boolean useDirAttrs) {
+        this.root = root;
+        this.startDirectory = startDirectory;
+        this.order = order;
+        this.filter = filter;
+        this.useDirAttrs = useDirAttrs;
+        this.entries = new ArrayBlockingQueue<>(queueSize);
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "directory-walker-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @param throttle pays for each directory listing; may be null
+     */
+    void setThrottle(IoThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    void start() {
+        submit(startDirectory);
+    }
+
+    /**
+     * @return the next file, or {@link #END} once every directory has been listed
+     */
+    Entry take() throws InterruptedException {
+        return entries.take();
+    }
+
+    /**
+     * @return false if a directory or entry couldn't be read
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    private void submit(final Path directory) {
+        pending.incrementAndGet();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        list(directory);
+                    } catch (InterruptedException e) {
+                        //stopped
+                        return;
+                    }
+                    if (pending.decrementAndGet() == 0) {
+                        try {
+                            entries.put(END);
+                        } catch (InterruptedException e) {
+                            //stopped
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //stopped
+            pending.decrementAndGet();
+        }
+    }
+
+    private void list(Path directory) throws InterruptedException {
+        if (throttle != null) {
+            throttle.acquireOp();
+        }
+        List<Entry> listed = useDirAttrs ? listWithAttrs(directory) : listByName(directory);
+        if (order == AppFSDirectoryCrawler.CRAWL_ORDER.SORTED) {
+            Collections.sort(listed, NAME_ORDER);
+        } else if (order == AppFSDirectoryCrawler.CRAWL_ORDER.RANDOM) {
+            Collections.shuffle(listed);
+        }
+        for (Entry e : listed) {
+            if (e.attrs.isDirectory()) {
+                submit(e.path);
+            } else if (filter == null ||
+                    filter.accept(root.relativize(e.path).toString(), e.attrs.size())) {
+                entries.put(e);
+            }
+        }
+    }
+
+    private List<Entry> listWithAttrs(Path directory) {
+        final List<Entry> listed = new ArrayList<>();
+        try {
+            Files.walkFileTree(directory, EnumSet.noneOf(FileVisitOption.class), 1,
+                    new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                            if (attrs.isSymbolicLink()) {
+                                //follow it, as the directory crawler does
+                                try {
+                                    attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                                } catch (IOException e) {
+                                    LOG.warn("Skipping -- " + file.toAbsolutePath() + " -- " + e.getMessage());
+                                    return FileVisitResult.CONTINUE;
+                                }
+                            }
+                            listed.add(new Entry(file, attrs));
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFileFailed(Path file, IOException e) {
+                            LOG.warn("Skipping -- " + file.toAbsolutePath() + " -- " + e.getMessage());
+                            complete = false;
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+        } catch (IOException e) {
+            LOG.warn("Couldn't read " + directory.toAbsolutePath() + ": " + e.getMessage());
+            complete = false;
+        }
+        return listed;
+    }
+
+    private List<Entry> listByName(Path directory) {
+        List<Entry> listed = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory)) {
+            for (Path p : ds) {
+                if (!Files.isReadable(p)) {
+                    LOG.warn("Skipping -- " + p.toAbsolutePath() + " -- file/directory is not readable");
+                    continue;
+                }
+                try {
+                    listed.add(new Entry(p, Files.readAttributes(p, BasicFileAttributes.class)));
+                } catch (IOException e) {
+                    LOG.warn("Skipping -- " + p.toAbsolutePath() + " -- " + e.getMessage());
+                    complete = false;
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Couldn't read " + directory.toAbsolutePath() + ": " + e.getMessage());
+            complete = false;
+        }
+        return listed;
+    }
+
+    static class Entry {
+        final Path path;
+        final BasicFileAttributes attrs;
+
+        Entry(Path path, BasicFileAttributes attrs) {
+            this.path = path;
+            this.attrs = attrs;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch.fs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip output stream that compresses fixed size blocks in parallel on a
+ * shared executor, as pigz does, and still writes a single standard gzip
+ * member.
+ * <p>
+ * Each block is deflated independently, primed with the last 32k of the
+ * previous block as its dictionary so the ratio stays close to a serial
+ * deflate, and ends with a sync flush so the blocks concatenate into one
+ * deflate stream.  Only the last block is finished.  The CRC is computed
+ * on the writing thread.
+ * <p>
+ * Output that fits in one block is compressed on the writing thread when
+ * the stream is closed, since the writer would only wait for the pool.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final byte[] HEADER = new byte[]{
+            0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private final OutputStream out;
+    private final ExecutorService executor;
+    private final int level;
+    private final int blockSize;
+    private final int maxPending;
+
+    private byte[] block;
+    private int count = 0;
+    private byte[] dictionary = null;
+    private final CRC32 crc = new CRC32();
+    private long total = 0;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private boolean closed = false;
+
+    /**
+     * @param maxPending blocks this stream may have queued or in compression
+     *                   before writes wait for the oldest
+     */
+    public ParallelGzipOutputStream(OutputStream out, ExecutorService executor, int level,
+                                    int blockSize, int maxPending) throws IOException {
+        if (blockSize < DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("block size must be at least " + DICTIONARY_SIZE);
+        }
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("bad compression level: " + level);
+        }
+        this.out = out;
+        this.executor = executor;
+        this.level = level;
+        this.blockSize = blockSize;
+        this.maxPending = Math.max(1, maxPending);
+        this.block = new byte[blockSize];
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+        crc.update(b, off, len);
+        total += len;
+        while (len > 0) {
+            int n = Math.min(len, blockSize - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == blockSize) {
+                submit();
+            }
+        }
+    }
+
+    /**
+     * Hands the full block to the executor and writes out any blocks that
+     * are already done, waiting for the oldest if too many are pending.
+     */
+    private void submit() throws IOException {
+        final byte[] input = block;
+        final int length = count;
+        final byte[] dict = dictionary;
+        pending.add(executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return deflate(input, length, dict, level, false);
+            }
+        }));
+        dictionary = Arrays.copyOfRange(input, length - DICTIONARY_SIZE, length);
+        block = new byte[blockSize];
+        count = 0;
+        while (pending.size() > maxPending || (pending.size() > 0 && pending.peekFirst().isDone())) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        Future<byte[]> future = pending.removeFirst();
+        try {
+            out.write(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while compressing", e);
+        } catch (ExecutionException e) {
+            throw new IOException("compression failed", e.getCause());
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            while (pending.size() > 0) {
+                writeNext();
+            }
+            out.write(deflate(block, count, dictionary, level, true));
+            byte[] trailer = new byte[8];
+            writeIntLE(crc.getValue(), trailer, 0);
+            writeIntLE(total, trailer, 4);
+            out.write(trailer);
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(false);
+            }
+            block = null;
+            out.close();
+        }
+    }
+
+    public long getBytesIn() {
+        return total;
+    }
+
+    static byte[] deflate(byte[] input, int length, byte[] dictionary, int level, boolean last) {
+        Thread thread = Thread.currentThread();
+        if (!(thread instanceof CompressionThread)) {
+            Deflater deflater = new Deflater(level, true);
+            try {
+                return deflate(deflater, input, length, dictionary, last);
+            } finally {
+                deflater.end();
+            }
+        }
+        Deflater[] deflaters = ((CompressionThread) thread).deflaters;
+        Deflater deflater = deflaters[level + 1];
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+            deflaters[level + 1] = deflater;
+        } else {
+            deflater.reset();
+        }
+        return deflate(deflater, input, length, dictionary, last);
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] input, int length, byte[] dictionary,
+                                  boolean last) {
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(input, 0, length);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, length / 2));
+        byte[] buffer = new byte[Math.max(512, Math.min(length + 64, 64 * 1024))];
+        if (last) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                compressed.write(buffer, 0, n);
+            }
+        } else {
+            //a full buffer means there may be more output
+            int n;
+            do {
+                n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                compressed.write(buffer, 0, n);
+            } while (n == buffer.length);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Pool thread that keeps a deflater per level for the blocks it
+     * compresses, and ends them when it exits so that their native memory
+     * is freed when the pool shuts down or replaces the thread.  Other
+     * threads use a deflater per block.
+     */
+    public static class CompressionThread extends Thread {
+
+        //changing the level of a deflater that has a dictionary set corrupts
+        //its output, so levels are never changed
+        private final Deflater[] deflaters = new Deflater[11];
+
+        public CompressionThread(Runnable target, String name) {
+            super(target, name);
+        }
+
+        @Override
+        public void run() {
+            try {
+                super.run();
+            } finally {
+                for (int i = 0; i < deflaters.length; i++) {
+                    if (deflaters[i] != null) {
+                        deflaters[i].end();
+                        deflaters[i] = null;
+                    }
+                }
+            }
+        }
+    }
+
+    private static void writeIntLE(long value, byte[] b, int off) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >>> 8);
+        b[off + 2] = (byte) (value >>> 16);
+        b[off + 3] = (byte) (value >>> 24);
+    }
+}
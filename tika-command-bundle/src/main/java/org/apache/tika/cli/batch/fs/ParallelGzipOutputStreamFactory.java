@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch.fs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+import org.apache.tika.batch.OutputStreamFactory;
+import org.apache.tika.batch.fs.FSOutputStreamFactory;
+import org.apache.tika.batch.fs.FSUtil;
+import org.apache.tika.metadata.Metadata;
+
+/**
+ * Writes the same files as tika-batch's FSOutputStreamFactory with gzip
+ * compression, but compresses through {@link ParallelGzipOutputStream}s on a
+ * pool of compression threads shared by all consumers, so compression
+ * doesn't run on the parsing threads.
+ */
+public class ParallelGzipOutputStreamFactory implements OutputStreamFactory, Closeable {
+
+    private final FSOutputStreamFactory delegate;
+    private final ExecutorService executor;
+    private final int level;
+    private final int threads;
+
+    /**
+     * @param suffix including the .gz
+     */
+    public ParallelGzipOutputStreamFactory(Path outputDir, String suffix, int level, int threads) {
+        this.delegate = new FSOutputStreamFactory(outputDir, FSUtil.HANDLE_EXISTING.SKIP,
+                FSOutputStreamFactory.COMPRESSION.NONE, suffix);
+        this.level = level;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.executor = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new ParallelGzipOutputStream.CompressionThread(r,
+                        "parallel-gzip-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @return null if the output file already exists
+     */
+    @Override
+    public OutputStream getOutputStream(Metadata metadata) throws IOException {
+        OutputStream os = delegate.getOutputStream(metadata);
+        if (os == null) {
+            return null;
+        }
+        //a few blocks in flight per stream is enough to keep the pool busy
+        //when several consumers write at once
+        return new ParallelGzipOutputStream(os, executor, level,
+                ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE, threads * 2);
+    }
+
+    /**
+     * Shuts the pool down; its threads end their deflaters as they exit
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * @param level fast, default, best or 0-9
+     */
+    public static int parseLevel(String level) {
+        if (level == null || level.trim().length() == 0) {
+            return Deflater.DEFAULT_COMPRESSION;
+        }
+        String v = level.trim().toLowerCase(Locale.ROOT);
+        if (v.equals("fast")) {
+            return Deflater.BEST_SPEED;
+        } else if (v.equals("default")) {
+            return Deflater.DEFAULT_COMPRESSION;
+        } else if (v.equals("best")) {
+            return Deflater.BEST_COMPRESSION;
+        }
+        try {
+            int i = Integer.parseInt(v);
+            if (i >= 0 && i <= 9) {
+                return i;
+            }
+        } catch (NumberFormatException e) {
+            //fall through
+        }
+        throw new IllegalArgumentException("compression level must be fast, default, best or 0-9: " + level);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch.fs;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The outputs of each input that {@link WriteBehindOutputStreamFactory}s
+ * still have to write after the consumer is done with the input.  Whatever
+ * records an input as done, such as the resume journal, waits for them
+ * through {@link #whenWritten(String, Listener)}, so that an input whose
+ * outputs die with the child in a writer's queue is processed again.
+ */
+public class PendingOutputs {
+
+    public interface Listener {
+        /**
+         * @param success every output of the input was written
+         */
+        void written(boolean success);
+    }
+
+    private final Map<String, Pending> pending = new HashMap<>();
+
+    /**
+     * An output of <code>relPath</code> was handed to a writer
+     */
+    synchronized void opened(String relPath) {
+        Pending p = pending.get(relPath);
+        if (p == null) {
+            p = new Pending();
+            pending.put(relPath, p);
+        }
+        p.outputs++;
+    }
+
+    /**
+     * An output of <code>relPath</code> was written, or failed
+     */
+    void written(String relPath, boolean success) {
+        Listener listener;
+        boolean allWritten;
+        synchronized (this) {
+            Pending p = pending.get(relPath);
+            if (p == null) {
+                return;
+            }
+            p.failed |= !success;
+            if (--p.outputs > 0 || p.listener == null) {
+                return;
+            }
+            pending.remove(relPath);
+            listener = p.listener;
+            allWritten = !p.failed;
+        }
+        listener.written(allWritten);
+    }
+
+    /**
+     * Calls the listener once every output of <code>relPath</code> handed
+     * to a writer is written, straight away if there are none.  Called once
+     * per input, after the consumer is done with it.
+     */
+    public void whenWritten(String relPath, Listener listener) {
+        boolean allWritten;
+        synchronized (this) {
+            Pending p = pending.get(relPath);
+            if (p != null && p.outputs > 0) {
+                p.listener = listener;
+                return;
+            }
+            pending.remove(relPath);
+            allWritten = p == null || !p.failed;
+        }
+        listener.written(allWritten);
+    }
+
+    private static class Pending {
+        private int outputs = 0;
+        private boolean failed = false;
+        private Listener listener;
+    }
+}
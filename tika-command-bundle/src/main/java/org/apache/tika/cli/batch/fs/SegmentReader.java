@@ -0,0 +1,385 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch.fs;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.tika.cli.batch.Fingerprint;
+import org.apache.tika.metadata.Metadata;
+
+/**
+ * Reads the records written by {@link SegmentedOutputStreamFactory}.
+ * <p>
+ * {@link #get(String)} looks a record up by the input's relative path
+ * through the segment indexes, which are loaded into sorted
+ * <code>long[]</code>s (24 bytes per record).  {@link #iterator()} streams
+ * every indexed record in the order it was written, which is what a
+ * downstream indexer wants; closing the reader closes its iterators.  If
+ * an input was written more than once, the last record wins for
+ * {@link #get(String)}.
+ * <p>
+ * Lookups are thread safe.
+ */
+public class SegmentReader implements Iterable<SegmentReader.Record>, Closeable {
+
+    private final Path dir;
+    private final List<Path> indexes;
+    private final FileChannel[] segments;
+    private final List<RecordIterator> iterators = new ArrayList<>();
+
+    //sorted by fingerprint, then by location
+    private long[] fingerprints;
+    private long[] locations;
+    private long[] lengths;
+    private int size = 0;
+
+    public SegmentReader(Path dir) throws IOException {
+        this.dir = dir;
+        this.indexes = SegmentedOutputStreamFactory.listIndexes(dir);
+        int maxSegment = -1;
+        for (Path index : indexes) {
+            maxSegment = Math.max(maxSegment, SegmentedOutputStreamFactory.getSegmentNumber(index));
+        }
+        this.segments = new FileChannel[maxSegment + 1];
+        load();
+    }
+
+    private void load() throws IOException {
+        int capacity = 0;
+        for (Path index : indexes) {
+            capacity += (int) (Files.size(index) / SegmentedOutputStreamFactory.INDEX_ENTRY_BYTES);
+        }
+        fingerprints = new long[capacity];
+        locations = new long[capacity];
+        lengths = new long[capacity];
+        for (Path index : indexes) {
+            long segment = SegmentedOutputStreamFactory.getSegmentNumber(index);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)))) {
+                while (size < capacity) {
+                    long fingerprint;
+                    long offset;
+                    long length;
+                    try {
+                        fingerprint = in.readLong();
+                        offset = in.readLong();
+                        length = in.readLong();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    fingerprints[size] = fingerprint;
+                    locations[size] = location(segment, offset);
+                    lengths[size] = length;
+                    size++;
+                }
+            }
+        }
+        sort(0, size - 1);
+    }
+
+    /**
+     * @return the last record written for this relative path, or null
+     */
+    public Record get(String path) throws IOException {
+        long fingerprint = Fingerprint.ofPath(path);
+        int i = upperBound(fingerprint) - 1;
+        for (; i >= 0 && fingerprints[i] == fingerprint; i--) {
+            Record record = read(locations[i], lengths[i]);
+            if (record.getPath().equals(path)) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    public boolean contains(String path) throws IOException {
+        return get(path) != null;
+    }
+
+    /**
+     * @return number of indexed records, including superseded ones
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Streams every indexed record in the order it was written.  The
+     * iterator holds an index open until it reaches the end; close it, or
+     * this reader, if iteration stops early.
+     */
+    @Override
+    public synchronized RecordIterator iterator() {
+        RecordIterator iterator = new RecordIterator();
+        iterators.add(iterator);
+        return iterator;
+    }
+
+    public class RecordIterator implements Iterator<Record>, Closeable {
+
+        private final byte[] entry = new byte[SegmentedOutputStreamFactory.INDEX_ENTRY_BYTES];
+        private int index = 0;
+        private InputStream entries;
+        private long segment;
+        private boolean buffered = false;
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (!buffered) {
+                    if (entries == null) {
+                        if (index >= indexes.size()) {
+                            close();
+                            return false;
+                        }
+                        Path path = indexes.get(index++);
+                        segment = SegmentedOutputStreamFactory.getSegmentNumber(path);
+                        entries = new BufferedInputStream(Files.newInputStream(path));
+                    }
+                    if (readEntry()) {
+                        buffered = true;
+                    } else {
+                        entries.close();
+                        entries = null;
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * @return false at the end of the index, including a torn last
+         * entry, which {@link SegmentReader#load()} ignores as well
+         */
+        private boolean readEntry() throws IOException {
+            int read = 0;
+            while (read < entry.length) {
+                int n = entries.read(entry, read, entry.length - read);
+                if (n < 0) {
+                    return false;
+                }
+                read += n;
+            }
+            return true;
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            buffered = false;
+            ByteBuffer buffer = ByteBuffer.wrap(entry);
+            try {
+                return read(location(segment, buffer.getLong(8)), buffer.getLong(16));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() throws IOException {
+            index = indexes.size();
+            buffered = false;
+            synchronized (SegmentReader.this) {
+                iterators.remove(this);
+            }
+            if (entries != null) {
+                entries.close();
+                entries = null;
+            }
+        }
+    }
+
+    private Record read(long location, long length) throws IOException {
+        int segment = (int) (location >>> 40);
+        long offset = location & ((1L << 40) - 1);
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("record too large to read into memory: " + length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        FileChannel channel = getChannel(segment);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("segment " + segment + " ends inside a record");
+            }
+        }
+        buffer.flip();
+        if (buffer.getInt() != SegmentedOutputStreamFactory.MAGIC) {
+            throw new IOException("no record at " + offset + " in segment " + segment);
+        }
+        String path = new String(getBytes(buffer, buffer.getInt()), StandardCharsets.UTF_8);
+        Metadata metadata = SegmentedOutputStreamFactory.deserialize(getBytes(buffer, buffer.getInt()));
+        byte[] content = getBytes(buffer, (int) buffer.getLong());
+        return new Record(path, metadata, content);
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private synchronized FileChannel getChannel(int segment) throws IOException {
+        if (segments[segment] == null) {
+            Path path = dir.resolve(SegmentedOutputStreamFactory.getSegmentName(segment) +
+                    SegmentedOutputStreamFactory.SEGMENT_SUFFIX);
+            segments[segment] = FileChannel.open(path, StandardOpenOption.READ);
+        }
+        return segments[segment];
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        IOException first = null;
+        for (RecordIterator iterator : new ArrayList<>(iterators)) {
+            try {
+                iterator.close();
+            } catch (IOException e) {
+                first = first == null ? e : first;
+            }
+        }
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i] != null) {
+                try {
+                    segments[i].close();
+                } catch (IOException e) {
+                    first = first == null ? e : first;
+                }
+                segments[i] = null;
+            }
+        }
+        if (first != null) {
+            throw first;
+        }
+    }
+
+    private static long location(long segment, long offset) {
+        return (segment << 40) | offset;
+    }
+
+    private int upperBound(long fingerprint) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (fingerprints[mid] <= fingerprint) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int compare(int i, int j) {
+        if (fingerprints[i] != fingerprints[j]) {
+            return fingerprints[i] < fingerprints[j] ? -1 : 1;
+        }
+        return Long.compare(locations[i], locations[j]);
+    }
+
+    private void sort(int lo, int hi) {
+        while (lo < hi) {
+            if (hi - lo < 16) {
+                for (int i = lo + 1; i <= hi; i++) {
+                    for (int j = i; j > lo && compare(j - 1, j) > 0; j--) {
+                        swap(j - 1, j);
+                    }
+                }
+                return;
+            }
+            swap((lo + hi) >>> 1, hi);
+            int store = lo;
+            for (int i = lo; i < hi; i++) {
+                if (compare(i, hi) < 0) {
+                    swap(i, store++);
+                }
+            }
+            swap(store, hi);
+            //recurse into the smaller half to bound the stack
+            if (store - lo < hi - store) {
+                sort(lo, store - 1);
+                lo = store + 1;
+            } else {
+                sort(store + 1, hi);
+                hi = store - 1;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        long f = fingerprints[i];
+        fingerprints[i] = fingerprints[j];
+        fingerprints[j] = f;
+        long l = locations[i];
+        locations[i] = locations[j];
+        locations[j] = l;
+        long n = lengths[i];
+        lengths[i] = lengths[j];
+        lengths[j] = n;
+    }
+
+    /**
+     * One input's path, metadata and content.
+     */
+    public static class Record {
+        private final String path;
+        private final Metadata metadata;
+        private final byte[] content;
+
+        Record(String path, Metadata metadata, byte[] content) {
+            this.path = path;
+            this.metadata = metadata;
+            this.content = content;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public Metadata getMetadata() {
+            return metadata;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch.fs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.tika.batch.OutputStreamFactory;
+import org.apache.tika.batch.fs.FSProperties;
+import org.apache.tika.cli.batch.Fingerprint;
+import org.apache.tika.cli.batch.LongHashSet;
+import org.apache.tika.metadata.Metadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Output sink that appends one record per input to rolling segment files
+ * instead of writing one output file per input.  Each
+ * <code>segment-NNNNN.seg</code> has a <code>segment-NNNNN.idx</code> of
+ * fixed size entries (path fingerprint, record offset, record length) that
+ * {@link SegmentReader} uses for random access by input path.
+ * <p>
+ * A record is the relative path, the metadata after the parse and the
+ * content the consumer wrote.  Content is buffered in memory up to
+ * <code>spillBytes</code> and in a temporary file beyond that, and appended
+ * when the consumer closes its stream.
+ * <p>
+ * Each record is flushed and indexed before the consumer's stream closes,
+ * so an input reported processed is always in an index; index entries are
+ * only written after the segment data they point to, so records torn by a
+ * crash are never indexed.  As with
+ * tika-batch's FSOutputStreamFactory in skip mode, inputs already in an
+ * index are skipped, and a restarted child starts a new segment.
+ */
+public class SegmentedOutputStreamFactory implements OutputStreamFactory, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentedOutputStreamFactory.class);
+
+    static final int MAGIC = 0x54534547; //TSEG
+    static final String SEGMENT_PREFIX = "segment-";
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final String INDEX_SUFFIX = ".idx";
+    static final int INDEX_ENTRY_BYTES = 24;
+
+    public static final long DEFAULT_SEGMENT_BYTES = 256L * 1024 * 1024;
+    public static final int DEFAULT_SPILL_BYTES = 8 * 1024 * 1024;
+
+    private final Path outputDir;
+    private final long segmentBytes;
+    private final int spillBytes;
+    private final LongHashSet existing;
+
+    private int nextSegment;
+    private DataOutputStream segmentOut;
+    private OutputStream indexOut;
+    private long position;
+    private final ByteArrayOutputStream pendingIndex = new ByteArrayOutputStream();
+    private long records;
+    private boolean closed = false;
+
+    public SegmentedOutputStreamFactory(Path outputDir, long segmentBytes, int spillBytes)
+            throws IOException {
+        this.outputDir = outputDir;
+        this.segmentBytes = segmentBytes;
+        this.spillBytes = spillBytes;
+        Files.createDirectories(outputDir);
+        this.existing = new LongHashSet();
+        int last = -1;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(outputDir, SEGMENT_PREFIX + "*")) {
+            //a crash can leave a segment without its index
+            for (Path p : ds) {
+                last = Math.max(last, getSegmentNumber(p));
+            }
+        }
+        for (Path index : listIndexes(outputDir)) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(index)))) {
+                while (true) {
+                    long fingerprint;
+                    try {
+                        fingerprint = in.readLong();
+                        in.readLong();
+                        in.readLong();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    existing.add(fingerprint);
+                }
+            }
+        }
+        this.nextSegment = last + 1;
+        if (existing.size() > 0) {
+            LOG.info("Found " + existing.size() + " records in existing segments in " + outputDir);
+        }
+    }
+
+    /**
+     * @return null if the input is already in a segment
+     */
+    @Override
+    public OutputStream getOutputStream(Metadata metadata) throws IOException {
+        String path = metadata.get(FSProperties.FS_REL_PATH);
+        if (path == null) {
+            throw new IOException("segmented output needs the input's relative path");
+        }
+        synchronized (this) {
+            if (existing.contains(Fingerprint.ofPath(path))) {
+                return null;
+            }
+        }
+        return new RecordOutputStream(path, metadata);
+    }
+
+    synchronized void append(String path, Metadata metadata, RecordOutputStream content)
+            throws IOException {
+        if (closed) {
+            throw new IOException("segmented output is closed");
+        }
+        if (segmentOut == null) {
+            openSegment();
+        }
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        byte[] metadataBytes = serialize(metadata);
+        long offset = position;
+        segmentOut.writeInt(MAGIC);
+        segmentOut.writeInt(pathBytes.length);
+        segmentOut.write(pathBytes);
+        segmentOut.writeInt(metadataBytes.length);
+        segmentOut.write(metadataBytes);
+        segmentOut.writeLong(content.length);
+        content.writeTo(segmentOut);
+        long length = 4 + 4 + pathBytes.length + 4 + metadataBytes.length + 8 + content.length;
+        position += length;
+
+        DataOutputStream entry = new DataOutputStream(pendingIndex);
+        entry.writeLong(Fingerprint.ofPath(path));
+        entry.writeLong(offset);
+        entry.writeLong(length);
+        existing.add(Fingerprint.ofPath(path));
+        records++;
+        if (position >= segmentBytes) {
+            closeSegment();
+        } else {
+            flush();
+        }
+    }
+
+    /**
+     * Flushes the segment and then the index entries that point into it.
+     */
+    private void flush() throws IOException {
+        segmentOut.flush();
+        pendingIndex.writeTo(indexOut);
+        indexOut.flush();
+        pendingIndex.reset();
+    }
+
+    private void openSegment() throws IOException {
+        String name = getSegmentName(nextSegment++);
+        Path segment = outputDir.resolve(name + SEGMENT_SUFFIX);
+        segmentOut = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(segment, StandardOpenOption.CREATE_NEW), 64 * 1024));
+        indexOut = Files.newOutputStream(outputDir.resolve(name + INDEX_SUFFIX), StandardOpenOption.CREATE_NEW);
+        position = 0;
+        LOG.debug("Opened segment " + segment);
+    }
+
+    private void closeSegment() throws IOException {
+        if (segmentOut == null) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            segmentOut.close();
+            indexOut.close();
+            segmentOut = null;
+            indexOut = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        closeSegment();
+        LOG.info("Wrote " + records + " records to segments in " + outputDir);
+    }
+
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    static String getSegmentName(int segment) {
+        return SEGMENT_PREFIX + String.format(Locale.ROOT, "%05d", segment);
+    }
+
+    /**
+     * @return the segment number or -1 if this isn't a segment or index file
+     */
+    static int getSegmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (!name.startsWith(SEGMENT_PREFIX) || dot < SEGMENT_PREFIX.length()) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), dot));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the index files in the directory, in segment order
+     */
+    static List<Path> listIndexes(Path dir) throws IOException {
+        List<Path> indexes = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return indexes;
+        }
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + INDEX_SUFFIX)) {
+            for (Path p : ds) {
+                if (getSegmentNumber(p) >= 0) {
+                    indexes.add(p);
+                }
+            }
+        }
+        Collections.sort(indexes, new Comparator<Path>() {
+            @Override
+            public int compare(Path o1, Path o2) {
+                return Integer.compare(getSegmentNumber(o1), getSegmentNumber(o2));
+            }
+        });
+        return indexes;
+    }
+
+    /**
+     * Writes each metadata name with the number of its values followed by
+     * the values, all strings as int length plus UTF-8.
+     */
+    static byte[] serialize(Metadata metadata) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        String[] names = metadata.names();
+        out.writeInt(names.length);
+        for (String name : names) {
+            writeString(name, out);
+            String[] values = metadata.getValues(name);
+            out.writeInt(values.length);
+            for (String value : values) {
+                writeString(value, out);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static Metadata deserialize(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        Metadata metadata = new Metadata();
+        int names = in.readInt();
+        for (int i = 0; i < names; i++) {
+            String name = readString(in);
+            int values = in.readInt();
+            for (int j = 0; j < values; j++) {
+                metadata.add(name, readString(in));
+            }
+        }
+        return metadata;
+    }
+
+    private static void writeString(String s, DataOutputStream out) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Buffers one input's content and appends the record when closed.
+     */
+    class RecordOutputStream extends OutputStream {
+
+        private final String path;
+        private final Metadata metadata;
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private Path spillFile;
+        private OutputStream spill;
+        private long length = 0;
+        private boolean recordClosed = false;
+
+        RecordOutputStream(String path, Metadata metadata) {
+            this.path = path;
+            this.metadata = metadata;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target(1).write(b);
+            length++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target(len).write(b, off, len);
+            length += len;
+        }
+
+        private OutputStream target(int len) throws IOException {
+            if (spill == null && length + len > spillBytes) {
+                spillFile = Files.createTempFile(outputDir, ".record-", ".tmp");
+                spill = new BufferedOutputStream(Files.newOutputStream(spillFile));
+                buffer.writeTo(spill);
+                buffer = null;
+            }
+            return spill == null ? buffer : spill;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            if (spill == null) {
+                buffer.writeTo(out);
+                return;
+            }
+            try (InputStream in = Files.newInputStream(spillFile)) {
+                byte[] chunk = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(chunk)) != -1) {
+                    out.write(chunk, 0, n);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (recordClosed) {
+                return;
+            }
+            recordClosed = true;
+            try {
+                if (spill != null) {
+                    spill.close();
+                }
+                append(path, metadata, this);
+            } finally {
+                if (spillFile != null) {
+                    Files.deleteIfExists(spillFile);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch.fs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.FileResourceConsumer;
+import org.apache.tika.batch.OutputStreamFactory;
+import org.apache.tika.batch.ParserFactory;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.extractor.EmbeddedDocumentExtractor;
+import org.apache.tika.extractor.ParsingEmbeddedDocumentExtractor;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.serialization.JsonMetadataList;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.parser.RecursiveParserWrapper;
+import org.apache.tika.sax.ContentHandlerFactory;
+import org.apache.tika.sax.TeeContentHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * Parses each resource once and writes it to several outputs, each with
+ * its own {@link OutputStreamFactory}, in the way TikaGUI feeds one parse
+ * into its xml, html and text views through a {@link TeeContentHandler}.
+ * <p>
+ * A {@link Output#json(OutputStreamFactory) json} output writes the
+ * metadata list of the container and every embedded document, as
+ * {@link RecursiveParserWrapper} does, but from the same parse: the
+ * embedded documents are recorded as the parse reaches them.  Unlike the
+ * wrapper's, a container's content includes its embedded documents' text,
+ * as it does in the other outputs.
+ * <p>
+ * An output that already exists is skipped on its own, so a restarted
+ * child only writes the outputs it hadn't finished.
+ */
+public class TeeFSConsumer extends FileResourceConsumer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TeeFSConsumer.class);
+
+    private final Parser parser;
+    private final boolean parseRecursively;
+    private final ContentHandlerFactory contentHandlerFactory;
+    private final List<Output> outputs;
+
+    /**
+     * @param contentHandlerFactory builds the handlers for the content of
+     *                              the json output's documents
+     */
+    public TeeFSConsumer(ArrayBlockingQueue<FileResource> queue, ParserFactory parserFactory,
+                         ContentHandlerFactory contentHandlerFactory, List<Output> outputs, TikaConfig config) {
+        super(queue);
+        this.parser = parserFactory.getParser(config);
+        this.parseRecursively = parserFactory.getParseRecursively();
+        this.contentHandlerFactory = contentHandlerFactory;
+        this.outputs = outputs;
+    }
+
+    @Override
+    public boolean processFileResource(FileResource fileResource) {
+        Metadata metadata = fileResource.getMetadata();
+        List<OutputStream> streams = new ArrayList<>();
+        List<ContentHandler> handlers = new ArrayList<>();
+        OutputStream jsonStream = null;
+        try {
+            for (Output output : outputs) {
+                OutputStream os = output.outputStreamFactory.getOutputStream(metadata);
+                if (os == null) {
+                    //as in tika-batch, an existing output is skipped
+                    continue;
+                }
+                streams.add(os);
+                if (output.contentHandlerFactory == null) {
+                    jsonStream = os;
+                } else {
+                    handlers.add(output.contentHandlerFactory.getNewContentHandler(os, UTF_8.name()));
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Couldn't open the outputs for " + fileResource.getResourceId(), e);
+            incrementHandledExceptions();
+            closeAll(streams);
+            return false;
+        }
+        if (streams.isEmpty()) {
+            LOG.debug("Skipping: " + fileResource.getResourceId());
+            return false;
+        }
+
+        ParseContext context = new ParseContext();
+        EmbeddedRecorder recorder = null;
+        if (jsonStream != null) {
+            //the metadata list needs the embedded documents, as with -J
+            context.set(Parser.class, parser);
+            recorder = new EmbeddedRecorder(context, contentHandlerFactory);
+            context.set(EmbeddedDocumentExtractor.class, recorder);
+            handlers.add(recorder.containerHandler);
+        } else if (parseRecursively) {
+            context.set(Parser.class, parser);
+        }
+        ContentHandler handler = handlers.size() == 1 ? handlers.get(0) :
+                new TeeContentHandler(handlers.toArray(new ContentHandler[handlers.size()]));
+
+        Throwable thrown = null;
+        try {
+            InputStream is = TikaInputStream.get(fileResource.openInputStream());
+            parse(fileResource.getResourceId(), parser, is, handler, metadata, context);
+        } catch (Error t) {
+            closeAll(streams);
+            throw t;
+        } catch (Throwable t) {
+            thrown = t;
+        }
+        try {
+            if (recorder != null) {
+                writeJson(recorder.getMetadataList(metadata), jsonStream);
+            }
+        } catch (IOException | TikaException e) {
+            LOG.warn("Couldn't write the metadata list for " + fileResource.getResourceId(), e);
+            incrementHandledExceptions();
+            thrown = e;
+        } finally {
+            closeAll(streams);
+        }
+        return thrown == null;
+    }
+
+    private static void writeJson(List<Metadata> metadataList, OutputStream os) throws IOException, TikaException {
+        Writer writer = new OutputStreamWriter(os, UTF_8);
+        JsonMetadataList.toJson(metadataList, writer);
+        writer.flush();
+    }
+
+    private void closeAll(List<OutputStream> streams) {
+        for (OutputStream os : streams) {
+            flushAndClose(os);
+        }
+    }
+
+    /**
+     * One of the consumer's outputs
+     */
+    public static class Output {
+
+        private final OutputStreamFactory outputStreamFactory;
+        //null for the metadata list
+        private final ContentHandlerFactory contentHandlerFactory;
+
+        private Output(OutputStreamFactory outputStreamFactory, ContentHandlerFactory contentHandlerFactory) {
+            this.outputStreamFactory = outputStreamFactory;
+            this.contentHandlerFactory = contentHandlerFactory;
+        }
+
+        /**
+         * @return an output written by a handler from the factory, as
+         * BasicTikaFSConsumer writes it
+         */
+        public static Output sax(OutputStreamFactory outputStreamFactory,
+                                 ContentHandlerFactory contentHandlerFactory) {
+            return new Output(outputStreamFactory, contentHandlerFactory);
+        }
+
+        /**
+         * @return an output with the json metadata list of the container
+         * and its embedded documents, as RecursiveParserWrapperFSConsumer
+         * writes it
+         */
+        public static Output json(OutputStreamFactory outputStreamFactory) {
+            return new Output(outputStreamFactory, null);
+        }
+
+        public OutputStreamFactory getOutputStreamFactory() {
+            return outputStreamFactory;
+        }
+
+        public boolean isJson() {
+            return contentHandlerFactory == null;
+        }
+    }
+
+    /**
+     * Parses embedded documents as usual, and keeps each one's metadata
+     * with its content and path for the metadata list.
+     */
+    private static class EmbeddedRecorder implements EmbeddedDocumentExtractor {
+
+        private final ParsingEmbeddedDocumentExtractor delegate;
+        private final ContentHandlerFactory contentHandlerFactory;
+        private final ContentHandler containerHandler;
+        private final long started = System.currentTimeMillis();
+        private final List<Metadata> embedded = new ArrayList<>();
+        private String path = "";
+        private int unnamed = 0;
+
+        private EmbeddedRecorder(ParseContext context, ContentHandlerFactory contentHandlerFactory) {
+            this.delegate = new ParsingEmbeddedDocumentExtractor(context);
+            this.contentHandlerFactory = contentHandlerFactory;
+            this.containerHandler = contentHandlerFactory.getNewContentHandler();
+        }
+
+        @Override
+        public boolean shouldParseEmbedded(Metadata metadata) {
+            return delegate.shouldParseEmbedded(metadata);
+        }
+
+        @Override
+        public void parseEmbedded(InputStream stream, ContentHandler handler, Metadata metadata,
+                                  boolean outputHtml) throws SAXException, IOException {
+            String name = metadata.get(Metadata.RESOURCE_NAME_KEY);
+            if (name == null || name.length() == 0) {
+                name = "embedded-" + (++unnamed);
+            }
+            String parentPath = path;
+            path = parentPath + "/" + name;
+            metadata.set(RecursiveParserWrapper.EMBEDDED_RESOURCE_PATH, path);
+            ContentHandler content = contentHandlerFactory.getNewContentHandler();
+            long start = System.currentTimeMillis();
+            try {
+                delegate.parseEmbedded(stream, new TeeContentHandler(handler, content), metadata, outputHtml);
+            } finally {
+                path = parentPath;
+                metadata.set(RecursiveParserWrapper.TIKA_CONTENT, content.toString());
+                metadata.set(RecursiveParserWrapper.PARSE_TIME_MILLIS,
+                        Long.toString(System.currentTimeMillis() - start));
+                //children finish first, as in the wrapper's list
+                embedded.add(metadata);
+            }
+        }
+
+        private List<Metadata> getMetadataList(Metadata resourceMetadata) {
+            //the resource's own metadata is left as it was
+            Metadata container = new Metadata();
+            for (String name : resourceMetadata.names()) {
+                for (String value : resourceMetadata.getValues(name)) {
+                    container.add(name, value);
+                }
+            }
+            container.set(RecursiveParserWrapper.TIKA_CONTENT, containerHandler.toString());
+            container.set(RecursiveParserWrapper.PARSE_TIME_MILLIS,
+                    Long.toString(System.currentTimeMillis() - started));
+            List<Metadata> list = new ArrayList<>(embedded.size() + 1);
+            list.add(container);
+            list.addAll(embedded);
+            return list;
+        }
+    }
+}
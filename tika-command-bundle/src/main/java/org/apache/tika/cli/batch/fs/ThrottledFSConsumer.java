@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch.fs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.FileResourceConsumer;
+import org.apache.tika.cli.batch.IoThrottle;
+import org.apache.tika.metadata.Metadata;
+
+/**
+ * Hands each resource to the delegate with its input stream paid for from
+ * an {@link IoThrottle}, so that everything the delegate reads, including
+ * a {@link CachingFSConsumer}'s digest, stays within the read budgets.
+ * <p>
+ * As with {@link org.apache.tika.cli.batch.InterceptingConsumer}, the
+ * delegate's own queue is never read.
+ */
+public class ThrottledFSConsumer extends FileResourceConsumer {
+
+    private final FileResourceConsumer delegate;
+    private final IoThrottle throttle;
+
+    public ThrottledFSConsumer(ArrayBlockingQueue<FileResource> queue, FileResourceConsumer delegate,
+                               IoThrottle throttle) {
+        super(queue);
+        this.delegate = delegate;
+        this.throttle = throttle;
+    }
+
+    @Override
+    public boolean processFileResource(FileResource fileResource) {
+        return delegate.processFileResource(new ThrottledFileResource(fileResource, throttle));
+    }
+
+    @Override
+    public int getNumHandledExceptions() {
+        return super.getNumHandledExceptions() + delegate.getNumHandledExceptions();
+    }
+
+    public FileResourceConsumer getDelegate() {
+        return delegate;
+    }
+
+    private static class ThrottledFileResource implements FileResource {
+
+        private final FileResource fileResource;
+        private final IoThrottle throttle;
+
+        private ThrottledFileResource(FileResource fileResource, IoThrottle throttle) {
+            this.fileResource = fileResource;
+            this.throttle = throttle;
+        }
+
+        @Override
+        public String getResourceId() {
+            return fileResource.getResourceId();
+        }
+
+        @Override
+        public Metadata getMetadata() {
+            return fileResource.getMetadata();
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            try {
+                throttle.acquireOp();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while throttled");
+            }
+            return throttle.throttle(fileResource.openInputStream());
+        }
+    }
+}
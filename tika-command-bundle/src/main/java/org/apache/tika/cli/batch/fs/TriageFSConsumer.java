@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch.fs;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.FileResourceConsumer;
+import org.apache.tika.batch.fs.FSProperties;
+import org.apache.tika.cli.batch.TriageManifest;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Consumer for triage runs: detects each file's media type and digests it
+ * in a single read, and adds a line to a {@link TriageManifest}.  No parser
+ * is ever called, so a triage run goes at the speed of the disk.
+ * <p>
+ * The digests are computed under the buffer that the detector marks and
+ * resets, so the bytes it looks at are only digested once.
+ */
+public class TriageFSConsumer extends FileResourceConsumer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TriageFSConsumer.class);
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final Detector detector;
+    private final TriageManifest manifest;
+    private final String[] algorithms;
+
+    /**
+     * @param algorithms JDK names of the digests, see {@link #getAlgorithms(String)}
+     */
+    public TriageFSConsumer(ArrayBlockingQueue<FileResource> queue, Detector detector,
+                            TriageManifest manifest, String[] algorithms) {
+        super(queue);
+        this.detector = detector;
+        this.manifest = manifest;
+        this.algorithms = algorithms;
+    }
+
+    /**
+     * @param digest the batch config's digest setting, e.g. "md5,sha256"; md5
+     *               if there is none, so that duplicates can be found
+     * @return the JDK names of the digests
+     */
+    public static String[] getAlgorithms(String digest) {
+        if (digest == null || digest.trim().length() == 0) {
+            return new String[]{"MD5"};
+        }
+        String[] names = digest.split(",");
+        String[] algorithms = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i].trim().toUpperCase(Locale.ROOT);
+            if (name.indexOf(':') > -1) {
+                //the encoding only matters to the parser's digester
+                name = name.substring(0, name.indexOf(':'));
+            }
+            if (name.startsWith("SHA") && !name.startsWith("SHA-")) {
+                name = "SHA-" + name.substring(3);
+            }
+            try {
+                MessageDigest.getInstance(name);
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("Unsupported digest for triage: " + names[i]);
+            }
+            algorithms[i] = name;
+        }
+        return algorithms;
+    }
+
+    @Override
+    public boolean processFileResource(FileResource fileResource) {
+        Metadata metadata = fileResource.getMetadata();
+        String relPath = metadata.get(FSProperties.FS_REL_PATH);
+        if (relPath == null) {
+            relPath = fileResource.getResourceId();
+        }
+        if (manifest.isListed(relPath)) {
+            //by the child before a restart
+            return true;
+        }
+        MessageDigest[] digests = new MessageDigest[algorithms.length];
+        try (InputStream raw = fileResource.openInputStream()) {
+            InputStream digesting = raw;
+            for (int i = 0; i < algorithms.length; i++) {
+                digests[i] = MessageDigest.getInstance(algorithms[i]);
+                digesting = new DigestInputStream(digesting, digests[i]);
+            }
+            CountingInputStream counting = new CountingInputStream(digesting);
+            InputStream is = new BufferedInputStream(counting, BUFFER_SIZE);
+            MediaType mediaType = detector.detect(is, metadata);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (is.read(buffer) != -1) {
+                //just digesting
+            }
+            String[] hex = new String[digests.length];
+            for (int i = 0; i < digests.length; i++) {
+                hex[i] = toHex(digests[i].digest());
+            }
+            manifest.add(relPath, counting.count, mediaType.toString(), hex);
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Couldn't triage " + relPath, e);
+            incrementHandledExceptions();
+            return false;
+        } catch (NoSuchAlgorithmException e) {
+            //checked in getAlgorithms
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count = 0;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
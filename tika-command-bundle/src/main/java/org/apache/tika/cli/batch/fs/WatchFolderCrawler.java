@@ -0,0 +1,338 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch.fs;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.FileResourceCrawler;
+import org.apache.tika.batch.fs.FSFileResource;
+import org.apache.tika.cli.batch.Fingerprint;
+import org.apache.tika.cli.batch.LongHashSet;
+import org.apache.tika.metadata.Metadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Crawler that doesn't finish: it adds the files already in the input
+ * directory and then keeps adding files as they land, until it is
+ * interrupted or, with {@link #setMaxIdleMillis(long)}, until nothing has
+ * landed for that long.  The consumers, output and reporter are the
+ * batch config's as for any other crawl.
+ * <p>
+ * A file is added once it is complete.  By default that is when its length
+ * and modification time have stayed the same for
+ * {@link #setSettleMillis(long)}.  With {@link #setMarkerSuffix(String)},
+ * it is when a marker file with that suffix appears beside it, e.g.
+ * <code>report.pdf.done</code>; the markers themselves are never added.
+ * <p>
+ * New files are found through a {@link WatchService} on every directory in
+ * the tree, with a full rescan every {@link #setRescanMillis(long)} in case
+ * events were lost.  Network mounts often don't deliver events, so with
+ * {@link #setPoll(boolean)} the tree is only rescanned, every
+ * {@link #setPollMillis(long)}.
+ * <p>
+ * A file is added again if it is replaced by one with a different length
+ * or modification time, with {@link #REPLACED} set in its metadata so that
+ * the {@link org.apache.tika.cli.batch.ReplacedInputInterceptor} deletes
+ * the outputs of the file it replaced, which would otherwise be skipped
+ * as done.  The fingerprints of the files added are kept in memory; a
+ * restarted child adds the files in the directory again and relies on the
+ * output factory's skipping of existing outputs, or the journal, to pass
+ * over those already done, so a file replaced while no child was running
+ * is only parsed again with <code>incremental</code> on.
+ */
+public class WatchFolderCrawler extends FileResourceCrawler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WatchFolderCrawler.class);
+
+    public static final long DEFAULT_SETTLE_MILLIS = 2000;
+    public static final long DEFAULT_POLL_MILLIS = 5000;
+    public static final long DEFAULT_RESCAN_MILLIS = 60000;
+
+    /**
+     * Set to "true" on a file that replaces one added before
+     */
+    public static final String REPLACED = "X-TIKA:watch_replaced";
+
+    //how often candidates are checked while watching for events
+    private static final long TICK_MILLIS = 500;
+
+    private final Path root;
+    private final Map<Path, Candidate> candidates = new HashMap<>();
+    private final LongHashSet added = new LongHashSet();
+    private final LongHashSet addedPaths = new LongHashSet();
+    private long settleMillis = DEFAULT_SETTLE_MILLIS;
+    private String markerSuffix;
+    private boolean poll = false;
+    private long pollMillis = DEFAULT_POLL_MILLIS;
+    private long rescanMillis = DEFAULT_RESCAN_MILLIS;
+    private long maxIdleMillis = -1;
+    private WatchService watcher;
+    private long lastLanded;
+
+    public WatchFolderCrawler(ArrayBlockingQueue<FileResource> fileQueue, int numConsumers, Path root) {
+        super(fileQueue, numConsumers);
+        this.root = root;
+        if (!Files.isDirectory(root)) {
+            throw new RuntimeException("Crawler couldn't find this directory:" + root.toAbsolutePath());
+        }
+    }
+
+    @Override
+    public void start() throws InterruptedException {
+        if (!poll) {
+            try {
+                watcher = root.getFileSystem().newWatchService();
+            } catch (IOException | UnsupportedOperationException e) {
+                LOG.warn("Can't watch " + root + " for events; polling every " + pollMillis + " ms", e);
+            }
+        }
+        LOG.info("Watching " + root.toAbsolutePath() + (watcher == null ? " by polling" : ""));
+        lastLanded = System.currentTimeMillis();
+        try {
+            long lastScan = 0;
+            while (true) {
+                long now = System.currentTimeMillis();
+                if (now - lastScan >= (watcher == null ? pollMillis : rescanMillis)) {
+                    //registers the directories as it goes
+                    scan(root);
+                    lastScan = now;
+                }
+                if (!addComplete()) {
+                    return;
+                }
+                if (maxIdleMillis > -1 && candidates.isEmpty()
+                        && System.currentTimeMillis() - lastLanded > maxIdleMillis) {
+                    LOG.info("Nothing new in " + root + " for " + maxIdleMillis + " ms; stopping");
+                    return;
+                }
+                if (watcher == null) {
+                    Thread.sleep(Math.min(pollMillis, settleMillis));
+                } else {
+                    takeEvents();
+                }
+            }
+        } finally {
+            if (watcher != null) {
+                try {
+                    watcher.close();
+                } catch (IOException e) {
+                    LOG.debug("Couldn't close the watch service", e);
+                }
+            }
+        }
+    }
+
+    private void takeEvents() throws InterruptedException {
+        WatchKey key = watcher.poll(TICK_MILLIS, TimeUnit.MILLISECONDS);
+        while (key != null) {
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    LOG.debug("Watch events were lost; rescanning " + root);
+                    scan(root);
+                    continue;
+                }
+                Path p = dir.resolve((Path) event.context());
+                if (Files.isDirectory(p)) {
+                    //files may have landed before it was registered
+                    scan(p);
+                } else {
+                    consider(p);
+                }
+            }
+            key.reset();
+            key = watcher.poll();
+        }
+    }
+
+    /**
+     * Notes every file in the tree that hasn't been added, and registers
+     * the directories with the watcher
+     */
+    private void scan(Path directory) throws InterruptedException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException("watch crawler interrupted");
+        }
+        if (watcher != null) {
+            try {
+                directory.register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+            } catch (IOException e) {
+                LOG.warn("Couldn't watch " + directory + "; it will only be rescanned", e);
+            }
+        }
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory)) {
+            for (Path p : ds) {
+                if (Files.isDirectory(p)) {
+                    scan(p);
+                } else {
+                    consider(p);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Couldn't list " + directory.toAbsolutePath() + ": " + e.getMessage());
+        }
+    }
+
+    private void consider(Path p) {
+        if (markerSuffix != null && p.getFileName().toString().endsWith(markerSuffix)) {
+            Path document = p.resolveSibling(p.getFileName().toString()
+                    .substring(0, p.getFileName().toString().length() - markerSuffix.length()));
+            p = document;
+        }
+        if (!candidates.containsKey(p)) {
+            candidates.put(p, null);
+        }
+    }
+
+    /**
+     * @return false if the crawler should stop
+     */
+    private boolean addComplete() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, Candidate>> it = candidates.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Candidate> e = it.next();
+            Path p = e.getKey();
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(p, BasicFileAttributes.class);
+            } catch (NoSuchFileException ex) {
+                //moved away, or a marker without its file
+                it.remove();
+                continue;
+            } catch (IOException ex) {
+                LOG.warn("Couldn't stat " + p + ": " + ex.getMessage());
+                it.remove();
+                continue;
+            }
+            String relPath = root.relativize(p).toString();
+            long fingerprint = Fingerprint.of(relPath, attrs.size(), attrs.lastModifiedTime().toMillis(), null);
+            if (added.contains(fingerprint)) {
+                it.remove();
+                continue;
+            }
+            Candidate previous = e.getValue();
+            Candidate current = new Candidate(attrs.size(), attrs.lastModifiedTime().toMillis(), now);
+            boolean complete;
+            if (markerSuffix != null) {
+                complete = Files.exists(p.resolveSibling(p.getFileName() + markerSuffix));
+            } else {
+                complete = previous != null && previous.sameAs(current) && now - previous.since >= settleMillis;
+            }
+            if (!complete) {
+                if (previous == null || !previous.sameAs(current)) {
+                    e.setValue(current);
+                }
+                continue;
+            }
+            it.remove();
+            added.add(fingerprint);
+            boolean replaced = !addedPaths.add(Fingerprint.ofPath(relPath));
+            lastLanded = now;
+            FSFileResource resource = new FSFileResource(root, p);
+            resource.getMetadata().set(Metadata.CONTENT_LENGTH, Long.toString(attrs.size()));
+            if (replaced) {
+                resource.getMetadata().set(REPLACED, Boolean.TRUE.toString());
+            }
+            if (tryToAdd(resource) == FileResourceCrawler.STOP_NOW) {
+                LOG.debug("crawler has hit a limit: " + p.toAbsolutePath());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param settleMillis how long a file's length and modification time
+     *                     must stay the same before it's taken as complete
+     */
+    public void setSettleMillis(long settleMillis) {
+        this.settleMillis = settleMillis;
+    }
+
+    /**
+     * @param markerSuffix a file is complete once the file with its name plus
+     *                     this suffix exists, e.g. ".done"; null to wait for
+     *                     the file to settle instead
+     */
+    public void setMarkerSuffix(String markerSuffix) {
+        this.markerSuffix = markerSuffix;
+    }
+
+    /**
+     * @param poll rescan the tree instead of watching for events
+     */
+    public void setPoll(boolean poll) {
+        this.poll = poll;
+    }
+
+    public void setPollMillis(long pollMillis) {
+        this.pollMillis = pollMillis;
+    }
+
+    /**
+     * @param rescanMillis interval between full rescans while watching for events
+     */
+    public void setRescanMillis(long rescanMillis) {
+        this.rescanMillis = rescanMillis;
+    }
+
+    /**
+     * @param maxIdleMillis stop once no file has landed for this long; -1 to
+     *                      watch until interrupted
+     */
+    public void setMaxIdleMillis(long maxIdleMillis) {
+        this.maxIdleMillis = maxIdleMillis;
+    }
+
+    private static class Candidate {
+        private final long size;
+        private final long lastModified;
+        private final long since;
+
+        private Candidate(long size, long lastModified, long since) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.since = since;
+        }
+
+        private boolean sameAs(Candidate other) {
+            return size == other.size && lastModified == other.lastModified;
+        }
+    }
+}
@@ -0,0 +1,530 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch.fs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tika.batch.OutputStreamFactory;
+import org.apache.tika.batch.fs.FSProperties;
+import org.apache.tika.cli.batch.TimeoutAllowance;
+import org.apache.tika.metadata.Metadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Takes output writes off the parsing threads.  A consumer's stream fills
+ * pooled buffers, and when the consumer closes it the buffers are handed
+ * to a few writer threads that write them through the delegate's stream,
+ * so a slow output filesystem doesn't stall the parse.
+ * <p>
+ * The pool is bounded by <code>budgetBytes</code>.  A consumer that needs
+ * a buffer while the whole budget is queued for the writers waits for
+ * them.  If the budget is instead held by documents still being written
+ * by consumers, waiting wouldn't free anything, so the document that ran
+ * out writes what it has buffered and the rest of its output through the
+ * delegate's stream on its own thread.
+ * <p>
+ * With {@link #setOutputs(Path, String)}, an existing output is skipped
+ * as the delegate would skip it, and the delegate's stream is opened only
+ * when the output is written, under a temporary name that is moved into
+ * place once the whole output is written.  An output whose child died
+ * before it was written is then missing rather than empty or cut short,
+ * and is written again when its input is.  {@link #setSync(boolean)} has
+ * the writers fsync the files they wrote in groups, once their queue is
+ * empty or every {@value #SYNC_GROUP} files.
+ * <p>
+ * Otherwise the delegate's stream is opened when the consumer asks for it,
+ * and an output cut short by the child's death stays as it is.
+ * <p>
+ * Outputs still queued when the child dies are lost, even though the
+ * consumer reported them processed; at most <code>budgetBytes</code> of
+ * them.  With {@link #setPendingOutputs(PendingOutputs)}, the journal
+ * records an input as done only once its outputs are written, so a
+ * restarted child processes such inputs again.  Write failures on the
+ * writer threads are logged and counted.
+ * <p>
+ * A consumer waiting for a buffer is in the middle of its parse; the wait
+ * is a {@link TimeoutAllowance}, left out of the batch's timeout.
+ */
+public class WriteBehindOutputStreamFactory implements OutputStreamFactory, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindOutputStreamFactory.class);
+
+    public static final long DEFAULT_BUDGET_BYTES = 256L * 1024 * 1024;
+    public static final int DEFAULT_THREADS = 2;
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    //appended to the relative path of an output being written
+    static final String TMP_SUFFIX = ".write-behind";
+    private static final int SYNC_GROUP = 64;
+    private static final long POLL_MILLIS = 100;
+
+    private final OutputStreamFactory delegate;
+    private final int maxBuffers;
+    private final BlockingQueue<PendingOutputStream> queue = new LinkedBlockingQueue<>();
+    private final List<Thread> writers = new ArrayList<>();
+    private Path outputDir;
+    private String suffix;
+    private boolean sync = false;
+    private PendingOutputs pendingOutputs;
+
+    private final Object lock = new Object();
+    private final Deque<byte[]> free = new ArrayDeque<>();
+    private int allocated = 0;
+    private int queuedBuffers = 0;
+    private volatile boolean closed = false;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong writtenThrough = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    /**
+     * @param budgetBytes memory for buffered output, shared by all consumers
+     * @param threads     number of writer threads
+     */
+    public WriteBehindOutputStreamFactory(OutputStreamFactory delegate, long budgetBytes, int threads) {
+        this.delegate = delegate;
+        this.maxBuffers = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budgetBytes / BUFFER_SIZE));
+        for (int i = 0; i < Math.max(1, threads); i++) {
+            Thread t = new Thread(new Writer(), "write-behind-" + (i + 1));
+            t.setDaemon(true);
+            t.start();
+            writers.add(t);
+        }
+    }
+
+    /**
+     * Where the delegate writes a file per input, so that outputs can be
+     * written under a temporary name and moved into place
+     *
+     * @param outputDir the delegate's output directory
+     * @param suffix    the delegate's suffix, as tika-batch's FSUtil appends it
+     */
+    public void setOutputs(Path outputDir, String suffix) {
+        this.outputDir = outputDir;
+        this.suffix = suffix;
+    }
+
+    /**
+     * fsync each output after it is written; needs {@link #setOutputs(Path, String)}
+     */
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    /**
+     * @param pendingOutputs told about each output until it is written
+     */
+    public void setPendingOutputs(PendingOutputs pendingOutputs) {
+        this.pendingOutputs = pendingOutputs;
+    }
+
+    /**
+     * @return null if the delegate skips this output
+     */
+    @Override
+    public OutputStream getOutputStream(Metadata metadata) throws IOException {
+        if (closed) {
+            throw new IOException("write-behind output is closed");
+        }
+        String relPath = metadata.get(FSProperties.FS_REL_PATH);
+        if (outputDir == null || relPath == null) {
+            OutputStream os = delegate.getOutputStream(metadata);
+            if (os == null) {
+                return null;
+            }
+            return new PendingOutputStream(os, relPath, null, null);
+        }
+        Path output = OutputFiles.resolve(outputDir, suffix, relPath);
+        if (Files.exists(output)) {
+            return null;
+        }
+        String tmpRelPath = relPath + TMP_SUFFIX;
+        //left by a child that died while writing it
+        Files.deleteIfExists(OutputFiles.resolve(outputDir, suffix, tmpRelPath));
+        return new PendingOutputStream(null, relPath, OutputFiles.withRelPath(metadata, tmpRelPath), output);
+    }
+
+    /**
+     * @return outputs written by the writer threads
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return outputs that ran out of budget and were written on their consumer's thread
+     */
+    public long getWrittenThrough() {
+        return writtenThrough.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
+    }
+
+    /**
+     * Waits for the writers to finish what is queued, then closes the delegate
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        for (Thread t : writers) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.warn("Interrupted with " + queue.size() + " outputs still queued");
+                break;
+            }
+        }
+        if (failures.get() > 0) {
+            LOG.warn(failures.get() + " outputs couldn't be written");
+        }
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+
+    /**
+     * @return a buffer, or null if none will be freed by the writers
+     */
+    private byte[] acquire() throws InterruptedIOException {
+        synchronized (lock) {
+            long start = 0;
+            try {
+                while (true) {
+                    if (!free.isEmpty()) {
+                        return free.pop();
+                    }
+                    if (allocated < maxBuffers) {
+                        allocated++;
+                        return new byte[BUFFER_SIZE];
+                    }
+                    if (queuedBuffers == 0) {
+                        return null;
+                    }
+                    if (start == 0) {
+                        start = System.nanoTime();
+                    }
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for the output budget");
+            } finally {
+                if (start > 0) {
+                    long waited = System.nanoTime() - start;
+                    waitNanos.addAndGet(waited);
+                    TimeoutAllowance.waited(waited);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param queued whether the buffer was counted as queued for the writers
+     */
+    private void release(byte[] buffer, boolean queued) {
+        synchronized (lock) {
+            free.push(buffer);
+            if (queued) {
+                queuedBuffers--;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    private void enqueue(PendingOutputStream pending) {
+        synchronized (lock) {
+            queuedBuffers += pending.buffers.size();
+        }
+        queue.add(pending);
+    }
+
+    private void sync(List<Path> outputs) {
+        for (Path p : outputs) {
+            try (FileChannel channel = FileChannel.open(p, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            } catch (IOException e) {
+                LOG.warn("Couldn't sync " + p, e);
+            }
+        }
+        outputs.clear();
+    }
+
+    private class Writer implements Runnable {
+
+        private final List<Path> unsynced = new ArrayList<>();
+
+        @Override
+        public void run() {
+            while (true) {
+                PendingOutputStream pending;
+                try {
+                    pending = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (pending == null) {
+                    if (!unsynced.isEmpty()) {
+                        sync(unsynced);
+                    }
+                    if (closed && queue.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+                if (pending.writeBehind() && sync && pending.output != null) {
+                    unsynced.add(pending.output);
+                    if (unsynced.size() >= SYNC_GROUP || queue.isEmpty()) {
+                        sync(unsynced);
+                    }
+                }
+            }
+        }
+    }
+
+    private class PendingOutputStream extends OutputStream {
+
+        private OutputStream target;
+        private final String relPath;
+        //the delegate's metadata for the temporary output, null if the target is open
+        private final Metadata tmpMetadata;
+        //where the temporary output is moved, null if the target is written in place
+        private final Path output;
+        private final List<byte[]> buffers = new ArrayList<>();
+        private int position = BUFFER_SIZE;
+        private boolean through = false;
+        private boolean failed = false;
+        private boolean pendingClosed = false;
+        private boolean reported = false;
+
+        private PendingOutputStream(OutputStream target, String relPath, Metadata tmpMetadata, Path output) {
+            this.target = target;
+            this.relPath = relPath;
+            this.tmpMetadata = tmpMetadata;
+            this.output = output;
+            if (pendingOutputs != null && relPath != null) {
+                pendingOutputs.opened(relPath);
+            }
+        }
+
+        private void report(boolean success) {
+            if (!reported && pendingOutputs != null && relPath != null) {
+                reported = true;
+                pendingOutputs.written(relPath, success);
+            }
+        }
+
+        private OutputStream target() throws IOException {
+            if (target == null) {
+                target = delegate.getOutputStream(tmpMetadata);
+                if (target == null) {
+                    throw new IOException("the delegate skipped the temporary output for " + relPath);
+                }
+            }
+            return target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0 && !through) {
+                if (position == BUFFER_SIZE) {
+                    byte[] buffer = acquire();
+                    if (buffer == null) {
+                        writeThrough();
+                        break;
+                    }
+                    buffers.add(buffer);
+                    position = 0;
+                }
+                int n = Math.min(len, BUFFER_SIZE - position);
+                System.arraycopy(b, off, buffers.get(buffers.size() - 1), position, n);
+                position += n;
+                off += n;
+                len -= n;
+            }
+            if (len > 0) {
+                try {
+                    target().write(b, off, len);
+                } catch (IOException e) {
+                    abort();
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (through && !failed) {
+                target().flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (pendingClosed) {
+                return;
+            }
+            pendingClosed = true;
+            if (failed) {
+                report(false);
+                return;
+            }
+            if (through) {
+                try {
+                    commit();
+                } catch (IOException e) {
+                    report(false);
+                    throw e;
+                }
+                report(true);
+                writtenThrough.incrementAndGet();
+                if (sync && output != null) {
+                    List<Path> one = new ArrayList<>();
+                    one.add(output);
+                    sync(one);
+                }
+                return;
+            }
+            enqueue(this);
+        }
+
+        //on the consumer's thread, when the budget is held by open documents
+        private void writeThrough() throws IOException {
+            through = true;
+            try {
+                drain(false);
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+        }
+
+        /**
+         * Closes the target and moves it into place
+         */
+        private void commit() throws IOException {
+            try {
+                //opened here if nothing was written
+                target().close();
+                if (output != null) {
+                    Files.move(OutputFiles.resolve(outputDir, suffix, relPath + TMP_SUFFIX), output,
+                            StandardCopyOption.ATOMIC_MOVE);
+                }
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+        }
+
+        /**
+         * Closes the target and deletes it if it was temporary
+         */
+        private void abort() {
+            failed = true;
+            if (target != null) {
+                try {
+                    target.close();
+                } catch (IOException e) {
+                    //failed already
+                }
+            }
+            if (output != null) {
+                try {
+                    Files.deleteIfExists(OutputFiles.resolve(outputDir, suffix, relPath + TMP_SUFFIX));
+                } catch (IOException e) {
+                    LOG.warn("Couldn't delete the temporary output for " + relPath, e);
+                }
+            }
+        }
+
+        /**
+         * Writes and frees the buffers
+         */
+        private void drain(boolean queued) throws IOException {
+            IOException thrown = null;
+            for (int i = 0; i < buffers.size(); i++) {
+                byte[] buffer = buffers.get(i);
+                if (thrown == null) {
+                    try {
+                        target().write(buffer, 0, i == buffers.size() - 1 ? position : BUFFER_SIZE);
+                    } catch (IOException e) {
+                        thrown = e;
+                    }
+                }
+                release(buffer, queued);
+            }
+            buffers.clear();
+            if (thrown != null) {
+                throw thrown;
+            }
+        }
+
+        /**
+         * @return true if the output was written
+         */
+        private boolean writeBehind() {
+            try {
+                try {
+                    drain(true);
+                } catch (IOException e) {
+                    abort();
+                    throw e;
+                }
+                commit();
+                written.incrementAndGet();
+                report(true);
+                return true;
+            } catch (IOException e) {
+                failures.incrementAndGet();
+                LOG.error("Couldn't write the output for " + relPath, e);
+                report(false);
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.process;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registers MBeans with the platform MBean server, where
+ * <code>jconsole</code> and <code>jcmd</code> can see them.  Failing to
+ * register is logged and otherwise ignored.
+ */
+public final class JmxSupport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JmxSupport.class);
+
+    public static final String DOMAIN = "org.apache.tika";
+
+    private JmxSupport() {
+    }
+
+    /**
+     * Registers the bean as <code>org.apache.tika:type=&lt;type&gt;</code>,
+     * replacing any bean already registered under that name.
+     *
+     * @return closing this unregisters the bean
+     */
+    public static Closeable register(Object bean, String type) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name;
+        try {
+            name = new ObjectName(DOMAIN, "type", type);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(bean, name);
+        } catch (JMException e) {
+            LOG.warn("Couldn't register " + type + " MBean", e);
+            return new Closeable() {
+                @Override
+                public void close() {
+                }
+            };
+        }
+        return new Closeable() {
+            @Override
+            public void close() {
+                try {
+                    if (server.isRegistered(name)) {
+                        server.unregisterMBean(name);
+                    }
+                } catch (JMException e) {
+                    LOG.debug("Couldn't unregister " + name, e);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.process;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Reads the resident set size, cpu time and number of open file descriptors
+ * of a process from the Linux <code>/proc</code> filesystem.
+ * <p>
+ * On platforms without <code>/proc</code>, {@link #isSupported()} returns false
+ * and {@link #sample()} returns a usage with every value set to -1.
+ */
+public class ProcResourceSampler {
+
+    private static final Path PROC = Paths.get("/proc");
+
+    /**
+     * USER_HZ, the unit of utime and stime in <code>/proc/&lt;pid&gt;/stat</code>.
+     * The JDK can't read sysconf(_SC_CLK_TCK), so this assumes the 100 that
+     * the kernel reports to user space on every mainstream architecture
+     * and configuration, whatever its internal HZ.  On a kernel built with
+     * another USER_HZ, cpu times and percentages are off by that ratio.
+     */
+    private static final long CLOCK_TICKS_PER_SECOND = 100;
+
+    private final Path procDir;
+
+    private ProcResourceSampler(String pid) {
+        this.procDir = PROC.resolve(pid);
+    }
+
+    /**
+     * @return sampler for the current JVM
+     */
+    public static ProcResourceSampler forSelf() {
+        return new ProcResourceSampler("self");
+    }
+
+    /**
+     * @return sampler for the given child process or <code>null</code> if its
+     * pid can't be determined
+     */
+    public static ProcResourceSampler forProcess(Process process) {
+        long pid = getPid(process);
+        if (pid < 0) {
+            return null;
+        }
+        return new ProcResourceSampler(Long.toString(pid));
+    }
+
+    public static boolean isSupported() {
+        return Files.isDirectory(PROC.resolve("self"));
+    }
+
+    public ResourceUsage sample() {
+        return new ResourceUsage(System.currentTimeMillis(), readRss(), readCpuMillis(), countOpenFiles());
+    }
+
+    private long readRss() {
+        try {
+            List<String> lines = Files.readAllLines(procDir.resolve("status"), US_ASCII);
+            for (String line : lines) {
+                if (line.startsWith("VmRSS:")) {
+                    String[] parts = line.substring("VmRSS:".length()).trim().split("\\s+");
+                    return Long.parseLong(parts[0]) * 1024;
+                }
+            }
+        } catch (IOException|NumberFormatException e) {
+            //process went away or this isn't Linux
+        }
+        return -1;
+    }
+
+    private long readCpuMillis() {
+        try {
+            String stat = new String(Files.readAllBytes(procDir.resolve("stat")), US_ASCII);
+            //the command name may contain spaces, so start after its closing paren
+            int end = stat.lastIndexOf(')');
+            if (end < 0) {
+                return -1;
+            }
+            String[] fields = stat.substring(end + 1).trim().split("\\s+");
+            //fields[0] is field 3 (state); utime and stime are fields 14 and 15
+            long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+            return ticks * 1000 / CLOCK_TICKS_PER_SECOND;
+        } catch (IOException|RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private int countOpenFiles() {
+        int count = 0;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(procDir.resolve("fd"))) {
+            for (Path p : ds) {
+                count++;
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+        return count;
+    }
+
+    /**
+     * Best effort lookup of a child's pid.  Uses Process.pid() when running
+     * on Java 9 or later and the private pid field of the unix implementation
+     * otherwise.
+     *
+     * @return pid or -1 if unknown
+     */
+    static long getPid(Process process) {
+        try {
+            Method m = Process.class.getMethod("pid");
+            return ((Number) m.invoke(process)).longValue();
+        } catch (Exception e) {
+            //fall through to pre Java 9 approach
+        }
+        try {
+            Field f = process.getClass().getDeclaredField("pid");
+            f.setAccessible(true);
+            return f.getLong(process);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
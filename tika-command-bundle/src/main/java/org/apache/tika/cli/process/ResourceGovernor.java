@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.process;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically samples a process with a {@link ProcResourceSampler} and
+ * applies a {@link ResourcePolicy} when the process goes over any of its limits.
+ * <p>
+ * A limit of -1 is ignored.  When throttling, intake is resumed once every
+ * value is back under 90% of its limit.
+ */
+public class ResourceGovernor implements Runnable {
+
+    /**
+     * Receives the actions decided on by the governor.
+     */
+    public interface Listener {
+        /**
+         * Called when throttling starts (<code>true</code>) and stops (<code>false</code>).
+         */
+        void throttle(boolean throttle);
+
+        /**
+         * Called when the process should be killed and restarted.
+         */
+        void restart(String reason);
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResourceGovernor.class);
+
+    private static final double RELEASE_RATIO = 0.9;
+
+    private final ProcResourceSampler sampler;
+    private final ResourcePolicy policy;
+    private final Listener listener;
+
+    private long maxRssBytes = -1;
+    private int maxOpenFiles = -1;
+    private double maxCpuPercent = -1;
+    private long sampleMillis = 1000;
+
+    private volatile boolean running = true;
+    private volatile ResourceUsage lastUsage = null;
+    private boolean throttling = false;
+
+    public ResourceGovernor(ProcResourceSampler sampler, ResourcePolicy policy, Listener listener) {
+        this.sampler = sampler;
+        this.policy = policy;
+        this.listener = listener;
+    }
+
+    @Override
+    public void run() {
+        ResourceUsage previous = null;
+        while (running) {
+            ResourceUsage usage = sampler.sample();
+            check(usage, previous);
+            previous = usage;
+            lastUsage = usage;
+            try {
+                Thread.sleep(sampleMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * @return most recent sample or <code>null</code> if none has been taken yet
+     */
+    public ResourceUsage getLastUsage() {
+        return lastUsage;
+    }
+
+    void check(ResourceUsage usage, ResourceUsage previous) {
+        String violation = getViolation(usage, previous, 1.0);
+        if (violation == null) {
+            if (throttling && getViolation(usage, previous, RELEASE_RATIO) == null) {
+                throttling = false;
+                LOG.info("Resource usage back under limits ({}); resuming intake", usage);
+                listener.throttle(false);
+            }
+            return;
+        }
+        switch (policy) {
+            case LOG:
+                LOG.warn("Process exceeded resource limit: {} ({})", violation, usage);
+                break;
+            case THROTTLE:
+                if (!throttling) {
+                    throttling = true;
+                    LOG.warn("Process exceeded resource limit: {} ({}); throttling intake", violation, usage);
+                    listener.throttle(true);
+                }
+                break;
+            case RESTART:
+                LOG.error("Process exceeded resource limit: {} ({}); restarting", violation, usage);
+                running = false;
+                listener.restart(violation);
+                break;
+        }
+    }
+
+    private String getViolation(ResourceUsage usage, ResourceUsage previous, double ratio) {
+        if (maxRssBytes > -1 && usage.getRssBytes() > maxRssBytes * ratio) {
+            return "rss " + usage.getRssBytes() + " > " + maxRssBytes;
+        }
+        if (maxOpenFiles > -1 && usage.getOpenFiles() > maxOpenFiles * ratio) {
+            return "open files " + usage.getOpenFiles() + " > " + maxOpenFiles;
+        }
+        double cpu = usage.getCpuPercentSince(previous);
+        if (maxCpuPercent > -1 && cpu > maxCpuPercent * ratio) {
+            return "cpu " + Math.round(cpu) + "% > " + Math.round(maxCpuPercent) + "%";
+        }
+        return null;
+    }
+
+    /**
+     * @return whether any limit has been set
+     */
+    public boolean hasLimits() {
+        return maxRssBytes > -1 || maxOpenFiles > -1 || maxCpuPercent > -1;
+    }
+
+    public void setMaxRssBytes(long maxRssBytes) {
+        this.maxRssBytes = maxRssBytes;
+    }
+
+    public void setMaxOpenFiles(int maxOpenFiles) {
+        this.maxOpenFiles = maxOpenFiles;
+    }
+
+    /**
+     * @param maxCpuPercent maximum cpu use as a percentage of one core, e.g. 400 for four cores
+     */
+    public void setMaxCpuPercent(double maxCpuPercent) {
+        this.maxCpuPercent = maxCpuPercent;
+    }
+
+    public void setSampleMillis(long sampleMillis) {
+        this.sampleMillis = sampleMillis;
+    }
+}
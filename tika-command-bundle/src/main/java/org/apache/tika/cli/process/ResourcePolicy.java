@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.process;
+
+import java.util.Locale;
+
+/**
+ * What a {@link ResourceGovernor} does when a child exceeds one of its limits.
+ */
+public enum ResourcePolicy {
+    /**
+     * Only log the violation
+     */
+    LOG,
+    /**
+     * Stop taking on new work until usage drops back under the limits
+     */
+    THROTTLE,
+    /**
+     * Kill the child so that its watchdog can restart it
+     */
+    RESTART;
+
+    public static ResourcePolicy parse(String s) {
+        if (s == null || s.trim().length() == 0) {
+            return LOG;
+        }
+        String v = s.trim().toLowerCase(Locale.ROOT);
+        if (v.equals("log")) {
+            return LOG;
+        } else if (v.equals("throttle")) {
+            return THROTTLE;
+        } else if (v.equals("restart") || v.equals("kill")) {
+            return RESTART;
+        }
+        throw new IllegalArgumentException("resourcePolicy must be one of log, throttle or restart: " + s);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.process;
+
+/**
+ * Point in time snapshot of the resources used by a process.
+ */
+public class ResourceUsage {
+
+    private final long timestampMillis;
+    private final long rssBytes;
+    private final long cpuMillis;
+    private final int openFiles;
+
+    public ResourceUsage(long timestampMillis, long rssBytes, long cpuMillis, int openFiles) {
+        this.timestampMillis = timestampMillis;
+        this.rssBytes = rssBytes;
+        this.cpuMillis = cpuMillis;
+        this.openFiles = openFiles;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    /**
+     * @return resident set size in bytes or -1 if unknown
+     */
+    public long getRssBytes() {
+        return rssBytes;
+    }
+
+    /**
+     * @return cumulative user + system cpu time in milliseconds or -1 if unknown
+     */
+    public long getCpuMillis() {
+        return cpuMillis;
+    }
+
+    /**
+     * @return number of open file descriptors or -1 if unknown
+     */
+    public int getOpenFiles() {
+        return openFiles;
+    }
+
+    /**
+     * Percentage of one core used between <code>previous</code> and this sample.
+     *
+     * @return cpu percentage or -1 if it can't be calculated
+     */
+    public double getCpuPercentSince(ResourceUsage previous) {
+        if (previous == null || cpuMillis < 0 || previous.cpuMillis < 0) {
+            return -1;
+        }
+        long wall = timestampMillis - previous.timestampMillis;
+        if (wall <= 0) {
+            return -1;
+        }
+        return 100.0 * (cpuMillis - previous.cpuMillis) / wall;
+    }
+
+    @Override
+    public String toString() {
+        return "rss=" + (rssBytes / (1024 * 1024)) + "MB, cpuMillis=" + cpuMillis +
+                ", openFiles=" + openFiles;
+    }
+}
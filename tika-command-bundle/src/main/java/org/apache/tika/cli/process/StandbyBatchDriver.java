@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.process;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tika.batch.BatchProcessDriverCLI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Batch watchdog that keeps a second, pre-booted child waiting so that a
+ * restart doesn't have to wait for a new JVM to start the framework and
+ * every parser bundle.
+ * <p>
+ * The standby is launched with the child's command line and
+ * <code>-D{@value #STANDBY_PROP}=true</code>.  Once its framework has
+ * started it prints {@value #READY} and blocks on its standard input; the
+ * watchdog writes {@value #GO} there when it needs a new child, and starts
+ * the next standby in the background.  A standby that isn't ready yet is
+ * waited for, and one that died is replaced by a cold start.
+ * <p>
+ * Exit codes are handled as by tika-batch's BatchProcessDriverCLI: 0 and
+ * {@link BatchProcessDriverCLI#PROCESS_NO_RESTART_EXIT_CODE} end the run,
+ * anything else restarts the child, up to <code>-maxRestarts</code> times
+ * (-1, the default, for no limit).
+ */
+public class StandbyBatchDriver {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StandbyBatchDriver.class);
+
+    public static final String STANDBY_PROP = "org.apache.tika.batch.standby";
+    public static final String READY = "TIKA_BATCH_STANDBY_READY";
+    public static final String GO = "GO";
+
+    private final List<String> command;
+    private final List<String> standbyCommand;
+    private final int maxRestarts;
+    private final Supervisor supervisor = new Supervisor();
+
+    /**
+     * @param commandLine child command line as built for BatchProcessDriverCLI,
+     *                    optionally with <code>-maxRestarts n</code>
+     */
+    public StandbyBatchDriver(String[] commandLine) {
+        List<String> args = new ArrayList<>(Arrays.asList(commandLine));
+        int restarts = -1;
+        int i = args.indexOf("-maxRestarts");
+        if (i > -1 && i < args.size() - 1) {
+            restarts = Integer.parseInt(args.get(i + 1));
+            args.remove(i + 1);
+            args.remove(i);
+        }
+        this.maxRestarts = restarts;
+        this.command = args;
+        this.standbyCommand = new ArrayList<>(args);
+        //the first element is the java executable
+        standbyCommand.add(1, "-D" + STANDBY_PROP + "=true");
+    }
+
+    public void execute() throws IOException, InterruptedException {
+        Child active = start(command, false);
+        Child standby = start(standbyCommand, true);
+        supervisor.setChildRunning(true);
+        try {
+            while (true) {
+                int exit = active.process.waitFor();
+                active.finish();
+                if (exit == 0 || exit == BatchProcessDriverCLI.PROCESS_NO_RESTART_EXIT_CODE) {
+                    LOG.info("Child process exited with " + exit);
+                    return;
+                }
+                if (maxRestarts > -1 && supervisor.getRestarts() >= maxRestarts) {
+                    LOG.warn("Child process exited with " + exit + "; hit maxRestarts (" + maxRestarts + ")");
+                    return;
+                }
+                supervisor.restarted("exit code " + exit);
+                long started = System.currentTimeMillis();
+                active = claim(standby);
+                LOG.warn("Child process exited with " + exit + "; restart " + supervisor.getRestarts() +
+                        " took " + (System.currentTimeMillis() - started) + "ms");
+                standby = start(standbyCommand, true);
+            }
+        } finally {
+            supervisor.setChildRunning(false);
+            active.process.destroy();
+            standby.process.destroy();
+        }
+    }
+
+    public Supervisor getSupervisor() {
+        return supervisor;
+    }
+
+    private Child claim(Child standby) throws IOException, InterruptedException {
+        while (!standby.ready.await(100, TimeUnit.MILLISECONDS)) {
+            if (!isAlive(standby.process)) {
+                break;
+            }
+        }
+        if (!isAlive(standby.process)) {
+            LOG.warn("Standby child died before it was needed; starting a new child");
+            standby.finish();
+            return start(command, false);
+        }
+        OutputStream stdin = standby.process.getOutputStream();
+        stdin.write((GO + "\n").getBytes(UTF_8));
+        stdin.flush();
+        return standby;
+    }
+
+    private static boolean isAlive(Process process) {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    private static Child start(List<String> command, boolean standby) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(command);
+        Child child = new Child(builder.start());
+        //a cold child doesn't wait for GO
+        if (!standby) {
+            child.ready.countDown();
+        }
+        child.relay(child.process.getInputStream(), System.out, "stdout");
+        child.relay(child.process.getErrorStream(), System.err, "stderr");
+        return child;
+    }
+
+    private static class Child {
+        private final Process process;
+        private final CountDownLatch ready = new CountDownLatch(1);
+        private final List<Thread> relays = new ArrayList<>();
+
+        Child(Process process) {
+            this.process = process;
+        }
+
+        void relay(final InputStream is, final PrintStream out, String name) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, UTF_8))) {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            if (line.equals(READY)) {
+                                ready.countDown();
+                            } else {
+                                out.println(line);
+                            }
+                        }
+                    } catch (IOException e) {
+                        //child is gone
+                    }
+                }
+            }, "child-" + name + "-relay");
+            t.setDaemon(true);
+            t.start();
+            relays.add(t);
+        }
+
+        /**
+         * Lets the relays print whatever the child wrote before it exited.
+         */
+        void finish() throws InterruptedException {
+            for (Thread t : relays) {
+                t.join(1000);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.process;
+
+/**
+ * {@link SupervisorMXBean} updated by the supervising code as it starts
+ * and restarts its child.
+ */
+public class Supervisor implements SupervisorMXBean {
+
+    private final long startMillis = System.currentTimeMillis();
+    private volatile int restarts = 0;
+    private volatile long lastRestartMillis = -1;
+    private volatile String lastRestartReason;
+    private volatile boolean childRunning = false;
+
+    public synchronized void restarted(String reason) {
+        restarts++;
+        lastRestartMillis = System.currentTimeMillis();
+        lastRestartReason = reason;
+    }
+
+    public void setChildRunning(boolean childRunning) {
+        this.childRunning = childRunning;
+    }
+
+    @Override
+    public int getRestarts() {
+        return restarts;
+    }
+
+    @Override
+    public long getLastRestartMillis() {
+        return lastRestartMillis;
+    }
+
+    @Override
+    public String getLastRestartReason() {
+        return lastRestartReason;
+    }
+
+    @Override
+    public long getUptimeMillis() {
+        return System.currentTimeMillis() - startMillis;
+    }
+
+    @Override
+    public boolean isChildRunning() {
+        return childRunning;
+    }
+}
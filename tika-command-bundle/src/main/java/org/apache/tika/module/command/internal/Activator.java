@@ -17,6 +17,7 @@
 
 package org.apache.tika.module.command.internal;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -34,13 +35,22 @@ import java.util.Map.Entry;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.tika.batch.BatchProcessDriverCLI;
+import org.apache.tika.cli.BatchCommandLineBuilder;
 import org.apache.tika.cli.CommandStatus;
 import org.apache.tika.cli.TikaCLI;
 import org.apache.tika.cli.batch.BundleBatchCLI;
+import org.apache.tika.cli.process.JmxSupport;
+import org.apache.tika.cli.process.ProcResourceSampler;
+import org.apache.tika.cli.process.ResourceGovernor;
+import org.apache.tika.cli.process.ResourcePolicy;
+import org.apache.tika.cli.process.StandbyBatchDriver;
+import org.apache.tika.cli.process.Supervisor;
 import org.apache.tika.osgi.TikaServiceFactory;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleException;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.launch.Framework;
 import org.osgi.service.cm.Configuration;
@@ -73,9 +83,13 @@ public class Activator implements BundleActivator {
                 context.getServiceReference(TikaServiceFactory.class); 
 
         if (fork) {
-            forkProcess(command);
+            forkProcess(context, command);
             stopFramework(context);
         }
+        else if(batchMode && Boolean.parseBoolean(context.getProperty(StandbyBatchDriver.STANDBY_PROP)))
+        {
+            waitAsStandby(context, command);
+        }
         else if(batchMode)
         {
             runBatch(context, command);
@@ -121,6 +135,8 @@ public class Activator implements BundleActivator {
             }
         }
         try{
+            //the launcher's watchdog passes the args on as the user gave them
+            batchCommand = BatchCommandLineBuilder.buildProcessArgs(batchCommand);
             BundleBatchCLI cli = new BundleBatchCLI(batchCommand, context);
             cli.execute(batchCommand);
         } catch (Throwable t) {
@@ -131,7 +147,59 @@ public class Activator implements BundleActivator {
         }
     }
 
-    public void forkProcess(String[] command) throws IOException, InterruptedException {
+    /**
+     * Once the framework has started, tells the {@link StandbyBatchDriver}
+     * that this child is ready and runs the batch when it says so.  Runs on
+     * its own thread so that the rest of the framework can start.
+     */
+    public void waitAsStandby(final BundleContext context, final String[] command) {
+        context.addFrameworkListener(new FrameworkListener() {
+            @Override
+            public void frameworkEvent(FrameworkEvent event) {
+                if (event.getType() != FrameworkEvent.STARTED) {
+                    return;
+                }
+                context.removeFrameworkListener(this);
+                Thread standby = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            System.out.println(StandbyBatchDriver.READY);
+                            System.out.flush();
+                            if (StandbyBatchDriver.GO.equals(readLine(System.in))) {
+                                runBatch(context, command);
+                            }
+                            stopFramework(context);
+                        } catch (Exception e) {
+                            LOG.error("Standby batch child failed", e);
+                            System.exit(BatchProcessDriverCLI.PROCESS_RESTART_EXIT_CODE);
+                        }
+                    }
+                }, "batch-standby");
+                standby.start();
+            }
+        });
+    }
+
+    /**
+     * Reads up to a newline one byte at a time, leaving the rest of stdin
+     * to tika-batch.
+     *
+     * @return the line or null if stdin was closed, i.e. the watchdog died
+     */
+    private static String readLine(InputStream is) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = is.read()) != '\n') {
+            if (c == -1) {
+                return null;
+            }
+            sb.append((char) c);
+        }
+        return sb.toString().trim();
+    }
+
+    public void forkProcess(BundleContext context, String[] command) throws IOException, InterruptedException {
         ProcessBuilder builder = new ProcessBuilder();
         builder.redirectOutput(Redirect.INHERIT);
         builder.redirectError(Redirect.INHERIT);
@@ -147,9 +215,117 @@ public class Activator implements BundleActivator {
         forkCommand.remove("--fork");
         
         builder.command(forkCommand);
-        Process process = builder.start();
-        
-        process.waitFor();
+
+        int maxRestarts = getIntProperty(context, "org.apache.tika.fork.maxRestarts", 0);
+        int restarts = 0;
+        Supervisor supervisor = new Supervisor();
+        Closeable supervisorMBean = null;
+        if (Boolean.parseBoolean(context.getProperty("org.apache.tika.fork.jmx"))) {
+            supervisorMBean = JmxSupport.register(supervisor, "ForkSupervisor");
+        }
+        try {
+            while (true) {
+                Process process = builder.start();
+                supervisor.setChildRunning(true);
+                ForkGovernorListener listener = new ForkGovernorListener(process);
+                ResourceGovernor governor = buildForkGovernor(context, process, listener);
+                Thread governorThread = null;
+                if (governor != null) {
+                    governorThread = new Thread(governor, "fork-resource-governor");
+                    governorThread.setDaemon(true);
+                    governorThread.start();
+                }
+                process.waitFor();
+                supervisor.setChildRunning(false);
+                if (governor != null) {
+                    governor.stop();
+                    governorThread.interrupt();
+                }
+                if (!listener.isKilled() || restarts >= maxRestarts) {
+                    return;
+                }
+                restarts++;
+                supervisor.restarted(listener.getReason());
+                LOG.warn("Restarting forked process (restart " + restarts + " of " + maxRestarts + ")");
+            }
+        } finally {
+            if (supervisorMBean != null) {
+                supervisorMBean.close();
+            }
+        }
+    }
+
+    private ResourceGovernor buildForkGovernor(BundleContext context, Process process,
+                                               ResourceGovernor.Listener listener) {
+        ResourcePolicy policy = ResourcePolicy.parse(
+                context.getProperty("org.apache.tika.fork.resourcePolicy"));
+        if (policy == ResourcePolicy.THROTTLE) {
+            //we can't hold back the intake of a process we only wait on
+            LOG.warn("Throttling isn't supported for forked processes; limits will only be logged");
+            policy = ResourcePolicy.LOG;
+        }
+        ProcResourceSampler sampler = ProcResourceSampler.isSupported() ?
+                ProcResourceSampler.forProcess(process) : null;
+        ResourceGovernor governor = new ResourceGovernor(sampler, policy, listener);
+        long maxRssMb = getIntProperty(context, "org.apache.tika.fork.maxRssMb", -1);
+        if (maxRssMb > -1) {
+            governor.setMaxRssBytes(maxRssMb * 1024 * 1024);
+        }
+        governor.setMaxOpenFiles(getIntProperty(context, "org.apache.tika.fork.maxOpenFiles", -1));
+        governor.setMaxCpuPercent(getIntProperty(context, "org.apache.tika.fork.maxCpuPercent", -1));
+        if (!governor.hasLimits()) {
+            return null;
+        }
+        if (sampler == null) {
+            LOG.warn("Can't sample the forked process on this platform; resource limits will not be enforced");
+            return null;
+        }
+        return governor;
+    }
+
+    private int getIntProperty(BundleContext context, String key, int defaultValue) {
+        String value = context.getProperty(key);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.warn("Couldn't parse " + key + "=" + value + "; using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private static class ForkGovernorListener implements ResourceGovernor.Listener {
+        private final Process process;
+        private volatile boolean killed = false;
+        private volatile String reason;
+
+        ForkGovernorListener(Process process) {
+            this.process = process;
+        }
+
+        @Override
+        public void throttle(boolean throttle) {
+            //not supported for forked processes
+        }
+
+        @Override
+        public void restart(String reason) {
+            LOG.error(MarkerFactory.getMarker("FATAL"),
+                    "Forked process exceeded resource limit (" + reason + "); killing it");
+            this.reason = reason;
+            killed = true;
+            process.destroy();
+        }
+
+        boolean isKilled() {
+            return killed;
+        }
+
+        String getReason() {
+            return reason;
+        }
     }
 
     @Override
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.tika.batch.FileResourceConsumer;
+import org.apache.tika.cli.process.JmxSupport;
+import org.apache.tika.metadata.Metadata;
+import org.junit.Test;
+
+public class BatchMetricsTest {
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(0.5));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500, histogram.getSum());
+        assertEquals(1000, histogram.getMax());
+        assertWithin(500, histogram.getPercentile(0.5));
+        assertWithin(990, histogram.getPercentile(0.99));
+        assertEquals(1000, histogram.getPercentile(1.0));
+    }
+
+    @Test
+    public void testBucketBounds() {
+        for (long v : new long[]{0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789L, Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucket(v);
+            assertTrue(v <= LatencyHistogram.upperBound(bucket));
+            if (bucket > 0) {
+                assertTrue(v > LatencyHistogram.upperBound(bucket - 1));
+            }
+        }
+    }
+
+    @Test
+    public void testByTypeAndParser() {
+        BatchMetrics metrics = new BatchMetrics(2);
+        metrics.setQueue(new ArrayBlockingQueue<String>(10));
+        metrics.started("a.pdf", "application/pdf");
+        assertEquals(1, metrics.getInFlight().size());
+        Metadata pdf = new Metadata();
+        pdf.set(Metadata.CONTENT_TYPE, "application/pdf; version=1.4");
+        pdf.add("X-Parsed-By", "org.apache.tika.parser.DefaultParser");
+        pdf.add("X-Parsed-By", "org.apache.tika.parser.pdf.PDFParser");
+        metrics.finished(pdf, 1000, 50, true);
+        assertEquals(0, metrics.getInFlight().size());
+
+        //no content type after a failed parse: falls back to the guess at the start
+        metrics.started("b.doc", "application/msword");
+        metrics.finished(new Metadata(), -1, 10, false);
+
+        assertEquals(1, metrics.getByType().get("application/pdf").getDocuments());
+        assertEquals(1000, metrics.getByType().get("application/pdf").getBytes());
+        assertEquals(1, metrics.getByType().get("application/msword").getFailures());
+        assertEquals(1, metrics.getByParser().get("org.apache.tika.parser.pdf.PDFParser").getDocuments());
+        assertEquals(1, metrics.getByParser().get(BatchMetrics.UNKNOWN).getDocuments());
+        assertEquals(2, metrics.getTotal().getDocuments());
+
+        long now = System.currentTimeMillis();
+        String json = metrics.toJson(now);
+        assertTrue(json.contains("\"application/pdf\": {\"documents\": 1"));
+        assertTrue(json.contains("\"queueDepth\": 0"));
+        String prom = metrics.toPrometheus(now);
+        assertTrue(prom.contains("tika_batch_media_type_documents_total{media_type=\"application/pdf\"} 1\n"));
+        assertTrue(prom.contains("tika_batch_parser_parse_seconds_count{parser=\"org.apache.tika.parser.pdf.PDFParser\"} 1\n"));
+    }
+
+    @Test
+    public void testTimeouts() throws Exception {
+        BatchMetrics metrics = new BatchMetrics(1);
+        metrics.setTimeoutMillis(1);
+        metrics.started("slow.pdf", "application/pdf");
+        Thread.sleep(20);
+        assertEquals(1, metrics.checkTimeouts());
+        //counted once
+        assertEquals(0, metrics.checkTimeouts());
+        assertEquals(1, metrics.getTimeouts());
+        assertTrue(metrics.getBusyRatio(System.currentTimeMillis()) > 0);
+    }
+
+    @Test
+    public void testBatchChildMBean() throws Exception {
+        BatchMetrics metrics = new BatchMetrics(1);
+        metrics.started("a.pdf", "application/pdf");
+        Closeable registration = JmxSupport.register(
+                new BatchChild(metrics, new ArrayList<FileResourceConsumer>()), "BatchChildTest");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JmxSupport.DOMAIN, "type", "BatchChildTest");
+            String[] inFlight = (String[]) server.getAttribute(name, "InFlightDocuments");
+            assertEquals(1, inFlight.length);
+            assertTrue(inFlight[0].startsWith("a.pdf | application/pdf | "));
+            assertEquals(-1, server.getAttribute(name, "QueueDepth"));
+        } finally {
+            registration.close();
+        }
+        assertTrue(!ManagementFactory.getPlatformMBeanServer().isRegistered(
+                new ObjectName(JmxSupport.DOMAIN, "type", "BatchChildTest")));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " not within 12.5% of " + expected,
+                actual >= expected && actual <= expected * 1.125);
+    }
+}
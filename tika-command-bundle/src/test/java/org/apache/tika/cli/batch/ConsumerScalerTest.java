@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ConsumerScalerTest {
+
+    @Test
+    public void testGrowsWhenIoBound() throws Exception {
+        final ConsumerScaler scaler = new ConsumerScaler(1, 4, 1);
+        scaler.enter();
+        final CountDownLatch entered = new CountDownLatch(1);
+        Thread second = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    scaler.enter();
+                    entered.countDown();
+                } catch (InterruptedException e) {
+                    //test fails on the latch
+                }
+            }
+        });
+        second.start();
+        assertFalse(entered.await(200, TimeUnit.MILLISECONDS));
+
+        //nothing queued: more consumers wouldn't help
+        assertEquals(1, scaler.adjust(20, 0, 10, 0));
+        assertEquals(2, scaler.adjust(20, 0, 10, 50));
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        second.join();
+        assertEquals(2, scaler.getRunning());
+        assertEquals(3, scaler.adjust(20, 0, 12, 50));
+
+        //a consumer is free, so the limit isn't what holds the run back
+        scaler.exit();
+        assertEquals(3, scaler.adjust(20, 0, 14, 50));
+        //never above the bound
+        scaler.enter();
+        scaler.enter();
+        assertEquals(4, scaler.adjust(20, 0, 14, 50));
+        scaler.enter();
+        assertEquals(4, scaler.adjust(20, 0, 16, 50));
+    }
+
+    @Test
+    public void testShrinksUnderPressure() throws Exception {
+        ConsumerScaler scaler = new ConsumerScaler(2, 8, 4);
+        assertEquals(3, scaler.adjust(50, 30, 10, 50));
+        assertEquals(2, scaler.adjust(99, 0, 10, 50));
+        //never below the bound
+        assertEquals(2, scaler.adjust(99, 30, 10, 50));
+    }
+
+    @Test
+    public void testStepsBackWhenGrowingDidNotPay() throws Exception {
+        ConsumerScaler scaler = new ConsumerScaler(1, 8, 2);
+        scaler.enter();
+        scaler.enter();
+        assertEquals(3, scaler.adjust(40, 0, 10, 50));
+        scaler.enter();
+        assertEquals(2, scaler.adjust(40, 0, 8, 50));
+        //held for a few intervals although the cpu is still low
+        for (int i = 0; i < 3; i++) {
+            assertEquals(2, scaler.adjust(40, 0, 8, 50));
+        }
+        assertEquals(3, scaler.adjust(40, 0, 8, 50));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadBounds() {
+        new ConsumerScaler(4, 2, 2);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.PoisonFileResource;
+import org.apache.tika.metadata.Metadata;
+import org.junit.Test;
+
+public class CostClassSchedulerTest {
+
+    @Test
+    public void testLightNotBlockedByHeavy() throws Exception {
+        ArrayBlockingQueue<FileResource> upstream = new ArrayBlockingQueue<>(100);
+        for (int i = 0; i < 10; i++) {
+            upstream.add(resource("heavy-" + i));
+        }
+        upstream.add(resource("light-0"));
+        CostClassScheduler scheduler = new CostClassScheduler(upstream, new PrefixClassifier(), 100);
+
+        //first thread gets HEAVY as home, the second gets LIGHT
+        assertEquals("heavy-0", poll(scheduler).getResourceId());
+        assertEquals("light-0", pollOnNewThread(scheduler).getResourceId());
+        assertEquals(9, scheduler.getQueued(CostClass.HEAVY));
+    }
+
+    @Test
+    public void testStealingAndPoisonLast() throws Exception {
+        ArrayBlockingQueue<FileResource> upstream = new ArrayBlockingQueue<>(100);
+        upstream.add(resource("medium-0"));
+        upstream.add(resource("medium-1"));
+        upstream.add(new PoisonFileResource());
+        CostClassScheduler scheduler = new CostClassScheduler(upstream, new PrefixClassifier(), 100);
+        assertEquals(3, scheduler.size());
+
+        //home class is HEAVY, which is empty, so this thread steals
+        assertEquals("medium-0", poll(scheduler).getResourceId());
+        assertEquals("medium-1", poll(scheduler).getResourceId());
+        assertEquals(2, scheduler.getSteals());
+        assertTrue(poll(scheduler) instanceof PoisonFileResource);
+        assertNull(scheduler.poll(10, TimeUnit.MILLISECONDS));
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    public void testLookaheadBound() throws Exception {
+        ArrayBlockingQueue<FileResource> upstream = new ArrayBlockingQueue<>(100);
+        for (int i = 0; i < 5; i++) {
+            upstream.add(resource("heavy-" + i));
+        }
+        upstream.add(resource("light-0"));
+        CostClassScheduler scheduler = new CostClassScheduler(upstream, new PrefixClassifier(), 2);
+        String first = pollOnNewThread(scheduler).getResourceId();
+        //the light file is beyond the lookahead, so the light consumer steals heavy work
+        String second = pollOnNewThread(scheduler).getResourceId();
+        assertEquals("heavy-0", first);
+        assertEquals("heavy-1", second);
+        assertEquals(4, scheduler.size());
+    }
+
+    private static FileResource poll(CostClassScheduler scheduler) throws InterruptedException {
+        return scheduler.poll(1, TimeUnit.SECONDS);
+    }
+
+    private static FileResource pollOnNewThread(final CostClassScheduler scheduler) throws Exception {
+        final FileResource[] result = new FileResource[1];
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    result[0] = poll(scheduler);
+                } catch (InterruptedException e) {
+                    //fail below
+                }
+            }
+        };
+        t.start();
+        t.join();
+        return result[0];
+    }
+
+    private static FileResource resource(final String id) {
+        return new FileResource() {
+            @Override
+            public String getResourceId() {
+                return id;
+            }
+
+            @Override
+            public Metadata getMetadata() {
+                return new Metadata();
+            }
+
+            @Override
+            public InputStream openInputStream() {
+                return null;
+            }
+        };
+    }
+
+    private static class PrefixClassifier extends CostClassifier {
+        PrefixClassifier() {
+            super(null);
+        }
+
+        @Override
+        public CostClass getCostClass(FileResource fileResource) {
+            String id = fileResource.getResourceId();
+            return CostClass.valueOf(id.substring(0, id.indexOf('-')).toUpperCase(Locale.ROOT));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrawlSpoolTest {
+
+    private Path dir;
+    private Path spoolPath;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("tika-crawl-spool");
+        spoolPath = dir.resolve("spool");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void testReadWhileWriting() throws Exception {
+        final CrawlSpool spool = new CrawlSpool(spoolPath);
+        assertFalse(spool.isWalkFinished());
+        spool.startWalk();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 5000; i++) {
+                        spool.append("dir/file-" + i, i);
+                        if (i % 1000 == 0) {
+                            Thread.sleep(10);
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    spool.walkFinished(true);
+                }
+            }
+        });
+        writer.start();
+        for (int i = 0; i < 5000; i++) {
+            CrawlSpool.Record r = spool.next();
+            assertEquals("dir/file-" + i, r.getRelPath());
+            assertEquals(i, r.getLength());
+        }
+        assertNull(spool.next());
+        assertTrue(spool.isExhausted());
+        writer.join();
+        spool.close();
+    }
+
+    @Test
+    public void testResumeFromCursor() throws Exception {
+        CrawlSpool spool = new CrawlSpool(spoolPath);
+        spool.startWalk();
+        for (int i = 0; i < 10; i++) {
+            spool.append("file-" + i, -1);
+        }
+        spool.walkFinished(true);
+        long offset = -1;
+        for (int i = 0; i < 4; i++) {
+            offset = spool.next().getOffset();
+        }
+        spool.saveCursor(offset);
+        spool.close();
+
+        spool = new CrawlSpool(spoolPath);
+        assertTrue(spool.isWalkFinished());
+        assertEquals("file-3", spool.next().getRelPath());
+        spool.delete();
+        assertFalse(Files.exists(spoolPath));
+        assertFalse(new CrawlSpool(spoolPath).isWalkFinished());
+    }
+
+    @Test
+    public void testUnfinishedWalkIsNotResumed() throws Exception {
+        CrawlSpool spool = new CrawlSpool(spoolPath);
+        spool.startWalk();
+        spool.append("file", 1);
+        spool.walkFinished(false);
+        spool.close();
+        assertFalse(new CrawlSpool(spoolPath).isWalkFinished());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.DigestingParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.junit.Test;
+
+public class DigestingAutoDetectParserFactoryTest {
+
+    @Test
+    public void testSharedParser() throws Exception {
+        TikaConfig config = TikaConfig.getDefaultConfig();
+        DigestingAutoDetectParserFactory factory = new DigestingAutoDetectParserFactory();
+        assertNotSame(factory.getParser(config), factory.getParser(config));
+
+        factory.setShared(true);
+        Parser shared = factory.getParser(config);
+        assertSame(shared, factory.getParser(config));
+    }
+
+    @Test
+    public void testSharedParserAcrossThreads() throws Exception {
+        final TikaConfig config = TikaConfig.getDefaultConfig();
+        final DigestingAutoDetectParserFactory factory = new DigestingAutoDetectParserFactory();
+        factory.setDigester(new TextDigester());
+        factory.setShared(true);
+
+        final int threads = 4;
+        final int parses = 50;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Parser>> used = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                used.add(executor.submit(new Callable<Parser>() {
+                    @Override
+                    public Parser call() throws Exception {
+                        start.await();
+                        Parser parser = factory.getParser(config);
+                        for (int i = 0; i < parses; i++) {
+                            String text = "thread " + thread + " file " + i;
+                            Metadata metadata = new Metadata();
+                            StringWriter writer = new StringWriter();
+                            try (InputStream is = new ByteArrayInputStream(text.getBytes(UTF_8))) {
+                                parser.parse(is, new BodyContentHandler(writer), metadata, new ParseContext());
+                            }
+                            assertEquals(text, writer.toString().trim());
+                            assertEquals(text, metadata.get(TextDigester.KEY));
+                        }
+                        return parser;
+                    }
+                }));
+            }
+            start.countDown();
+            Parser shared = used.get(0).get();
+            for (Future<Parser> f : used) {
+                assertSame(shared, f.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * "Digests" a file as its text, so that a digest from another thread's
+     * file shows up as the wrong text
+     */
+    private static class TextDigester implements DigestingParser.Digester {
+
+        private static final String KEY = "X-Test-Digest";
+
+        @Override
+        public void digest(InputStream is, Metadata metadata, ParseContext context) throws IOException {
+            is.mark(1024);
+            try {
+                metadata.set(KEY, new String(IOUtils.toByteArray(is), UTF_8));
+            } finally {
+                is.reset();
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.tika.batch.fs.FSFileResource;
+import org.apache.tika.cli.batch.IncrementalManifest.Change;
+import org.apache.tika.cli.batch.fs.OutputFiles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IncrementalManifestTest {
+
+    private Path dir;
+    private Path manifestPath;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("tika-incremental");
+        manifestPath = dir.resolve("manifest.tsv");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void testChangesAndDeletions() throws Exception {
+        IncrementalManifest manifest = new IncrementalManifest(manifestPath, false);
+        assertEquals(Change.NEW, manifest.check("a.pdf", null, 10, 100));
+        assertEquals(Change.NEW, manifest.check("b\tc.pdf", null, 20, 100));
+        assertEquals(Change.NEW, manifest.check("gone.pdf", null, 30, 100));
+        manifest.crawlFinished(true);
+        manifest.commit();
+
+        manifest = new IncrementalManifest(manifestPath, false);
+        assertEquals(Change.UNCHANGED, manifest.check("a.pdf", null, 10, 100));
+        assertEquals(Change.MODIFIED, manifest.check("b\tc.pdf", null, 20, 200));
+        assertEquals(Change.NEW, manifest.check("new.pdf", null, 5, 100));
+        manifest.crawlFinished(true);
+        assertEquals(1, manifest.getDeleted());
+        assertEquals(Arrays.asList("gone.pdf"),
+                Files.readAllLines(dir.resolve("manifest.tsv.deleted"), UTF_8));
+        manifest.commit();
+
+        //an incomplete crawl reports nothing and can't be committed
+        manifest = new IncrementalManifest(manifestPath, false);
+        assertEquals(Change.UNCHANGED, manifest.check("new.pdf", null, 5, 100));
+        manifest.crawlFinished(false);
+        assertFalse(manifest.isCrawlComplete());
+        assertEquals(3, Files.readAllLines(manifestPath, UTF_8).size() - 1);
+    }
+
+    @Test
+    public void testModifiedFileIsWrittenAgain() throws Exception {
+        Path input = Files.createDirectories(dir.resolve("input"));
+        Path output = Files.createDirectories(dir.resolve("output"));
+        Path file = input.resolve("doc.txt");
+        Files.write(file, "first".getBytes(UTF_8));
+        OutputFiles outputFiles = new OutputFiles();
+        outputFiles.add(output, "txt");
+
+        runIncremental(input, file, outputFiles, 100);
+        assertEquals("first", new String(Files.readAllBytes(output.resolve("doc.txt.txt")), UTF_8));
+
+        Files.write(file, "second".getBytes(UTF_8));
+        IncrementalInterceptor interceptor = runIncremental(input, file, outputFiles, 200);
+        assertEquals(1, interceptor.getHandled());
+        assertEquals("second", new String(Files.readAllBytes(output.resolve("doc.txt.txt")), UTF_8));
+        assertEquals(1, Files.readAllLines(manifestPath, UTF_8).size() - 1);
+        assertTrue(Files.readAllLines(manifestPath, UTF_8).get(1).contains("\t200\t"));
+
+        //a modified file that fails is committed as modified, to be tried again
+        Files.write(file, "third".getBytes(UTF_8));
+        IncrementalManifest manifest = new IncrementalManifest(manifestPath, false);
+        assertEquals(Change.MODIFIED, manifest.check("doc.txt", file, 5, 300));
+        manifest.added();
+        manifest.crawlFinished(true);
+        interceptor = new IncrementalInterceptor(manifest);
+        interceptor.setOutputFiles(outputFiles);
+        FSFileResource resource = new FSFileResource(input, file);
+        assertTrue(interceptor.beforeProcessing(resource));
+        interceptor.afterProcessing(resource, false, 1);
+        interceptor.shutdown();
+        assertEquals(1, interceptor.getHandled());
+        assertTrue(Files.readAllLines(manifestPath, UTF_8).get(1).endsWith("\t-1\t-1\t"));
+
+        manifest = new IncrementalManifest(manifestPath, false);
+        assertEquals(Change.MODIFIED, manifest.check("doc.txt", file, 5, 300));
+    }
+
+    @Test
+    public void testFailedNewFileIsTriedAgain() throws Exception {
+        Path input = Files.createDirectories(dir.resolve("input"));
+        Path output = Files.createDirectories(dir.resolve("output"));
+        Path failed = input.resolve("failed.txt");
+        Path skipped = input.resolve("skipped.txt");
+        Files.write(failed, "failed".getBytes(UTF_8));
+        Files.write(skipped, "skipped".getBytes(UTF_8));
+        OutputFiles outputFiles = new OutputFiles();
+        outputFiles.add(output, "txt");
+        //written by an earlier run that didn't keep a manifest
+        Files.write(OutputFiles.resolve(output, "txt", "skipped.txt"), "skipped".getBytes(UTF_8));
+
+        IncrementalManifest manifest = new IncrementalManifest(manifestPath, false);
+        assertEquals(Change.NEW, manifest.check("failed.txt", failed, 6, 100));
+        assertEquals(Change.NEW, manifest.check("skipped.txt", skipped, 7, 100));
+        manifest.added();
+        manifest.added();
+        manifest.crawlFinished(true);
+        IncrementalInterceptor interceptor = new IncrementalInterceptor(manifest);
+        interceptor.setOutputFiles(outputFiles);
+        for (Path file : new Path[]{failed, skipped}) {
+            FSFileResource resource = new FSFileResource(input, file);
+            assertTrue(interceptor.beforeProcessing(resource));
+            interceptor.afterProcessing(resource, false, 1);
+        }
+        interceptor.shutdown();
+        assertEquals(2, interceptor.getHandled());
+
+        manifest = new IncrementalManifest(manifestPath, false);
+        assertEquals(Change.MODIFIED, manifest.check("failed.txt", failed, 6, 100));
+        assertEquals(Change.UNCHANGED, manifest.check("skipped.txt", skipped, 7, 100));
+    }
+
+    //crawls the one file and writes its output the way the SKIP output factory would
+    private IncrementalInterceptor runIncremental(Path input, Path file, OutputFiles outputFiles,
+                                                  long lastModified) throws Exception {
+        IncrementalManifest manifest = new IncrementalManifest(manifestPath, false);
+        manifest.check("doc.txt", file, Files.size(file), lastModified);
+        manifest.added();
+        manifest.crawlFinished(true);
+        IncrementalInterceptor interceptor = new IncrementalInterceptor(manifest);
+        interceptor.setOutputFiles(outputFiles);
+        FSFileResource resource = new FSFileResource(input, file);
+        assertTrue(interceptor.beforeProcessing(resource));
+        Path outputFile = OutputFiles.resolve(dir.resolve("output"), "txt", "doc.txt");
+        boolean processed = !Files.exists(outputFile);
+        if (processed) {
+            Files.copy(file, outputFile);
+        }
+        interceptor.afterProcessing(resource, processed, 1);
+        interceptor.shutdown();
+        return interceptor;
+    }
+
+    @Test
+    public void testHashIgnoresTouch() throws Exception {
+        Path file = dir.resolve("doc.txt");
+        Files.write(file, "content".getBytes(UTF_8));
+        IncrementalManifest manifest = new IncrementalManifest(manifestPath, true);
+        assertEquals(Change.NEW, manifest.check("doc.txt", file, 7, 100));
+        manifest.crawlFinished(true);
+        manifest.commit();
+
+        manifest = new IncrementalManifest(manifestPath, true);
+        assertEquals(Change.UNCHANGED, manifest.check("doc.txt", file, 7, 200));
+        manifest.crawlFinished(true);
+        manifest.commit();
+
+        Files.write(file, "changed".getBytes(UTF_8));
+        manifest = new IncrementalManifest(manifestPath, true);
+        assertEquals(Change.MODIFIED, manifest.check("doc.txt", file, 7, 300));
+        manifest.crawlFinished(true);
+        assertTrue(manifest.isCrawlComplete());
+    }
+}
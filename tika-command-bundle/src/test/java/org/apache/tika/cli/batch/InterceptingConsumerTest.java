@@ -0,0 +1,293 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.FileResourceConsumer;
+import org.apache.tika.batch.FileStarted;
+import org.apache.tika.batch.PoisonFileResource;
+import org.apache.tika.cli.batch.InterceptingConsumer.State;
+import org.apache.tika.cli.process.ResourcePolicy;
+import org.apache.tika.metadata.Metadata;
+import org.junit.Test;
+
+public class InterceptingConsumerTest {
+
+    @Test
+    public void testTimeoutCoversTheParseOnly() throws Exception {
+        final CountDownLatch taking = new CountDownLatch(1);
+        final CountDownLatch intercepting = new CountDownLatch(1);
+        final CountDownLatch parsing = new CountDownLatch(1);
+        ProcessingInterceptor holding = new ProcessingInterceptor() {
+            @Override
+            public void beforeTaking() throws InterruptedException {
+                taking.await();
+            }
+
+            @Override
+            public boolean beforeProcessing(FileResource fileResource) throws InterruptedException {
+                intercepting.await();
+                return true;
+            }
+        };
+        ArrayBlockingQueue<FileResource> queue = new ArrayBlockingQueue<>(2);
+        queue.add(resource("doc"));
+        queue.add(new PoisonFileResource());
+        final InterceptingConsumer consumer = new InterceptingConsumer(queue,
+                new BlockingConsumer(parsing, 0), Collections.singletonList(holding));
+        Thread t = start(consumer);
+
+        awaitState(consumer, State.HELD);
+        assertNull(consumer.checkForTimedOutMillis(1));
+        taking.countDown();
+
+        awaitState(consumer, State.INTERCEPTING);
+        assertEquals("doc", consumer.getCurrentResourceId());
+        Thread.sleep(300);
+        //held back before the parse, which hasn't started
+        assertNull(consumer.checkForTimedOutMillis(200));
+        intercepting.countDown();
+
+        awaitState(consumer, State.PARSING);
+        //the time in the interceptors is added to the threshold
+        assertNull(consumer.checkForTimedOutMillis(200));
+        Thread.sleep(400);
+        FileStarted timedOut = consumer.checkForTimedOutMillis(200);
+        assertNotNull(timedOut);
+        assertEquals("doc", timedOut.getResourceId());
+
+        parsing.countDown();
+        t.join(5000);
+        assertEquals(State.IDLE, consumer.getState());
+        assertNull(consumer.getCurrentResourceId());
+    }
+
+    @Test
+    public void testAllowanceExtendsTheTimeout() throws Exception {
+        CountDownLatch parsing = new CountDownLatch(1);
+        ArrayBlockingQueue<FileResource> queue = new ArrayBlockingQueue<>(2);
+        queue.add(resource("doc"));
+        queue.add(new PoisonFileResource());
+        InterceptingConsumer consumer = new InterceptingConsumer(queue,
+                new BlockingConsumer(parsing, TimeUnit.SECONDS.toNanos(10)),
+                Collections.<ProcessingInterceptor>emptyList());
+        Thread t = start(consumer);
+
+        awaitState(consumer, State.PARSING);
+        Thread.sleep(400);
+        //the parse waited out of the timeout, for a throttle say
+        assertNull(consumer.checkForTimedOutMillis(200));
+        parsing.countDown();
+        t.join(5000);
+    }
+
+    @Test
+    public void testInterceptorOrder() throws Exception {
+        List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        List<ProcessingInterceptor> interceptors = new ArrayList<>();
+        interceptors.add(new RecordingInterceptor("a", events, null));
+        interceptors.add(new RecordingInterceptor("b", events, "vetoed"));
+        interceptors.add(new RecordingInterceptor("c", events, null));
+        ArrayBlockingQueue<FileResource> queue = new ArrayBlockingQueue<>(3);
+        queue.add(resource("doc"));
+        queue.add(resource("vetoed"));
+        queue.add(new PoisonFileResource());
+        InterceptingConsumer consumer = new InterceptingConsumer(queue, new NoopConsumer(), interceptors);
+        consumer.call();
+
+        assertEquals(Arrays.asList(
+                //in order before, in reverse after
+                "a.beforeTaking", "b.beforeTaking", "c.beforeTaking",
+                "a.beforeProcessing doc", "b.beforeProcessing doc", "c.beforeProcessing doc",
+                "c.afterProcessing doc", "b.afterProcessing doc", "a.afterProcessing doc",
+                "c.released", "b.released", "a.released",
+                //only the interceptors that admitted it hear of the veto
+                "a.beforeTaking", "b.beforeTaking", "c.beforeTaking",
+                "a.beforeProcessing vetoed", "b.beforeProcessing vetoed",
+                "a.vetoed vetoed",
+                "c.released", "b.released", "a.released",
+                //the poison is taken like any resource
+                "a.beforeTaking", "b.beforeTaking", "c.beforeTaking",
+                "c.released", "b.released", "a.released"), events);
+    }
+
+    @Test
+    public void testGovernorRestartStopsTheBatch() throws Exception {
+        final ResourceGovernorInterceptor governor =
+                new ResourceGovernorInterceptor(ResourcePolicy.parse("restart"));
+        List<ProcessingInterceptor> interceptors = new ArrayList<>();
+        interceptors.add(governor);
+        InterceptingConsumer consumer = new InterceptingConsumer(
+                new ArrayBlockingQueue<FileResource>(1), new NoopConsumer(), interceptors);
+        assertNull(consumer.checkForTimedOutMillis(-1));
+
+        governor.restart("rss 2048MB over 1024MB");
+        //reported even with the timeout off, as a timed out consumer is
+        FileStarted timedOut = consumer.checkForTimedOutMillis(-1);
+        assertNotNull(timedOut);
+        assertTrue(timedOut.getResourceId().contains("rss 2048MB"));
+
+        //and no consumer starts another document
+        final CountDownLatch taken = new CountDownLatch(1);
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    governor.beforeTaking();
+                    taken.countDown();
+                } catch (InterruptedException e) {
+                    //test over
+                }
+            }
+        });
+        t.start();
+        assertFalse(taken.await(200, TimeUnit.MILLISECONDS));
+        //until the batch shuts the interceptors down
+        governor.shutdown();
+        assertTrue(taken.await(5, TimeUnit.SECONDS));
+        t.join();
+    }
+
+    private static Thread start(final InterceptingConsumer consumer) {
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consumer.call();
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    private static void awaitState(InterceptingConsumer consumer, State state) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (consumer.getState() != state) {
+            assertTrue("still " + consumer.getState(), System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static FileResource resource(final String id) {
+        return new FileResource() {
+            private final Metadata metadata = new Metadata();
+
+            @Override
+            public String getResourceId() {
+                return id;
+            }
+
+            @Override
+            public Metadata getMetadata() {
+                return metadata;
+            }
+
+            @Override
+            public InputStream openInputStream() {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        };
+    }
+
+    private static class RecordingInterceptor extends ProcessingInterceptor {
+        private final String name;
+        private final List<String> events;
+        private final String veto;
+
+        RecordingInterceptor(String name, List<String> events, String veto) {
+            this.name = name;
+            this.events = events;
+            this.veto = veto;
+        }
+
+        @Override
+        public void beforeTaking() {
+            events.add(name + ".beforeTaking");
+        }
+
+        @Override
+        public void released() {
+            events.add(name + ".released");
+        }
+
+        @Override
+        public boolean beforeProcessing(FileResource fileResource) {
+            events.add(name + ".beforeProcessing " + fileResource.getResourceId());
+            return !fileResource.getResourceId().equals(veto);
+        }
+
+        @Override
+        public void afterProcessing(FileResource fileResource, boolean processed, long elapsedMillis) {
+            events.add(name + ".afterProcessing " + fileResource.getResourceId());
+        }
+
+        @Override
+        public void vetoed(FileResource fileResource) {
+            events.add(name + ".vetoed " + fileResource.getResourceId());
+        }
+    }
+
+    //parses until the latch is released, after waiting the given nanos out of the timeout
+    private static class BlockingConsumer extends FileResourceConsumer {
+        private final CountDownLatch latch;
+        private final long waitedNanos;
+
+        BlockingConsumer(CountDownLatch latch, long waitedNanos) {
+            super(new ArrayBlockingQueue<FileResource>(1));
+            this.latch = latch;
+            this.waitedNanos = waitedNanos;
+        }
+
+        @Override
+        public boolean processFileResource(FileResource fileResource) {
+            TimeoutAllowance.waited(waitedNanos);
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        }
+    }
+
+    private static class NoopConsumer extends FileResourceConsumer {
+        NoopConsumer() {
+            super(new ArrayBlockingQueue<FileResource>(1));
+        }
+
+        @Override
+        public boolean processFileResource(FileResource fileResource) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class IoThrottleTest {
+
+    @Test
+    public void testOpsBudget() throws Exception {
+        IoThrottle throttle = new IoThrottle(-1, 100);
+        long start = System.currentTimeMillis();
+        //the first second's worth comes from the full bucket
+        for (int i = 0; i < 150; i++) {
+            throttle.acquireOp();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("elapsed " + elapsed, elapsed >= 400);
+        assertTrue(throttle.getThrottledMillis() > 0);
+        assertEquals(150, throttle.getReadOps());
+
+        //lifted while running
+        throttle.setMaxReadOpsPerSecond(0);
+        start = System.currentTimeMillis();
+        for (int i = 0; i < 1000; i++) {
+            throttle.acquireOp();
+        }
+        elapsed = System.currentTimeMillis() - start;
+        assertTrue("elapsed " + elapsed, elapsed < 200);
+    }
+
+    @Test
+    public void testBandwidthBudget() throws Exception {
+        IoThrottle throttle = new IoThrottle(1000000, -1);
+        long start = System.currentTimeMillis();
+        AtomicLong waited = new AtomicLong();
+        TimeoutAllowance.bind(waited);
+        try (InputStream is = throttle.throttle(new ByteArrayInputStream(new byte[1500000]))) {
+            byte[] buffer = new byte[8192];
+            while (is.read(buffer) != -1) {
+                //just reading
+            }
+        } finally {
+            TimeoutAllowance.unbind();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("elapsed " + elapsed, elapsed >= 400);
+        assertEquals(1500000, throttle.getReadBytes());
+        //what the batch timeout leaves out
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(waited.get()) >= 400);
+    }
+
+    @Test
+    public void testOpsPerBlock() throws Exception {
+        IoThrottle throttle = new IoThrottle(-1, -1);
+        byte[] data = new byte[IoThrottle.OP_BYTES * 2 + 10];
+        try (InputStream is = throttle.throttle(new ByteArrayInputStream(data))) {
+            while (is.read() != -1) {
+                //a byte at a time costs no more ops than bulk reads
+            }
+        }
+        assertEquals(data.length, throttle.getReadBytes());
+        assertEquals(2, throttle.getReadOps());
+
+        try (InputStream is = throttle.throttle(new ByteArrayInputStream(data))) {
+            assertEquals(10, is.skip(10));
+            byte[] buffer = new byte[8192];
+            while (is.read(buffer) != -1) {
+                //just reading
+            }
+        }
+        assertEquals(2 + 1 + 2, throttle.getReadOps());
+    }
+
+    @Test
+    public void testSharedPerQueue() throws Exception {
+        Map<String, String> attributes = new HashMap<>();
+        assertNull(IoThrottle.forAttributes(attributes));
+        attributes.put("maxReadOpsPerSecond", "100");
+        IoThrottle first = IoThrottle.forAttributes(attributes);
+        attributes.put("maxReadOpsPerSecond", "200");
+        IoThrottle second = IoThrottle.forAttributes(attributes);
+        assertEquals(100, first.getMaxReadOpsPerSecond());
+        assertEquals(200, second.getMaxReadOpsPerSecond());
+
+        ArrayBlockingQueue<Object> queue = new ArrayBlockingQueue<>(1);
+        ArrayBlockingQueue<Object> otherQueue = new ArrayBlockingQueue<>(1);
+        assertNull(IoThrottle.getShared(queue));
+        IoThrottle.share(queue, first);
+        IoThrottle.share(otherQueue, second);
+        assertSame(first, IoThrottle.getShared(queue));
+        assertNotSame(first, IoThrottle.getShared(otherQueue));
+    }
+}
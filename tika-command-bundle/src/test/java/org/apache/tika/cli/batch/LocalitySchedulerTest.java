@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.PoisonFileResource;
+import org.apache.tika.batch.fs.FSProperties;
+import org.apache.tika.metadata.Metadata;
+import org.junit.Test;
+
+public class LocalitySchedulerTest {
+
+    @Test
+    public void testDrainsOneDirectoryAtATime() throws Exception {
+        ArrayBlockingQueue<FileResource> upstream = new ArrayBlockingQueue<>(100);
+        upstream.add(resource("b/1.txt"));
+        upstream.add(resource("a/1.txt"));
+        upstream.add(resource("b/2.txt"));
+        upstream.add(resource("top.txt"));
+        upstream.add(resource("a/2.txt"));
+        upstream.add(new PoisonFileResource());
+        LocalityScheduler scheduler = new LocalityScheduler(upstream, 100);
+
+        assertEquals("top.txt", poll(scheduler));
+        assertEquals(2, scheduler.getDirectories());
+        assertEquals("a/1.txt", poll(scheduler));
+        assertEquals("a/2.txt", poll(scheduler));
+        assertEquals("b/1.txt", poll(scheduler));
+        assertEquals("b/2.txt", poll(scheduler));
+        assertTrue(scheduler.poll(1, TimeUnit.SECONDS) instanceof PoisonFileResource);
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    public void testStaysInDirectoryAsFilesArrive() throws Exception {
+        ArrayBlockingQueue<FileResource> upstream = new ArrayBlockingQueue<>(100);
+        upstream.add(resource("b/1.txt"));
+        LocalityScheduler scheduler = new LocalityScheduler(upstream, 100);
+        assertEquals("b/1.txt", poll(scheduler));
+
+        upstream.add(resource("a/1.txt"));
+        upstream.add(resource("b/2.txt"));
+        //b is the current directory, a waits for the wrap around
+        assertEquals("b/2.txt", poll(scheduler));
+        assertEquals("a/1.txt", poll(scheduler));
+    }
+
+    private static String poll(LocalityScheduler scheduler) throws InterruptedException {
+        FileResource fileResource = scheduler.poll(1, TimeUnit.SECONDS);
+        return fileResource.getMetadata().get(FSProperties.FS_REL_PATH);
+    }
+
+    private static FileResource resource(String relPath) {
+        final Metadata metadata = new Metadata();
+        metadata.set(FSProperties.FS_REL_PATH, relPath);
+        return new FileResource() {
+            @Override
+            public String getResourceId() {
+                return metadata.get(FSProperties.FS_REL_PATH);
+            }
+
+            @Override
+            public Metadata getMetadata() {
+                return metadata;
+            }
+
+            @Override
+            public InputStream openInputStream() {
+                return null;
+            }
+        };
+    }
+}
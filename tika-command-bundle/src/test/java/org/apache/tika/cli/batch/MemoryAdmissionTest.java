@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class MemoryAdmissionTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void testBigDocumentsWaitWhileSmallOnesFlow() throws Exception {
+        final MemoryAdmission admission = new MemoryAdmission(100 * MB);
+        MemoryAdmission.Ticket first = admission.acquire("application/pdf", 1, 60 * MB);
+        final CountDownLatch admitted = new CountDownLatch(1);
+        Thread second = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    admission.release(admission.acquire("application/pdf", 1, 60 * MB));
+                    admitted.countDown();
+                } catch (InterruptedException e) {
+                    //test fails on the latch
+                }
+            }
+        });
+        second.start();
+        assertFalse(admitted.await(200, TimeUnit.MILLISECONDS));
+
+        //small documents go ahead of the waiting big one
+        MemoryAdmission.Ticket small = admission.acquire("text/plain", 1, 2 * MB);
+        assertEquals(62 * MB, admission.getInFlightBytes());
+        admission.release(small);
+
+        admission.release(first);
+        assertTrue(admitted.await(5, TimeUnit.SECONDS));
+        second.join();
+        assertEquals(0, admission.getInFlightBytes());
+        assertEquals(3, admission.getAdmitted());
+        assertEquals(1, admission.getHeld());
+    }
+
+    @Test
+    public void testSmallOnesWaitBehindLongHeldBigDocument() throws Exception {
+        final MemoryAdmission admission = new MemoryAdmission(100 * MB);
+        admission.setMaxHoldMillis(0);
+        MemoryAdmission.Ticket first = admission.acquire("application/pdf", 1, 60 * MB);
+        Thread big = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    admission.release(admission.acquire("application/pdf", 1, 60 * MB));
+                } catch (InterruptedException e) {
+                    //interrupted at the end of the test
+                }
+            }
+        });
+        big.start();
+        final CountDownLatch admitted = new CountDownLatch(1);
+        Thread small = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    admission.release(admission.acquire("text/plain", 1, 2 * MB));
+                    admitted.countDown();
+                } catch (InterruptedException e) {
+                    //test fails on the latch
+                }
+            }
+        });
+        Thread.sleep(100);
+        small.start();
+        assertFalse(admitted.await(200, TimeUnit.MILLISECONDS));
+        admission.release(first);
+        assertTrue(admitted.await(5, TimeUnit.SECONDS));
+        big.join();
+        small.join();
+    }
+
+    @Test
+    public void testOversizedDocumentRunsAlone() throws Exception {
+        MemoryAdmission admission = new MemoryAdmission(10 * MB);
+        MemoryAdmission.Ticket ticket = admission.acquire("application/vnd.ms-excel", 4, 50 * MB);
+        assertEquals(200 * MB, ticket.getEstimate());
+        admission.release(ticket);
+        assertEquals(0, admission.getInFlightBytes());
+    }
+
+    @Test
+    public void testLearnsMultipliers() throws Exception {
+        Path stats = Files.createTempFile("tika-memory-stats", ".tsv");
+        try {
+            MemoryAdmission admission = new MemoryAdmission(1000 * MB);
+            assertEquals(20 * MB, admission.estimate("application/pdf", 2, 10 * MB));
+            //unknown lengths are estimated at the floor
+            assertEquals(MemoryAdmission.MIN_ESTIMATE, admission.estimate("application/pdf", 2, -1));
+
+            admission.observe(100 * MB);
+            MemoryAdmission.Ticket ticket = admission.acquire("application/pdf", 2, 10 * MB);
+            //grew by three times the estimate
+            admission.observe(160 * MB);
+            admission.observe(130 * MB);
+            admission.release(ticket);
+            long learned = admission.estimate("application/pdf", 2, 10 * MB);
+            assertEquals((long) (2.8 * 10 * MB), learned);
+            //other types keep their defaults
+            assertEquals(20 * MB, admission.estimate("text/html", 2, 10 * MB));
+
+            admission.save(stats);
+            MemoryAdmission next = new MemoryAdmission(1000 * MB);
+            next.load(stats);
+            assertEquals(learned, next.estimate("application/pdf", 2, 10 * MB));
+        } finally {
+            Files.delete(stats);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParseResultCacheTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("tika-parse-cache");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void testCommitAndDiscard() throws Exception {
+        ParseResultCache cache = new ParseResultCache(dir, 1000);
+        assertNull(cache.get("a"));
+        put(cache, "a", "first");
+        ParseResultCache.Entry discarded = cache.begin("b");
+        discarded.getOutputStream().write("partial".getBytes(UTF_8));
+        discarded.discard();
+        assertEquals("first", read(cache, "a"));
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*.tmp")) {
+            assertFalse(ds.iterator().hasNext());
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        //each entry starts with an empty #names line
+        ParseResultCache cache = new ParseResultCache(dir, 51);
+        put(cache, "a", "0123456789");
+        put(cache, "b", "0123456789");
+        put(cache, "c", "0123456789");
+        //a is now more recent than b
+        assertEquals("0123456789", read(cache, "a"));
+        put(cache, "d", "0123456789");
+        assertNull(cache.get("b"));
+        assertNotNull(read(cache, "a"));
+        assertNotNull(read(cache, "c"));
+        assertNotNull(read(cache, "d"));
+        assertEquals(51, cache.getSizeBytes());
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        ParseResultCache cache = new ParseResultCache(dir, 1000);
+        put(cache, "a", "0123456789");
+        ParseResultCache reloaded = new ParseResultCache(dir, 1000);
+        assertEquals(17, reloaded.getSizeBytes());
+        assertEquals("0123456789", read(reloaded, "a"));
+    }
+
+    @Test
+    public void testKey() throws Exception {
+        String fingerprint = ParseResultCache.fingerprint(null, null, "xml");
+        assertEquals(fingerprint, ParseResultCache.fingerprint(null, null, "xml"));
+        assertTrue(!fingerprint.equals(ParseResultCache.fingerprint(null, null, "text")));
+        String key = ParseResultCache.key(ParseResultCache.digest(
+                new ByteArrayInputStream("abc".getBytes(UTF_8))), fingerprint);
+        assertEquals("900150983cd24fb0d6963f7d28e17f72-" + fingerprint, key);
+    }
+
+    @Test
+    public void testNamesAppliedOnHit() throws Exception {
+        ParseResultCache cache = new ParseResultCache(dir, 1024 * 1024);
+        Map<String, String> rendered = new LinkedHashMap<>();
+        rendered.put("resourceName", "a&b.txt");
+        rendered.put("relPath", "dir1/a&b.txt");
+        StringBuilder output = new StringBuilder();
+        output.append("<meta name=\"resourceName\" content=\"a&amp;b.txt\"/>\n");
+        //content that mentions the name is left alone
+        output.append("<p>see a&amp;b.txt and dir1/a&amp;b.txt</p>\n");
+        //pushes the JSON members across the read buffer
+        for (int i = 0; i < 65530; i++) {
+            output.append('x');
+        }
+        output.append("{\"relPath\":\"dir1/a\\u0026b.txt\",\"resourceName\": \"a&b.txt\"}");
+        ParseResultCache.Entry entry = cache.begin("k", rendered);
+        entry.getOutputStream().write(output.toString().getBytes(UTF_8));
+        entry.commit();
+
+        Map<String, String> names = new HashMap<>();
+        names.put("resourceName", "c\"d.txt");
+        names.put("relPath", "dir2/c\"d.txt");
+        String expected = output.toString()
+                .replace("content=\"a&amp;b.txt\"", "content=\"c&quot;d.txt\"")
+                .replace("\"dir1/a\\u0026b.txt\"", "\"dir2/c\\\"d.txt\"")
+                .replace("\": \"a&b.txt\"", "\": \"c\\\"d.txt\"");
+        try (InputStream is = cache.get("k", names)) {
+            assertEquals(expected, new String(IOUtils.toByteArray(is), UTF_8));
+        }
+        try (InputStream is = cache.get("k", rendered)) {
+            assertEquals(output.toString(), new String(IOUtils.toByteArray(is), UTF_8));
+        }
+        assertEquals(output.toString(), read(cache, "k"));
+    }
+
+    private static void put(ParseResultCache cache, String key, String value) throws Exception {
+        ParseResultCache.Entry entry = cache.begin(key);
+        entry.getOutputStream().write(value.getBytes(UTF_8));
+        entry.commit();
+    }
+
+    private static String read(ParseResultCache cache, String key) throws Exception {
+        try (InputStream is = cache.get(key)) {
+            return is == null ? null : new String(IOUtils.toByteArray(is), UTF_8);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParseTimeStatsTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("tika-parse-stats");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        Path statsFile = dir.resolve("stats.tsv");
+        ParseTimeStats stats = ParseTimeStats.load(statsFile);
+        assertTrue(stats.isEmpty());
+        assertEquals(-1, stats.estimateMillis("application/pdf", 1000));
+
+        stats.record("application/pdf", 1000, 100);
+        stats.record("application/pdf", 3000, 300);
+        stats.record("text/plain", 0, 2);
+        stats.save(statsFile);
+
+        ParseTimeStats reloaded = ParseTimeStats.load(statsFile);
+        //0.1 ms per byte
+        assertEquals(1000, reloaded.estimateMillis("application/pdf", 10000));
+        //no length: average per document
+        assertEquals(200, reloaded.estimateMillis("application/pdf", -1));
+        assertEquals(2, reloaded.estimateMillis("text/plain", 100));
+
+        //a second run adds to the first
+        reloaded.record("application/pdf", 4000, 400);
+        reloaded.save(statsFile);
+        assertEquals(800 / 3, ParseTimeStats.load(statsFile).estimateMillis("application/pdf", -1));
+    }
+
+    @Test
+    public void testStatsPath() {
+        Map<String, String> attrs = new HashMap<>();
+        assertEquals(null, ParseTimeStats.getStatsPath(attrs));
+        attrs.put("outputDir", dir.toString());
+        //not kept unless asked for
+        assertEquals(null, ParseTimeStats.getStatsPath(attrs));
+        attrs.put("crawlOrder", "cost");
+        assertEquals(dir.resolve(ParseTimeStats.DEFAULT_FILE_NAME), ParseTimeStats.getStatsPath(attrs));
+        attrs.remove("crawlOrder");
+        attrs.put("parseStatsFile", dir.resolve("other.tsv").toString());
+        assertEquals(dir.resolve("other.tsv"), ParseTimeStats.getStatsPath(attrs));
+    }
+
+    @Test
+    public void testCostModelPrefersHistory() {
+        ParseTimeStats stats = new ParseTimeStats();
+        ParseCostModel model = new ParseCostModel(new CostClassifier(null), stats);
+        //without a detector everything is unknown, so the default guess applies
+        long guess = model.estimateMillis("big.bin", 10 * 1024 * 1024);
+        assertTrue(guess > model.estimateMillis("small.bin", 1024));
+
+        stats.record(ParseTimeStats.UNKNOWN_TYPE, 1024, 5000);
+        assertEquals(5000, model.estimateMillis("small.bin", 1024));
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PoisonQuarantineTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("tika-quarantine");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void testStrikesForFilesInFlightWhenChildDied() throws Exception {
+        PoisonQuarantine first = new PoisonQuarantine(dir, 2);
+        first.started("ok.txt");
+        first.finished("ok.txt", true);
+        first.started("big\tname.xls");
+        //the child dies without closing
+
+        PoisonQuarantine second = new PoisonQuarantine(dir, 2);
+        assertEquals(0, second.getStrikes("ok.txt"));
+        assertEquals(1, second.getStrikes("big\tname.xls"));
+        assertFalse(second.isQuarantined("big\tname.xls"));
+        second.started("big\tname.xls");
+
+        PoisonQuarantine third = new PoisonQuarantine(dir, 2);
+        assertTrue(third.isQuarantined("big\tname.xls"));
+        assertEquals(1, third.getQuarantined());
+        third.close();
+
+        //a later run reads the list
+        PoisonQuarantine later = new PoisonQuarantine(dir, 2);
+        assertEquals(2, later.getStrikes("big\tname.xls"));
+        later.close();
+    }
+
+    @Test
+    public void testStrikeForFileInFlightAtShutdown() throws Exception {
+        final PoisonQuarantine first = new PoisonQuarantine(dir, 2);
+        first.started("ok.txt");
+        first.finished("ok.txt", true);
+        //a consumer that timed out and never finished
+        Thread hung = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    first.started("hung.doc");
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        hung.start();
+        hung.join();
+        first.close();
+
+        PoisonQuarantine second = new PoisonQuarantine(dir, 2);
+        assertEquals(0, second.getStrikes("ok.txt"));
+        assertEquals(1, second.getStrikes("hung.doc"));
+        second.close();
+    }
+
+    @Test
+    public void testBystanderCleared() throws Exception {
+        PoisonQuarantine first = new PoisonQuarantine(dir, 2);
+        first.started("bystander.pdf");
+
+        PoisonQuarantine second = new PoisonQuarantine(dir, 2);
+        assertEquals(1, second.getStrikes("bystander.pdf"));
+        second.started("bystander.pdf");
+        second.finished("bystander.pdf", true);
+        assertEquals(0, second.getStrikes("bystander.pdf"));
+        second.close();
+
+        PoisonQuarantine third = new PoisonQuarantine(dir, 2);
+        assertEquals(0, third.getStrikes("bystander.pdf"));
+        third.close();
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.tika.batch.fs.FSFileResource;
+import org.apache.tika.cli.batch.fs.ArchiveEntryResource;
+import org.apache.tika.cli.batch.fs.ArchiveIndex;
+import org.apache.tika.cli.batch.fs.OutputFiles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResumeJournalTest {
+
+    private Path dir;
+    private Path journalPath;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("tika-resume-journal");
+        journalPath = dir.resolve("journal.tsv");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void testResumeAcrossRestarts() throws Exception {
+        long done = Fingerprint.of("a/done.pdf", 100, 1000, null);
+        long failed = Fingerprint.of("a/failed.pdf", 100, 1000, null);
+        long inFlight = Fingerprint.of("a/in-flight.pdf", 100, 1000, null);
+        long fresh = Fingerprint.of("a/fresh.pdf", 100, 1000, null);
+
+        ResumeJournal journal = new ResumeJournal(journalPath, 2, 10);
+        journal.started(done, "a/done.pdf");
+        journal.finished(done, "a/done.pdf", true);
+        journal.started(failed, "a/failed.pdf");
+        journal.finished(failed, "a/failed.pdf", false);
+        journal.started(inFlight, "a/in-flight.pdf");
+        journal.close();
+
+        journal = new ResumeJournal(journalPath, 2, 10);
+        assertTrue(journal.shouldSkip(done));
+        assertTrue(journal.shouldSkip(failed));
+        //in flight when the child died: gets one more try
+        assertFalse(journal.shouldSkip(inFlight));
+        assertEquals(1, journal.getUnfinishedStarts(inFlight));
+        assertFalse(journal.shouldSkip(fresh));
+        journal.started(inFlight, "a/in-flight.pdf");
+        journal.close();
+
+        journal = new ResumeJournal(journalPath, 2, 10);
+        assertTrue(journal.shouldSkip(inFlight));
+        journal.close();
+    }
+
+    @Test
+    public void testUnfinishedStartDeletesPartialOutput() throws Exception {
+        Path input = Files.createDirectories(dir.resolve("input"));
+        Path output = Files.createDirectories(dir.resolve("output"));
+        Path file = input.resolve("a.pdf");
+        Files.write(file, "content".getBytes(UTF_8));
+        Path outputFile = output.resolve("a.pdf.xml");
+        OutputFiles outputFiles = new OutputFiles();
+        outputFiles.add(output, "xml");
+
+        //the child dies with the output half written
+        ResumeJournalInterceptor interceptor = new ResumeJournalInterceptor(journalPath, input, false);
+        interceptor.setOutputFiles(outputFiles);
+        interceptor.init();
+        assertTrue(interceptor.beforeProcessing(new FSFileResource(input, file)));
+        Files.write(outputFile, "<html><bo".getBytes(UTF_8));
+        interceptor.shutdown();
+
+        interceptor = new ResumeJournalInterceptor(journalPath, input, false);
+        interceptor.setOutputFiles(outputFiles);
+        interceptor.init();
+        FSFileResource resource = new FSFileResource(input, file);
+        assertTrue(interceptor.beforeProcessing(resource));
+        assertFalse(Files.exists(outputFile));
+        Files.write(outputFile, "<html><body/></html>".getBytes(UTF_8));
+        interceptor.afterProcessing(resource, true, 1);
+        interceptor.shutdown();
+
+        //a finished input keeps its output
+        interceptor = new ResumeJournalInterceptor(journalPath, input, false);
+        interceptor.setOutputFiles(outputFiles);
+        interceptor.init();
+        assertFalse(interceptor.beforeProcessing(new FSFileResource(input, file)));
+        interceptor.shutdown();
+        assertTrue(Files.exists(outputFile));
+    }
+
+    @Test
+    public void testArchiveEntries() throws Exception {
+        Path input = Files.createDirectory(dir.resolve("input"));
+        Path zip = input.resolve("bundle.zip");
+        writeZip(zip, "one");
+        ArchiveIndex index = ArchiveIndex.read(zip);
+        ArchiveEntryResource entry = new ArchiveEntryResource(index, index.getEntries().get(0), "bundle.zip");
+
+        ResumeJournalInterceptor interceptor = new ResumeJournalInterceptor(journalPath, input, true);
+        interceptor.init();
+        assertTrue(interceptor.beforeProcessing(entry));
+        interceptor.afterProcessing(entry, true, 1);
+        interceptor.shutdown();
+
+        //the entry has no file of its own under the input directory
+        interceptor = new ResumeJournalInterceptor(journalPath, input, true);
+        interceptor.init();
+        assertFalse(interceptor.beforeProcessing(entry));
+        interceptor.shutdown();
+
+        //a rewritten archive is processed again
+        writeZip(zip, "two");
+        Files.setLastModifiedTime(zip, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+        index = ArchiveIndex.read(zip);
+        entry = new ArchiveEntryResource(index, index.getEntries().get(0), "bundle.zip");
+        interceptor = new ResumeJournalInterceptor(journalPath, input, true);
+        interceptor.init();
+        assertTrue(interceptor.beforeProcessing(entry));
+        interceptor.shutdown();
+    }
+
+    private static void writeZip(Path zip, String content) throws Exception {
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zip))) {
+            zos.putNextEntry(new ZipEntry("docs/a.txt"));
+            zos.write(content.getBytes(UTF_8));
+            zos.closeEntry();
+        }
+    }
+
+    @Test
+    public void testTornTail() throws Exception {
+        long first = Fingerprint.of("first", 1, 1, null);
+        long second = Fingerprint.of("second", 1, 1, null);
+        ResumeJournal journal = new ResumeJournal(journalPath, 2, 10);
+        journal.finished(first, "first", true);
+        journal.close();
+        //simulate a write cut short by a crash
+        Files.write(journalPath, ("O\t" + Fingerprint.toHex(second)).getBytes(UTF_8),
+                StandardOpenOption.APPEND);
+
+        journal = new ResumeJournal(journalPath, 2, 10);
+        assertTrue(journal.isFinished(first));
+        assertFalse(journal.isFinished(second));
+        journal.finished(second, "sec\tond", true);
+        journal.close();
+
+        journal = new ResumeJournal(journalPath, 2, 10);
+        assertTrue(journal.isFinished(first));
+        assertTrue(journal.isFinished(second));
+        journal.close();
+    }
+
+    @Test
+    public void testFingerprintAndHex() {
+        long fp = Fingerprint.of("a.pdf", 10, 20, null);
+        assertEquals(fp, Fingerprint.fromHex(Fingerprint.toHex(fp)));
+        assertEquals(-1L, Fingerprint.fromHex(Fingerprint.toHex(-1L)));
+        assertTrue(fp != Fingerprint.of("a.pdf", 10, 21, null));
+        assertTrue(fp != Fingerprint.of("a.pdf", 10, 20, new byte[]{1}));
+    }
+
+    @Test
+    public void testLongHashSet() {
+        LongHashSet set = new LongHashSet(4);
+        for (long i = -1000; i < 1000; i++) {
+            assertTrue(set.add(i * 31));
+        }
+        assertFalse(set.add(0));
+        assertEquals(2000, set.size());
+        for (long i = -1000; i < 1000; i++) {
+            assertTrue(set.contains(i * 31));
+            assertFalse(set.contains(i * 31 + 1));
+        }
+    }
+}
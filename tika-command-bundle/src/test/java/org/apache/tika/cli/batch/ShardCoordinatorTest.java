@@ -0,0 +1,254 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShardCoordinatorTest {
+
+    private Path input;
+    private Path shardDir;
+
+    @Before
+    public void setUp() throws Exception {
+        input = Files.createTempDirectory("tika-shard-input");
+        shardDir = Files.createTempDirectory("tika-shard-dir");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(input.toFile());
+        FileUtils.deleteDirectory(shardDir.toFile());
+    }
+
+    @Test
+    public void testEachUnitOnce() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            Files.createDirectory(input.resolve("dir" + i));
+        }
+        final List<String> processed = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> nodes = new ArrayList<>();
+        for (int n = 0; n < 3; n++) {
+            final ShardCoordinator shards = new ShardCoordinator(shardDir, "node" + n, 60000);
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        shards.start(input);
+                        String unit;
+                        while ((unit = shards.acquire()) != null) {
+                            String prefix = ShardCoordinator.ROOT_UNIT.equals(unit) ? "" : unit + "/";
+                            shards.added(prefix + "a.txt");
+                            shards.added(prefix + "b.txt");
+                            shards.crawled(unit);
+                            shards.handled(prefix + "a.txt");
+                            shards.handled(prefix + "b.txt");
+                            processed.add(unit);
+                        }
+                        shards.stop();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            t.start();
+            nodes.add(t);
+        }
+        for (Thread t : nodes) {
+            t.join();
+        }
+        assertEquals(21, processed.size());
+        assertEquals(21, new HashSet<>(processed).size());
+        List<String> report = Files.readAllLines(shardDir.resolve("report.txt"), UTF_8);
+        assertEquals("total\t21\t42", report.get(report.size() - 1));
+    }
+
+    @Test
+    public void testExpiredLeaseIsTakenOver() throws Exception {
+        Files.createDirectory(input.resolve("a"));
+        ShardCoordinator dead = new ShardCoordinator(shardDir, "dead", 300);
+        dead.start(input);
+        assertEquals(ShardCoordinator.ROOT_UNIT, dead.acquire());
+        dead.stop();
+
+        ShardCoordinator live = new ShardCoordinator(shardDir, "live", 300);
+        live.start(input);
+        assertEquals("a", live.acquire());
+        live.crawled("a");
+        //waits for the dead node's lease to expire
+        assertEquals(ShardCoordinator.ROOT_UNIT, live.acquire());
+        live.added("x.txt");
+        live.crawled(ShardCoordinator.ROOT_UNIT);
+        live.handled("x.txt");
+        assertTrue(live.isAllDone());
+        assertNull(live.acquire());
+        live.stop();
+        assertTrue(Files.exists(shardDir.resolve("report.txt")));
+    }
+
+    @Test
+    public void testRestartedNodeResumesItsLease() throws Exception {
+        ShardCoordinator before = new ShardCoordinator(shardDir, "node", 60000);
+        before.start(input);
+        assertEquals(ShardCoordinator.ROOT_UNIT, before.acquire());
+        before.stop();
+
+        ShardCoordinator after = new ShardCoordinator(shardDir, "node", 60000);
+        after.start(input);
+        assertEquals(ShardCoordinator.ROOT_UNIT, after.acquire());
+        after.crawled(ShardCoordinator.ROOT_UNIT);
+        assertTrue(after.isAllDone());
+        after.stop();
+    }
+
+    @Test
+    public void testStaleUnitsLockIsTakenOver() throws Exception {
+        Files.createDirectory(input.resolve("a"));
+        //a node died between taking the lock and writing the units
+        Path lock = Files.createFile(shardDir.resolve("units.lock"));
+        Files.setLastModifiedTime(lock, FileTime.fromMillis(System.currentTimeMillis() - 10000));
+
+        ShardCoordinator shards = new ShardCoordinator(shardDir, "node", 5000);
+        shards.start(input);
+        assertEquals(Arrays.asList(ShardCoordinator.ROOT_UNIT, "a"),
+                Files.readAllLines(shardDir.resolve("units.txt"), UTF_8));
+        shards.stop();
+    }
+
+    @Test
+    public void testRestartedNodeKeepsItsCounts() throws Exception {
+        Files.createDirectory(input.resolve("a"));
+        ShardCoordinator before = new ShardCoordinator(shardDir, "node", 60000);
+        before.start(input);
+        assertEquals(ShardCoordinator.ROOT_UNIT, before.acquire());
+        before.added("x.txt");
+        before.crawled(ShardCoordinator.ROOT_UNIT);
+        before.handled("x.txt");
+        assertEquals("a", before.acquire());
+        before.added("a/y.txt");
+        before.handled("a/y.txt");
+        //dies before unit a is done
+        before.stop();
+
+        ShardCoordinator after = new ShardCoordinator(shardDir, "node", 60000);
+        after.start(input);
+        assertEquals("a", after.acquire());
+        after.added("a/y.txt");
+        after.added("a/z.txt");
+        after.crawled("a");
+        after.handled("a/y.txt");
+        after.handled("a/z.txt");
+        after.stop();
+        List<String> report = Files.readAllLines(shardDir.resolve("report.txt"), UTF_8);
+        assertEquals("total\t2\t3", report.get(report.size() - 1));
+    }
+
+    @Test
+    public void testUnitOf() throws Exception {
+        Files.createDirectory(input.resolve("dir"));
+        ShardCoordinator shards = new ShardCoordinator(shardDir, "node", 60000);
+        shards.start(input);
+        assertEquals(ShardCoordinator.ROOT_UNIT, shards.unitOf("a.txt"));
+        assertEquals("dir", shards.unitOf("dir/sub/a.txt"));
+        assertEquals("dir", shards.unitOf("dir\\a.txt"));
+        assertNull(shards.unitOf("later/a.txt"));
+        shards.stop();
+    }
+
+    @Test
+    public void testDeeperUnits() throws Exception {
+        Files.createDirectories(input.resolve("a/x/deep"));
+        Files.createDirectories(input.resolve("a/y"));
+        Files.createDirectories(input.resolve("b"));
+        ShardCoordinator shards = new ShardCoordinator(shardDir, "node", 60000);
+        shards.setUnitDepth(2);
+        shards.start(input);
+        assertEquals(Arrays.asList(ShardCoordinator.ROOT_UNIT, "a/.", "a/x", "a/y", "b/."),
+                Files.readAllLines(shardDir.resolve("units.txt"), UTF_8));
+        assertEquals("a/.", shards.unitOf("a/f.txt"));
+        assertEquals("a/x", shards.unitOf("a/x/deep/f.txt"));
+        assertEquals("b/.", shards.unitOf("b/f.txt"));
+        assertTrue(ShardCoordinator.isFilesOnly("a/."));
+        assertEquals("a", ShardCoordinator.directoryOf("a/."));
+        assertEquals("", ShardCoordinator.directoryOf(ShardCoordinator.ROOT_UNIT));
+        assertEquals("a/x", ShardCoordinator.directoryOf("a/x"));
+
+        List<String> acquired = new ArrayList<>();
+        String unit;
+        while ((unit = shards.acquire()) != null) {
+            acquired.add(unit);
+            String file = ShardCoordinator.directoryOf(unit) + "/f.txt";
+            shards.added(file);
+            shards.crawled(unit);
+            shards.handled(file);
+        }
+        assertEquals(5, acquired.size());
+        assertTrue(shards.isAllDone());
+        shards.stop();
+    }
+
+    @Test
+    public void testLeaseRenewedSinceJudgedStaleIsPutBack() throws Exception {
+        Path lease = shardDir.resolve("lease");
+        Path aside = shardDir.resolve("lease.expired");
+        FileTime stale = FileTime.fromMillis(System.currentTimeMillis() - 10000);
+        //another node took the stale lease of "dead" over before we moved it
+        Files.write(lease, "other".getBytes(UTF_8));
+        assertFalse(ShardCoordinator.removeIfUnchanged(lease, aside, "dead", stale));
+        assertEquals("other", new String(Files.readAllBytes(lease), UTF_8));
+        assertFalse(Files.exists(aside));
+
+        //or took it over and renewed it under the same name
+        Files.write(lease, "dead".getBytes(UTF_8));
+        assertFalse(ShardCoordinator.removeIfUnchanged(lease, aside, "dead", stale));
+        assertTrue(Files.exists(lease));
+
+        Files.setLastModifiedTime(lease, stale);
+        assertTrue(ShardCoordinator.removeIfUnchanged(lease, aside, "dead", stale));
+        assertFalse(Files.exists(lease));
+        assertFalse(Files.exists(aside));
+    }
+
+    @Test
+    public void testUnitsLockRenewedSinceJudgedStaleIsPutBack() throws Exception {
+        Path lock = Files.createFile(shardDir.resolve("units.lock"));
+        Path aside = shardDir.resolve("units.lock.expired");
+        assertFalse(ShardCoordinator.removeIfUnchanged(lock, aside, null,
+                FileTime.fromMillis(System.currentTimeMillis() - 10000)));
+        assertTrue(Files.exists(lock));
+        assertFalse(Files.exists(aside));
+    }
+}
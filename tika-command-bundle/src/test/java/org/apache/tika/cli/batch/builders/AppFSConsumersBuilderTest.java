@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch.builders;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.cli.batch.BatchMetrics;
+import org.apache.tika.cli.batch.ConsumerScalerInterceptor;
+import org.apache.tika.cli.batch.CostClassifier;
+import org.apache.tika.cli.batch.CrawlSpoolInterceptor;
+import org.apache.tika.cli.batch.IncrementalInterceptor;
+import org.apache.tika.cli.batch.MemoryAdmissionInterceptor;
+import org.apache.tika.cli.batch.MetricsInterceptor;
+import org.apache.tika.cli.batch.ParseStatsInterceptor;
+import org.apache.tika.cli.batch.ProcessingInterceptor;
+import org.apache.tika.cli.batch.QuarantineInterceptor;
+import org.apache.tika.cli.batch.ReplacedInputInterceptor;
+import org.apache.tika.cli.batch.ResumeJournalInterceptor;
+import org.apache.tika.cli.batch.fs.OutputFiles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AppFSConsumersBuilderTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("tika-consumers-builder");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void testInterceptorOrder() throws Exception {
+        Map<String, String> attrs = new HashMap<>();
+        attrs.put("outputDir", dir.toString());
+        attrs.put("crawlSpool", "true");
+        attrs.put("incremental", "true");
+        attrs.put("parseStatsFile", dir.resolve("stats.tsv").toString());
+        attrs.put("autoscale", "true");
+        attrs.put("maxInFlightMb", "100");
+        attrs.put("quarantine", "true");
+        attrs.put("journal", dir.resolve("journal").toString());
+
+        List<ProcessingInterceptor> interceptors = new AppFSConsumersBuilder().buildInterceptors(attrs,
+                new CostClassifier(null), new BatchMetrics(2), new ArrayBlockingQueue<FileResource>(10), 2,
+                new OutputFiles());
+        List<Class<?>> classes = new ArrayList<>();
+        for (ProcessingInterceptor interceptor : interceptors) {
+            classes.add(interceptor.getClass());
+        }
+        assertEquals(Arrays.<Class<?>>asList(
+                //first, so that they see the resources a later one vetoes
+                CrawlSpoolInterceptor.class,
+                IncrementalInterceptor.class,
+                ReplacedInputInterceptor.class,
+                MetricsInterceptor.class,
+                ParseStatsInterceptor.class,
+                //a consumer over the limit holds no memory budget
+                ConsumerScalerInterceptor.class,
+                MemoryAdmissionInterceptor.class,
+                //in flight only once nothing else waits
+                QuarantineInterceptor.class,
+                //records what every other interceptor let through
+                ResumeJournalInterceptor.class), classes);
+    }
+
+    @Test
+    public void testOnlyReplacedInputByDefault() throws Exception {
+        List<ProcessingInterceptor> interceptors = new AppFSConsumersBuilder().buildInterceptors(
+                new HashMap<String, String>(), new CostClassifier(null), null,
+                new ArrayBlockingQueue<FileResource>(10), 2, new OutputFiles());
+        assertEquals(1, interceptors.size());
+        assertEquals(ReplacedInputInterceptor.class, interceptors.get(0).getClass());
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch.fs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.fs.FSProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ArchiveCrawlerTest {
+
+    private Path input;
+
+    @Before
+    public void setUp() throws Exception {
+        input = Files.createTempDirectory("tika-archive-crawl");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(input.toFile());
+    }
+
+    @Test
+    public void testEntriesMirrorArchivePaths() throws Exception {
+        Path sub = Files.createDirectories(input.resolve("in"));
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(sub.resolve("bundle.zip")))) {
+            zos.putNextEntry(new ZipEntry("docs/a.txt"));
+            zos.write("entry a".getBytes(UTF_8));
+            zos.closeEntry();
+            zos.putNextEntry(new ZipEntry("b.txt"));
+            zos.write("entry b".getBytes(UTF_8));
+            zos.closeEntry();
+        }
+        Files.write(input.resolve("plain.txt"), "plain".getBytes(UTF_8));
+        //can't be indexed, so it's parsed as it is
+        Files.write(input.resolve("broken.zip"), "not a zip".getBytes(UTF_8));
+
+        ArrayBlockingQueue<FileResource> queue = new ArrayBlockingQueue<>(10);
+        new ArchiveCrawler(queue, 1, input).start();
+        List<String> relPaths = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        for (FileResource resource : queue) {
+            relPaths.add(resource.getMetadata().get(FSProperties.FS_REL_PATH));
+            try (InputStream is = resource.openInputStream()) {
+                texts.add(new String(IOUtils.toByteArray(is), UTF_8));
+            }
+        }
+        assertEquals(Arrays.asList("broken.zip", "in/bundle.zip/docs/a.txt", "in/bundle.zip/b.txt", "plain.txt"),
+                relPaths);
+        assertEquals(Arrays.asList("not a zip", "entry a", "entry b", "plain"), texts);
+    }
+
+    @Test
+    public void testDamagedArchiveDoesNotEndTheCrawl() throws Exception {
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(input.resolve("damaged.zip")))) {
+            zos.putNextEntry(new ZipEntry("a.txt"));
+            zos.write("entry a".getBytes(UTF_8));
+            zos.closeEntry();
+        }
+        ArchiveIndexTest.corruptCentralDirectory(input.resolve("damaged.zip"));
+        Files.write(input.resolve("plain.txt"), "plain".getBytes(UTF_8));
+
+        ArrayBlockingQueue<FileResource> queue = new ArrayBlockingQueue<>(10);
+        new ArchiveCrawler(queue, 1, input).start();
+        List<String> relPaths = new ArrayList<>();
+        for (FileResource resource : queue) {
+            relPaths.add(resource.getMetadata().get(FSProperties.FS_REL_PATH));
+        }
+        assertEquals(Arrays.asList("damaged.zip", "plain.txt"), relPaths);
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch.fs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ArchiveIndexTest {
+
+    private Path dir;
+    private Map<String, byte[]> contents;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("tika-archive");
+        contents = new LinkedHashMap<>();
+        Random random = new Random(3);
+        contents.put("readme.txt", "hello archive".getBytes(UTF_8));
+        byte[] big = new byte[300000];
+        random.nextBytes(big);
+        contents.put("docs/big.bin", big);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            sb.append("compressible line ").append(i).append('\n');
+        }
+        contents.put("docs/deep/text.txt", sb.toString().getBytes(UTF_8));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void testZip() throws Exception {
+        Path zip = dir.resolve("bundle.zip");
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zip))) {
+            zos.putNextEntry(new ZipEntry("docs/"));
+            zos.closeEntry();
+            boolean stored = true;
+            for (Map.Entry<String, byte[]> e : contents.entrySet()) {
+                ZipEntry entry = new ZipEntry(e.getKey());
+                if (stored) {
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(e.getValue().length);
+                    CRC32 crc = new CRC32();
+                    crc.update(e.getValue());
+                    entry.setCrc(crc.getValue());
+                }
+                stored = !stored;
+                zos.putNextEntry(entry);
+                zos.write(e.getValue());
+                zos.closeEntry();
+            }
+            zos.putNextEntry(new ZipEntry("../escape.txt"));
+            zos.write(1);
+            zos.closeEntry();
+        }
+        assertEntries(ArchiveIndex.read(zip));
+    }
+
+    @Test
+    public void testTar() throws Exception {
+        Path tar = dir.resolve("bundle.tar");
+        try (OutputStream os = Files.newOutputStream(tar)) {
+            writeTarEntry(os, "docs/", '5', new byte[0]);
+            for (Map.Entry<String, byte[]> e : contents.entrySet()) {
+                writeTarEntry(os, e.getKey(), '0', e.getValue());
+            }
+            writeTarEntry(os, "/../escape.txt", '0', new byte[]{1});
+            os.write(new byte[1024]);
+        }
+        assertEntries(ArchiveIndex.read(tar));
+    }
+
+    @Test
+    public void testPaxPath() throws Exception {
+        StringBuilder sb = new StringBuilder("docs");
+        while (sb.length() < 150) {
+            sb.append("/a-directory-name-too-long-for-the-header");
+        }
+        String longName = sb.append("/file.txt").toString();
+        byte[] content = "pax entry".getBytes(UTF_8);
+        Path tar = dir.resolve("pax.tar");
+        try (OutputStream os = Files.newOutputStream(tar)) {
+            writeTarEntry(os, "pax_global_header", 'g', paxRecord("comment", "global").getBytes(UTF_8));
+            writeTarEntry(os, "PaxHeaders/file.txt", 'x', (paxRecord("path", longName) +
+                    paxRecord("mtime", "1700000000.5")).getBytes(UTF_8));
+            writeTarEntry(os, longName.substring(0, 99), '0', content);
+            writeTarEntry(os, "after.txt", '0', new byte[]{1});
+            os.write(new byte[1024]);
+        }
+        ArchiveIndex index = ArchiveIndex.read(tar);
+        assertEquals(2, index.getEntries().size());
+        assertEquals(longName, index.getEntries().get(0).getName());
+        assertEquals("after.txt", index.getEntries().get(1).getName());
+        try (InputStream is = index.open(index.getEntries().get(0))) {
+            assertArrayEquals(content, IOUtils.toByteArray(is));
+        }
+    }
+
+    @Test
+    public void testDamagedArchives() throws Exception {
+        Path zip = dir.resolve("damaged.zip");
+        writeZip(zip);
+        corruptCentralDirectory(zip);
+        assertDamaged(zip);
+
+        writeZip(zip);
+        byte[] bytes = Files.readAllBytes(zip);
+        //the end record's offset of the central directory
+        int eocd = find(bytes, new byte[]{'P', 'K', 5, 6});
+        bytes[eocd + 19] = (byte) 0x7F;
+        Files.write(zip, bytes);
+        assertDamaged(zip);
+
+        Path tar = dir.resolve("damaged.tar");
+        try (OutputStream os = Files.newOutputStream(tar)) {
+            writeTarEntry(os, "short.txt", '0', new byte[10]);
+        }
+        bytes = Files.readAllBytes(tar);
+        byte[] size = String.format(Locale.ROOT, "%011o", 1000000).getBytes(UTF_8);
+        System.arraycopy(size, 0, bytes, 124, size.length);
+        Files.write(tar, bytes);
+        assertDamaged(tar);
+
+        try (OutputStream os = Files.newOutputStream(tar)) {
+            writeTarEntry(os, "PaxHeaders/a.txt", 'x', "99 path=a.txt\n".getBytes(UTF_8));
+            writeTarEntry(os, "a.txt", '0', new byte[10]);
+        }
+        assertDamaged(tar);
+    }
+
+    private static void assertDamaged(Path archive) {
+        try {
+            ArchiveIndex.read(archive);
+            fail("indexed the damaged " + archive.getFileName());
+        } catch (IOException e) {
+            //expected
+        }
+    }
+
+    private static void writeZip(Path zip) throws Exception {
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zip))) {
+            zos.putNextEntry(new ZipEntry("a.txt"));
+            zos.write("entry a".getBytes(UTF_8));
+            zos.closeEntry();
+        }
+    }
+
+    /**
+     * Sets the name length of the first central directory entry past the
+     * end of the archive
+     */
+    static void corruptCentralDirectory(Path zip) throws Exception {
+        byte[] bytes = Files.readAllBytes(zip);
+        int cen = find(bytes, new byte[]{'P', 'K', 1, 2});
+        bytes[cen + 28] = (byte) 0xFF;
+        bytes[cen + 29] = (byte) 0xFF;
+        Files.write(zip, bytes);
+    }
+
+    private static int find(byte[] bytes, byte[] signature) {
+        for (int i = 0; i + signature.length <= bytes.length; i++) {
+            boolean match = true;
+            for (int j = 0; j < signature.length && match; j++) {
+                match = bytes[i + j] == signature[j];
+            }
+            if (match) {
+                return i;
+            }
+        }
+        throw new AssertionError("no signature");
+    }
+
+    private static String paxRecord(String key, String value) {
+        String record = " " + key + "=" + value + "\n";
+        int length = record.getBytes(UTF_8).length;
+        //the length counts its own digits
+        int digits = Integer.toString(length).length();
+        if (Integer.toString(length + digits).length() > digits) {
+            digits++;
+        }
+        return (length + digits) + record;
+    }
+    @Test
+    public void testUstarPrefixOnlyWithUstarMagic() throws Exception {
+        Path tar = dir.resolve("prefix.tar");
+        try (OutputStream os = Files.newOutputStream(tar)) {
+            writeTarEntry(os, "file.txt", '0', new byte[]{1}, "ustar\0", "posix/dir");
+            //old GNU tars keep the access and change times where ustar has the prefix
+            writeTarEntry(os, "gnu.txt", '0', new byte[]{2}, "ustar  ", "14577744316\00014577744316");
+            os.write(new byte[1024]);
+        }
+        ArchiveIndex index = ArchiveIndex.read(tar);
+        assertEquals(2, index.getEntries().size());
+        assertEquals("posix/dir/file.txt", index.getEntries().get(0).getName());
+        assertEquals("gnu.txt", index.getEntries().get(1).getName());
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("a/b.txt", ArchiveIndex.normalize("/a\\b.txt"));
+        assertNull(ArchiveIndex.normalize("a/../../b.txt"));
+        assertNull(ArchiveIndex.normalize("C:/b.txt"));
+    }
+
+    private void assertEntries(final ArchiveIndex index) throws Exception {
+        List<String> names = new ArrayList<>();
+        for (ArchiveIndex.Entry entry : index.getEntries()) {
+            names.add(entry.getName());
+        }
+        assertEquals(new ArrayList<>(contents.keySet()), names);
+
+        //read concurrently, each from its own offset
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<byte[]>> read = new ArrayList<>();
+            for (final ArchiveIndex.Entry entry : index.getEntries()) {
+                read.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        try (InputStream is = index.open(entry)) {
+                            return IOUtils.toByteArray(is);
+                        }
+                    }
+                }));
+            }
+            for (int i = 0; i < names.size(); i++) {
+                byte[] expected = contents.get(names.get(i));
+                assertArrayEquals(expected, read.get(i).get());
+                assertEquals(expected.length, index.getEntries().get(i).getSize());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void writeTarEntry(OutputStream os, String name, char type, byte[] data) throws Exception {
+        writeTarEntry(os, name, type, data, "ustar", "");
+    }
+
+    private static void writeTarEntry(OutputStream os, String name, char type, byte[] data,
+                                      String magicField, String prefix) throws Exception {
+        byte[] header = new byte[512];
+        byte[] nameBytes = name.getBytes(UTF_8);
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        byte[] size = String.format(Locale.ROOT, "%011o", data.length).getBytes(UTF_8);
+        System.arraycopy(size, 0, header, 124, size.length);
+        header[156] = (byte) type;
+        byte[] magic = magicField.getBytes(UTF_8);
+        System.arraycopy(magic, 0, header, 257, magic.length);
+        byte[] prefixBytes = prefix.getBytes(UTF_8);
+        System.arraycopy(prefixBytes, 0, header, 345, prefixBytes.length);
+        os.write(header);
+        os.write(data);
+        os.write(new byte[(512 - data.length % 512) % 512]);
+    }
+}
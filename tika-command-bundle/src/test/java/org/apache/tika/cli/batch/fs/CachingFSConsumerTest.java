@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch.fs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.FileResourceConsumer;
+import org.apache.tika.batch.OutputStreamFactory;
+import org.apache.tika.batch.fs.FSFileResource;
+import org.apache.tika.batch.fs.FSProperties;
+import org.apache.tika.cli.batch.ParseResultCache;
+import org.apache.tika.metadata.Metadata;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingFSConsumerTest {
+
+    private Path input;
+    private Path cacheDir;
+    private Map<String, ByteArrayOutputStream> outputs;
+    private CachingOutputStreamFactory factory;
+    private UpperCaseConsumer parser;
+    private CachingFSConsumer consumer;
+
+    @Before
+    public void setUp() throws Exception {
+        input = Files.createTempDirectory("tika-cache-input");
+        cacheDir = Files.createTempDirectory("tika-cache");
+        outputs = new HashMap<>();
+        ParseResultCache cache = new ParseResultCache(cacheDir, 1024 * 1024);
+        factory = new CachingOutputStreamFactory(new OutputStreamFactory() {
+            @Override
+            public OutputStream getOutputStream(Metadata metadata) {
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                outputs.put(metadata.get(FSProperties.FS_REL_PATH), os);
+                return os;
+            }
+        }, cache);
+        parser = new UpperCaseConsumer(factory);
+        consumer = new CachingFSConsumer(new ArrayBlockingQueue<FileResource>(1), parser,
+                cache, factory, "fingerprint");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(input.toFile());
+        FileUtils.deleteDirectory(cacheDir.toFile());
+    }
+
+    @Test
+    public void testDuplicateIsNotParsed() throws Exception {
+        assertTrue(consumer.processFileResource(resource("dir1/a.txt", "same content")));
+        assertTrue(consumer.processFileResource(resource("dir2/b.txt", "same content")));
+        assertTrue(consumer.processFileResource(resource("dir3/c.txt", "other content")));
+        assertEquals(2, parser.parses);
+        assertEquals(meta("dir1/a.txt") + "SAME CONTENT", output("dir1/a.txt"));
+        //the duplicate's own path, not the one the entry was rendered with
+        assertEquals(meta("dir2/b.txt") + "SAME CONTENT", output("dir2/b.txt"));
+        assertEquals(meta("dir3/c.txt") + "OTHER CONTENT", output("dir3/c.txt"));
+    }
+
+    @Test
+    public void testFailedParseIsNotCached() throws Exception {
+        parser.fail = true;
+        consumer.processFileResource(resource("a.txt", "content"));
+        parser.fail = false;
+        assertTrue(consumer.processFileResource(resource("b.txt", "content")));
+        assertEquals(2, parser.parses);
+        assertEquals(meta("b.txt") + "CONTENT", output("b.txt"));
+        assertFalse(consumer.getNumHandledExceptions() == 0);
+    }
+
+    private FileResource resource(String name, String content) throws IOException {
+        Path p = input.resolve(name);
+        Files.createDirectories(p.getParent());
+        Files.write(p, content.getBytes(UTF_8));
+        return new FSFileResource(input, p);
+    }
+
+    //as an XHTML output renders the relative path
+    private static String meta(String relPath) {
+        return "<meta name=\"" + FSProperties.FS_REL_PATH.getName() + "\" content=\"" + relPath + "\"/>";
+    }
+
+    private String output(String name) {
+        return new String(outputs.get(name).toByteArray(), UTF_8);
+    }
+
+    /**
+     * Stands in for a parsing consumer: writes the relative path as a meta
+     * element and the input in upper case
+     */
+    private static class UpperCaseConsumer extends FileResourceConsumer {
+
+        private final OutputStreamFactory factory;
+        private int parses = 0;
+        private boolean fail = false;
+
+        UpperCaseConsumer(OutputStreamFactory factory) {
+            super(new ArrayBlockingQueue<FileResource>(1));
+            this.factory = factory;
+        }
+
+        @Override
+        public boolean processFileResource(FileResource fileResource) {
+            parses++;
+            try (InputStream is = fileResource.openInputStream();
+                 OutputStream os = factory.getOutputStream(fileResource.getMetadata())) {
+                String s = new String(IOUtils.toByteArray(is), UTF_8);
+                os.write((meta(fileResource.getMetadata().get(FSProperties.FS_REL_PATH)) +
+                        s.toUpperCase(Locale.ROOT)).getBytes(UTF_8));
+                if (fail) {
+                    incrementHandledExceptions();
+                }
+                return true;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
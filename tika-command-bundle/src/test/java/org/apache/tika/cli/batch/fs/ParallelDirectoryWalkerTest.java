@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.fs.FSProperties;
+import org.apache.tika.cli.batch.CrawlSpool;
+import org.apache.tika.metadata.Metadata;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelDirectoryWalkerTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("tika-parallel-crawl");
+        for (int i = 0; i < 5; i++) {
+            Path sub = Files.createDirectories(dir.resolve("d" + i).resolve("e" + i));
+            for (int j = 0; j < 10; j++) {
+                Files.write(sub.resolve("f" + j + ".txt"), new byte[j]);
+                Files.write(sub.getParent().resolve("g" + j + ".pdf"), new byte[j]);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void testFindsEverything() throws Exception {
+        assertEquals(100, crawl(null, true).size());
+        assertEquals(100, crawl(null, false).size());
+    }
+
+    @Test
+    public void testFilterDuringWalk() throws Exception {
+        CrawlFilter filter = new CrawlFilter(Pattern.compile("\\.txt$"), Pattern.compile("d3"), -1, 5);
+        List<String> found = crawl(filter, true);
+        //4 directories with 6 files of at most 5 bytes
+        assertEquals(24, found.size());
+        for (String p : found) {
+            assertTrue(p.endsWith(".txt") && !p.startsWith("d3"));
+        }
+    }
+
+    @Test
+    public void testLengthFromListing() throws Exception {
+        ArrayBlockingQueue<FileResource> queue = new ArrayBlockingQueue<>(1000);
+        AppFSDirectoryCrawler crawler = new AppFSDirectoryCrawler(queue, 1, dir, null,
+                AppFSDirectoryCrawler.CRAWL_ORDER.SORTED);
+        crawler.setParallelWalk(3, new CrawlFilter(Pattern.compile("g7"), null, -1, -1), true);
+        crawler.start();
+        assertEquals(5, queue.size());
+        for (FileResource r : queue) {
+            assertEquals("7", r.getMetadata().get(Metadata.CONTENT_LENGTH));
+        }
+    }
+
+    @Test
+    public void testCrawlThroughSpool() throws Exception {
+        ArrayBlockingQueue<FileResource> queue = new ArrayBlockingQueue<>(1000);
+        AppFSDirectoryCrawler crawler = new AppFSDirectoryCrawler(queue, 1, dir, null,
+                AppFSDirectoryCrawler.CRAWL_ORDER.OS_ORDER);
+        CrawlSpool spool = CrawlSpool.forPath(Files.createTempDirectory("tika-spool").resolve("spool"));
+        crawler.setParallelWalk(2, null, true);
+        crawler.setSpool(spool, 0);
+        crawler.start();
+        assertEquals(100, queue.size());
+        assertEquals(100, spool.getAdded());
+        assertTrue(spool.isExhausted());
+        spool.delete();
+        Files.delete(spool.getPath().getParent());
+    }
+
+    private List<String> crawl(CrawlFilter filter, boolean useDirAttrs) throws Exception {
+        ArrayBlockingQueue<FileResource> queue = new ArrayBlockingQueue<>(1000);
+        AppFSDirectoryCrawler crawler = new AppFSDirectoryCrawler(queue, 1, dir, null,
+                AppFSDirectoryCrawler.CRAWL_ORDER.RANDOM);
+        crawler.setParallelWalk(4, filter, useDirAttrs);
+        crawler.start();
+        List<String> paths = new ArrayList<>();
+        for (FileResource r : queue) {
+            paths.add(r.getMetadata().get(FSProperties.FS_REL_PATH));
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+}
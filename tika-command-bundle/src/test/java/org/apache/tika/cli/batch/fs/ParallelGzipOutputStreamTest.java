@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch.fs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelGzipOutputStreamTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new ParallelGzipOutputStream.CompressionThread(r, "test-gzip");
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        //text-like data over several blocks, with a partial last block
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        String[] words = {"tika ", "parse ", "batch ", "gzip ", "block ", "\n"};
+        while (sb.length() < 5 * ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE + 1234) {
+            sb.append(words[random.nextInt(words.length)]);
+        }
+        byte[] data = sb.toString().getBytes("UTF-8");
+        byte[] compressed = compress(data, Deflater.BEST_SPEED);
+        assertArrayEquals(data, gunzip(compressed));
+        assertTrue(compressed.length < data.length / 3);
+    }
+
+    @Test
+    public void testEmptyAndSingleBlock() throws Exception {
+        assertEquals(0, gunzip(compress(new byte[0], Deflater.DEFAULT_COMPRESSION)).length);
+        byte[] small = "small".getBytes("UTF-8");
+        assertArrayEquals(small, gunzip(compress(small, 9)));
+    }
+
+    @Test
+    public void testDeflatersReusedUntilShutdown() throws Exception {
+        byte[] data = new byte[3 * ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE];
+        new Random(7).nextBytes(data);
+        for (int level : new int[]{1, 9, 1}) {
+            assertArrayEquals(data, gunzip(compress(data, level)));
+        }
+        //the threads end their deflaters as they exit
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        //threads that aren't pool threads use a deflater per block
+        ExecutorService plain = Executors.newFixedThreadPool(2);
+        try {
+            executor = plain;
+            assertArrayEquals(data, gunzip(compress(data, 5)));
+        } finally {
+            plain.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testParseLevel() {
+        assertEquals(Deflater.BEST_SPEED, ParallelGzipOutputStreamFactory.parseLevel("fast"));
+        assertEquals(Deflater.DEFAULT_COMPRESSION, ParallelGzipOutputStreamFactory.parseLevel(null));
+        assertEquals(4, ParallelGzipOutputStreamFactory.parseLevel("4"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadLevel() {
+        ParallelGzipOutputStreamFactory.parseLevel("11");
+    }
+
+    private byte[] compress(byte[] data, int level) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream os = new ParallelGzipOutputStream(bos, executor, level,
+                ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE, 2)) {
+            //odd write sizes so that writes straddle blocks
+            for (int i = 0; i < data.length; i += 7777) {
+                os.write(data, i, Math.min(7777, data.length - i));
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws Exception {
+        try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return IOUtils.toByteArray(is);
+        }
+    }
+}
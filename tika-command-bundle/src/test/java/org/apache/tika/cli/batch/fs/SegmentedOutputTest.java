@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch.fs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.tika.batch.fs.FSProperties;
+import org.apache.tika.metadata.Metadata;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SegmentedOutputTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("tika-segments");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        //small segments and spill threshold so that both roll and spill are exercised
+        SegmentedOutputStreamFactory factory = new SegmentedOutputStreamFactory(dir, 200, 16);
+        for (int i = 0; i < 20; i++) {
+            write(factory, "dir/file-" + i + ".txt", "content of file " + i);
+        }
+        factory.close();
+        assertEquals(20, factory.getRecords());
+
+        try (SegmentReader reader = new SegmentReader(dir)) {
+            assertEquals(20, reader.size());
+            SegmentReader.Record record = reader.get("dir/file-7.txt");
+            assertEquals("content of file 7", new String(record.getContent(), UTF_8));
+            assertEquals("text/plain", record.getMetadata().get(Metadata.CONTENT_TYPE));
+            assertNull(reader.get("dir/missing.txt"));
+
+            List<String> paths = new ArrayList<>();
+            for (SegmentReader.Record r : reader) {
+                paths.add(r.getPath());
+            }
+            assertEquals(20, paths.size());
+            assertEquals("dir/file-0.txt", paths.get(0));
+            assertEquals("dir/file-19.txt", paths.get(19));
+        }
+        assertEquals(true, Files.exists(dir.resolve("segment-00001.seg")));
+    }
+
+    @Test
+    public void testIterateToTornIndexTail() throws Exception {
+        SegmentedOutputStreamFactory factory = new SegmentedOutputStreamFactory(dir, 1024, 1024);
+        for (int i = 0; i < 3; i++) {
+            write(factory, "file-" + i + ".txt", "content " + i);
+        }
+        factory.close();
+        List<Path> indexes = SegmentedOutputStreamFactory.listIndexes(dir);
+        //an entry cut short by a crash
+        Files.write(indexes.get(indexes.size() - 1), new byte[10], StandardOpenOption.APPEND);
+
+        try (SegmentReader reader = new SegmentReader(dir)) {
+            int records = 0;
+            for (SegmentReader.Record r : reader) {
+                assertEquals("file-" + records + ".txt", r.getPath());
+                records++;
+            }
+            assertEquals(3, records);
+
+            //abandoned after the first record
+            SegmentReader.RecordIterator iterator = reader.iterator();
+            assertEquals("file-0.txt", iterator.next().getPath());
+            iterator.close();
+            assertFalse(iterator.hasNext());
+        }
+    }
+
+    @Test
+    public void testRestartSkipsExisting() throws Exception {
+        SegmentedOutputStreamFactory factory = new SegmentedOutputStreamFactory(dir, 1024, 1024);
+        write(factory, "a.txt", "first");
+        factory.close();
+
+        factory = new SegmentedOutputStreamFactory(dir, 1024, 1024);
+        assertNull(factory.getOutputStream(metadata("a.txt")));
+        write(factory, "b.txt", "second");
+        factory.close();
+
+        try (SegmentReader reader = new SegmentReader(dir)) {
+            assertEquals("first", new String(reader.get("a.txt").getContent(), UTF_8));
+            assertEquals("second", new String(reader.get("b.txt").getContent(), UTF_8));
+        }
+    }
+
+    @Test
+    public void testClosedRecordIsIndexedBeforeTheFactoryCloses() throws Exception {
+        SegmentedOutputStreamFactory factory = new SegmentedOutputStreamFactory(dir, 1024 * 1024, 1024);
+        write(factory, "a.txt", "first");
+        write(factory, "b.txt", "second");
+
+        //as if the child died here, with the factory never closed
+        try (SegmentReader reader = new SegmentReader(dir)) {
+            assertEquals(2, reader.size());
+            assertEquals("second", new String(reader.get("b.txt").getContent(), UTF_8));
+        }
+        SegmentedOutputStreamFactory restarted = new SegmentedOutputStreamFactory(dir, 1024 * 1024, 1024);
+        assertNull(restarted.getOutputStream(metadata("a.txt")));
+        restarted.close();
+        factory.close();
+    }
+
+    private static void write(SegmentedOutputStreamFactory factory, String path, String content)
+            throws Exception {
+        Metadata metadata = metadata(path);
+        try (OutputStream os = factory.getOutputStream(metadata)) {
+            os.write(content.getBytes(UTF_8));
+            //as after a parse
+            metadata.set(Metadata.CONTENT_TYPE, "text/plain");
+        }
+    }
+
+    private static Metadata metadata(String path) {
+        Metadata metadata = new Metadata();
+        metadata.set(FSProperties.FS_REL_PATH, path);
+        return metadata;
+    }
+}
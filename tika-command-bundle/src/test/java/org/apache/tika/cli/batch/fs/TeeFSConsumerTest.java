@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch.fs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.OutputStreamFactory;
+import org.apache.tika.batch.ParserFactory;
+import org.apache.tika.batch.fs.FSFileResource;
+import org.apache.tika.batch.fs.FSProperties;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.extractor.EmbeddedDocumentExtractor;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.parser.AbstractParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.ContentHandlerFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+public class TeeFSConsumerTest {
+
+    private Path input;
+    private Map<String, ByteArrayOutputStream> text;
+    private Map<String, ByteArrayOutputStream> upper;
+    private Map<String, ByteArrayOutputStream> json;
+    private TeeFSConsumer consumer;
+
+    @Before
+    public void setUp() throws Exception {
+        input = Files.createTempDirectory("tika-tee-input");
+        text = new HashMap<>();
+        upper = new HashMap<>();
+        json = new HashMap<>();
+        List<TeeFSConsumer.Output> outputs = new ArrayList<>();
+        outputs.add(TeeFSConsumer.Output.sax(factory(text), new TextHandlerFactory(false)));
+        outputs.add(TeeFSConsumer.Output.sax(factory(upper), new TextHandlerFactory(true)));
+        outputs.add(TeeFSConsumer.Output.json(factory(json)));
+        consumer = new TeeFSConsumer(new ArrayBlockingQueue<FileResource>(1), new ParserFactory() {
+            @Override
+            public Parser getParser(TikaConfig config) {
+                return new ContainerParser();
+            }
+        }, new TextHandlerFactory(false), outputs, null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(input.toFile());
+    }
+
+    @Test
+    public void testOneParseManyOutputs() throws Exception {
+        assertTrue(consumer.processFileResource(resource("a.txt", "outer|inner")));
+        //the container and its embedded document, each once
+        assertEquals(2, ContainerParser.parses);
+        assertEquals("outer inner", get(text, "a.txt"));
+        assertEquals("OUTER INNER", get(upper, "a.txt"));
+        String list = get(json, "a.txt");
+        assertTrue(list, list.contains("X-TIKA:content=outer inner;"));
+        assertTrue(list, list.contains("X-TIKA:embedded_resource_path=/inner.txt;"));
+        assertTrue(list, list.contains("X-TIKA:content=inner;"));
+        assertEquals(0, consumer.getNumHandledExceptions());
+    }
+
+    @Test
+    public void testExistingOutputSkipped() throws Exception {
+        //as if a restarted child had already written the text
+        text.put("b.txt", null);
+        assertTrue(consumer.processFileResource(resource("b.txt", "plain")));
+        assertNull(text.get("b.txt"));
+        assertEquals("PLAIN", get(upper, "b.txt"));
+        assertTrue(get(json, "b.txt").contains("X-TIKA:content=plain;"));
+    }
+
+    private String get(Map<String, ByteArrayOutputStream> outputs, String relPath) {
+        return new String(outputs.get(relPath).toByteArray(), UTF_8);
+    }
+
+    private FileResource resource(String name, String content) throws IOException {
+        Path p = input.resolve(name);
+        Files.write(p, content.getBytes(UTF_8));
+        ContainerParser.parses = 0;
+        return new FSFileResource(input, p);
+    }
+
+    private static OutputStreamFactory factory(final Map<String, ByteArrayOutputStream> outputs) {
+        return new OutputStreamFactory() {
+            @Override
+            public OutputStream getOutputStream(Metadata metadata) {
+                String relPath = metadata.get(FSProperties.FS_REL_PATH);
+                if (outputs.containsKey(relPath)) {
+                    return null;
+                }
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                outputs.put(relPath, os);
+                return os;
+            }
+        };
+    }
+
+    /**
+     * Writes the text before a '|' and hands the rest to the embedded
+     * document extractor as "inner.txt"
+     */
+    private static class ContainerParser extends AbstractParser {
+
+        private static int parses = 0;
+
+        @Override
+        public Set<MediaType> getSupportedTypes(ParseContext context) {
+            return null;
+        }
+
+        @Override
+        public void parse(InputStream stream, ContentHandler handler, Metadata metadata,
+                          ParseContext context) throws IOException, SAXException {
+            parses++;
+            String content = IOUtils.toString(stream, UTF_8);
+            int bar = content.indexOf('|');
+            String outer = bar > -1 ? content.substring(0, bar) : content;
+            handler.characters(outer.toCharArray(), 0, outer.length());
+            if (bar > -1) {
+                Metadata embedded = new Metadata();
+                embedded.set(Metadata.RESOURCE_NAME_KEY, "inner.txt");
+                EmbeddedDocumentExtractor extractor = context.get(EmbeddedDocumentExtractor.class);
+                handler.characters(new char[]{' '}, 0, 1);
+                extractor.parseEmbedded(new ByteArrayInputStream(
+                        content.substring(bar + 1).getBytes(UTF_8)), handler, embedded, true);
+            }
+        }
+    }
+
+    private static class TextHandlerFactory implements ContentHandlerFactory {
+
+        private final boolean upperCase;
+
+        private TextHandlerFactory(boolean upperCase) {
+            this.upperCase = upperCase;
+        }
+
+        @Override
+        public ContentHandler getNewContentHandler() {
+            return new TextHandler(new ByteArrayOutputStream(), upperCase);
+        }
+
+        @Override
+        public ContentHandler getNewContentHandler(OutputStream os, String encoding) {
+            return new TextHandler(os, upperCase);
+        }
+    }
+
+    private static class TextHandler extends DefaultHandler {
+
+        private final OutputStream os;
+        private final boolean upperCase;
+        private final StringBuilder sb = new StringBuilder();
+
+        private TextHandler(OutputStream os, boolean upperCase) {
+            this.os = os;
+            this.upperCase = upperCase;
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            String s = new String(ch, start, length);
+            sb.append(s);
+            try {
+                os.write((upperCase ? s.toUpperCase(Locale.ROOT) : s).getBytes(UTF_8));
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return sb.toString();
+        }
+    }
+}
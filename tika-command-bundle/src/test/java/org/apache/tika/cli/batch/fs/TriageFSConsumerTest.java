@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.batch.fs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.tika.batch.FileResource;
+import org.apache.tika.batch.fs.FSFileResource;
+import org.apache.tika.cli.batch.TriageManifest;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TriageFSConsumerTest {
+
+    //reads a little ahead, as detectors do
+    private static final Detector DETECTOR = new Detector() {
+        @Override
+        public MediaType detect(InputStream input, Metadata metadata) throws IOException {
+            input.mark(4);
+            input.read(new byte[4]);
+            input.reset();
+            return MediaType.text("plain");
+        }
+    };
+
+    private Path input;
+    private Path manifestPath;
+
+    @Before
+    public void setUp() throws Exception {
+        input = Files.createTempDirectory("tika-triage-input");
+        manifestPath = Files.createTempDirectory("tika-triage").resolve("triage.tsv");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(input.toFile());
+        FileUtils.deleteDirectory(manifestPath.getParent().toFile());
+    }
+
+    @Test
+    public void testManifest() throws Exception {
+        String[] algorithms = TriageFSConsumer.getAlgorithms("md5,sha1");
+        assertArrayEquals(new String[]{"MD5", "SHA-1"}, algorithms);
+        TriageManifest manifest = new TriageManifest(manifestPath, algorithms);
+        TriageFSConsumer consumer = new TriageFSConsumer(
+                new ArrayBlockingQueue<FileResource>(1), DETECTOR, manifest, algorithms);
+        consumer.processFileResource(resource("a.txt", "abc"));
+        consumer.processFileResource(resource("b.txt", "abc"));
+        manifest.close();
+
+        //a restart still sees a.txt's digest, and skips the files already listed
+        manifest = new TriageManifest(manifestPath, algorithms);
+        consumer = new TriageFSConsumer(new ArrayBlockingQueue<FileResource>(1), DETECTOR, manifest, algorithms);
+        assertTrue(manifest.isListed("a.txt"));
+        consumer.processFileResource(resource("a.txt", "abc"));
+        consumer.processFileResource(resource("b.txt", "abc"));
+        consumer.processFileResource(resource("c.txt", "abc"));
+        consumer.processFileResource(resource("d.txt", "abcd"));
+        manifest.close();
+
+        List<String> lines = Files.readAllLines(manifestPath, UTF_8);
+        assertEquals(5, lines.size());
+        assertEquals("#path\tlength\tmediaType\tmd5\tsha-1\tduplicate", lines.get(0));
+        assertEquals("a.txt\t3\ttext/plain\t900150983cd24fb0d6963f7d28e17f72\t" +
+                "a9993e364706816aba3e25717850c26c9cd0d89d\t0", lines.get(1));
+        assertEquals("1", last(lines.get(2)));
+        assertEquals("1", last(lines.get(3)));
+        assertEquals("0", last(lines.get(4)));
+    }
+
+    private FileResource resource(String name, String content) throws IOException {
+        Path p = input.resolve(name);
+        Files.write(p, content.getBytes(UTF_8));
+        return new FSFileResource(input, p);
+    }
+
+    private static String last(String line) {
+        return line.substring(line.lastIndexOf('\t') + 1);
+    }
+}
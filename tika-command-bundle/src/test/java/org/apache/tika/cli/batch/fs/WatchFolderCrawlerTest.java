@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch.fs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.tika.batch.FileResource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WatchFolderCrawlerTest {
+
+    private Path input;
+    private ArrayBlockingQueue<FileResource> queue;
+    private Thread thread;
+
+    @Before
+    public void setUp() throws Exception {
+        input = Files.createTempDirectory("tika-watch");
+        queue = new ArrayBlockingQueue<>(100);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (thread != null) {
+            thread.interrupt();
+            thread.join();
+        }
+        FileUtils.deleteDirectory(input.toFile());
+    }
+
+    @Test
+    public void testPollingWaitsForFilesToSettle() throws Exception {
+        Files.write(input.resolve("there.txt"), "already here".getBytes(UTF_8));
+        WatchFolderCrawler crawler = new WatchFolderCrawler(queue, 1, input);
+        crawler.setPoll(true);
+        crawler.setPollMillis(50);
+        crawler.setSettleMillis(300);
+        start(crawler);
+        assertEquals("there.txt", take());
+
+        Path landing = input.resolve("landing.txt");
+        Files.write(landing, "part".getBytes(UTF_8));
+        Thread.sleep(150);
+        Files.write(landing, "part and the rest".getBytes(UTF_8));
+        assertEquals("landing.txt", take());
+        //added once
+        assertNull(queue.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testReplacedFileIsMarked() throws Exception {
+        Files.write(input.resolve("a.txt"), "first".getBytes(UTF_8));
+        WatchFolderCrawler crawler = new WatchFolderCrawler(queue, 1, input);
+        crawler.setPoll(true);
+        crawler.setPollMillis(50);
+        crawler.setSettleMillis(100);
+        start(crawler);
+        FileResource first = queue.poll(10, TimeUnit.SECONDS);
+        assertEquals("a.txt", first.getResourceId());
+        assertNull(first.getMetadata().get(WatchFolderCrawler.REPLACED));
+
+        Files.write(input.resolve("a.txt"), "second version".getBytes(UTF_8));
+        FileResource second = queue.poll(10, TimeUnit.SECONDS);
+        assertEquals("a.txt", second.getResourceId());
+        assertEquals("true", second.getMetadata().get(WatchFolderCrawler.REPLACED));
+    }
+
+    @Test
+    public void testMarker() throws Exception {
+        WatchFolderCrawler crawler = new WatchFolderCrawler(queue, 1, input);
+        crawler.setMarkerSuffix(".done");
+        crawler.setPollMillis(50);
+        crawler.setPoll(true);
+        start(crawler);
+        Files.write(input.resolve("report.pdf"), "pdf".getBytes(UTF_8));
+        assertNull(queue.poll(400, TimeUnit.MILLISECONDS));
+        Files.write(input.resolve("report.pdf.done"), new byte[0]);
+        assertEquals("report.pdf", take());
+        assertNull(queue.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testEventsInNewDirectories() throws Exception {
+        WatchFolderCrawler crawler = new WatchFolderCrawler(queue, 1, input);
+        crawler.setSettleMillis(100);
+        start(crawler);
+        Thread.sleep(200);
+        Path sub = Files.createDirectories(input.resolve("a").resolve("b"));
+        Files.write(sub.resolve("new.txt"), "new".getBytes(UTF_8));
+        assertEquals(input.relativize(sub.resolve("new.txt")).toString(), take());
+    }
+
+    @Test
+    public void testStopsWhenIdle() throws Exception {
+        WatchFolderCrawler crawler = new WatchFolderCrawler(queue, 1, input);
+        crawler.setPoll(true);
+        crawler.setPollMillis(50);
+        crawler.setMaxIdleMillis(200);
+        start(crawler);
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+        thread = null;
+    }
+
+    private void start(final WatchFolderCrawler crawler) {
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    crawler.start();
+                } catch (InterruptedException e) {
+                    //stopped by the test
+                }
+            }
+        });
+        thread.start();
+    }
+
+    private String take() throws InterruptedException {
+        FileResource resource = queue.poll(10, TimeUnit.SECONDS);
+        return resource == null ? null : resource.getResourceId();
+    }
+}
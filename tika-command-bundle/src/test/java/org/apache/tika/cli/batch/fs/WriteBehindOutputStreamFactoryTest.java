@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.tika.cli.batch.fs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.tika.batch.OutputStreamFactory;
+import org.apache.tika.batch.fs.FSProperties;
+import org.apache.tika.metadata.Metadata;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteBehindOutputStreamFactoryTest {
+
+    private Path outputDir;
+    private OutputStreamFactory files;
+
+    @Before
+    public void setUp() throws Exception {
+        outputDir = Files.createTempDirectory("tika-write-behind");
+        //as FSOutputStreamFactory in skip mode
+        files = new OutputStreamFactory() {
+            @Override
+            public OutputStream getOutputStream(Metadata metadata) throws IOException {
+                Path p = outputDir.resolve(metadata.get(FSProperties.FS_REL_PATH) + ".txt");
+                if (Files.exists(p)) {
+                    return null;
+                }
+                return Files.newOutputStream(p);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(outputDir.toFile());
+    }
+
+    @Test
+    public void testWritesBehind() throws Exception {
+        WriteBehindOutputStreamFactory factory = new WriteBehindOutputStreamFactory(files, 1024 * 1024, 2);
+        factory.setOutputs(outputDir, "txt");
+        factory.setSync(true);
+        byte[][] contents = new byte[20][];
+        Random random = new Random(42);
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = new byte[random.nextInt(200000)];
+            random.nextBytes(contents[i]);
+            try (OutputStream os = factory.getOutputStream(metadata("doc" + i))) {
+                os.write(contents[i]);
+            }
+        }
+        factory.close();
+        for (int i = 0; i < contents.length; i++) {
+            assertArrayEquals(contents[i], Files.readAllBytes(outputDir.resolve("doc" + i + ".txt")));
+        }
+        assertEquals(0, factory.getFailures());
+        assertEquals(contents.length, factory.getWritten() + factory.getWrittenThrough());
+    }
+
+    @Test
+    public void testWritesThroughWhenBudgetIsHeldOpen() throws Exception {
+        WriteBehindOutputStreamFactory factory = new WriteBehindOutputStreamFactory(files,
+                2 * WriteBehindOutputStreamFactory.BUFFER_SIZE, 1);
+        byte[] content = new byte[5 * WriteBehindOutputStreamFactory.BUFFER_SIZE + 17];
+        new Random(7).nextBytes(content);
+        OutputStream os = factory.getOutputStream(metadata("big"));
+        for (int i = 0; i < content.length; i += 1000) {
+            os.write(content, i, Math.min(1000, content.length - i));
+        }
+        os.close();
+        factory.close();
+        assertArrayEquals(content, Files.readAllBytes(outputDir.resolve("big.txt")));
+        assertEquals(1, factory.getWrittenThrough());
+    }
+
+    @Test
+    public void testOutputIsMovedIntoPlaceWhenWritten() throws Exception {
+        //left by a child that died while writing it
+        Path stale = outputDir.resolve("doc" + WriteBehindOutputStreamFactory.TMP_SUFFIX + ".txt");
+        Files.write(stale, new byte[]{1, 2});
+        WriteBehindOutputStreamFactory factory = new WriteBehindOutputStreamFactory(files, 1024 * 1024, 1);
+        factory.setOutputs(outputDir, "txt");
+        byte[] content = new byte[3 * WriteBehindOutputStreamFactory.BUFFER_SIZE];
+        new Random(3).nextBytes(content);
+        OutputStream os = factory.getOutputStream(metadata("doc"));
+        os.write(content);
+        //nothing is on disk until the writer has the whole output
+        assertFalse(Files.exists(stale));
+        assertFalse(Files.exists(outputDir.resolve("doc.txt")));
+        os.close();
+        OutputStream empty = factory.getOutputStream(metadata("empty"));
+        empty.close();
+        factory.close();
+        assertArrayEquals(content, Files.readAllBytes(outputDir.resolve("doc.txt")));
+        assertEquals(0, Files.size(outputDir.resolve("empty.txt")));
+        assertFalse(Files.exists(stale));
+        assertEquals(2, factory.getWritten());
+    }
+
+    @Test
+    public void testExistingOutputSkipped() throws Exception {
+        Files.write(outputDir.resolve("done.txt"), new byte[]{1});
+        WriteBehindOutputStreamFactory factory = new WriteBehindOutputStreamFactory(files, 1024 * 1024, 1);
+        assertNull(factory.getOutputStream(metadata("done")));
+        factory.setOutputs(outputDir, "txt");
+        assertNull(factory.getOutputStream(metadata("done")));
+        factory.close();
+        assertEquals(1, Files.size(outputDir.resolve("done.txt")));
+    }
+
+    @Test
+    public void testPendingOutputsWaitForTheWriter() throws Exception {
+        WriteBehindOutputStreamFactory factory = new WriteBehindOutputStreamFactory(files, 1024 * 1024, 1);
+        factory.setOutputs(outputDir, "txt");
+        PendingOutputs pendingOutputs = new PendingOutputs();
+        factory.setPendingOutputs(pendingOutputs);
+        byte[] content = new byte[3 * WriteBehindOutputStreamFactory.BUFFER_SIZE];
+        new Random(5).nextBytes(content);
+        final AtomicInteger writtenOnDisk = new AtomicInteger();
+        final AtomicInteger calls = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            final Path output = outputDir.resolve("doc" + i + ".txt");
+            try (OutputStream os = factory.getOutputStream(metadata("doc" + i))) {
+                os.write(content);
+            }
+            pendingOutputs.whenWritten("doc" + i, new PendingOutputs.Listener() {
+                @Override
+                public void written(boolean success) {
+                    calls.incrementAndGet();
+                    if (success && Files.exists(output)) {
+                        writtenOnDisk.incrementAndGet();
+                    }
+                }
+            });
+        }
+        factory.close();
+        assertEquals(10, calls.get());
+        assertEquals(10, writtenOnDisk.get());
+
+        //an input without outputs is done straight away
+        final AtomicInteger noOutputs = new AtomicInteger();
+        pendingOutputs.whenWritten("none", new PendingOutputs.Listener() {
+            @Override
+            public void written(boolean success) {
+                assertTrue(success);
+                noOutputs.incrementAndGet();
+            }
+        });
+        assertEquals(1, noOutputs.get());
+    }
+
+    private static Metadata metadata(String relPath) {
+        Metadata metadata = new Metadata();
+        metadata.set(FSProperties.FS_REL_PATH, relPath);
+        return metadata;
+    }
+}
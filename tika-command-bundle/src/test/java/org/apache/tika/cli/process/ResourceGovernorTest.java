@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ResourceGovernorTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void testThrottleAndRelease() {
+        RecordingListener listener = new RecordingListener();
+        ResourceGovernor governor = new ResourceGovernor(null, ResourcePolicy.THROTTLE, listener);
+        governor.setMaxRssBytes(100 * MB);
+
+        governor.check(usage(0, 50 * MB, 0, 10), null);
+        assertEquals(0, listener.events.size());
+
+        governor.check(usage(1000, 120 * MB, 0, 10), null);
+        governor.check(usage(2000, 130 * MB, 0, 10), null);
+        assertEquals(1, listener.events.size());
+        assertEquals("throttle", listener.events.get(0));
+
+        //under the limit, but not yet under the release threshold
+        governor.check(usage(3000, 95 * MB, 0, 10), null);
+        assertEquals(1, listener.events.size());
+
+        governor.check(usage(4000, 80 * MB, 0, 10), null);
+        assertEquals(2, listener.events.size());
+        assertEquals("release", listener.events.get(1));
+    }
+
+    @Test
+    public void testRestartOnOpenFiles() {
+        RecordingListener listener = new RecordingListener();
+        ResourceGovernor governor = new ResourceGovernor(null, ResourcePolicy.RESTART, listener);
+        governor.setMaxOpenFiles(100);
+
+        governor.check(usage(0, MB, 0, 101), null);
+        assertEquals(1, listener.events.size());
+        assertTrue(listener.events.get(0).startsWith("restart: open files"));
+    }
+
+    @Test
+    public void testCpuPercent() {
+        RecordingListener listener = new RecordingListener();
+        ResourceGovernor governor = new ResourceGovernor(null, ResourcePolicy.RESTART, listener);
+        governor.setMaxCpuPercent(150);
+
+        ResourceUsage first = usage(0, MB, 0, 10);
+        //one full core over one second
+        ResourceUsage second = usage(1000, MB, 1000, 10);
+        governor.check(second, first);
+        assertEquals(0, listener.events.size());
+
+        //two full cores
+        ResourceUsage third = usage(2000, MB, 3000, 10);
+        governor.check(third, second);
+        assertEquals(1, listener.events.size());
+    }
+
+    @Test
+    public void testLogOnlyAndNoLimits() {
+        RecordingListener listener = new RecordingListener();
+        ResourceGovernor governor = new ResourceGovernor(null, ResourcePolicy.LOG, listener);
+        assertTrue(!governor.hasLimits());
+        governor.setMaxRssBytes(MB);
+        assertTrue(governor.hasLimits());
+        governor.check(usage(0, 10 * MB, 0, 10), null);
+        assertEquals(0, listener.events.size());
+        assertNull(governor.getLastUsage());
+    }
+
+    @Test
+    public void testParsePolicy() {
+        assertEquals(ResourcePolicy.LOG, ResourcePolicy.parse(null));
+        assertEquals(ResourcePolicy.THROTTLE, ResourcePolicy.parse("Throttle"));
+        assertEquals(ResourcePolicy.RESTART, ResourcePolicy.parse("kill"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseBadPolicy() {
+        ResourcePolicy.parse("reboot");
+    }
+
+    private static ResourceUsage usage(long timestamp, long rss, long cpuMillis, int openFiles) {
+        return new ResourceUsage(timestamp, rss, cpuMillis, openFiles);
+    }
+
+    private static class RecordingListener implements ResourceGovernor.Listener {
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void throttle(boolean throttle) {
+            events.add(throttle ? "throttle" : "release");
+        }
+
+        @Override
+        public void restart(String reason) {
+            events.add("restart: " + reason);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tika.cli.process;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StandbyBatchDriverTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("tika-standby");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void testRestartsFromStandby() throws Exception {
+        StandbyBatchDriver driver = new StandbyBatchDriver(new String[]{
+                System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                "-cp", System.getProperty("java.class.path"),
+                FakeChild.class.getName(), dir.toString(), "-maxRestarts", "5"});
+        driver.execute();
+        assertEquals(2, driver.getSupervisor().getRestarts());
+        List<String> runs = Files.readAllLines(dir.resolve("runs"), UTF_8);
+        //the first child starts cold, the replacements come from the standby
+        assertEquals("cold", runs.get(0));
+        assertEquals("standby", runs.get(1));
+        assertEquals("standby", runs.get(2));
+        assertEquals(3, runs.size());
+    }
+
+    /**
+     * Asks for two restarts, then finishes.
+     */
+    public static class FakeChild {
+        public static void main(String[] args) throws Exception {
+            boolean standby = Boolean.getBoolean(StandbyBatchDriver.STANDBY_PROP);
+            if (standby) {
+                System.out.println(StandbyBatchDriver.READY);
+                System.out.flush();
+                String line = new BufferedReader(new InputStreamReader(System.in, UTF_8)).readLine();
+                if (!StandbyBatchDriver.GO.equals(line)) {
+                    System.exit(0);
+                }
+            }
+            Path runs = new File(args[0], "runs").toPath();
+            Files.write(runs, ((standby ? "standby" : "cold") + "\n").getBytes(UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            System.exit(Files.readAllLines(runs, UTF_8).size() < 3 ? 253 : 0);
+        }
+    }
+}